@@ -137,7 +137,8 @@ public class HardwareModuleWorker extends AbstractModuleWorker {
             tokenInfo.getSerialNumber().trim(),
             tokenInfo.getLabel().trim(), // PKCS11 gives us only 32 bytes.
             module.isPinVerificationPerSigning(),
-            module.isBatchSingingEnabled()
+            module.isBatchSingingEnabled(),
+            module.getSignSessionCount()
         );
 
         return token;
@@ -0,0 +1,366 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import lombok.extern.slf4j.Slf4j;
+
+import ee.ria.xroad.common.CodedException;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static iaik.pkcs.pkcs11.Token.SessionType.SERIAL_SESSION;
+
+/**
+ * Pool of sessions used for signing concurrently on a hardware token.
+ * The sessions are opened after the user has logged in to the token (the
+ * login state is shared by all sessions of the application) and each signing
+ * thread uses one session at a time. At most the given number of sessions is
+ * open at any time; a signing thread waits for a session to become idle if
+ * all of them are in use. A session that fails because of a session or
+ * device error is closed and a new one is opened in its place. When the pool
+ * is closed, on logout or deactivation of the token, the idle sessions are
+ * closed at once and the sessions in use when they are returned.
+ */
+@Slf4j
+class HardwareTokenSessionPool {
+
+    private static final long NANOS_IN_MILLISECOND = 1000000L;
+
+    private static final long DEFAULT_WAIT_TIMEOUT_MILLIS = 60000L;
+
+    private final Token token;
+
+    private final String tokenId;
+
+    private final int size;
+
+    private final long waitTimeoutMillis;
+
+    private final BlockingQueue<Session> idleSessions;
+
+    // sessions that are open, either idle or in use
+    private final AtomicInteger openSessions = new AtomicInteger();
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger busySessions = new AtomicInteger();
+
+    private final AtomicLong signatures = new AtomicLong();
+
+    private final AtomicLong failedSignatures = new AtomicLong();
+
+    private final AtomicLong reopenedSessions = new AtomicLong();
+
+    private final AtomicLong signNanos = new AtomicLong();
+
+    private final AtomicLong maxSignNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Opens the sessions of the pool.
+     * @param token the token
+     * @param tokenId the token ID, used for logging and thread names
+     * @param size the number of sessions
+     * @throws TokenException if a session cannot be opened
+     */
+    HardwareTokenSessionPool(Token token, String tokenId, int size)
+            throws TokenException {
+        this(token, tokenId, size, DEFAULT_WAIT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Opens the sessions of the pool.
+     * @param token the token
+     * @param tokenId the token ID, used for logging and thread names
+     * @param size the number of sessions
+     * @param waitTimeoutMillis how long a signing thread waits for an idle
+     * session when all sessions are in use
+     * @throws TokenException if a session cannot be opened
+     */
+    HardwareTokenSessionPool(Token token, String tokenId, int size,
+            long waitTimeoutMillis) throws TokenException {
+        this.token = token;
+        this.tokenId = tokenId;
+        this.size = size;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.idleSessions = new LinkedBlockingQueue<>(size);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                idleSessions.add(openSession());
+                openSessions.incrementAndGet();
+            }
+        } catch (TokenException e) {
+            closeIdleSessions();
+            throw e;
+        }
+
+        // One thread per session, so that a signing thread of the pool always
+        // finds an idle session unless a failed session could not be reopened.
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(size, r -> {
+            Thread thread = new Thread(r, "HardwareTokenSigner-" + tokenId
+                    + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        log.info("Opened {} signing session(s) on token '{}'", size, tokenId);
+    }
+
+    /**
+     * Runs the signing task in one of the signing threads of the pool.
+     * @param task the task that calls {@link #sign}
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Signs the data with the given key using an idle session of the pool.
+     * Waits for a session to be returned if all sessions are in use.
+     * @param mechanism the signing mechanism
+     * @param key the private key
+     * @param data the data to be signed
+     * @return the signature
+     * @throws Exception if the signing fails or no session becomes idle in
+     * time
+     */
+    byte[] sign(Mechanism mechanism, RSAPrivateKey key, byte[] data)
+            throws Exception {
+        Session session = borrowSession();
+
+        busySessions.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            session.signInit(mechanism, key);
+            byte[] signature = session.sign(data);
+
+            recordSignature(System.nanoTime() - start);
+
+            return signature;
+        } catch (Exception e) {
+            failedSignatures.incrementAndGet();
+
+            if (isSessionError(e)) {
+                log.warn("Signing session on token '{}' failed, reopening",
+                        tokenId, e);
+
+                discardSession(session);
+                session = tryReopenSession();
+            }
+
+            throw e;
+        } finally {
+            busySessions.decrementAndGet();
+            returnSession(session);
+        }
+    }
+
+    /**
+     * Stops the signing threads and closes the sessions of the pool. The
+     * sessions in use are closed as soon as they are released.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        executor.shutdown();
+        closeIdleSessions();
+
+        log.info("Closed signing sessions on token '{}'", tokenId);
+    }
+
+    /**
+     * Adds the pool statistics to the token information.
+     * @param data the token information
+     */
+    void fillInStatistics(Map<String, String> data) {
+        long count = signatures.get();
+
+        data.put("Signing sessions", Integer.toString(size));
+        data.put("Signing sessions in use",
+                Integer.toString(busySessions.get()));
+        data.put("Signatures", Long.toString(count));
+        data.put("Failed signatures", Long.toString(failedSignatures.get()));
+        data.put("Reopened signing sessions",
+                Long.toString(reopenedSessions.get()));
+        data.put("Average signing time (ms)", count == 0 ? "0"
+                : Long.toString(signNanos.get() / count / NANOS_IN_MILLISECOND));
+        data.put("Maximum signing time (ms)",
+                Long.toString(maxSignNanos.get() / NANOS_IN_MILLISECOND));
+    }
+
+    private void recordSignature(long nanos) {
+        signatures.incrementAndGet();
+        signNanos.addAndGet(nanos);
+        maxSignNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private Session borrowSession() throws Exception {
+        checkNotClosed();
+
+        Session session = idleSessions.poll();
+        if (session != null) {
+            return session;
+        }
+
+        // Replaces a session that failed and could not be reopened
+        if (reserveSession()) {
+            return reopenSession();
+        }
+
+        session = idleSessions.poll(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (session == null) {
+            checkNotClosed();
+
+            throw new CodedException(X_INTERNAL_ERROR,
+                    "No signing session available on token %s", tokenId);
+        }
+
+        return session;
+    }
+
+    private void returnSession(Session session) {
+        if (session == null) {
+            return;
+        }
+
+        if (closed || !idleSessions.offer(session)) {
+            discardSession(session);
+            return;
+        }
+
+        // The pool may have been closed while the session was returned
+        if (closed && idleSessions.remove(session)) {
+            discardSession(session);
+        }
+    }
+
+    private Session tryReopenSession() {
+        if (closed || !reserveSession()) {
+            return null;
+        }
+
+        try {
+            return reopenSession();
+        } catch (Exception e) {
+            log.error("Failed to reopen signing session on token '{}'",
+                    tokenId, e);
+
+            return null;
+        }
+    }
+
+    // Must be called after a session has been reserved
+    private Session reopenSession() throws TokenException {
+        try {
+            Session session = openSession();
+            reopenedSessions.incrementAndGet();
+
+            return session;
+        } catch (TokenException | RuntimeException e) {
+            openSessions.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean reserveSession() {
+        int open = openSessions.get();
+        while (open < size) {
+            if (openSessions.compareAndSet(open, open + 1)) {
+                return true;
+            }
+
+            open = openSessions.get();
+        }
+
+        return false;
+    }
+
+    private void discardSession(Session session) {
+        openSessions.decrementAndGet();
+        closeQuietly(session);
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new CodedException(X_INTERNAL_ERROR,
+                    "Signing sessions on token %s are closed", tokenId);
+        }
+    }
+
+    private Session openSession() throws TokenException {
+        // Signing does not modify the token, so read-only sessions suffice
+        return token.openSession(SERIAL_SESSION, false, null, null);
+    }
+
+    private void closeIdleSessions() {
+        Session session;
+        while ((session = idleSessions.poll()) != null) {
+            discardSession(session);
+        }
+    }
+
+    private void closeQuietly(Session session) {
+        try {
+            session.closeSession();
+        } catch (Exception e) {
+            log.warn("Failed to close signing session on token '{}'",
+                    tokenId, e);
+        }
+    }
+
+    private static boolean isSessionError(Exception e) {
+        if (!(e instanceof PKCS11Exception)) {
+            return false;
+        }
+
+        long errorCode = ((PKCS11Exception) e).getErrorCode();
+
+        return errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+                || errorCode == PKCS11Constants.CKR_SESSION_CLOSED
+                || errorCode == PKCS11Constants.CKR_DEVICE_ERROR
+                || errorCode == PKCS11Constants.CKR_DEVICE_REMOVED
+                || errorCode == PKCS11Constants.CKR_OPERATION_ACTIVE;
+    }
+}
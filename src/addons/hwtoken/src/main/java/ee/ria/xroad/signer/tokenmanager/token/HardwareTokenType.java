@@ -53,6 +53,8 @@ public class HardwareTokenType implements TokenType {
 
     private boolean batchSigningEnabled;
 
+    private int signSessionCount;
+
     @Override
     public String getId() {
         return CryptoUtils.encodeHex(SignerUtil.getFormattedTokenId(tokenIdFormat, moduleType, token).getBytes());
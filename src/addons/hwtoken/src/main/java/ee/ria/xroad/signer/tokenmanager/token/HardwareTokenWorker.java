@@ -40,6 +40,7 @@ import iaik.pkcs.pkcs11.objects.RSAPublicKey;
 import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import akka.actor.ActorRef;
 import lombok.extern.slf4j.Slf4j;
 
 import ee.ria.xroad.common.CodedException;
@@ -51,6 +52,8 @@ import ee.ria.xroad.signer.protocol.dto.TokenStatusInfo;
 import ee.ria.xroad.signer.protocol.message.ActivateToken;
 import ee.ria.xroad.signer.protocol.message.GenerateKey;
 import ee.ria.xroad.signer.tokenmanager.TokenManager;
+import ee.ria.xroad.signer.util.CalculateSignature;
+import ee.ria.xroad.signer.util.CalculatedSignature;
 import ee.ria.xroad.signer.util.SignerUtil;
 
 import static ee.ria.xroad.common.ErrorCodes.*;
@@ -84,6 +87,9 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
     private Session activeSession;
 
+    // sessions for concurrent signing, present while the user is logged in
+    private HardwareTokenSessionPool signingSessions;
+
     /**
      * @param tokenInfo the token info
      * @param tokenType the token type
@@ -315,6 +321,33 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    @Override
+    protected void calculateSignature(CalculateSignature signRequest,
+            ActorRef receiver) throws Exception {
+        if (signingSessions == null) {
+            super.calculateSignature(signRequest, receiver);
+            return;
+        }
+
+        // The key is looked up in the worker, only the signing is done in
+        // the signing threads of the session pool.
+        RSAPrivateKey key = getSigningKey(signRequest.getKeyId());
+        HardwareTokenSessionPool sessions = signingSessions;
+        ActorRef self = getSelf();
+
+        sessions.execute(() -> {
+            try {
+                byte[] signature = sessions.sign(SIGN_MECHANISM, key,
+                        signRequest.getData());
+
+                receiver.tell(new CalculatedSignature(signRequest, signature,
+                        null), self);
+            } catch (Exception e) {
+                signatureFailed(signRequest, receiver, self, e);
+            }
+        });
+    }
+
     @Override
     protected byte[] sign(String keyId, byte[] data) throws Exception {
         log.trace("sign({})", keyId);
@@ -330,18 +363,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             }
         }
 
-        if (!isKeyAvailable(keyId)) {
-            throw keyNotAvailable(keyId);
-        }
-
-        RSAPrivateKey key = privateKeys.get(keyId);
-        if (key == null) {
-            throw CodedException.tr(X_KEY_NOT_FOUND,
-                    "key_not_found_on_token",
-                    "Key '%s' not found on token '%s'", keyId, tokenId);
-        }
-
-        log.debug("Signing with key '{}'", keyId);
+        RSAPrivateKey key = getSigningKey(keyId);
         try {
             activeSession.signInit(SIGN_MECHANISM, key);
             return activeSession.sign(data);
@@ -356,6 +378,23 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    private RSAPrivateKey getSigningKey(String keyId) {
+        if (!isKeyAvailable(keyId)) {
+            throw keyNotAvailable(keyId);
+        }
+
+        RSAPrivateKey key = privateKeys.get(keyId);
+        if (key == null) {
+            throw CodedException.tr(X_KEY_NOT_FOUND,
+                    "key_not_found_on_token",
+                    "Key '%s' not found on token '%s'", keyId, tokenId);
+        }
+
+        log.debug("Signing with key '{}'", keyId);
+
+        return key;
+    }
+
     // ------------------------------------------------------------------------
 
     private void findKeysNotInConf() throws Exception {
@@ -497,6 +536,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             setTokenStatus(tokenId, TokenStatusInfo.OK);
             setTokenActive(tokenId, true);
             loadPrivateKeys();
+            openSigningSessions();
         } catch (PKCS11Exception e) {
             setTokenStatusFromErrorCode(e.getErrorCode());
             throw e;
@@ -509,6 +549,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
 
         privateKeys.clear();
+        closeSigningSessions();
 
         log.trace("logout()");
         try {
@@ -533,6 +574,30 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    private void openSigningSessions() {
+        // Tokens that require the PIN per signing are logged in and out
+        // around every signature, so they sign in the worker only.
+        if (signingSessions != null || tokenType.isPinVerificationPerSigning()
+                || tokenType.getSignSessionCount() <= 1) {
+            return;
+        }
+
+        try {
+            signingSessions = new HardwareTokenSessionPool(getToken(),
+                    getWorkerId(), tokenType.getSignSessionCount());
+        } catch (Exception e) {
+            log.error("Failed to open signing sessions on token '{}', signing"
+                    + " with the active session", getWorkerId(), e);
+        }
+    }
+
+    private void closeSigningSessions() {
+        if (signingSessions != null) {
+            signingSessions.close();
+            signingSessions = null;
+        }
+    }
+
     private void loadPrivateKeys() throws Exception {
         if (activeSession == null) {
             return;
@@ -591,6 +656,10 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             HardwareTokenInfo.fillInTokenInfo(getToken().getTokenInfo(),
                     tokenInfo);
 
+            if (signingSessions != null) {
+                signingSessions.fillInStatistics(tokenInfo);
+            }
+
             setTokenInfo(tokenId, tokenInfo);
         } catch (Exception e) {
             log.error("Failed to update token info", e);
@@ -0,0 +1,308 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import ee.ria.xroad.common.CodedException;
+
+import static iaik.pkcs.pkcs11.Token.SessionType.SERIAL_SESSION;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the session pool used for signing concurrently on a hardware token.
+ */
+public class HardwareTokenSessionPoolTest {
+
+    private static final Mechanism MECHANISM =
+            Mechanism.get(PKCS11Constants.CKM_RSA_PKCS);
+
+    private static final byte[] DATA = new byte[] {1, 2, 3};
+
+    private static final byte[] SIGNATURE = new byte[] {4, 5, 6};
+
+    private static final long WAIT_MILLIS = 200;
+
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch signingStarted = new CountDownLatch(1);
+
+    private final CountDownLatch finishSigning = new CountDownLatch(1);
+
+    private Token token;
+
+    private RSAPrivateKey key;
+
+    private ExecutorService signers;
+
+    private HardwareTokenSessionPool pool;
+
+    /**
+     * Creates the token that opens a new mock session every time.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        token = mock(Token.class);
+        key = mock(RSAPrivateKey.class);
+        signers = Executors.newCachedThreadPool();
+
+        when(token.openSession(SERIAL_SESSION, false, null, null))
+                .thenAnswer(invocation -> {
+                    // The sessions sign successfully unless stubbed otherwise
+                    Session session = mock(Session.class, call ->
+                            "sign".equals(call.getMethod().getName())
+                                    ? SIGNATURE : null);
+
+                    sessions.add(session);
+
+                    return session;
+                });
+    }
+
+    /**
+     * Closes the pool and releases the blocked signers.
+     */
+    @After
+    public void tearDown() {
+        finishSigning.countDown();
+        signers.shutdownNow();
+
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Tests that the sessions are borrowed for signing and returned to the
+     * pool afterwards, so no new sessions are opened.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void borrowAndReturnSessions() throws Exception {
+        pool = new HardwareTokenSessionPool(token, "test", 2);
+
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(SIGNATURE, pool.sign(MECHANISM, key, DATA));
+        }
+
+        assertEquals(2, sessions.size());
+        verify(sessions.get(0), times(3)).sign(DATA);
+        verify(sessions.get(1), times(2)).sign(DATA);
+
+        Map<String, String> statistics = getStatistics();
+        assertEquals("5", statistics.get("Signatures"));
+        assertEquals("0", statistics.get("Signing sessions in use"));
+        assertEquals("0", statistics.get("Reopened signing sessions"));
+    }
+
+    /**
+     * Tests that a signer waits for a session to be returned when all
+     * sessions of the pool are in use.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void waitForSessionWhenExhausted() throws Exception {
+        pool = new HardwareTokenSessionPool(token, "test", 1);
+        blockFirstSignature();
+
+        Future<byte[]> first = signInBackground();
+        signingStarted.await();
+
+        Future<byte[]> second = signInBackground();
+
+        try {
+            second.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("Should wait for the session in use");
+        } catch (TimeoutException expected) {
+            // expected
+        }
+
+        finishSigning.countDown();
+
+        assertArrayEquals(SIGNATURE, first.get());
+        assertArrayEquals(SIGNATURE, second.get());
+        assertEquals(1, sessions.size());
+    }
+
+    /**
+     * Tests that signing fails if no session is returned in time.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void failWhenNoSessionReturnedInTime() throws Exception {
+        pool = new HardwareTokenSessionPool(token, "test", 1, WAIT_MILLIS);
+        blockFirstSignature();
+
+        signInBackground();
+        signingStarted.await();
+
+        try {
+            pool.sign(MECHANISM, key, DATA);
+            fail("Should fail when no session is available");
+        } catch (CodedException expected) {
+            // expected
+        }
+
+        assertEquals(1, sessions.size());
+    }
+
+    /**
+     * Tests that a session that failed with a session error is closed and
+     * replaced with a new session.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void reopenBrokenSession() throws Exception {
+        pool = new HardwareTokenSessionPool(token, "test", 1);
+
+        Session broken = sessions.get(0);
+        when(broken.sign(DATA)).thenThrow(new PKCS11Exception(
+                PKCS11Constants.CKR_SESSION_HANDLE_INVALID));
+
+        try {
+            pool.sign(MECHANISM, key, DATA);
+            fail("Should fail with the session error");
+        } catch (PKCS11Exception expected) {
+            // expected
+        }
+
+        verify(broken).closeSession();
+        assertEquals(2, sessions.size());
+
+        assertArrayEquals(SIGNATURE, pool.sign(MECHANISM, key, DATA));
+        verify(sessions.get(1)).sign(DATA);
+
+        Map<String, String> statistics = getStatistics();
+        assertEquals("1", statistics.get("Failed signatures"));
+        assertEquals("1", statistics.get("Reopened signing sessions"));
+    }
+
+    /**
+     * Tests that a session is not replaced if signing fails for another
+     * reason than a session error.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void keepSessionAfterSigningError() throws Exception {
+        pool = new HardwareTokenSessionPool(token, "test", 1);
+
+        Session session = sessions.get(0);
+        when(session.sign(DATA)).thenThrow(new PKCS11Exception(
+                PKCS11Constants.CKR_KEY_HANDLE_INVALID));
+
+        try {
+            pool.sign(MECHANISM, key, DATA);
+            fail("Should fail with the signing error");
+        } catch (PKCS11Exception expected) {
+            // expected
+        }
+
+        verify(session, never()).closeSession();
+        assertEquals(1, sessions.size());
+    }
+
+    /**
+     * Tests that closing the pool on logout or deactivation of the token
+     * closes the idle sessions at once and the session in use when it is
+     * returned, and that no more signatures are made.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void closeSessionsOnLogout() throws Exception {
+        pool = new HardwareTokenSessionPool(token, "test", 2);
+        blockFirstSignature();
+
+        Future<byte[]> inProgress = signInBackground();
+        signingStarted.await();
+
+        Session inUse = sessions.get(0);
+        Session idle = sessions.get(1);
+
+        pool.close();
+
+        verify(idle).closeSession();
+        verify(inUse, never()).closeSession();
+
+        finishSigning.countDown();
+        inProgress.get();
+
+        verify(inUse).closeSession();
+
+        try {
+            pool.sign(MECHANISM, key, DATA);
+            fail("Should not sign after the pool is closed");
+        } catch (CodedException expected) {
+            // expected
+        }
+
+        assertEquals(2, sessions.size());
+    }
+
+    private void blockFirstSignature() throws Exception {
+        when(sessions.get(0).sign(DATA)).thenAnswer(invocation -> {
+            signingStarted.countDown();
+            finishSigning.await();
+
+            return SIGNATURE;
+        });
+    }
+
+    private Future<byte[]> signInBackground() {
+        return signers.submit(() -> pool.sign(MECHANISM, key, DATA));
+    }
+
+    private Map<String, String> getStatistics() {
+        Map<String, String> statistics = new HashMap<>();
+        pool.fillInStatistics(statistics);
+
+        return statistics;
+    }
+}
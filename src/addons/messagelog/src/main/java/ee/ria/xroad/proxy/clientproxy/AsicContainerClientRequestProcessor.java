@@ -50,7 +50,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -63,6 +62,7 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
 
     private static final int RANDOM_LENGTH = 10;
     private static final int MAX_RANDOM_GEN_ATTEMPTS = 1000;
+    private static final int MAX_RECORDS_IN_PAGE = 100;
 
     static final String PARAM_INSTANCE_IDENTIFIER = "xRoadInstance";
     static final String PARAM_MEMBER_CLASS = "memberClass";
@@ -228,15 +228,13 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
     private void writeAllContainers(ClientId clientId, String queryId,
             AsicContainerNameGenerator nameGen) throws Exception {
         String filename = AsicUtils.escapeString(queryId);
-        List<MessageRecord> requests =
-                timestampedRecords(clientId, queryId, false);
-        List<MessageRecord> responses =
-                timestampedRecords(clientId, queryId, true);
+        long requests = prepareRecords(clientId, queryId, false);
+        long responses = prepareRecords(clientId, queryId, true);
 
-        if (!requests.isEmpty() || !responses.isEmpty()) {
+        if (requests > 0 || responses > 0) {
             try (ZipOutputStream zos = startZipResponse(filename)) {
-                writeContainers(requests, queryId, nameGen, zos, "request");
-                writeContainers(responses, queryId, nameGen, zos, "response");
+                writeContainers(clientId, queryId, false, requests, nameGen, zos);
+                writeContainers(clientId, queryId, true, responses, nameGen, zos);
             }
         } else {
             throw new CodedExceptionWithHttpStatus(
@@ -248,11 +246,10 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
     private void writeRequestContainers(ClientId clientId, String queryId,
             AsicContainerNameGenerator nameGen) throws Exception {
         String filename = AsicUtils.escapeString(queryId) + "-request";
-        List<MessageRecord> records =
-                timestampedRecords(clientId, queryId, false);
-        if (!records.isEmpty()) {
+        long requests = prepareRecords(clientId, queryId, false);
+        if (requests > 0) {
             try (ZipOutputStream zos = startZipResponse(filename)) {
-                writeContainers(records, queryId, nameGen, zos, "request");
+                writeContainers(clientId, queryId, false, requests, nameGen, zos);
             }
         } else {
             throw new CodedExceptionWithHttpStatus(
@@ -264,11 +261,10 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
     private void writeResponseContainers(ClientId clientId, String queryId,
             AsicContainerNameGenerator nameGen) throws Exception {
         String filename = AsicUtils.escapeString(queryId) + "-response";
-        List<MessageRecord> records =
-                timestampedRecords(clientId, queryId, true);
-        if (!records.isEmpty()) {
+        long responses = prepareRecords(clientId, queryId, true);
+        if (responses > 0) {
             try (ZipOutputStream zos = startZipResponse(filename)) {
-                writeContainers(records, queryId, nameGen, zos, "response");
+                writeContainers(clientId, queryId, true, responses, nameGen, zos);
             }
         } else {
             throw new CodedExceptionWithHttpStatus(
@@ -277,45 +273,75 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
         }
     }
 
-    private List<MessageRecord> timestampedRecords(ClientId clientId,
-            String queryId, boolean response) throws Exception {
-        List<MessageRecord> allRecords =
-                logRecordManager.getByQueryId(queryId, clientId, response);
+    /**
+     * Checks that the records can be written before the response is started,
+     * since an error can no longer be reported once the response is
+     * committed. Unless time-stamping is forced, all the records must be
+     * time-stamped. Otherwise the records without a time-stamp are
+     * time-stamped here, reading the records page by page.
+     * @return the number of records to write
+     */
+    private long prepareRecords(ClientId clientId, String queryId,
+            boolean response) throws Exception {
+        if (!hasParameter(PARAM_FORCE)) {
+            long recordCount = logRecordManager.countByQueryId(queryId,
+                    clientId, response, false);
+            if (logRecordManager.countByQueryId(queryId, clientId, response,
+                    true) > 0) {
+                throw new Exception(MISSING_TIMESTAMPS_FAULT_MESSAGE);
+            }
 
-        List<MessageRecord> timestampedRecords;
-        if (hasParameter(PARAM_FORCE)) {
-            timestampedRecords = allRecords.stream()
-                    .map(this::ensureRecordTimestamped)
-                    .collect(Collectors.toList());
-        } else {
-            verifyAllRecordsTimestamped(allRecords);
-            timestampedRecords = allRecords;
+            return recordCount;
         }
-        return timestampedRecords;
-    }
 
-    private void verifyAllRecordsTimestamped(List<MessageRecord> allRecords)
-            throws Exception {
-        int allCount = allRecords.size();
-        List<MessageRecord> timestampedRecords = allRecords.stream()
-                .filter(r -> r.getTimestampRecord() != null)
-                .collect(Collectors.toList());
-        int timestampedCount = timestampedRecords.size();
-
-        if (allCount != timestampedCount) {
-            throw new Exception(MISSING_TIMESTAMPS_FAULT_MESSAGE);
-        }
+        long recordCount = 0;
+        long lastNumber = 0;
+        List<MessageRecord> records;
+        do {
+            records = logRecordManager.getByQueryId(queryId, clientId,
+                    response, lastNumber, MAX_RECORDS_IN_PAGE);
+
+            for (MessageRecord record : records) {
+                ensureRecordTimestamped(record);
+
+                lastNumber = record.getId();
+                recordCount++;
+            }
+        } while (records.size() == MAX_RECORDS_IN_PAGE);
+
+        return recordCount;
     }
 
-    private void writeContainers(List<MessageRecord> requests, String queryId,
-            AsicContainerNameGenerator nameGen, ZipOutputStream zos,
-            String type) throws Exception {
+    /**
+     * Writes the prepared records page by page, so that only one page of
+     * records is held in memory regardless of the number of records.
+     * Records logged after the records were prepared are not written.
+     */
+    private void writeContainers(ClientId clientId, String queryId,
+            boolean response, long recordCount,
+            AsicContainerNameGenerator nameGen, ZipOutputStream zos)
+                    throws Exception {
+        String type = response ? "response" : "request";
+
+        long remaining = recordCount;
+        long lastNumber = 0;
+        while (remaining > 0) {
+            List<MessageRecord> records = logRecordManager.getByQueryId(
+                    queryId, clientId, response, lastNumber,
+                    (int) Math.min(remaining, MAX_RECORDS_IN_PAGE));
+            if (records.isEmpty()) {
+                break;
+            }
+
+            for (MessageRecord record : records) {
+                String filename = nameGen.getArchiveFilename(queryId, type);
+                zos.putNextEntry(new ZipEntry(filename));
+                record.toAsicContainer().write(zos);
+                zos.closeEntry();
 
-        for (MessageRecord record : requests) {
-            String filename = nameGen.getArchiveFilename(queryId, type);
-            zos.putNextEntry(new ZipEntry(filename));
-            zos.write(record.toAsicContainer().getBytes());
-            zos.closeEntry();
+                lastNumber = record.getId();
+                remaining--;
+            }
         }
     }
 
@@ -330,8 +356,7 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
         servletResponse.setHeader("Content-Disposition", "filename=\""
                 + filename + "\"");
 
-        servletResponse.getOutputStream().write(
-                request.toAsicContainer().getBytes());
+        request.toAsicContainer().write(servletResponse.getOutputStream());
     }
 
     @SneakyThrows
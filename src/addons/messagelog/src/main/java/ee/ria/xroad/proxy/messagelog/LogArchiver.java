@@ -25,6 +25,7 @@ package ee.ria.xroad.proxy.messagelog;
 import akka.actor.UntypedActor;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.ErrorCodes;
+import ee.ria.xroad.common.asic.AsicContainer;
 import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
@@ -39,6 +40,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullOutputStream;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
@@ -49,8 +53,13 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveTransferCommand;
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
@@ -65,14 +74,40 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 @RequiredArgsConstructor
 public class LogArchiver extends UntypedActor {
 
-    private static final int MAX_RECORDS_IN_ARCHIVE = 10;
-    private static final int MAX_RECORDS_IN_PATCHS = 360;
+    // Number of time-stamp records whose message records are read with
+    // one query
+    private static final int MAX_TIMESTAMPS_IN_CHUNK = 360;
+
+    // Number of rows the JDBC driver fetches at a time while scrolling
+    // message records
+    private static final int FETCH_SIZE = 100;
+
+    // Changes are flushed and the session cleared after this many records
+    private static final int RECORDS_IN_FLUSH = 1000;
+
+    // Number of ASiC containers created ahead of the archive writer
+    private static final int CONTAINERS_IN_FLIGHT_PER_WORKER = 4;
 
     public static final String START_ARCHIVING = "doArchive";
 
     private final Path archivePath;
-    private final Path workingPath;
-    private boolean safeTransactionBatch;
+
+    private ExecutorService containerWorkers;
+    private int maxContainersInFlight;
+    private boolean archiveCreated;
+
+    @Override
+    public void preStart() throws Exception {
+        int workers = Runtime.getRuntime().availableProcessors();
+
+        containerWorkers = Executors.newFixedThreadPool(workers);
+        maxContainersInFlight = workers * CONTAINERS_IN_FLIGHT_PER_WORKER;
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        containerWorkers.shutdownNow();
+    }
 
     @Override
     public void onReceive(Object message) throws Exception {
@@ -82,20 +117,30 @@ public class LogArchiver extends UntypedActor {
             try {
                 Long maxTimestampId = doInTransaction(session -> getMaxTimestampId(session));
                 if (maxTimestampId != null) {
-                    while (handleArchive(maxTimestampId)) { }
+                    while (handleArchive(maxTimestampId)) {
+                        transferArchives();
+                    }
                 }
             } catch (Exception ex) {
                 log.error("Failed to archive log records", ex);
+            } finally {
+                transferArchives();
             }
         } else {
             unhandled(message);
         }
     }
 
+    /**
+     * Archives time-stamp records in chunks, along with their message
+     * records, until the transaction batch size is reached.
+     * @return true if there may be more records to archive
+     */
     private boolean handleArchive(long maxTimestampId) throws Exception {
         return doInTransaction(session -> {
-            List<LogRecord> records = getRecordsToBeArchived(session, maxTimestampId);
-            if (records == null || records.isEmpty()) {
+            List<TimestampRecord> timestamps = getNonArchivedTimestampRecords(
+                    session, MAX_TIMESTAMPS_IN_CHUNK, 0, maxTimestampId);
+            if (timestamps.isEmpty()) {
                 log.info("No records to be archived at this time");
                 return false;
             }
@@ -106,24 +151,25 @@ public class LogArchiver extends UntypedActor {
             int recordsArchived = 0;
 
             try (LogArchiveWriter archiveWriter = createLogArchiveWriter(session)) {
-                while (!records.isEmpty()) {
-                    archive(archiveWriter, records);
-                    runTransferCommand(getArchiveTransferCommand());
-                    recordsArchived += records.size();
+                while (!timestamps.isEmpty()) {
+                    recordsArchived += archive(session, archiveWriter, timestamps);
 
                     //flush changes (records marked as archived) and free memory
                     //used up by cached records retrieved previously in the session
                     session.flush();
                     session.clear();
 
-                    if (safeTransactionBatch
-                            && recordsArchived >= MessageLogProperties.getArchiveTransactionBatchSize()) {
+                    // Every chunk ends with its time-stamp records, so the
+                    // transaction can be committed here
+                    if (recordsArchived >= MessageLogProperties.getArchiveTransactionBatchSize()) {
                         log.info("Archived {} log records in {} ms", recordsArchived,
                                 System.currentTimeMillis() - start);
                         return true;
                     }
 
-                    records = getRecordsToBeArchived(session, maxTimestampId);
+                    long lastTimestampId = timestamps.get(timestamps.size() - 1).getId();
+                    timestamps = getNonArchivedTimestampRecords(session,
+                            MAX_TIMESTAMPS_IN_CHUNK, lastTimestampId, maxTimestampId);
                 }
             } catch (Exception e) {
                 throw new CodedException(ErrorCodes.X_INTERNAL_ERROR, e);
@@ -136,17 +182,72 @@ public class LogArchiver extends UntypedActor {
         });
     }
 
-    private void archive(LogArchiveWriter archiveWriter,
-            List<LogRecord> records) throws Exception {
-        for (LogRecord record : records) {
-            archiveWriter.write(record);
+    /**
+     * Writes all non-archived message records of the time-stamps to the
+     * archive, followed by the time-stamp records themselves. ASiC
+     * containers are created on worker threads while the records are
+     * written in their original order.
+     */
+    private int archive(Session session, LogArchiveWriter archiveWriter,
+            List<TimestampRecord> timestamps) throws Exception {
+        Deque<MessageRecord> records = new ArrayDeque<>();
+        Deque<Future<AsicContainer>> containers = new ArrayDeque<>();
+        int recordsArchived = 0;
+
+        ScrollableResults messages =
+                getNonArchivedMessageRecords(session, timestamps);
+        try {
+            boolean hasNext = messages.next();
+            while (hasNext || !records.isEmpty()) {
+                if (hasNext) {
+                    MessageRecord record = (MessageRecord) messages.get(0);
+
+                    records.add(record);
+                    containers.add(containerWorkers.submit(record::toAsicContainer));
+
+                    hasNext = messages.next();
+                    if (hasNext && records.size() < maxContainersInFlight) {
+                        continue;
+                    }
+                }
+
+                archiveWriter.write(records.poll(), containers.poll().get());
+
+                if (++recordsArchived % RECORDS_IN_FLUSH == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+        } finally {
+            containers.forEach(c -> c.cancel(true));
+            messages.close();
+        }
+
+        // The time-stamp records are reattached to the session when marked
+        // as archived, so the message records referring to them are evicted
+        session.flush();
+        session.clear();
+
+        for (TimestampRecord ts : timestamps) {
+            log.trace("Timestamp record #{} will be archived", ts.getId());
+
+            archiveWriter.write(ts);
+            recordsArchived++;
+        }
+
+        return recordsArchived;
+    }
+
+    private void transferArchives() {
+        if (archiveCreated) {
+            archiveCreated = false;
+            runTransferCommand(getArchiveTransferCommand());
         }
     }
 
     private LogArchiveWriter createLogArchiveWriter(Session session) {
         return new LogArchiveWriter(
             getArchivePath(),
-            getWorkingPath(),
             this.new HibernateLogArchiveBase(session)
         );
     }
@@ -165,53 +266,13 @@ public class LogArchiver extends UntypedActor {
         return archivePath;
     }
 
-    private Path getWorkingPath() {
-        if (!Files.isDirectory(workingPath)) {
-            throw new RuntimeException(
-                    "Log working path (" + workingPath + ") must be directory");
-        }
-
-        if (!Files.isWritable(workingPath)) {
-            throw new RuntimeException(
-                    "Log working path (" + workingPath + ") must be writable");
-        }
-
-        return workingPath;
-    }
-
-    protected List<LogRecord> getRecordsToBeArchived(Session session, long maxTimestampId) {
-        List<LogRecord> recordsToArchive = new ArrayList<>();
-        safeTransactionBatch = false;
-        int allowedInArchiveCount = MAX_RECORDS_IN_ARCHIVE;
-        for (TimestampRecord ts : getNonArchivedTimestampRecords(session, MAX_RECORDS_IN_PATCHS, maxTimestampId)) {
-            List<MessageRecord> messages =
-                    getNonArchivedMessageRecords(session, ts.getId(),
-                            allowedInArchiveCount);
-            if (allTimestampMessagesArchived(session, ts.getId())) {
-                log.trace("Timestamp record #{} will be archived",
-                        ts.getId());
-                recordsToArchive.add(ts);
-                safeTransactionBatch = true;
-            } else {
-                log.trace("Timestamp record #{} still related to"
-                                + " non-archived message records",
-                        ts.getId());
-            }
-
-            recordsToArchive.addAll(messages);
-            allowedInArchiveCount -= messages.size();
-            if (safeTransactionBatch || allowedInArchiveCount <= 0) {
-                break;
-            }
-        }
-        return recordsToArchive;
-    }
-
     @SuppressWarnings("unchecked")
     protected List<TimestampRecord> getNonArchivedTimestampRecords(
-            Session session, int maxRecordsToGet, long maxTimestampId) {
+            Session session, int maxRecordsToGet, long afterTimestampId,
+            long maxTimestampId) {
         Criteria criteria = session.createCriteria(TimestampRecord.class);
         criteria.add(Restrictions.eq("archived", false));
+        criteria.add(Restrictions.gt("id", afterTimestampId));
         criteria.add(Restrictions.le("id", maxTimestampId));
         criteria.setMaxResults(maxRecordsToGet);
         criteria.addOrder(Order.asc("id"));
@@ -227,28 +288,20 @@ public class LogArchiver extends UntypedActor {
                 .uniqueResult();
     }
 
-    @SuppressWarnings("unchecked")
-    protected List<MessageRecord> getNonArchivedMessageRecords(Session session,
-            Long timestampRecordNumber, int maxRecordsToGet) {
-        return session
-                .createCriteria(MessageRecord.class)
-                .add(Restrictions.eq("archived", false))
-                .add(Restrictions.eq("timestampRecord.id",
-                        timestampRecordNumber))
-                .setMaxResults(maxRecordsToGet)
-                .list();
-    }
+    protected ScrollableResults getNonArchivedMessageRecords(Session session,
+            List<TimestampRecord> timestamps) {
+        List<Long> timestampIds = timestamps.stream()
+                .map(TimestampRecord::getId)
+                .collect(Collectors.toList());
 
-    protected boolean allTimestampMessagesArchived(Session session,
-            Long timestampRecordNumber) {
-        Long result = (Long) session
+        return session
                 .createCriteria(MessageRecord.class)
                 .add(Restrictions.eq("archived", false))
-                .add(Restrictions.eq("timestampRecord.id",
-                        timestampRecordNumber))
-                .setProjection(Projections.rowCount())
-                .uniqueResult();
-        return result == 0;
+                .add(Restrictions.in("timestampRecord.id", timestampIds))
+                .setFetchMode("timestampRecord", FetchMode.JOIN)
+                .addOrder(Order.asc("id"))
+                .setFetchSize(FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
     }
 
     protected void markArchiveCreated(final DigestEntry lastArchive,
@@ -318,6 +371,7 @@ public class LogArchiver extends UntypedActor {
         public void markArchiveCreated(DigestEntry lastArchive)
                 throws Exception {
             LogArchiver.this.markArchiveCreated(lastArchive, session);
+            archiveCreated = true;
         }
 
         @Override
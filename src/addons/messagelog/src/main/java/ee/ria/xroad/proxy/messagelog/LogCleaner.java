@@ -22,35 +22,37 @@
  */
 package ee.ria.xroad.proxy.messagelog;
 
-import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+import java.util.concurrent.TimeUnit;
 
-import org.hibernate.Session;
 import org.joda.time.DateTime;
 
 import akka.actor.UntypedActor;
+import ee.ria.xroad.common.db.ChunkedRecordCleaner;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import lombok.extern.slf4j.Slf4j;
 
 
 
 /**
- * Deletes all archived log records from the database.
+ * Deletes all archived log records from the database. The records are
+ * deleted in chunks of consecutive ids, each in its own transaction.
  */
 @Slf4j
 public class LogCleaner extends UntypedActor {
 
     public static final String START_CLEANING = "doClean";
 
+    // The cleanup blocks the actor's thread until it is finished, so the
+    // cleaner runs on its own thread instead of the default dispatcher.
+    static final String DISPATCHER = "akka.record-cleaner-dispatcher";
+
     @Override
     public void onReceive(Object message) throws Exception {
         log.trace("onReceive({})", message);
 
         if (message.equals(START_CLEANING)) {
             try {
-                doInTransaction(session -> {
-                    handleClean(session);
-                    return null;
-                });
+                handleClean();
             } catch (Exception e) {
                 log.error("Failed to clean archived records from database", e);
             }
@@ -59,17 +61,25 @@ public class LogCleaner extends UntypedActor {
         }
     }
 
-    protected void handleClean(Session session) {
-        DateTime date = new DateTime();
-        date = date.minusDays(MessageLogProperties.getKeepRecordsForDays());
-
-        String hql = "delete AbstractLogRecord r where r.archived = true and "
-                + "r.time <= " + date.getMillis();
-        int removed = session.createQuery(hql).executeUpdate();
+    protected void handleClean() throws Exception {
+        int removed = createCleaner().clean();
         if (removed == 0) {
             log.info("No archived records to remove from database");
         } else {
             log.info("Removed {} archived records from database", removed);
         }
     }
+
+    static ChunkedRecordCleaner createCleaner() {
+        DateTime date = new DateTime();
+        date = date.minusDays(MessageLogProperties.getKeepRecordsForDays());
+
+        return new ChunkedRecordCleaner(
+                MessageLogDatabaseCtx.get(), "AbstractLogRecord",
+                "r.archived = true and r.time <= " + date.getMillis(),
+                MessageLogProperties.getCleanBatchSize(),
+                MessageLogProperties.getCleanBatchPauseMillis(),
+                TimeUnit.SECONDS.toMillis(
+                        MessageLogProperties.getCleanMaxDurationSeconds()));
+    }
 }
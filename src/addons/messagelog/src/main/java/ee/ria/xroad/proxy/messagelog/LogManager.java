@@ -27,18 +27,24 @@ import static ee.ria.xroad.common.messagelog.MessageLogProperties.getAcceptableT
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveInterval;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getCleanInterval;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getHashAlg;
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.getSaveBatchSize;
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.getSaveBatchWindow;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.shouldTimestampImmediately;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
 import static ee.ria.xroad.proxy.messagelog.LogArchiver.START_ARCHIVING;
 import static ee.ria.xroad.proxy.messagelog.LogCleaner.START_CLEANING;
 import static ee.ria.xroad.proxy.messagelog.TaskQueue.START_TIMESTAMPING;
+import static ee.ria.xroad.proxy.messagelog.TaskQueue.TASK_QUEUE_EMPTY;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.nio.file.Paths;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.joda.time.DateTime;
 import org.quartz.JobDataMap;
@@ -51,16 +57,20 @@ import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.CommonMessages;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.DiagnosticsStatus;
 import ee.ria.xroad.common.DiagnosticsUtils;
-import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.messagelog.AbstractLogManager;
+import ee.ria.xroad.common.messagelog.LogMessage;
 import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
@@ -68,6 +78,7 @@ import ee.ria.xroad.common.messagelog.TimestampRecord;
 import ee.ria.xroad.common.signature.SignatureData;
 import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.common.util.MessageSendingJob;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import scala.concurrent.Await;
@@ -91,9 +102,34 @@ public class LogManager extends AbstractLogManager {
     static final String ARCHIVER_NAME = "RequestLogArchiver";
     static final String CLEANER_NAME = "RequestLogCleaner";
 
-    private final LogRecordManager logRecordManager = new LogRecordManager();
+    static final String SAVE_MESSAGE_RECORDS = "SaveMessageRecords";
+
+    // Names of the message record saving metrics
+    static final String SAVE_BATCH_TIME = "messagelog.SaveBatchTime";
+    static final String SAVE_BATCH_SIZE = "messagelog.SaveBatchSize";
+    static final String SAVE_BATCH_FAILURES = "messagelog.SaveBatchFailures";
 
+    private final LogRecordManager logRecordManager = new LogRecordManager();
 
+    // Message records waiting to be saved in one transaction and the
+    // senders waiting for them to be saved.
+    private final List<MessageRecord> pendingRecords = new ArrayList<>();
+    private final List<ActorRef> pendingSenders = new ArrayList<>();
+    private boolean saveScheduled;
+
+    // Number of message records waiting to be time-stamped, or -1 if not
+    // known. Kept up to date as records are saved and time-stamped, so a
+    // non-empty queue need not be counted on every time-stamping failure.
+    // The count is invalidated whenever saving fails, since the database
+    // may then be in either state, and reset when the task queue finds no
+    // records to time-stamp. A count that is too small is harmless, as it
+    // is verified from the database before the queue is assumed empty.
+    private final AtomicLong timestampTaskCount = new AtomicLong(-1);
+
+    // Metrics of the group-committed batches
+    private final Timer saveBatchTime;
+    private final Histogram saveBatchSize;
+    private final Counter saveBatchFailures;
 
     // Date at which a time-stamping first failed.
     private DateTime timestampFailed;
@@ -103,6 +139,11 @@ public class LogManager extends AbstractLogManager {
     LogManager(JobManager jobManager) throws Exception {
         super(jobManager);
 
+        MetricRegistry metrics = MetricRegistryHolder.getInstance().getMetrics();
+        saveBatchTime = metrics.timer(SAVE_BATCH_TIME);
+        saveBatchSize = metrics.histogram(SAVE_BATCH_SIZE);
+        saveBatchFailures = metrics.counter(SAVE_BATCH_FAILURES);
+
         createTaskQueue();
 
         createTimestamper();
@@ -145,7 +186,9 @@ public class LogManager extends AbstractLogManager {
     }
 
     private void createCleaner(JobManager jobManager) {
-        getContext().actorOf(getCleanerImpl(), CLEANER_NAME);
+        getContext().actorOf(
+                getCleanerImpl().withDispatcher(LogCleaner.DISPATCHER),
+                CLEANER_NAME);
 
         registerCronJob(jobManager, CLEANER_NAME, START_CLEANING,
                 getCleanInterval());
@@ -193,6 +236,13 @@ public class LogManager extends AbstractLogManager {
             } else if (message instanceof SaveTimestampedDataMessage) {
                 SaveTimestampedDataMessage data = (SaveTimestampedDataMessage) message;
                 saveTimestampRecord(data.getTimestampSucceeded());
+            } else if (message instanceof LogMessage && shouldSaveInBatches()) {
+                queueMessageRecord((LogMessage) message);
+            } else if (SAVE_MESSAGE_RECORDS.equals(message)) {
+                saveScheduled = false;
+                savePendingMessageRecords();
+            } else if (TASK_QUEUE_EMPTY.equals(message)) {
+                timestampTaskCount.set(0);
             } else {
                 super.onReceive(message);
             }
@@ -201,6 +251,12 @@ public class LogManager extends AbstractLogManager {
         }
     }
 
+    @Override
+    public void postStop() throws Exception {
+        savePendingMessageRecords();
+        super.postStop();
+    }
+
     // ------------------------------------------------------------------------
 
     protected Props getTaskQueueImpl() {
@@ -214,8 +270,7 @@ public class LogManager extends AbstractLogManager {
     protected Props getArchiverImpl() {
         return Props.create(
             LogArchiver.class,
-            Paths.get(MessageLogProperties.getArchivePath()),
-            Paths.get(SystemProperties.getTempFilesPath())
+            Paths.get(MessageLogProperties.getArchivePath())
         );
     }
 
@@ -259,6 +314,11 @@ public class LogManager extends AbstractLogManager {
                                               SignatureData signature, boolean clientSide) throws Exception {
         log.trace("saveMessageRecord()");
 
+        return saveMessageRecord(createMessageRecord(message, signature, clientSide));
+    }
+
+    private MessageRecord createMessageRecord(SoapMessageImpl message,
+            SignatureData signature, boolean clientSide) throws Exception {
         String loggedMessage = new SoapMessageBodyManipulator().getLoggableMessageText(message, clientSide);
 
         MessageRecord messageRecord =
@@ -279,15 +339,118 @@ public class LogManager extends AbstractLogManager {
         messageRecord.setSignatureHash(
                 signatureHash(signature.getSignatureXml()));
 
-        return saveMessageRecord(messageRecord);
+        return messageRecord;
     }
 
     protected MessageRecord saveMessageRecord(MessageRecord messageRecord)
             throws Exception {
-        logRecordManager.saveMessageRecord(messageRecord);
+        try {
+            logRecordManager.saveMessageRecord(messageRecord);
+        } catch (Exception e) {
+            invalidateTimestampTaskCount();
+            throw e;
+        }
+
+        addTimestampTasks(1);
         return messageRecord;
     }
 
+    protected void saveMessageRecords(List<MessageRecord> messageRecords)
+            throws Exception {
+        try {
+            logRecordManager.saveMessageRecords(messageRecords);
+        } catch (Exception e) {
+            invalidateTimestampTaskCount();
+            throw e;
+        }
+
+        addTimestampTasks(messageRecords.size());
+    }
+
+    /**
+     * Records are saved in batches only if they need not be time-stamped
+     * right after saving.
+     */
+    private static boolean shouldSaveInBatches() {
+        return getSaveBatchSize() > 1 && !shouldTimestampImmediately();
+    }
+
+    /**
+     * Adds the logged message to the pending batch. The sender gets the
+     * reply after the batch has been committed, so a message is never
+     * acknowledged before it is stored.
+     */
+    private void queueMessageRecord(LogMessage message) throws Exception {
+        verifyCanLogMessage();
+
+        pendingRecords.add(createMessageRecord(message.getMessage(),
+                message.getSignature(), message.isClientSide()));
+        pendingSenders.add(getSender());
+
+        if (pendingRecords.size() >= getSaveBatchSize()) {
+            savePendingMessageRecords();
+        } else if (!saveScheduled) {
+            saveScheduled = true;
+            scheduleSave();
+        }
+    }
+
+    private void scheduleSave() {
+        int window = getSaveBatchWindow();
+        if (window > 0) {
+            getContext().system().scheduler().scheduleOnce(
+                    Duration.create(window, TimeUnit.MILLISECONDS), getSelf(),
+                    SAVE_MESSAGE_RECORDS, getContext().dispatcher(), getSelf());
+        } else {
+            // Messages already in the mailbox are queued before this one
+            getSelf().tell(SAVE_MESSAGE_RECORDS, getSelf());
+        }
+    }
+
+    private void savePendingMessageRecords() {
+        if (pendingRecords.isEmpty()) {
+            return;
+        }
+
+        List<MessageRecord> records = new ArrayList<>(pendingRecords);
+        List<ActorRef> senders = new ArrayList<>(pendingSenders);
+
+        pendingRecords.clear();
+        pendingSenders.clear();
+
+        Timer.Context saveTime = saveBatchTime.time();
+        try {
+            saveMessageRecords(records);
+        } catch (Exception e) {
+            saveBatchFailures.inc();
+
+            log.error("Failed to save {} message records in one transaction, "
+                    + "saving them one by one", records.size(), e);
+
+            saveMessageRecordsOneByOne(records, senders);
+            return;
+        }
+
+        long saveMillis = TimeUnit.NANOSECONDS.toMillis(saveTime.stop());
+        saveBatchSize.update(records.size());
+
+        log.debug("Saved {} message records in {} ms", records.size(), saveMillis);
+
+        senders.forEach(s -> s.tell(new Object(), getSelf()));
+    }
+
+    private void saveMessageRecordsOneByOne(List<MessageRecord> records,
+            List<ActorRef> senders) {
+        for (int i = 0; i < records.size(); i++) {
+            try {
+                saveMessageRecord(records.get(i));
+                senders.get(i).tell(new Object(), getSelf());
+            } catch (Exception e) {
+                senders.get(i).tell(e, getSelf());
+            }
+        }
+    }
+
     /**
      * Only externally use this method from tests. Otherwise send message to this actor.
      * Calls "atomic" / synchronized method storeTimestampAndSetStatus, so that we can trust in setTimestampFailed
@@ -328,6 +491,7 @@ public class LogManager extends AbstractLogManager {
             setTimestampSucceeded();
         } catch (Exception e) {
             log.error("Failed to save time-stamp record to database", e);
+            invalidateTimestampTaskCount();
             setTimestampFailedRegardlessOfQueue(new DateTime());
             throw e;
         }
@@ -341,8 +505,32 @@ public class LogManager extends AbstractLogManager {
      */
     protected void persistTimestampRecord(Timestamper.TimestampSucceeded message,
                                           TimestampRecord timestampRecord) throws Exception {
-        logRecordManager.saveTimestampRecord(timestampRecord,
-                message.getMessageRecords(), message.getHashChains());
+        int timestamped = logRecordManager.saveTimestampRecord(
+                timestampRecord, message.getMessageRecords(),
+                message.getHashChains());
+        addTimestampTasks(-timestamped);
+    }
+
+    /**
+     * Adjusts the number of message records waiting to be time-stamped.
+     * Only externally use this method from tests.
+     * @param delta the number of records added to (or removed from) the queue
+     */
+    void addTimestampTasks(long delta) {
+        // A count going below zero has drifted and is no longer known
+        timestampTaskCount.getAndUpdate(count -> count < 0 || count + delta < 0 ? -1 : count + delta);
+    }
+
+    private void invalidateTimestampTaskCount() {
+        timestampTaskCount.set(-1);
+    }
+
+    /**
+     * Only externally use this method from tests.
+     * @return the number of message records waiting to be time-stamped, or -1 if not known
+     */
+    long getTimestampTaskCount() {
+        return timestampTaskCount.get();
     }
 
     boolean isTimestampFailed() {
@@ -401,10 +589,16 @@ public class LogManager extends AbstractLogManager {
      * false if it is not empty OR we cannot determine the size
      */
     private boolean queueIsKnownToBeEmpty() {
+        if (timestampTaskCount.get() > 0) {
+            return false;
+        }
+
+        // Counting an empty queue is an index-only lookup, so the count is
+        // verified from the database before the queue is assumed empty
         try {
-            if (TaskQueue.isTimestampTasksEmpty()) {
-                return true;
-            }
+            long count = TaskQueue.countTimestampTasks();
+            timestampTaskCount.set(count);
+            return count == 0;
         } catch (TaskQueue.CannotDetermineTaskQueueSize e) {
             log.error("Cannot determine task queue size", e);
         }
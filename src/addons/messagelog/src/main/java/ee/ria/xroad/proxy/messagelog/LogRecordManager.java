@@ -22,6 +22,7 @@
  */
 package ee.ria.xroad.proxy.messagelog;
 
+import com.google.common.collect.Lists;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.messagelog.AbstractLogRecord;
 import ee.ria.xroad.common.messagelog.LogRecord;
@@ -31,8 +32,12 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -45,6 +50,12 @@ import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransactio
 @Slf4j
 public class LogRecordManager {
 
+    private static final int MAX_IDS_IN_UPDATE = 1000;
+
+    private static final String SET_TIMESTAMPED_SQL = "update logrecord "
+            + "set timestamprecord = ?, timestamphashchain = ?, "
+            + "signaturehash = null where id = ? and timestamprecord is null";
+
     /**
      * Returns a log record for a given message Query Id, start and end time.
      * @param queryId the message query id
@@ -78,19 +89,52 @@ public class LogRecordManager {
     }
 
     /**
-     * Returns a list of log records for a given message Query Id and sender Client Id.
+     * Returns a page of log records for a given message Query Id and sender
+     * Client Id. The records are ordered by their numbers, so the next page
+     * starts after the number of the last record in the previous page.
      * @param queryId the message query id
      * @param clientId the sender client id
-     * @param isResponse whether the response record should be retrieved
-     * @return the log record list or empty list, if no log records were not found in database.
+     * @param isResponse whether the response records should be retrieved
+     * @param afterNumber only records with greater numbers are retrieved
+     * @param maxRecords the maximum number of records to retrieve
+     * @return the log record list or empty list, if no more log records were found in database.
      * @throws Exception if an error occurs while communicating with database
      */
     public List<MessageRecord> getByQueryId(String queryId, ClientId clientId,
-            boolean isResponse) throws Exception {
-        log.trace("getByQueryId({}, {}, {})", queryId, clientId, isResponse);
+            boolean isResponse, long afterNumber, int maxRecords)
+                    throws Exception {
+        log.trace("getByQueryId({}, {}, {}, {})", queryId, clientId, isResponse,
+                afterNumber);
 
         return doInTransaction(session -> getMessageRecords(session, queryId,
-                clientId, isResponse));
+                clientId, isResponse, afterNumber, maxRecords));
+    }
+
+    /**
+     * Returns the number of log records for a given message Query Id and
+     * sender Client Id.
+     * @param queryId the message query id
+     * @param clientId the sender client id
+     * @param isResponse whether the response records should be counted
+     * @param notTimestampedOnly whether only records without time-stamp
+     * should be counted
+     * @return the number of log records
+     * @throws Exception if an error occurs while communicating with database
+     */
+    public long countByQueryId(String queryId, ClientId clientId,
+            boolean isResponse, boolean notTimestampedOnly) throws Exception {
+        log.trace("countByQueryId({}, {}, {})", queryId, clientId, isResponse);
+
+        return doInTransaction(session -> {
+            Criteria criteria = createRecordCriteria(session, queryId,
+                    clientId, isResponse);
+            if (notTimestampedOnly) {
+                criteria.add(Restrictions.isNull("timestampRecord"));
+            }
+
+            return (Long) criteria.setProjection(Projections.rowCount())
+                    .uniqueResult();
+        });
     }
 
     /**
@@ -118,6 +162,22 @@ public class LogRecordManager {
         });
     }
 
+    /**
+     * Saves the message records to database in one transaction.
+     * @param messageRecords the message records to be saved
+     * @throws Exception if an error occurs while communicating with database
+     */
+    public void saveMessageRecords(List<MessageRecord> messageRecords)
+            throws Exception {
+        doInTransaction(session -> {
+            for (MessageRecord messageRecord : messageRecords) {
+                save(session, messageRecord);
+            }
+
+            return null;
+        });
+    }
+
     /**
      * Saves the message record in the database.
      * @param messageRecord the message record to be updated
@@ -137,16 +197,16 @@ public class LogRecordManager {
      * @param timestampRecord the time-stamp record to be saved
      * @param timestampedLogRecords the message records that were time-stamped
      * @param hashChains the time-stamp hash chains for each message record
+     * @return the number of message records associated with the time-stamp
      * @throws Exception if an error occurs while communicating with database
      */
-    public void saveTimestampRecord(TimestampRecord timestampRecord,
+    public int saveTimestampRecord(TimestampRecord timestampRecord,
             Long[] timestampedLogRecords, String[] hashChains)
                     throws Exception {
-        doInTransaction(session -> {
+        return doInTransaction(session -> {
                 save(session, timestampRecord);
-                setMessageRecordsTimestamped(session, timestampedLogRecords,
-                        timestampRecord, hashChains);
-                return null;
+                return setMessageRecordsTimestamped(session,
+                        timestampedLogRecords, timestampRecord, hashChains);
         });
     }
 
@@ -168,9 +228,9 @@ public class LogRecordManager {
      * @param messageRecords the message records
      * @param timestampRecord the time-stamp record
      * @param hashChains the time-stamp hash chains
-     * @throws Exception if an error occurs while communicating with database
+     * @return the number of message records updated
      */
-    protected void setMessageRecordsTimestamped(Session session,
+    protected int setMessageRecordsTimestamped(Session session,
             Long[] messageRecords, TimestampRecord timestampRecord,
             String[] hashChains) {
         if (log.isTraceEnabled()) {
@@ -184,27 +244,68 @@ public class LogRecordManager {
                     "Must have hash chain for each log record");
         }
 
-        for (int i = 0; i < messageRecords.length; i++) {
-            String hashChain = hashChains != null ? hashChains[i] : null;
-            setMessageRecordTimestamped(session, messageRecords[i],
-                    timestampRecord.getId(), hashChain);
+        if (hashChains == null) {
+            return setMessageRecordsTimestamped(session, messageRecords,
+                    timestampRecord.getId());
+        } else {
+            return setMessageRecordsTimestamped(session, messageRecords,
+                    timestampRecord.getId(), hashChains);
         }
     }
 
-    private void setMessageRecordTimestamped(Session session,
-            Long messageRecordId, Long timestampRecordId, String hashChain) {
-        log.trace("setMessageRecordTimestamped({})", messageRecordId);
-
+    /**
+     * Updates the message records using as few statements as possible,
+     * since all the records get the same values.
+     */
+    private static int setMessageRecordsTimestamped(Session session,
+            Long[] messageRecords, Long timestampRecordId) {
         String query = "update MessageRecord set timestampRecord = :ts, "
-                + "timestampHashChain = :hc, "
-                + "signatureHash = null where id = :id "
+                + "timestampHashChain = null, "
+                + "signatureHash = null where id in (:ids) "
                 + "and timestampRecord = null";
 
-        session.createQuery(query)
-            .setString("hc", hashChain)
-            .setLong("ts", timestampRecordId)
-            .setLong("id", messageRecordId)
-            .executeUpdate();
+        int updated = 0;
+        for (List<Long> ids : Lists.partition(Arrays.asList(messageRecords),
+                MAX_IDS_IN_UPDATE)) {
+            updated += session.createQuery(query)
+                .setLong("ts", timestampRecordId)
+                .setParameterList("ids", ids)
+                .executeUpdate();
+        }
+
+        return updated;
+    }
+
+    /**
+     * Updates the message records with their own hash chains using a single
+     * JDBC batch.
+     */
+    private static int setMessageRecordsTimestamped(Session session,
+            Long[] messageRecords, Long timestampRecordId,
+            String[] hashChains) {
+        // The time-stamp record must be in the database before it can be
+        // referenced by statements bypassing the session
+        session.flush();
+
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SET_TIMESTAMPED_SQL)) {
+                for (int i = 0; i < messageRecords.length; i++) {
+                    statement.setLong(1, timestampRecordId);
+                    statement.setString(2, hashChains[i]);
+                    statement.setLong(3, messageRecords[i]);
+                    statement.addBatch();
+                }
+
+                int updated = 0;
+                for (int count : statement.executeBatch()) {
+                    // Drivers may report success without a row count
+                    updated += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                }
+
+                return updated;
+            }
+        });
     }
 
     private LogRecord getLogRecord(Session session, Long number) {
@@ -232,9 +333,13 @@ public class LogRecordManager {
 
     @SneakyThrows
     private List<MessageRecord> getMessageRecords(Session session,
-            String queryId, ClientId clientId, boolean isResponse) {
+            String queryId, ClientId clientId, boolean isResponse,
+            long afterNumber, int maxRecords) {
         Criteria criteria = createRecordCriteria(session, queryId, clientId,
                 isResponse);
+        criteria.add(Restrictions.gt("id", afterNumber));
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(maxRecords);
         return criteria.list();
     }
 
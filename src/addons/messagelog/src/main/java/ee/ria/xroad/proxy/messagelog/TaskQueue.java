@@ -49,6 +49,8 @@ public class TaskQueue extends UntypedActor {
 
     public static final String START_TIMESTAMPING = "StartTimestamping";
 
+    static final String TASK_QUEUE_EMPTY = "TaskQueueEmpty";
+
     @Override
     public void onReceive(Object message) throws Exception {
         log.trace("onReceive({})", message);
@@ -107,6 +109,8 @@ public class TaskQueue extends UntypedActor {
 
         if (timestampTasks.isEmpty()) {
             log.trace("Nothing to time-stamp, task queue is empty");
+
+            getContext().parent().tell(TASK_QUEUE_EMPTY, getSelf());
             return;
         }
 
@@ -132,13 +136,12 @@ public class TaskQueue extends UntypedActor {
     }
 
     /**
-     * @return whether timestamping task queue is empty or not
+     * @return the number of message records waiting to be time-stamped
      * @throws CannotDetermineTaskQueueSize if queue status could not be determined
      */
-    public static boolean isTimestampTasksEmpty() throws CannotDetermineTaskQueueSize {
+    public static long countTimestampTasks() throws CannotDetermineTaskQueueSize {
         try {
-            Long number = doInTransaction(TaskQueue::getTimestampTasksCount);
-            return number.longValue() == 0;
+            return doInTransaction(TaskQueue::getTimestampTasksCount);
         } catch (Exception e) {
             throw new CannotDetermineTaskQueueSize("could not read timestamp task queue status", e);
         }
@@ -167,7 +170,8 @@ public class TaskQueue extends UntypedActor {
 
     static String getTaskQueueQuery() {
         return "select new " + Task.class.getName() + "(m.id, m.signatureHash) "
-                + "from MessageRecord m where m.signatureHash is not null";
+                + "from MessageRecord m where m.signatureHash is not null "
+                + "order by m.id";
     }
 
     static String getTaskQueueSizeQuery() {
@@ -0,0 +1,257 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.cleanUpDatabase;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.AbstractLogRecord;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.TimestampRecord;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+/**
+ * Tests archiving more log records than are read with one query.
+ */
+public class LogArchiverTest {
+
+    // More than the time-stamp records read in one chunk
+    private static final int TIMESTAMPS = 400;
+
+    private static final int MESSAGES_PER_TIMESTAMP = 2;
+
+    private static final int MESSAGES = TIMESTAMPS * MESSAGES_PER_TIMESTAMP;
+
+    private static final ClientId CLIENT =
+            ClientId.create("EE", "BUSINESS", "consumer");
+
+    @Rule
+    public TemporaryFolder archiveDir = new TemporaryFolder();
+
+    private final LogRecordManager logRecordManager = new LogRecordManager();
+
+    private ActorSystem actorSystem;
+
+    /**
+     * Set up the database and the archive directory.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        initForTest();
+
+        System.setProperty(MessageLogProperties.ARCHIVE_PATH,
+                archiveDir.getRoot().getPath());
+
+        actorSystem = ActorSystem.create("Proxy",
+                ConfigFactory.load().getConfig("proxy"));
+    }
+
+    /**
+     * Cleanup test environment for other tests.
+     * @throws Exception in case of any unexpected errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        actorSystem.shutdown();
+        cleanUpDatabase();
+
+        System.clearProperty(MessageLogProperties.ARCHIVE_PATH);
+        System.clearProperty(MessageLogProperties.ARCHIVE_TRANSACTION_BATCH);
+    }
+
+    /**
+     * Archives time-stamp records in several chunks within one transaction.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void archiveAcrossTimestampChunks() throws Exception {
+        List<Long> messageRecordIds = saveTimestampedRecords();
+
+        archive();
+
+        assertEquals(0, countNonArchivedRecords());
+        assertEquals(messageRecordIds, getArchivedMessageRecordIds());
+    }
+
+    /**
+     * Archives time-stamp records in several transactions.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void archiveInSeveralTransactions() throws Exception {
+        System.setProperty(MessageLogProperties.ARCHIVE_TRANSACTION_BATCH,
+                "100");
+
+        List<Long> messageRecordIds = saveTimestampedRecords();
+
+        archive();
+
+        assertEquals(0, countNonArchivedRecords());
+        assertEquals(messageRecordIds, getArchivedMessageRecordIds());
+    }
+
+    /**
+     * Message records that are not time-stamped yet must be left for later
+     * archiving.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void leaveNotTimestampedRecords() throws Exception {
+        List<Long> messageRecordIds = saveTimestampedRecords();
+
+        saveMessageRecords(MESSAGES_PER_TIMESTAMP);
+
+        archive();
+
+        assertEquals(MESSAGES_PER_TIMESTAMP, countNonArchivedRecords());
+        assertEquals(messageRecordIds, getArchivedMessageRecordIds());
+    }
+
+    private void archive() {
+        TestActorRef<LogArchiver> archiver = TestActorRef.create(actorSystem,
+                Props.create(LogArchiver.class, archiveDir.getRoot().toPath()));
+
+        archiver.tell(LogArchiver.START_ARCHIVING, ActorRef.noSender());
+    }
+
+    private List<Long> saveTimestampedRecords() throws Exception {
+        List<Long> ids = new ArrayList<>();
+
+        for (int i = 0; i < TIMESTAMPS; i++) {
+            List<MessageRecord> records =
+                    saveMessageRecords(MESSAGES_PER_TIMESTAMP);
+
+            Long[] recordIds = records.stream().map(MessageRecord::getId)
+                    .toArray(Long[]::new);
+
+            TimestampRecord timestampRecord = new TimestampRecord();
+            timestampRecord.setTime(System.currentTimeMillis());
+            timestampRecord.setTimestamp(
+                    CryptoUtils.encodeBase64("timestamp".getBytes()));
+
+            logRecordManager.saveTimestampRecord(timestampRecord, recordIds,
+                    null);
+
+            Collections.addAll(ids, recordIds);
+        }
+
+        assertEquals(MESSAGES, ids.size());
+
+        return ids;
+    }
+
+    private List<MessageRecord> saveMessageRecords(int count)
+            throws Exception {
+        String message = createMessage().getXml();
+        String signature = createSignature().getSignatureXml();
+
+        List<MessageRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MessageRecord record = new MessageRecord("query", message,
+                    signature, false, CLIENT);
+            record.setTime(System.currentTimeMillis());
+            record.setSignatureHash("signatureHash");
+            records.add(record);
+        }
+
+        logRecordManager.saveMessageRecords(records);
+
+        return records;
+    }
+
+    private static long countNonArchivedRecords() throws Exception {
+        return doInTransaction(session -> (Long) session
+                .createCriteria(AbstractLogRecord.class)
+                .add(Restrictions.eq("archived", false))
+                .setProjection(Projections.rowCount())
+                .uniqueResult());
+    }
+
+    /**
+     * @return ids of the archived message records, read from the database,
+     * after checking that the archive files contain a container for each
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> getArchivedMessageRecordIds() throws Exception {
+        List<Long> ids = doInTransaction(session -> session
+                .createCriteria(MessageRecord.class)
+                .add(Restrictions.eq("archived", true))
+                .setProjection(Projections.id())
+                .addOrder(Order.asc("id"))
+                .list());
+
+        assertEquals(ids.size(), countArchivedContainers());
+
+        return ids;
+    }
+
+    private int countArchivedContainers() throws Exception {
+        File[] archives = archiveDir.getRoot().listFiles(
+                (dir, name) -> name.startsWith("mlog-")
+                        && name.endsWith(".zip"));
+        assertTrue(archives.length > 0);
+
+        int containers = 0;
+        for (File archive : archives) {
+            try (ZipFile zip = new ZipFile(archive)) {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (!"linkinginfo".equals(entry.getName())) {
+                        containers++;
+                    }
+                }
+            }
+        }
+
+        return containers;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.cleanUpDatabase;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.AbstractLogRecord;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+
+/**
+ * Tests deleting archived log records in chunks.
+ */
+public class LogCleanerTest {
+
+    private static final ClientId CLIENT =
+            ClientId.create("EE", "BUSINESS", "consumer");
+
+    // Older than the default number of days to keep the records for
+    private static final long OUTDATED_TIME =
+            System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31);
+
+    private final LogRecordManager logRecordManager = new LogRecordManager();
+
+    /**
+     * Set up the database.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        initForTest();
+    }
+
+    /**
+     * Cleanup test environment for other tests.
+     * @throws Exception in case of any unexpected errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        cleanUpDatabase();
+
+        System.clearProperty(MessageLogProperties.CLEAN_BATCH_SIZE);
+        System.clearProperty(MessageLogProperties.CLEAN_BATCH_PAUSE_MILLIS);
+        System.clearProperty(MessageLogProperties.CLEAN_MAX_DURATION_SECONDS);
+    }
+
+    /**
+     * Deletes the outdated archived records in several chunks and leaves the
+     * records in between them.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void removeArchivedRecordsInChunks() throws Exception {
+        System.setProperty(MessageLogProperties.CLEAN_BATCH_SIZE, "10");
+        System.setProperty(MessageLogProperties.CLEAN_BATCH_PAUSE_MILLIS, "0");
+
+        for (int i = 0; i < 25; i++) {
+            saveMessageRecords(3, true, OUTDATED_TIME);
+            saveMessageRecords(1, false, OUTDATED_TIME);
+            saveMessageRecords(1, true, System.currentTimeMillis());
+        }
+
+        assertEquals(75, LogCleaner.createCleaner().clean());
+
+        assertEquals(50, countRecords());
+        assertEquals(0, countOutdatedArchivedRecords());
+
+        assertEquals(0, LogCleaner.createCleaner().clean());
+    }
+
+    /**
+     * Stops deleting when the time budget is used up and continues on the
+     * next run.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void stopWhenMaxDurationExceeded() throws Exception {
+        System.setProperty(MessageLogProperties.CLEAN_BATCH_SIZE, "1");
+        System.setProperty(MessageLogProperties.CLEAN_BATCH_PAUSE_MILLIS, "20");
+        System.setProperty(MessageLogProperties.CLEAN_MAX_DURATION_SECONDS, "1");
+
+        // Deleting all the records takes at least 200 pauses, i.e. 4 seconds
+        saveMessageRecords(200, true, OUTDATED_TIME);
+
+        int removed = LogCleaner.createCleaner().clean();
+
+        assertTrue("Removed " + removed, removed > 0 && removed < 200);
+        assertEquals(200 - removed, countOutdatedArchivedRecords());
+
+        System.setProperty(MessageLogProperties.CLEAN_BATCH_SIZE, "100");
+        System.setProperty(MessageLogProperties.CLEAN_MAX_DURATION_SECONDS, "0");
+
+        assertEquals(200 - removed, LogCleaner.createCleaner().clean());
+        assertEquals(0, countRecords());
+    }
+
+    private void saveMessageRecords(int count, boolean archived, long time)
+            throws Exception {
+        String message = createMessage().getXml();
+        String signature = createSignature().getSignatureXml();
+
+        List<MessageRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MessageRecord record = new MessageRecord("query", message,
+                    signature, false, CLIENT);
+            record.setTime(time);
+            record.setArchived(archived);
+            records.add(record);
+        }
+
+        logRecordManager.saveMessageRecords(records);
+    }
+
+    private static long countRecords() throws Exception {
+        return doInTransaction(session -> (Long) session
+                .createCriteria(AbstractLogRecord.class)
+                .setProjection(Projections.rowCount())
+                .uniqueResult());
+    }
+
+    private static long countOutdatedArchivedRecords() throws Exception {
+        return doInTransaction(session -> (Long) session
+                .createCriteria(AbstractLogRecord.class)
+                .add(Restrictions.eq("archived", true))
+                .add(Restrictions.le("time", OUTDATED_TIME))
+                .setProjection(Projections.rowCount())
+                .uniqueResult());
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import static ee.ria.xroad.proxy.messagelog.TestUtil.assertTaskQueueSize;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.cleanUpDatabase;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.TimestampRecord;
+
+/**
+ * Tests for saving and reading message records with {@link LogRecordManager}.
+ */
+public class LogRecordManagerTest {
+
+    private static final ClientId CLIENT =
+            ClientId.create("EE", "BUSINESS", "consumer");
+
+    private static final ClientId OTHER_CLIENT =
+            ClientId.create("EE", "BUSINESS", "consumer", "subsystem");
+
+    private final LogRecordManager logRecordManager = new LogRecordManager();
+
+    /**
+     * Set up the database.
+     */
+    @Before
+    public void setUp() {
+        initForTest();
+    }
+
+    /**
+     * Cleanup the database for other tests.
+     * @throws Exception in case of any unexpected errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        cleanUpDatabase();
+    }
+
+    /**
+     * Time-stamps records without hash chains. All the records must refer to
+     * the time-stamp record and be removed from the task queue.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampRecordsWithoutHashChains() throws Exception {
+        List<MessageRecord> records = saveMessageRecords("query", 3);
+        assertTaskQueueSize(3);
+
+        TimestampRecord timestampRecord = createTimestampRecord();
+        int timestamped = logRecordManager.saveTimestampRecord(
+                timestampRecord, getIds(records), null);
+
+        assertEquals(3, timestamped);
+        for (MessageRecord record : records) {
+            assertTimestamped(record.getId(), timestampRecord, null);
+        }
+
+        assertTaskQueueSize(0);
+    }
+
+    /**
+     * Time-stamps records with hash chains. Each record must get its own
+     * hash chain.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampRecordsWithHashChains() throws Exception {
+        List<MessageRecord> records = saveMessageRecords("query", 3);
+        String[] hashChains = {"chain0", "chain1", "chain2"};
+
+        TimestampRecord timestampRecord = createTimestampRecord();
+        int timestamped = logRecordManager.saveTimestampRecord(
+                timestampRecord, getIds(records), hashChains);
+
+        assertEquals(3, timestamped);
+        for (int i = 0; i < records.size(); i++) {
+            assertTimestamped(records.get(i).getId(), timestampRecord,
+                    hashChains[i]);
+        }
+
+        assertTaskQueueSize(0);
+    }
+
+    /**
+     * Time-stamps more records than fit in one update statement.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampRecordsInSeveralStatements() throws Exception {
+        List<MessageRecord> records = saveMessageRecords("query", 2500);
+
+        TimestampRecord timestampRecord = createTimestampRecord();
+        int timestamped = logRecordManager.saveTimestampRecord(
+                timestampRecord, getIds(records), null);
+
+        assertEquals(2500, timestamped);
+        assertTimestamped(records.get(0).getId(), timestampRecord, null);
+        assertTimestamped(records.get(2499).getId(), timestampRecord, null);
+        assertTaskQueueSize(0);
+    }
+
+    /**
+     * Time-stamps records of which some already have a time-stamp. Only the
+     * records without a time-stamp may be updated and counted.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampOnlyRecordsWithoutTimestamp() throws Exception {
+        List<MessageRecord> records = saveMessageRecords("query", 3);
+        Long[] ids = getIds(records);
+
+        TimestampRecord first = createTimestampRecord();
+        assertEquals(2, logRecordManager.saveTimestampRecord(first,
+                new Long[] {ids[0], ids[1]}, null));
+
+        TimestampRecord second = createTimestampRecord();
+        assertEquals(1, logRecordManager.saveTimestampRecord(second, ids,
+                null));
+
+        TimestampRecord third = createTimestampRecord();
+        assertEquals(0, logRecordManager.saveTimestampRecord(third, ids,
+                new String[] {"chain0", "chain1", "chain2"}));
+
+        assertTimestamped(ids[0], first, null);
+        assertTimestamped(ids[1], first, null);
+        assertTimestamped(ids[2], second, null);
+    }
+
+    /**
+     * Reads the records of a query page by page. Each page must continue
+     * after the last record of the previous page, and only the records of
+     * the given query, client and direction may be read.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void getByQueryIdInPages() throws Exception {
+        List<MessageRecord> requests = saveMessageRecords("query", false,
+                CLIENT, 25);
+        saveMessageRecords("query", true, CLIENT, 3);
+        saveMessageRecords("query", false, OTHER_CLIENT, 3);
+        saveMessageRecords("other", false, CLIENT, 3);
+
+        List<Long> read = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+
+        long lastNumber = 0;
+        List<MessageRecord> page;
+        do {
+            page = logRecordManager.getByQueryId("query", CLIENT, false,
+                    lastNumber, 10);
+            pageSizes.add(page.size());
+
+            for (MessageRecord record : page) {
+                assertEquals("query", record.getQueryId());
+                assertFalse(record.isResponse());
+                read.add(record.getId());
+                lastNumber = record.getId();
+            }
+        } while (page.size() == 10);
+
+        assertEquals(Arrays.asList(10, 10, 5), pageSizes);
+        assertEquals(Arrays.asList(getIds(requests)), read);
+    }
+
+    /**
+     * Reads past the last record of a query.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void getByQueryIdAfterLastRecord() throws Exception {
+        List<MessageRecord> records = saveMessageRecords("query", 3);
+        long lastNumber = records.get(2).getId();
+
+        assertTrue(logRecordManager.getByQueryId("query", CLIENT, false,
+                lastNumber, 10).isEmpty());
+        assertTrue(logRecordManager.getByQueryId("unknown", CLIENT, false,
+                0, 10).isEmpty());
+    }
+
+    /**
+     * Counts the records of a query, all or only those without a time-stamp.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void countByQueryId() throws Exception {
+        List<MessageRecord> requests = saveMessageRecords("query", 5);
+        saveMessageRecords("query", true, CLIENT, 2);
+        saveMessageRecords("query", false, OTHER_CLIENT, 4);
+
+        logRecordManager.saveTimestampRecord(createTimestampRecord(),
+                new Long[] {requests.get(0).getId(), requests.get(1).getId()},
+                null);
+
+        assertEquals(5, logRecordManager.countByQueryId("query", CLIENT,
+                false, false));
+        assertEquals(3, logRecordManager.countByQueryId("query", CLIENT,
+                false, true));
+        assertEquals(2, logRecordManager.countByQueryId("query", CLIENT,
+                true, false));
+        assertEquals(4, logRecordManager.countByQueryId("query",
+                OTHER_CLIENT, false, false));
+        assertEquals(0, logRecordManager.countByQueryId("unknown", CLIENT,
+                false, false));
+    }
+
+    private List<MessageRecord> saveMessageRecords(String queryId, int count)
+            throws Exception {
+        return saveMessageRecords(queryId, false, CLIENT, count);
+    }
+
+    private List<MessageRecord> saveMessageRecords(String queryId,
+            boolean response, ClientId client, int count) throws Exception {
+        List<MessageRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MessageRecord record = new MessageRecord(queryId, "message",
+                    "signature", response, client);
+            record.setTime(System.currentTimeMillis());
+            record.setSignatureHash("signatureHash");
+            records.add(record);
+        }
+
+        logRecordManager.saveMessageRecords(records);
+
+        return records;
+    }
+
+    private static TimestampRecord createTimestampRecord() {
+        TimestampRecord timestampRecord = new TimestampRecord();
+        timestampRecord.setTime(System.currentTimeMillis());
+        timestampRecord.setTimestamp("timestamp");
+
+        return timestampRecord;
+    }
+
+    private static Long[] getIds(List<MessageRecord> records) {
+        return records.stream().map(MessageRecord::getId).toArray(Long[]::new);
+    }
+
+    private void assertTimestamped(Long id, TimestampRecord timestampRecord,
+            String hashChain) throws Exception {
+        MessageRecord record = (MessageRecord) logRecordManager.get(id);
+
+        assertEquals(timestampRecord.getId(),
+                record.getTimestampRecord().getId());
+        assertEquals(hashChain, record.getTimestampHashChain());
+        assertNull(record.getSignatureHash());
+    }
+}
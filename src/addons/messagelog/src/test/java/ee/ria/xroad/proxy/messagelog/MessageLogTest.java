@@ -54,12 +54,16 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import akka.actor.Props;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import com.codahale.metrics.MetricRegistry;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.ExpectedCodedException;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.messagelog.AbstractLogManager;
 import ee.ria.xroad.common.messagelog.AbstractLogRecord;
+import ee.ria.xroad.common.messagelog.LogMessage;
 import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
@@ -67,10 +71,13 @@ import ee.ria.xroad.common.messagelog.TimestampRecord;
 import ee.ria.xroad.common.messagelog.archive.DigestEntry;
 import ee.ria.xroad.common.signature.SignatureData;
 import ee.ria.xroad.common.util.JobManager;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampFailed;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampSucceeded;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.Await;
+import scala.concurrent.Future;
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
@@ -83,6 +90,10 @@ public class MessageLogTest extends AbstractMessageLogTest {
             "mlog-20150520112233-20150520123344-asdlfjlasa.zip";
 
     public static final String LAST_DIGEST = "123567890abcdef";
+
+    private static final Timeout BATCH_TIMEOUT =
+            new Timeout(Duration.create(5, TimeUnit.SECONDS));
+
     protected static Date logRecordTime;
     protected static Exception throwWhenSavingTimestamp;
 
@@ -326,6 +337,67 @@ public class MessageLogTest extends AbstractMessageLogTest {
         assertTaskQueueSize(4);
     }
 
+    /**
+     * Saving a time-stamp fails, so the number of records waiting to be
+     * time-stamped is no longer known and must be counted again.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampTaskCountInvalidatedWhenSaveFails() throws Exception {
+        initLogManager();
+
+        logManager.setTimestampFailedIfQueueIsEmpty(new DateTime());
+        assertFalse(logManager.isTimestampFailed());
+        assertEquals(0, logManager.getTimestampTaskCount());
+
+        log(createMessage(), createSignature());
+        log(createMessage(), createSignature());
+        assertEquals(2, logManager.getTimestampTaskCount());
+
+        throwWhenSavingTimestamp = new CodedException("expected");
+        startTimestamping();
+        waitForTimestampSuccessful();
+        assertFalse(TestLogManager.waitForTimestampSaved());
+
+        assertTrue(logManager.isTimestampFailed());
+        assertEquals(-1, logManager.getTimestampTaskCount());
+
+        throwWhenSavingTimestamp = null;
+        startTimestamping();
+        waitForTimestampSuccessful();
+        assertTrue(TestLogManager.waitForTimestampSaved());
+        assertTaskQueueSize(0);
+
+        logManager.setTimestampFailedIfQueueIsEmpty(new DateTime());
+        assertFalse(logManager.isTimestampFailed());
+        assertEquals(0, logManager.getTimestampTaskCount());
+    }
+
+    /**
+     * The number of records waiting to be time-stamped has drifted above
+     * the real number. The count must be reset when the task queue finds
+     * nothing to time-stamp, so that a time-stamping failure with an empty
+     * queue does not stop logging.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void timestampTaskCountResetWhenQueueIsEmpty() throws Exception {
+        initLogManager();
+
+        logManager.setTimestampFailedIfQueueIsEmpty(new DateTime());
+        assertEquals(0, logManager.getTimestampTaskCount());
+
+        // Records that were time-stamped without the count being decremented
+        logManager.addTimestampTasks(2);
+        assertEquals(2, logManager.getTimestampTaskCount());
+
+        startTimestamping();
+        waitForTimestampTaskCount(0);
+
+        logManager.setTimestampFailedIfQueueIsEmpty(new DateTime());
+        assertFalse(logManager.isTimestampFailed());
+    }
+
     /**
      * Get message by query id.
      * @throws Exception in case of any unexpected errors
@@ -370,6 +442,68 @@ public class MessageLogTest extends AbstractMessageLogTest {
         log(createMessage(), createSignature());
     }
 
+    /**
+     * Logs 3 messages with batch size 3. The records must be saved in one
+     * transaction when the batch is full, and the senders must not get
+     * replies before that.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void saveMessagesInBatch() throws Exception {
+        System.setProperty(MessageLogProperties.SAVE_BATCH_SIZE, "3");
+        System.setProperty(MessageLogProperties.SAVE_BATCH_WINDOW, "60000");
+        initLogManager();
+
+        Future<Object> first = logInBatch(createMessage("batch1"));
+        Future<Object> second = logInBatch(createMessage("batch2"));
+
+        assertFalse(first.isCompleted());
+        assertFalse(second.isCompleted());
+        assertTaskQueueSize(0);
+
+        Future<Object> third = logInBatch(createMessage("batch3"));
+
+        assertFalse(awaitReply(first) instanceof Exception);
+        assertFalse(awaitReply(second) instanceof Exception);
+        assertFalse(awaitReply(third) instanceof Exception);
+        assertTaskQueueSize(3);
+
+        MetricRegistry metrics = MetricRegistryHolder.getInstance().getMetrics();
+        assertEquals(1, metrics.timer(LogManager.SAVE_BATCH_TIME).getCount());
+        assertEquals(3, metrics.histogram(LogManager.SAVE_BATCH_SIZE).getSnapshot().getMax());
+        assertEquals(0, metrics.counter(LogManager.SAVE_BATCH_FAILURES).getCount());
+    }
+
+    /**
+     * Logs 3 messages with batch size 3, the second of which cannot be
+     * stored. The batch transaction must be rolled back and the records
+     * saved one by one, so that only the sender of the failing record gets
+     * an error.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void saveBatchFailsInTheMiddle() throws Exception {
+        System.setProperty(MessageLogProperties.SAVE_BATCH_SIZE, "3");
+        System.setProperty(MessageLogProperties.SAVE_BATCH_WINDOW, "60000");
+        initLogManager();
+
+        // Longer than the query id column
+        String tooLongQueryId = StringUtils.repeat("x", 300);
+
+        Future<Object> first = logInBatch(createMessage("batch1"));
+        Future<Object> second = logInBatch(createMessage(tooLongQueryId));
+        Future<Object> third = logInBatch(createMessage("batch3"));
+
+        assertFalse(awaitReply(first) instanceof Exception);
+        assertTrue(awaitReply(second) instanceof Exception);
+        assertFalse(awaitReply(third) instanceof Exception);
+        assertTaskQueueSize(2);
+
+        MetricRegistry metrics = MetricRegistryHolder.getInstance().getMetrics();
+        assertEquals(0, metrics.timer(LogManager.SAVE_BATCH_TIME).getCount());
+        assertEquals(1, metrics.counter(LogManager.SAVE_BATCH_FAILURES).getCount());
+    }
+
     // ------------------------------------------------------------------------
 
     /**
@@ -391,6 +525,7 @@ public class MessageLogTest extends AbstractMessageLogTest {
         System.setProperty(MessageLogProperties.ARCHIVE_PATH, "build/");
 
         initForTest();
+        MetricRegistryHolder.getInstance().setMetrics(new MetricRegistry());
         testSetUp();
         initLastHashStep();
 
@@ -421,6 +556,9 @@ public class MessageLogTest extends AbstractMessageLogTest {
     public void tearDown() throws Exception {
         testTearDown();
         cleanUpDatabase();
+
+        System.clearProperty(MessageLogProperties.SAVE_BATCH_SIZE);
+        System.clearProperty(MessageLogProperties.SAVE_BATCH_WINDOW);
     }
 
     @Override
@@ -440,6 +578,16 @@ public class MessageLogTest extends AbstractMessageLogTest {
         log(message, signature);
     }
 
+    private Future<Object> logInBatch(SoapMessageImpl message)
+            throws Exception {
+        return Patterns.ask(getLogManagerRef(),
+                new LogMessage(message, createSignature(), true), BATCH_TIMEOUT);
+    }
+
+    private static Object awaitReply(Future<Object> reply) throws Exception {
+        return Await.result(reply, BATCH_TIMEOUT.duration());
+    }
+
     protected LogRecord findByQueryId(String queryId, String startTime,
             String endTime) throws Exception {
         return logManager.findByQueryId(queryId, getDate(startTime),
@@ -528,6 +676,16 @@ public class MessageLogTest extends AbstractMessageLogTest {
                 || former.lastModified() < candidate.lastModified();
     }
 
+    private void waitForTimestampTaskCount(long expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (logManager.getTimestampTaskCount() != expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(expected, logManager.getTimestampTaskCount());
+    }
+
     private static Object waitForMessageInTaskQueue() throws Exception {
         TestTaskQueue.waitForMessage();
 
@@ -629,8 +787,7 @@ public class MessageLogTest extends AbstractMessageLogTest {
         protected Props getArchiverImpl() {
             return Props.create(
                 TestLogArchiver.class,
-                Paths.get("build"),
-                Paths.get("build/tmp")
+                Paths.get("build")
             );
         }
 
@@ -25,8 +25,6 @@ package ee.ria.xroad.proxy.messagelog;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
-import org.hibernate.Session;
-
 class TestLogCleaner extends LogCleaner {
 
     private static CountDownLatch gate = new CountDownLatch(1);
@@ -40,8 +38,8 @@ class TestLogCleaner extends LogCleaner {
     }
 
     @Override
-    protected void handleClean(Session session) {
-        super.handleClean(session);
+    protected void handleClean() throws Exception {
+        super.handleClean();
 
         gate.countDown();
     }
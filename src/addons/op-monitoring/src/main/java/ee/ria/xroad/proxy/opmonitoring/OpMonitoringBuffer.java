@@ -23,16 +23,22 @@
 package ee.ria.xroad.proxy.opmonitoring;
 
 import java.net.NetworkInterface;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
-import com.google.gson.Gson;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
@@ -45,21 +51,30 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonHttpClient;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
-import ee.ria.xroad.common.util.JsonUtils;
 import ee.ria.xroad.common.util.TimeUtils;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
 
 import static java.net.NetworkInterface.getNetworkInterfaces;
 import static java.util.Collections.list;
 
 /**
  * Operational monitoring buffer. This buffer is used for gathering
- * operational data and for periodically sending the data to the operational
+ * operational data and for sending the data to the operational
  * monitoring daemon (using OpMonitoringDaemonSender).
+ * The records are sent by a number of senders concurrently. A batch is sent
+ * whenever a sender is idle, so the batches grow up to the maximum number of
+ * records in a message when the senders fall behind.
  */
 @Slf4j
 public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     public static final String OP_MONITORING_DAEMON_SENDER = "OpMonitoringDaemonSender";
 
+    static final String BUFFERED_RECORDS = "opmonitoring.BufferedRecords";
+    static final String RECORDS_BEING_SENT = "opmonitoring.RecordsBeingSent";
+    static final String SENT_RECORDS = "opmonitoring.SentRecords";
+    static final String FAILED_BATCHES = "opmonitoring.FailedBatches";
+    static final String DROPPED_RECORDS = "opmonitoring.DroppedRecords";
+
     private static final String NO_ADDRESS_FOUND = "No suitable IP address is bound to the network interface ";
     private static final String NO_INTERFACE_FOUND = "No non-loopback network interface found";
 
@@ -70,24 +85,30 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static final long SENDING_INTERVAL_SECONDS =
             OpMonitoringSystemProperties.getOpMonitorBufferSendingIntervalSeconds();
 
+    private static final int MAX_CONCURRENT_SENDERS = Math.max(
+            OpMonitoringSystemProperties.getOpMonitorBufferMaxConcurrentSenders(), 1);
+
     private static final int CLIENT_CONNECTION_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferConnectionTimeoutSeconds());
 
     private static final int CLIENT_SOCKET_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferSocketTimeoutSeconds());
 
-    private static final Gson GSON = JsonUtils.getSerializer();
-
     private Cancellable tick;
 
+    // The records waiting to be sent. The records that are being sent count
+    // towards the maximum size of the buffer as well.
     final Map<Long, OpMonitoringData> buffer =
             new LinkedHashMap<Long, OpMonitoringData>() {
                 @Override
                 protected boolean removeEldestEntry(Map.Entry eldest) {
-                    boolean overflow = size() > MAX_BUFFER_SIZE;
+                    boolean overflow = size() + inFlightRecords > MAX_BUFFER_SIZE;
 
                     if (overflow) {
-                        log.warn("Operational monitoring buffer overflow, removing eldest record: {}", eldest.getKey());
+                        log.debug("Operational monitoring buffer overflow, removing eldest record: {}",
+                                eldest.getKey());
+
+                        droppedRecords.inc();
                     }
 
                     return overflow;
@@ -96,11 +117,24 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
 
     private long bufferIndex = 0;
 
-    private final Set<Long> processedBufferIndices = new HashSet<>();
+    // The records of the batches that are being sent, by sender.
+    private final Map<ActorRef, List<OpMonitoringData>> inFlightBatches = new HashMap<>();
 
-    private final CloseableHttpClient httpClient;
+    private final Deque<ActorRef> idleSenders = new ArrayDeque<>();
+
+    private int inFlightRecords = 0;
 
-    private final ActorRef sender;
+    // The sizes reported by the gauges, which are read outside the actor.
+    private volatile int bufferedRecordsGauge = 0;
+    private volatile int inFlightRecordsGauge = 0;
+
+    // Statistics reported over JMX and logged at each sending interval.
+    private final Counter droppedRecords;
+    private final Counter sentRecords;
+    private final Counter failedBatches;
+    private long reportedDroppedRecords = 0;
+
+    private final CloseableHttpClient httpClient;
 
     private static String ipAddress;
 
@@ -109,25 +143,44 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
      * @throws Exception if an error occurs
      */
     public OpMonitoringBuffer() throws Exception {
+        MetricRegistry metrics = MetricRegistryHolder.getInstance().getMetrics();
+        droppedRecords = metrics.counter(DROPPED_RECORDS);
+        sentRecords = metrics.counter(SENT_RECORDS);
+        failedBatches = metrics.counter(FAILED_BATCHES);
+
         if (ignoreOpMonitoringData()) {
             log.info("Operational monitoring buffer is switched off, no operational monitoring data is stored");
 
             httpClient = null;
-            sender = null;
         } else {
             httpClient = createHttpClient();
-            sender = createSender();
+            idleSenders.addAll(createSenders());
         }
     }
 
     CloseableHttpClient createHttpClient() throws Exception {
-        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), 1, 1,
-                CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
+        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), MAX_CONCURRENT_SENDERS,
+                MAX_CONCURRENT_SENDERS, CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
+    }
+
+    List<ActorRef> createSenders() {
+        List<ActorRef> senders = new ArrayList<>();
+
+        for (int i = 0; i < MAX_CONCURRENT_SENDERS; i++) {
+            senders.add(getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
+                    OP_MONITORING_DAEMON_SENDER + i));
+        }
+
+        return senders;
     }
 
-    ActorRef createSender() {
-        return getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
-                OP_MONITORING_DAEMON_SENDER);
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (SEND_MONITORING_DATA.equals(message)) {
+            logStatistics();
+        }
+
+        super.onReceive(message);
     }
 
     @Override
@@ -145,53 +198,105 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
 
     @Override
     protected void send() throws Exception {
-        if (!canSend()) {
-            return;
+        while (!buffer.isEmpty() && !idleSenders.isEmpty()) {
+            sendBatch(idleSenders.poll());
         }
 
-        String json = prepareMonitoringMessage();
-
-        sender.tell(json, getSelf());
-    }
-
-    private boolean canSend() {
-        return !buffer.isEmpty() && processedBufferIndices.isEmpty();
+        updateGauges();
     }
 
-    private String prepareMonitoringMessage() {
+    private void sendBatch(ActorRef sender) {
+        List<OpMonitoringData> batch = new ArrayList<>();
         StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+        Iterator<OpMonitoringData> records = buffer.values().iterator();
 
-        for (Map.Entry<Long, OpMonitoringData> entry : buffer.entrySet()) {
-            processedBufferIndices.add(entry.getKey());
-            request.addRecord(entry.getValue().getData());
+        while (records.hasNext() && batch.size() < MAX_RECORDS_IN_MESSAGE) {
+            OpMonitoringData data = records.next();
 
-            if (request.getRecords().size() == MAX_RECORDS_IN_MESSAGE) {
-                break;
-            }
+            batch.add(data);
+            request.addRecord(data.getData());
+            records.remove();
         }
 
-        log.debug("Op monitoring buffer records count: {}", buffer.size());
+        inFlightBatches.put(sender, batch);
+        inFlightRecords += batch.size();
+
+        log.debug("Op monitoring buffer records count: {}, sending: {}", buffer.size(), inFlightRecords);
 
-        return GSON.toJson(request);
+        // The request is serialized by the sender.
+        sender.tell(request, getSelf());
     }
 
     @Override
     protected void sendingSuccess() throws Exception {
-        processedBufferIndices.forEach(buffer::remove);
-        processedBufferIndices.clear();
+        List<OpMonitoringData> batch = sendingDone();
 
-        if (canSend()) {
-            send();
+        if (batch != null) {
+            sentRecords.inc(batch.size());
         }
+
+        send();
     }
 
     @Override
     protected void sendingFailure() throws Exception {
-        processedBufferIndices.clear();
+        List<OpMonitoringData> batch = sendingDone();
+
+        failedBatches.inc();
+
+        if (batch != null) {
+            // Return the records to the buffer to be sent again.
+            batch.forEach(data -> buffer.put(getNextBufferIndex(), data));
+        }
+
+        updateGauges();
 
         // Do not worry, scheduled sending retries..
     }
 
+    private List<OpMonitoringData> sendingDone() {
+        List<OpMonitoringData> batch = inFlightBatches.remove(getSender());
+
+        if (batch != null) {
+            inFlightRecords -= batch.size();
+            idleSenders.add(getSender());
+        }
+
+        return batch;
+    }
+
+    private void updateGauges() {
+        bufferedRecordsGauge = buffer.size();
+        inFlightRecordsGauge = inFlightRecords;
+    }
+
+    private void logStatistics() {
+        long totalDropped = droppedRecords.getCount();
+        long dropped = totalDropped - reportedDroppedRecords;
+
+        if (dropped > 0) {
+            log.warn("Operational monitoring buffer overflow, {} records dropped since last report"
+                    + " ({} in total), {} records buffered", dropped, totalDropped, buffer.size());
+
+            reportedDroppedRecords = totalDropped;
+        }
+
+        log.debug("Op monitoring buffer statistics: buffered records {}, records being sent {}, sent records {},"
+                + " failed batches {}, dropped records {}", buffer.size(), inFlightRecords, sentRecords.getCount(),
+                failedBatches.getCount(), totalDropped);
+    }
+
+    private void registerGauges() {
+        MetricRegistry metrics = MetricRegistryHolder.getInstance().getMetrics();
+
+        // A restarted buffer replaces the gauges of the previous instance.
+        metrics.remove(BUFFERED_RECORDS);
+        metrics.remove(RECORDS_BEING_SENT);
+
+        metrics.register(BUFFERED_RECORDS, (Gauge<Integer>) () -> bufferedRecordsGauge);
+        metrics.register(RECORDS_BEING_SENT, (Gauge<Integer>) () -> inFlightRecordsGauge);
+    }
+
     long getNextBufferIndex() {
         bufferIndex = bufferIndex == Long.MAX_VALUE ? 0 : bufferIndex + 1;
 
@@ -211,6 +316,7 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
             return;
         }
 
+        registerGauges();
         scheduleSendMonitoringData();
     }
 
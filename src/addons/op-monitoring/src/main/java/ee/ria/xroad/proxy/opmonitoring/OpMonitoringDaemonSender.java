@@ -25,7 +25,6 @@ package ee.ria.xroad.proxy.opmonitoring;
 import java.net.URI;
 import java.net.URISyntaxException;
 
-import akka.actor.ActorRef;
 import akka.actor.UntypedActor;
 import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
@@ -36,6 +35,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
+import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse;
 import ee.ria.xroad.common.util.HttpSender;
 import ee.ria.xroad.common.util.JsonUtils;
@@ -48,7 +48,8 @@ import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STA
 
 /**
  * Actor for sending operational data to the operational monitoring daemon. This actor is used by the
- * OpMonitoringBuffer class for periodically forwarding operational data gathered in the buffer.
+ * OpMonitoringBuffer class for forwarding operational data gathered in the buffer. The buffer uses several
+ * senders, each sending one batch of records at a time.
  */
 @Slf4j
 public class OpMonitoringDaemonSender extends UntypedActor {
@@ -69,13 +70,13 @@ public class OpMonitoringDaemonSender extends UntypedActor {
 
     @Override
     public void onReceive(Object message) throws Exception {
-        if (message instanceof String) {
-            String json = (String) message;
+        if (message instanceof StoreOpMonitoringDataRequest) {
+            StoreOpMonitoringDataRequest request = (StoreOpMonitoringDataRequest) message;
 
-            log.trace("onReceive: {}", json);
+            log.trace("onReceive: {} records", request.getRecords().size());
 
             try {
-                send(json);
+                send(GSON.toJson(request));
                 success();
             } catch (Exception e) {
                 log.error("Sending operational monitoring data failed", e);
@@ -88,11 +89,11 @@ public class OpMonitoringDaemonSender extends UntypedActor {
     }
 
     private void success() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, ActorRef.noSender());
+        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, getSelf());
     }
 
     private void failure() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, ActorRef.noSender());
+        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, getSelf());
     }
 
     private void send(String json) throws Exception {
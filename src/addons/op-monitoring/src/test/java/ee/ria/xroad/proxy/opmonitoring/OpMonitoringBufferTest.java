@@ -22,16 +22,23 @@
  */
 package ee.ria.xroad.proxy.opmonitoring;
 
+import java.util.Collections;
+import java.util.List;
+
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.testkit.TestActorRef;
 
+import com.codahale.metrics.MetricRegistry;
+
 import org.apache.http.impl.client.CloseableHttpClient;
 
+import org.junit.Before;
 import org.junit.Test;
 
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
 
 import static org.junit.Assert.assertEquals;
 
@@ -52,8 +59,8 @@ public class OpMonitoringBufferTest {
         }
 
         @Override
-        ActorRef createSender() {
-            return null;
+        List<ActorRef> createSenders() {
+            return Collections.emptyList();
         }
 
         @Override
@@ -62,6 +69,14 @@ public class OpMonitoringBufferTest {
         }
     }
 
+    /**
+     * Use a fresh metric registry in each test.
+     */
+    @Before
+    public void setUp() {
+        MetricRegistryHolder.getInstance().setMetrics(new MetricRegistry());
+    }
+
     @Test
     public void bufferOverflow() throws Exception {
         System.setProperty("xroad.op-monitor-buffer.size", "2");
@@ -83,5 +98,7 @@ public class OpMonitoringBufferTest {
         assertEquals(2, opMonitoringBuffer.buffer.size());
         assertEquals(true, opMonitoringBuffer.buffer.containsKey(2L));
         assertEquals(true, opMonitoringBuffer.buffer.containsKey(3L));
+        assertEquals(1, MetricRegistryHolder.getInstance().getMetrics()
+                .counter(OpMonitoringBuffer.DROPPED_RECORDS).getCount());
     }
 }
@@ -22,15 +22,18 @@
  */
 package ee.ria.xroad.common.asic;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
 import ee.ria.xroad.common.signature.SignatureData;
 import ee.ria.xroad.common.util.MimeTypes;
 
@@ -144,7 +147,9 @@ public class AsicContainer {
     }
 
     /**
-     * Gets the binary content of this container in ZIP format.
+     * Gets the binary content of this container in ZIP format. Prefer
+     * {@link #write(OutputStream)}, which does not hold the whole container
+     * in memory.
      * @return binary content of this container in ZIP format
      * @throws Exception if errors occurred when writing ZIP entries
      */
@@ -181,8 +186,8 @@ public class AsicContainer {
      */
     public InputStream getEntry(String fileName) {
         String data = get(AsicHelper.stripSlash(fileName));
-        return data != null ? new ByteArrayInputStream(
-                data.getBytes(StandardCharsets.UTF_8)) : null;
+        return data != null ? new ReaderInputStream(
+                new StringReader(data), StandardCharsets.UTF_8) : null;
     }
 
     /**
@@ -206,11 +211,14 @@ public class AsicContainer {
 
     /**
      * Write this container to the given output stream in ZIP format.
+     * The entries are encoded while writing, so no copy of the whole
+     * container is made. The output stream is not closed.
      * @param out the stream for writing container
      * @throws Exception if errors occurred when writing ZIP entries
      */
     public void write(OutputStream out) throws Exception {
-        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+        try (ZipOutputStream zip =
+                new ZipOutputStream(new CloseShieldOutputStream(out))) {
             AsicHelper.write(this, zip);
         }
     }
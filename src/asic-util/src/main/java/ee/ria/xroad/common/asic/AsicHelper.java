@@ -47,6 +47,8 @@ import static org.apache.commons.lang.StringUtils.isBlank;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -56,6 +58,7 @@ import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.signature.Signature;
@@ -67,6 +70,8 @@ import ee.ria.xroad.common.signature.Signature;
  */
 public final class AsicHelper {
 
+    private static final int ENTRY_WRITE_CHUNK_SIZE = 8192;
+
     private AsicHelper() {
     }
 
@@ -215,7 +220,18 @@ public final class AsicHelper {
 
     static void addEntry(ZipOutputStream zip, String name, String data)
             throws IOException {
-        addEntry(zip, name, data.getBytes(StandardCharsets.UTF_8));
+        zip.putNextEntry(new ZipEntry(name));
+
+        // Encode the data in chunks, so that large messages are not copied
+        // into a single byte array
+        Writer writer = new OutputStreamWriter(
+                new CloseShieldOutputStream(zip), StandardCharsets.UTF_8);
+        for (int i = 0; i < data.length(); i += ENTRY_WRITE_CHUNK_SIZE) {
+            writer.write(data, i,
+                    Math.min(ENTRY_WRITE_CHUNK_SIZE, data.length() - i));
+        }
+
+        writer.flush();
     }
 
     static void addEntry(ZipOutputStream zip, String name, byte[] data)
@@ -0,0 +1,164 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.db;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deletes the records of an entity that match a condition in chunks of
+ * consecutive ids. Each chunk is deleted in a separate transaction, so a
+ * large cleanup neither holds locks nor grows the transaction log for its
+ * whole duration. The cleaner pauses between chunks and stops when its time
+ * budget is used up; the remaining records are deleted by the next run.
+ *
+ * The cleaner blocks the calling thread for the whole run, so actors using
+ * it should run on a dedicated dispatcher.
+ */
+@Slf4j
+public class ChunkedRecordCleaner {
+
+    private static final double MILLIS_IN_SECOND = 1000.0;
+
+    // Interval of logging the progress of a long cleanup
+    private static final long PROGRESS_LOG_INTERVAL_MILLIS =
+            TimeUnit.MINUTES.toMillis(1);
+
+    private final DatabaseCtx databaseCtx;
+    private final String entityName;
+    private final String condition;
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final long maxDurationMillis;
+
+    /**
+     * Creates a new cleaner.
+     * @param databaseCtx the database context of the entity
+     * @param entityName the name of the entity, which must have a numeric
+     * 'id' property
+     * @param condition the HQL condition of the records to delete, the
+     * entity is referred to by the alias 'r'
+     * @param chunkSize the number of consecutive ids in one chunk
+     * @param pauseMillis the pause between chunks in milliseconds
+     * @param maxDurationMillis the time budget of a run in milliseconds,
+     * values less than 1 disable the limit
+     */
+    public ChunkedRecordCleaner(DatabaseCtx databaseCtx, String entityName,
+            String condition, int chunkSize, long pauseMillis,
+            long maxDurationMillis) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(
+                    "Chunk size must be positive: " + chunkSize);
+        }
+
+        this.databaseCtx = databaseCtx;
+        this.entityName = entityName;
+        this.condition = condition;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+        this.maxDurationMillis = maxDurationMillis;
+    }
+
+    /**
+     * Deletes the matching records chunk by chunk until all of them are
+     * deleted or the time budget is used up.
+     * @return the number of deleted records
+     * @throws Exception if an error occurs
+     */
+    public int clean() throws Exception {
+        long start = System.currentTimeMillis();
+
+        Object[] range = databaseCtx.doInTransaction(session ->
+                (Object[]) session.createQuery("select min(r.id), max(r.id) from "
+                        + entityName + " r where " + condition).uniqueResult());
+
+        if (range == null || range[0] == null) {
+            return 0;
+        }
+
+        long lastId = ((Number) range[1]).longValue();
+        long chunkStart = ((Number) range[0]).longValue();
+        int removed = 0;
+
+        log.debug("Removing {} records with ids {}..{}", entityName,
+                chunkStart, lastId);
+
+        long nextProgressLog = start + PROGRESS_LOG_INTERVAL_MILLIS;
+
+        while (chunkStart <= lastId) {
+            removed += deleteChunk(chunkStart,
+                    Math.min(chunkStart + chunkSize - 1, lastId));
+            chunkStart += chunkSize;
+
+            long now = System.currentTimeMillis();
+            if (now >= nextProgressLog) {
+                log.info("Removed {} {} records so far, at id {} of {}",
+                        removed, entityName, Math.min(chunkStart, lastId),
+                        lastId);
+                nextProgressLog = now + PROGRESS_LOG_INTERVAL_MILLIS;
+            }
+
+            if (chunkStart <= lastId) {
+                if (maxDurationMillis > 0 && now - start
+                        >= maxDurationMillis) {
+                    log.info("Stopped removing {} records after {} ms, "
+                            + "continuing from id {} on the next run",
+                            entityName, maxDurationMillis, chunkStart);
+                    break;
+                }
+
+                pause();
+            }
+        }
+
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+
+        log.info("Removed {} {} records in {} ms ({} records/s)", removed,
+                entityName, duration, String.format("%.1f",
+                        removed * MILLIS_IN_SECOND / duration));
+
+        return removed;
+    }
+
+    private int deleteChunk(long firstId, long lastId) throws Exception {
+        int removed = databaseCtx.doInTransaction(session ->
+                session.createQuery("delete " + entityName + " r where "
+                        + "r.id between :firstId and :lastId and ("
+                        + condition + ")")
+                        .setLong("firstId", firstId)
+                        .setLong("lastId", lastId)
+                        .executeUpdate());
+
+        log.trace("Removed {} {} records with ids {}..{}", removed,
+                entityName, firstId, lastId);
+
+        return removed;
+    }
+
+    private void pause() throws InterruptedException {
+        if (pauseMillis > 0) {
+            TimeUnit.MILLISECONDS.sleep(pauseMillis);
+        }
+    }
+}
@@ -51,6 +51,16 @@ public final class MessageLogProperties {
 
     private static final int DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE = 10000;
 
+    private static final int DEFAULT_SAVE_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_SAVE_BATCH_WINDOW = 0;
+
+    private static final int DEFAULT_CLEAN_BATCH_SIZE = 10000;
+
+    private static final int DEFAULT_CLEAN_BATCH_PAUSE_MILLIS = 100;
+
+    private static final int DEFAULT_CLEAN_MAX_DURATION_SECONDS = 3600;
+
     private static final String PREFIX = "xroad.message-log.";
 
     /** Property name of the timestamper client connect timeout (milliseconds). */
@@ -67,6 +77,14 @@ public final class MessageLogProperties {
     public static final String TIMESTAMP_RECORDS_LIMIT =
             PREFIX + "timestamp-records-limit";
 
+    /** Property name of the maximum number of message records saved in one transaction. */
+    public static final String SAVE_BATCH_SIZE =
+            PREFIX + "save-batch-size";
+
+    /** Property name of the time (milliseconds) to wait for more message records before saving a batch. */
+    public static final String SAVE_BATCH_WINDOW =
+            PREFIX + "save-batch-window";
+
     public static final String ACCEPTABLE_TIMESTAMP_FAILURE_PERIOD =
             PREFIX + "acceptable-timestamp-failure-period";
 
@@ -88,6 +106,18 @@ public final class MessageLogProperties {
     public static final String CLEAN_INTERVAL =
             PREFIX + "clean-interval";
 
+    /** Property name of the number of consecutive record ids deleted in one transaction. */
+    public static final String CLEAN_BATCH_SIZE =
+            PREFIX + "clean-batch-size";
+
+    /** Property name of the pause (milliseconds) between the deletes of a cleanup. */
+    public static final String CLEAN_BATCH_PAUSE_MILLIS =
+            PREFIX + "clean-batch-pause-millis";
+
+    /** Property name of the maximum duration (seconds) of one cleanup. */
+    public static final String CLEAN_MAX_DURATION_SECONDS =
+            PREFIX + "clean-max-duration-seconds";
+
     public static final String HASH_ALGO_ID =
             PREFIX + "hash-algo-id";
 
@@ -158,6 +188,25 @@ public final class MessageLogProperties {
                 DEFAULT_TIMESTAMP_RECORDS_LIMIT);
     }
 
+    /**
+     * @return the maximum number of message records that are saved to the database in one
+     * transaction. Values less than 2 disable batching. '100' by default.
+     */
+    public static int getSaveBatchSize() {
+        return getInt(System.getProperty(SAVE_BATCH_SIZE),
+                DEFAULT_SAVE_BATCH_SIZE);
+    }
+
+    /**
+     * @return the time in milliseconds to wait for more message records before a batch is
+     * saved. With '0' (the default) a batch contains the records that arrived while the
+     * previous batch was being saved.
+     */
+    public static int getSaveBatchWindow() {
+        return getInt(System.getProperty(SAVE_BATCH_WINDOW),
+                DEFAULT_SAVE_BATCH_WINDOW);
+    }
+
     /**
      * @return the time period in seconds, how long is time-stamping allowed to be failed
      * before message log stops accepting any more messages.
@@ -190,6 +239,32 @@ public final class MessageLogProperties {
         return System.getProperty(CLEAN_INTERVAL, "0 0 0/12 1/1 * ? *");
     }
 
+    /**
+     * @return the number of consecutive record ids whose archived records are deleted
+     * in one transaction, '10000' by default.
+     */
+    public static int getCleanBatchSize() {
+        return getInt(System.getProperty(CLEAN_BATCH_SIZE),
+                DEFAULT_CLEAN_BATCH_SIZE);
+    }
+
+    /**
+     * @return the pause in milliseconds between the deletes of a cleanup, '100' by default.
+     */
+    public static int getCleanBatchPauseMillis() {
+        return getInt(System.getProperty(CLEAN_BATCH_PAUSE_MILLIS),
+                DEFAULT_CLEAN_BATCH_PAUSE_MILLIS);
+    }
+
+    /**
+     * @return the maximum duration in seconds of one cleanup, '3600' by default. The records
+     * left over are deleted by the next cleanup. Values less than 1 disable the limit.
+     */
+    public static int getCleanMaxDurationSeconds() {
+        return getInt(System.getProperty(CLEAN_MAX_DURATION_SECONDS),
+                DEFAULT_CLEAN_MAX_DURATION_SECONDS);
+    }
+
     /**
      * @return the time in days to keep time-stamped and archived records in the database.
      */
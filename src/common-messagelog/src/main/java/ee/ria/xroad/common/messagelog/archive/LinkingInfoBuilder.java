@@ -28,6 +28,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bouncycastle.operator.DigestCalculator;
+
 import ee.ria.xroad.common.util.CryptoUtils;
 import lombok.Getter;
 import lombok.SneakyThrows;
@@ -58,8 +60,13 @@ class LinkingInfoBuilder {
         this.lastDigest = lastArchive.getDigest();
     }
 
-    void addNextFile(String fileName, byte[] fileBytes) {
-        String combinedDigests = lastDigest + hexDigest(fileBytes);
+    @SneakyThrows
+    DigestCalculator createDigestCalculator() {
+        return CryptoUtils.createDigestCalculator(hashAlgoId);
+    }
+
+    void addNextFileDigest(String fileName, byte[] fileDigest) {
+        String combinedDigests = lastDigest + CryptoUtils.encodeHex(fileDigest);
         String currentDigest =
                 hexDigest(combinedDigests.getBytes(StandardCharsets.UTF_8));
 
@@ -22,39 +22,33 @@
  */
 package ee.ria.xroad.common.messagelog.archive;
 
-import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.asic.AsicContainer;
 import ee.ria.xroad.common.asic.AsicContainerNameGenerator;
 import ee.ria.xroad.common.messagelog.MessageRecord;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.bouncycastle.operator.DigestCalculator;
 
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveMaxFilesize;
 import static ee.ria.xroad.common.messagelog.archive.LogArchiveWriter.MAX_RANDOM_GEN_ATTEMPTS;
 
 /**
- * Encapsulates logic of creating log archive from ASiC containers.
+ * Encapsulates logic of creating log archive from ASiC containers. The
+ * containers are streamed directly into the archive ZIP file, computing the
+ * linking info digests on the fly.
  */
 @Slf4j
 class LogArchiveCache implements Closeable {
@@ -67,83 +61,67 @@ class LogArchiveCache implements Closeable {
 
     private final Supplier<String> randomGenerator;
     private final LinkingInfoBuilder linkingInfoBuilder;
-    private final Path workingDir;
 
     private AsicContainerNameGenerator nameGenerator;
     private State state = State.NEW;
 
-    private File archiveContentDir;
-    private File tempArchive;
+    private ZipOutputStream archiveOut;
 
-    private List<String> archiveFileNames;
     private Set<Date> creationTimes;
     private long archivesTotalSize;
 
     LogArchiveCache(Supplier<String> randomGenerator,
-                    LinkingInfoBuilder linkingInfoBuilder,
-                    Path workingDir) {
+                    LinkingInfoBuilder linkingInfoBuilder) {
         this.randomGenerator = randomGenerator;
         this.linkingInfoBuilder = linkingInfoBuilder;
-        this.workingDir = workingDir;
-        reset();
+        resetCacheState();
     }
 
-    void add(MessageRecord messageRecord) throws Exception {
-        try {
-            validateMessageRecord(messageRecord);
-            handleRotation();
-            cacheRecord(messageRecord);
-            updateState();
-        } catch (Exception e) {
-            handleCacheError(e);
-        }
-    }
-
-    InputStream getArchiveFile() throws IOException {
-        tempArchive = File.createTempFile(
-                "xroad-log-archive-zip", ".tmp", workingDir.toFile());
-        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tempArchive))) {
-            addAsicContainersToArchive(out);
-            addLinkingInfoToArchive(out);
-        } catch (Exception e) {
-            handleCacheError(e);
-        }
-
-        return new FileInputStream(tempArchive);
-    }
-
-    @SneakyThrows
-    private void handleCacheError(Exception e) {
-        deleteArchiveArtifacts();
+    /**
+     * Starts a new archive, which is written to the given output stream.
+     * @param out the output stream of the archive file
+     */
+    void startArchive(OutputStream out) {
+        closeArchiveOutput();
+        resetCacheState();
 
-        throw e;
+        archiveOut = new ZipOutputStream(out);
     }
 
-    private void addAsicContainersToArchive(ZipOutputStream zipOut)
-            throws IOException {
-        for (String eachName : archiveFileNames) {
-            ZipEntry entry = new ZipEntry(eachName);
+    void add(MessageRecord messageRecord, AsicContainer asicContainer)
+            throws Exception {
+        validateMessageRecord(messageRecord);
 
-            zipOut.putNextEntry(entry);
+        if (archiveOut == null) {
+            throw new IllegalStateException("Log archive has not been started");
+        }
 
-            try (InputStream archiveInput =
-                    Files.newInputStream(createTempAsicPath(eachName))) {
-                IOUtils.copy(archiveInput, zipOut);
-            }
+        try {
+            cacheRecord(messageRecord, asicContainer);
+            updateState();
+        } catch (Exception e) {
+            closeArchiveOutput();
 
-            zipOut.closeEntry();
+            throw e;
         }
     }
 
-    private void addLinkingInfoToArchive(ZipOutputStream zipOut)
-            throws IOException {
-        ZipEntry linkingInfoEntry = new ZipEntry("linkinginfo");
+    /**
+     * Adds the linking info to the archive and closes the archive output.
+     * @throws IOException if writing the archive fails
+     */
+    void finishArchive() throws IOException {
+        try {
+            addLinkingInfoToArchive(archiveOut);
 
-        zipOut.putNextEntry(linkingInfoEntry);
-        zipOut.write(linkingInfoBuilder.build());
-        zipOut.closeEntry();
+            archiveOut.close();
+        } finally {
+            archiveOut = null;
+        }
+    }
 
-        linkingInfoBuilder.afterArchiveCreated();
+    boolean isStarted() {
+        return archiveOut != null;
     }
 
     boolean isRotating() {
@@ -160,29 +138,32 @@ class LogArchiveCache implements Closeable {
 
     @Override
     public void close() throws IOException {
-        deleteArchiveArtifacts();
+        closeArchiveOutput();
     }
 
-    private void validateMessageRecord(MessageRecord record)
+    private void addLinkingInfoToArchive(ZipOutputStream zipOut)
             throws IOException {
+        ZipEntry linkingInfoEntry = new ZipEntry("linkinginfo");
+
+        zipOut.putNextEntry(linkingInfoEntry);
+        zipOut.write(linkingInfoBuilder.build());
+        zipOut.closeEntry();
+
+        linkingInfoBuilder.afterArchiveCreated();
+    }
+
+    private void validateMessageRecord(MessageRecord record) {
         if (record == null) {
             throw new IllegalArgumentException(
                     "Message record to be archived must not be null");
         }
     }
 
-    private void handleRotation() throws IOException {
-        if (state != State.ROTATING) {
-            return;
-        }
-
-        reset();
-    }
-
-    private void cacheRecord(MessageRecord messageRecord) throws Exception {
+    private void cacheRecord(MessageRecord messageRecord,
+            AsicContainer asicContainer) throws Exception {
         creationTimes.add(new Date(messageRecord.getTime()));
 
-        addContainerToArchive(messageRecord);
+        addContainerToArchive(messageRecord, asicContainer);
     }
 
     private void updateState() {
@@ -193,53 +174,40 @@ class LogArchiveCache implements Closeable {
         return archivesTotalSize > getArchiveMaxFilesize();
     }
 
-    private void addContainerToArchive(MessageRecord record) throws Exception {
-        byte[] containerBytes = record.toAsicContainer().getBytes();
-
+    private void addContainerToArchive(MessageRecord record,
+            AsicContainer asicContainer) throws Exception {
         String archiveFilename =
                 nameGenerator.getArchiveFilename(record.getQueryId(), record.isResponse() ? "response" : "request");
 
-        linkingInfoBuilder.addNextFile(archiveFilename, containerBytes);
-        archiveFileNames.add(archiveFilename);
-        archivesTotalSize += containerBytes.length;
+        archiveOut.putNextEntry(new ZipEntry(archiveFilename));
 
-        try (OutputStream os =
-                Files.newOutputStream(createTempAsicPath(archiveFilename))) {
-            os.write(containerBytes);
-        }
-    }
+        DigestCalculator digestCalculator =
+                linkingInfoBuilder.createDigestCalculator();
+        CountingOutputStream containerOut = new CountingOutputStream(
+                new TeeOutputStream(new CloseShieldOutputStream(archiveOut),
+                        digestCalculator.getOutputStream()));
 
-    private Path createTempAsicPath(String archiveFilename) {
-        return Paths.get(archiveContentDir.getAbsolutePath(), archiveFilename);
-    }
-
-    private void reset() {
+        // Closes only the digest stream, the archive remains open
         try {
-            resetArchive();
-            resetCacheState();
-        } catch (IOException e) {
-            log.error("Resetting log archive cache failed, cause:", e);
-            throw new CodedException(X_IO_ERROR,
-                    "Failed to reset log archive cache");
+            asicContainer.write(containerOut);
+        } finally {
+            IOUtils.closeQuietly(containerOut);
         }
-    }
 
-    private void resetArchive() throws IOException {
-        deleteArchiveArtifacts();
+        archiveOut.closeEntry();
 
-        archiveContentDir = Files.createTempDirectory(
-                    workingDir,
-                    "xroad-log-archive"
-                ).toFile();
+        linkingInfoBuilder.addNextFileDigest(archiveFilename,
+                digestCalculator.getDigest());
+        archivesTotalSize += containerOut.getByteCount();
     }
 
-    private void deleteArchiveArtifacts() {
-        FileUtils.deleteQuietly(archiveContentDir);
-        FileUtils.deleteQuietly(tempArchive);
+    private void closeArchiveOutput() {
+        IOUtils.closeQuietly(archiveOut);
+        archiveOut = null;
     }
 
     private void resetCacheState() {
-        archiveFileNames = new ArrayList<>();
+        state = State.NEW;
         creationTimes = new TreeSet<>();
         archivesTotalSize = 0;
 
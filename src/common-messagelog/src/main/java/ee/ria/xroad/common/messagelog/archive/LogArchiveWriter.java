@@ -35,8 +35,6 @@ import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
@@ -45,9 +43,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 
+import ee.ria.xroad.common.asic.AsicContainer;
 import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
@@ -83,11 +81,9 @@ public class LogArchiveWriter implements Closeable {
     /**
      * Creates new LogArchiveWriter
      * @param outputPath directory where the log archive is created.
-     * @param workingPath directory where the temporary files are stored
      * @param archiveBase interface to archive database.
      */
-    public LogArchiveWriter(Path outputPath, Path workingPath,
-            LogArchiveBase archiveBase) {
+    public LogArchiveWriter(Path outputPath, LogArchiveBase archiveBase) {
         this.outputPath = outputPath;
         this.archiveBase = archiveBase;
 
@@ -98,8 +94,7 @@ public class LogArchiveWriter implements Closeable {
 
         this.logArchiveCache = new LogArchiveCache(
             LogArchiveWriter::generateRandom,
-            linkingInfoBuilder,
-            workingPath
+            linkingInfoBuilder
         );
     }
 
@@ -109,6 +104,28 @@ public class LogArchiveWriter implements Closeable {
      * @throws Exception in case of any errors
      */
     public void write(LogRecord logRecord) throws Exception {
+        if (logRecord instanceof MessageRecord) {
+            MessageRecord messageRecord = (MessageRecord) logRecord;
+            write(messageRecord, messageRecord.toAsicContainer());
+        } else {
+            write(logRecord, null);
+        }
+    }
+
+    /**
+     * Write a message log record whose ASiC container has already been
+     * created, e.g. by a worker thread.
+     * @param messageRecord the message record
+     * @param asicContainer the ASiC container of the message record
+     * @throws Exception in case of any errors
+     */
+    public void write(MessageRecord messageRecord, AsicContainer asicContainer)
+            throws Exception {
+        write((LogRecord) messageRecord, asicContainer);
+    }
+
+    private void write(LogRecord logRecord, AsicContainer asicContainer)
+            throws Exception {
         if (logRecord == null) {
             throw new IllegalArgumentException("log record must not be null");
         }
@@ -120,7 +137,7 @@ public class LogArchiveWriter implements Closeable {
         log.trace("write({})", logRecord.getId());
 
         if (logRecord instanceof MessageRecord) {
-            logArchiveCache.add((MessageRecord) logRecord);
+            logArchiveCache.add((MessageRecord) logRecord, asicContainer);
         }
 
         archiveBase.markRecordArchived(logRecord);
@@ -135,14 +152,14 @@ public class LogArchiveWriter implements Closeable {
         log.trace("Closing log archive writer ...");
 
         try {
-            if (archiveAsicContainers()) {
-                closeOutputs();
+            if (logArchiveCache.isStarted()) {
+                logArchiveCache.finishArchive();
 
                 saveArchive();
-
-                logArchiveCache.close();
             }
         } finally {
+            logArchiveCache.close();
+
             clearTempArchive();
         }
     }
@@ -176,9 +193,8 @@ public class LogArchiveWriter implements Closeable {
 
     protected void rotate() throws Exception {
         log.trace("rotate()");
-        archiveAsicContainers();
+        logArchiveCache.finishArchive();
 
-        closeOutputs();
         archiveOut = null;
 
         saveArchive();
@@ -187,34 +203,12 @@ public class LogArchiveWriter implements Closeable {
         lastHashStepTmp = null;
     }
 
-    private boolean archiveAsicContainers() {
-        try (InputStream input = logArchiveCache.getArchiveFile();
-                OutputStream output = Channels.newOutputStream(archiveOut)) {
-            IOUtils.copy(input, output);
-        } catch (IOException e) {
-            log.error("Failed to archive ASiC containers due to IO error", e);
-            return false;
-        }
-
-        return true;
-    }
-
-    private void closeOutputs() throws IOException {
-        if (archiveOut != null) {
-            archiveOut.close();
-        }
-    }
-
     private void initOutput() throws Exception {
         log.trace("initOutput()");
 
-        try {
-            closeOutputs();
-        } catch (Exception e) {
-            log.trace("Failed to close output files", e);
-        }
-
         archiveOut = createArchiveOutput();
+
+        logArchiveCache.startArchive(Channels.newOutputStream(archiveOut));
     }
 
     private void saveArchive() throws IOException {
@@ -29,14 +29,17 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -44,10 +47,10 @@ import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import org.apache.commons.io.IOUtils;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -55,6 +58,7 @@ import org.junit.rules.ExpectedException;
 import ee.ria.xroad.common.asic.AsicContainer;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.util.CryptoUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
 
@@ -81,9 +85,20 @@ public class LogArchiveCacheTest {
 
     private LogArchiveCache cache = createCache(getMockRandomGenerator());
 
+    private ByteArrayOutputStream archiveOut;
+
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    /**
+     * Starts a new archive written to memory.
+     */
+    @Before
+    public void startArchive() {
+        archiveOut = new ByteArrayOutputStream();
+        cache.startArchive(archiveOut);
+    }
+
     /**
      * Test to ensure one entry of normal size can be added successfully.
      * @throws Exception in case of any unexpected errors
@@ -94,7 +109,7 @@ public class LogArchiveCacheTest {
         setMaxArchiveSizeDefault();
 
         // When;
-        cache.add(createRequestRecordNormal());
+        addToCache(createRequestRecordNormal());
 
         // Then
         assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
@@ -117,7 +132,7 @@ public class LogArchiveCacheTest {
         setMaxArchiveSizeSmall();
 
         // When
-        cache.add(createRequestRecordTooLarge());
+        addToCache(createRequestRecordTooLarge());
 
         // Then
         assertZip(expectedLargeSizeRequestEntryName(), getArchiveBytes());
@@ -134,7 +149,7 @@ public class LogArchiveCacheTest {
     public void doNotAllowNullMessageRecords() throws Exception {
         thrown.expect(IllegalArgumentException.class);
 
-        cache.add(null);
+        cache.add(null, null);
 
         thrown.expectMessage("Message record to be archived must not be null");
     }
@@ -148,21 +163,21 @@ public class LogArchiveCacheTest {
         setMaxArchiveSizeMedium();
 
         // First record
-        cache.add(createRequestRecordNormal());
+        addToCache(createRequestRecordNormal());
 
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
         assertFalse("Step 1: no need to rotate yet.", cache.isRotating());
 
         // Second record
-        cache.add(createRequestRecordTooLarge());
+        addToCache(createRequestRecordTooLarge());
 
-        assertZip(expectedNormalAndLargeRequestEntryNames(), getArchiveBytes());
         assertTrue("Step 2: should be rotated.", cache.isRotating());
+        assertZip(expectedNormalAndLargeRequestEntryNames(), getArchiveBytes());
         assertEquals(largeRequestCreationTime(), cache.getStartTime());
         assertEquals(normalRequestCreationTime(), cache.getEndTime());
 
         // Third record
-        cache.add(createResponseRecordNormal());
+        startArchive();
+        addToCache(createResponseRecordNormal());
 
         assertZip(expectedNormalSizeResponseEntryName(), getArchiveBytes());
         assertFalse("Step 3: new rotation.", cache.isRotating());
@@ -181,18 +196,20 @@ public class LogArchiveCacheTest {
 
         // Create cache with more realistic random generator
         cache = createCache(new TestRandomGenerator());
+        startArchive();
 
         // First record
-        cache.add(createRequestRecordNormal());
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
+        addToCache(createRequestRecordNormal());
 
         // Record with conflicting name
-        cache.add(createRequestRecordNormal());
+        addToCache(createRequestRecordNormal());
         assertZip(expectedConflictingEntryNames(), getArchiveBytes());
     }
 
     private byte[] getArchiveBytes() throws IOException {
-        return IOUtils.toByteArray(cache.getArchiveFile());
+        cache.finishArchive();
+
+        return archiveOut.toByteArray();
     }
 
     private void setMaxArchiveSizeSmall() {
@@ -240,6 +257,10 @@ public class LogArchiveCacheTest {
         return createMessageRecord(containerParams);
     }
 
+    private void addToCache(MessageRecord record) throws Exception {
+        cache.add(record, record.toAsicContainer());
+    }
+
     private MessageRecord createMessageRecord(
             AsicContainerParams params) throws Exception {
         MessageRecord record = mock(MessageRecord.class);
@@ -248,7 +269,10 @@ public class LogArchiveCacheTest {
         when(record.getTime()).thenReturn(params.getCreationTime());
 
         AsicContainer container = mock(AsicContainer.class);
-        when(container.getBytes()).thenReturn(params.getBytes());
+        doAnswer(invocation -> {
+            ((OutputStream) invocation.getArguments()[0]).write(params.getBytes());
+            return null;
+        }).when(container).write(any(OutputStream.class));
 
         when(record.toAsicContainer()).thenReturn(container);
 
@@ -364,6 +388,8 @@ public class LogArchiveCacheTest {
         LinkingInfoBuilder builder = mock(LinkingInfoBuilder.class);
 
         when(builder.build()).thenReturn("DUMMY".getBytes());
+        when(builder.createDigestCalculator()).thenAnswer(invocation ->
+                CryptoUtils.createDigestCalculator(CryptoUtils.SHA256_ID));
 
         return builder;
     }
@@ -371,8 +397,7 @@ public class LogArchiveCacheTest {
     private LogArchiveCache createCache(Supplier<String> randomGenerator) {
         return new LogArchiveCache(
             randomGenerator,
-            mockLinkingInfoBuilder(),
-            Paths.get("build/tmp/")
+            mockLinkingInfoBuilder()
         );
     }
 
@@ -71,6 +71,13 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_BUFFER_CONNECTION_TIMEOUT_SECONDS =
             PREFIX + "op-monitor-buffer.connection-timeout-seconds";
 
+    /**
+     * Property name of the maximum number of messages the operational monitoring buffer sends to the operational
+     * monitoring daemon concurrently.
+     */
+    private static final String OP_MONITOR_BUFFER_MAX_CONCURRENT_SENDERS =
+            PREFIX + "op-monitor-buffer.max-concurrent-senders";
+
     // Operational monitoring service ---------------------------------------//
 
     /**
@@ -144,6 +151,30 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_CLEAN_INTERVAL =
             PREFIX + "op-monitor.clean-interval";
 
+    /**
+     * Property name of the number of consecutive record ids deleted in one transaction of the cleanup operation.
+     */
+    private static final String OP_MONITOR_CLEAN_BATCH_SIZE =
+            PREFIX + "op-monitor.clean-batch-size";
+
+    /**
+     * Property name of the pause in milliseconds between the deletes of the cleanup operation.
+     */
+    private static final String OP_MONITOR_CLEAN_BATCH_PAUSE_MILLIS =
+            PREFIX + "op-monitor.clean-batch-pause-millis";
+
+    /**
+     * Property name of the maximum duration in seconds of one cleanup operation.
+     */
+    private static final String OP_MONITOR_CLEAN_MAX_DURATION_SECONDS =
+            PREFIX + "op-monitor.clean-max-duration-seconds";
+
+    /**
+     * Property name of the flag for maintaining daily partitions of the operational data records in PostgreSQL.
+     */
+    private static final String OP_MONITOR_PARTITIONING_ENABLED =
+            PREFIX + "op-monitor.partitioning-enabled";
+
     /**
      * Property name of the maximum records in the get operational data response payload.
      */
@@ -190,6 +221,14 @@ public final class OpMonitoringSystemProperties {
         return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_CONNECTION_TIMEOUT_SECONDS, "30"));
     }
 
+    /**
+     * @return the maximum number of messages the operational monitoring buffer sends to the operational monitoring
+     * daemon concurrently, '4' by default.
+     */
+    public static int getOpMonitorBufferMaxConcurrentSenders() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_MAX_CONCURRENT_SENDERS, "4"));
+    }
+
     /**
      * @return the operational monitoring service HTTP client SO_TIMEOUT in seconds, '60' by default.
      */
@@ -264,6 +303,37 @@ public final class OpMonitoringSystemProperties {
         return System.getProperty(OP_MONITOR_CLEAN_INTERVAL, "0 0 0/12 1/1 * ? *");
     }
 
+    /**
+     * @return the number of consecutive record ids whose outdated records are deleted in one transaction of the
+     * cleanup operation, 10000 by default.
+     */
+    public static int getOpMonitorCleanBatchSize() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_CLEAN_BATCH_SIZE, "10000"));
+    }
+
+    /**
+     * @return the pause in milliseconds between the deletes of the cleanup operation, 100 by default.
+     */
+    public static long getOpMonitorCleanBatchPauseMillis() {
+        return Long.parseLong(System.getProperty(OP_MONITOR_CLEAN_BATCH_PAUSE_MILLIS, "100"));
+    }
+
+    /**
+     * @return the maximum duration in seconds of one cleanup operation, 3600 by default. The records left over are
+     * deleted by the next cleanup operation. Values less than 1 disable the limit.
+     */
+    public static long getOpMonitorCleanMaxDurationSeconds() {
+        return Long.parseLong(System.getProperty(OP_MONITOR_CLEAN_MAX_DURATION_SECONDS, "3600"));
+    }
+
+    /**
+     * @return whether daily partitions of the operational data records are created and the outdated partitions are
+     * dropped in PostgreSQL databases, true by default.
+     */
+    public static boolean isOpMonitorPartitioningEnabled() {
+        return Boolean.parseBoolean(System.getProperty(OP_MONITOR_PARTITIONING_ENABLED, "true"));
+    }
+
     /**
      * @return the maximum records in the get operational data response payload, 10000 by default.
      */
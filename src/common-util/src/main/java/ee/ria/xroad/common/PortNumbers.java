@@ -48,6 +48,9 @@ public final class PortNumbers {
     /** Signer Admin port. */
     public static final int SIGNER_ADMIN_PORT = 5559;
 
+    /** Signer RPC port. */
+    public static final int SIGNER_RPC_PORT = 5560;
+
     /** Center-Service HTTP port. */
     public static final int CENTER_SERVICE_HTTP_PORT = 3333;
 
@@ -48,6 +48,10 @@ public final class SystemProperties {
     public static final String CONFIGURATION_PATH =
             PREFIX + "common.configuration-path";
 
+    /** Property name of the flag to share identifiers parsed from SOAP headers between messages. */
+    public static final String INTERN_SOAP_IDENTIFIERS =
+            PREFIX + "common.intern-soap-identifiers";
+
     /** Property name of the default digital signature algorithm. */
     public static final String DEFAULT_SIGNATURE_ALGORITHM =
             PREFIX + "common.default-signature-algorithm";
@@ -223,6 +227,14 @@ public final class SystemProperties {
 
     private static final String PROXY_ACTORSYSTEM_PORT = PREFIX + "proxy.actorsystem-port";
 
+    /** Property name of the number of batches signed concurrently per signing certificate. */
+    public static final String PROXY_BATCH_SIGNER_MAX_CONCURRENT_BATCHES =
+            PREFIX + "proxy.batch-signer-max-concurrent-batches";
+
+    private static final String PROXY_BATCH_SIGNER_MAX_BATCH_SIZE = PREFIX + "proxy.batch-signer-max-batch-size";
+
+    private static final String PROXY_BATCH_SIGNER_MAX_LINGER_TIME = PREFIX + "proxy.batch-signer-max-linger-time";
+
     private static final String DEFAULT_SERVERPROXY_CONNECTOR_MAX_IDLE_TIME = "0";
 
     private static final String DEFAULT_SERVERPROXY_CONNECTOR_SO_LINGER = "0";
@@ -286,6 +298,14 @@ public final class SystemProperties {
     public static final String SIGNER_ADMIN_PORT =
             PREFIX + "signer.admin-port";
 
+    /** Property name of the Signer's RPC port number. */
+    public static final String SIGNER_RPC_PORT =
+            PREFIX + "signer.rpc-port";
+
+    /** Property name of the flag to send the signing requests to Signer using RPC. */
+    public static final String SIGNER_RPC_ENABLED =
+            PREFIX + "signer.rpc-enabled";
+
     /** Property name of the SignerClient's timeout. */
     public static final String SIGNER_CLIENT_TIMEOUT =
             PREFIX + "signer.client-timeout";
@@ -578,6 +598,13 @@ public final class SystemProperties {
         return System.getProperty(CONFIGURATION_PATH, getConfPath() + DefaultFilepaths.CONFIGURATION_PATH);
     }
 
+    /**
+     * @return true if identifiers parsed from SOAP headers should be interned, 'false' by default.
+     */
+    public static boolean isInternSoapIdentifiers() {
+        return Boolean.parseBoolean(System.getProperty(INTERN_SOAP_IDENTIFIERS, "false"));
+    }
+
     /**
      * @return path to the signing key configuration file, '/etc/xroad/signer/keyconf.xml' by default.
      */
@@ -718,6 +745,21 @@ public final class SystemProperties {
         return Integer.parseInt(System.getProperty(SIGNER_ADMIN_PORT, Integer.toString(PortNumbers.SIGNER_ADMIN_PORT)));
     }
 
+    /**
+     * @return the (localhost) port where Signer listens to the RPC requests, '5560' by default.
+     */
+    public static int getSignerRpcPort() {
+        return Integer.parseInt(System.getProperty(SIGNER_RPC_PORT, Integer.toString(PortNumbers.SIGNER_RPC_PORT)));
+    }
+
+    /**
+     * @return true if the signing requests (signing, OCSP responses and member signing info) are sent to Signer
+     * using RPC instead of Akka, 'true' by default.
+     */
+    public static boolean isSignerRpcEnabled() {
+        return Boolean.parseBoolean(System.getProperty(SIGNER_RPC_ENABLED, "true"));
+    }
+
     /**
      * @return the signer connection timeout in milliseconds, '60000' by default.
      */
@@ -942,6 +984,28 @@ public final class SystemProperties {
         return Integer.getInteger(PROXY_ACTORSYSTEM_PORT, PortNumbers.PROXY_ACTORSYSTEM_PORT);
     }
 
+    /**
+     * @return the maximum number of batches the batch signer signs concurrently with one key, '4' by default.
+     */
+    public static int getProxyBatchSignerMaxConcurrentBatches() {
+        return Integer.getInteger(PROXY_BATCH_SIGNER_MAX_CONCURRENT_BATCHES, 4);
+    }
+
+    /**
+     * @return the maximum number of messages the batch signer signs in one batch, '100' by default.
+     */
+    public static int getProxyBatchSignerMaxBatchSize() {
+        return Integer.getInteger(PROXY_BATCH_SIGNER_MAX_BATCH_SIZE, 100);
+    }
+
+    /**
+     * @return the maximum time in milliseconds the batch signer waits for more messages before signing a batch,
+     * '10' by default.
+     */
+    public static int getProxyBatchSignerMaxLingerTime() {
+        return Integer.getInteger(PROXY_BATCH_SIGNER_MAX_LINGER_TIME, 10);
+    }
+
     /**
      * @return environmental monitoring port, '2552' by default.
      */
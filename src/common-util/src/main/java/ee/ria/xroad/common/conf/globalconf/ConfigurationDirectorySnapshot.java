@@ -0,0 +1,84 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.CodedException;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+
+import java.nio.file.Path;
+
+import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
+
+/**
+ * Configuration directory that is read once and never reloaded. All the
+ * parameters, the instance identifier and the earliest expiration date of
+ * the configuration files are read in the constructor, so queries do not
+ * take locks or touch the file system. Changes are picked up by creating
+ * a new snapshot.
+ */
+@Slf4j
+public class ConfigurationDirectorySnapshot extends ConfigurationDirectoryV2 {
+
+    private Path firstExpiringFile;
+    private DateTime firstExpirationDate;
+
+    /**
+     * Reads the configuration directory from the given path.
+     * @param directoryPath the path to the directory.
+     * @throws Exception if loading configuration fails
+     */
+    public ConfigurationDirectorySnapshot(String directoryPath) throws Exception {
+        super(directoryPath, false);
+
+        getInstanceIdentifier();
+
+        eachFile(this::readExpirationDate);
+    }
+
+    /**
+     * Throws exception with error code ErrorCodes.X_OUTDATED_GLOBALCONF if any of the
+     * configuration files was too old at the time of the query.
+     */
+    @Override
+    public void verifyUpToDate() {
+        if (firstExpirationDate != null && firstExpirationDate.isBeforeNow()) {
+            log.info("{} expired on {}", firstExpiringFile, firstExpirationDate);
+
+            throw new CodedException(X_OUTDATED_GLOBALCONF, "%s is too old",
+                    firstExpiringFile);
+        }
+    }
+
+    private void readExpirationDate(Path fileName) {
+        try {
+            DateTime expiresOn = getMetadata(fileName).getExpirationDate();
+            if (firstExpirationDate == null || expiresOn.isBefore(firstExpirationDate)) {
+                firstExpiringFile = fileName;
+                firstExpirationDate = expiresOn;
+            }
+        } catch (Exception e) {
+            log.error("Failed to get expiration date of file " + fileName, e);
+        }
+    }
+}
@@ -54,6 +54,9 @@ import static ee.ria.xroad.common.conf.globalconf.ConfigurationUtils.escapeInsta
  * When querying the parameters from this class, the parameters XML is checked
  * for modifications and if the XML has been modified, the parameters are
  * reloaded from the XML.
+ *
+ * If automatic reload is disabled, the parameter maps are only replaced as
+ * a whole in {@link #reload()} and queries read them without locking.
  */
 @Slf4j
 public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
@@ -66,10 +69,10 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
     private Path path;
     private final boolean reloadIfChanged;
 
-    private String instanceIdentifier;
+    private volatile String instanceIdentifier;
 
-    private Map<String, PrivateParametersV2> privateParameters = new HashMap<>();
-    private Map<String, SharedParametersV2> sharedParameters = new HashMap<>();
+    private volatile Map<String, PrivateParametersV2> privateParameters = new HashMap<>();
+    private volatile Map<String, SharedParametersV2> sharedParameters = new HashMap<>();
 
     // ------------------------------------------------------------------------
 
@@ -100,12 +103,19 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * @return the instance identifier of this configuration. The instance
      * identifier is lazy initialized.
      */
-    public synchronized String getInstanceIdentifier() {
-        if (instanceIdentifier == null) {
-            loadInstanceIdentifier();
+    public String getInstanceIdentifier() {
+        String id = instanceIdentifier;
+        if (id != null) {
+            return id;
         }
 
-        return instanceIdentifier;
+        synchronized (this) {
+            if (instanceIdentifier == null) {
+                loadInstanceIdentifier();
+            }
+
+            return instanceIdentifier;
+        }
     }
 
     /**
@@ -142,18 +152,23 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * given instance identifier
      * @throws Exception if an error occurs while reading parameters
      */
-    public synchronized PrivateParametersV2 getPrivate(String instanceId)
+    public PrivateParametersV2 getPrivate(String instanceId)
             throws Exception {
         String safeInstanceId = escapeInstanceIdentifier(instanceId);
 
         log.trace("getPrivate(instance = {}, directory = {})",
                 instanceId, safeInstanceId);
 
-        PrivateParametersV2 parameters = privateParameters.get(safeInstanceId);
         if (!reloadIfChanged) {
-            return parameters;
+            return privateParameters.get(safeInstanceId);
         }
 
+        return getPrivateReloadIfChanged(safeInstanceId);
+    }
+
+    private synchronized PrivateParametersV2 getPrivateReloadIfChanged(
+            String safeInstanceId) throws Exception {
+        PrivateParametersV2 parameters = privateParameters.get(safeInstanceId);
         if (parameters != null && parameters.hasChanged()) {
             parameters.reload();
         } else if (parameters == null) {
@@ -172,17 +187,22 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * given instance identifier
      * @throws Exception if an error occurs while reading parameters
      */
-    public synchronized SharedParametersV2 getShared(String instanceId) throws Exception {
+    public SharedParametersV2 getShared(String instanceId) throws Exception {
         String safeInstanceId = escapeInstanceIdentifier(instanceId);
 
         log.trace("getShared(instance = {}, directory = {})",
                 instanceId, safeInstanceId);
 
-        SharedParametersV2 parameters = sharedParameters.get(safeInstanceId);
         if (!reloadIfChanged) {
-            return parameters;
+            return sharedParameters.get(safeInstanceId);
         }
 
+        return getSharedReloadIfChanged(safeInstanceId);
+    }
+
+    private synchronized SharedParametersV2 getSharedReloadIfChanged(
+            String safeInstanceId) throws Exception {
+        SharedParametersV2 parameters = sharedParameters.get(safeInstanceId);
         if (parameters != null && parameters.hasChanged()) {
             parameters.reload();
         } else if (parameters == null) {
@@ -197,8 +217,14 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
     /**
      * @return all known shared parameters
      */
-    public synchronized List<SharedParametersV2> getShared() {
-        return new ArrayList<>(sharedParameters.values());
+    public List<SharedParametersV2> getShared() {
+        if (!reloadIfChanged) {
+            return new ArrayList<>(sharedParameters.values());
+        }
+
+        synchronized (this) {
+            return new ArrayList<>(sharedParameters.values());
+        }
     }
 
     /**
@@ -32,11 +32,14 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import javax.xml.bind.JAXBElement;
@@ -50,31 +53,17 @@ import ee.ria.xroad.common.conf.AbstractXmlConf;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.GlobalGroupId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
-import lombok.AccessLevel;
-import lombok.Getter;
+import ee.ria.xroad.common.util.CryptoUtils;
 
 /**
  * Contains shared parameters of a configuration instance.
+ * The lookup indexes are built when the configuration is loaded and are
+ * replaced all at once, so a reader never sees partially built indexes.
  */
-@Getter(AccessLevel.PACKAGE)
 public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2> {
 
-    // Cached items, filled at conf reload
-    private final Map<X500Name, X509Certificate> subjectsAndCaCerts =
-            new HashMap<>();
-    private final Map<X509Certificate, String> caCertsAndCertProfiles =
-            new HashMap<>();
-    private final Map<X509Certificate, List<OcspInfoType>> caCertsAndOcspData =
-            new HashMap<>();
-    private final Map<ClientId, Set<String>> memberAddresses = new HashMap<>();
-    private final Map<ClientId, Set<byte[]>> memberAuthCerts = new HashMap<>();
-    private final Map<String, SecurityServerType> serverByAuthCert =
-            new HashMap<>();
-    private final Map<SecurityServerId, Set<ClientId>> securityServerClients =
-            new HashMap<>();
-    private final List<X509Certificate> verificationCaCerts = new ArrayList<>();
-    private final Set<String> knownAddresses = new HashSet<>();
-    private final Map<SecurityServerId, SecurityServerType> securityServersById = new HashMap<>();
+    // Cached items, replaced at conf reload
+    private volatile Indexes indexes = new Indexes();
 
     SharedParametersV2() {
         super(ObjectFactory.class, SharedParametersSchemaValidatorV2.class);
@@ -139,6 +128,16 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
                 .findFirst().orElse(null);
     }
 
+    boolean isGlobalGroupMember(GlobalGroupId groupId, ClientId subjectId) {
+        if (!groupId.getXRoadInstance().equals(
+                confType.getInstanceIdentifier())) {
+            return false;
+        }
+
+        Set<ClientId> members = indexes.globalGroupMembers.get(groupId.getGroupCode());
+        return members != null && members.contains(subjectId);
+    }
+
     X509Certificate getCaCertForSubject(X509Certificate subject)
             throws Exception {
         X509CertificateHolder certHolder =
@@ -147,7 +146,55 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             return null;
         }
 
-        return subjectsAndCaCerts.get(certHolder.getIssuer());
+        return indexes.subjectsAndCaCerts.get(certHolder.getIssuer());
+    }
+
+    Map<X500Name, X509Certificate> getSubjectsAndCaCerts() {
+        return indexes.subjectsAndCaCerts;
+    }
+
+    Map<X509Certificate, String> getCaCertsAndCertProfiles() {
+        return indexes.caCertsAndCertProfiles;
+    }
+
+    Map<X509Certificate, List<OcspInfoType>> getCaCertsAndOcspData() {
+        return indexes.caCertsAndOcspData;
+    }
+
+    Map<X509Certificate, Set<X509Certificate>> getCaCertsAndOcspResponderCerts() {
+        return indexes.caCertsAndOcspResponderCerts;
+    }
+
+    Map<ClientId, Set<String>> getMemberAddresses() {
+        return indexes.memberAddresses;
+    }
+
+    Map<ClientId, Set<String>> getMemberAuthCerts() {
+        return indexes.memberAuthCerts;
+    }
+
+    Map<String, SecurityServerType> getServerByAuthCert() {
+        return indexes.serverByAuthCert;
+    }
+
+    Map<SecurityServerId, Set<ClientId>> getSecurityServerClients() {
+        return indexes.securityServerClients;
+    }
+
+    List<X509Certificate> getVerificationCaCerts() {
+        return indexes.verificationCaCerts;
+    }
+
+    Set<String> getKnownAddresses() {
+        return indexes.knownAddresses;
+    }
+
+    Map<SecurityServerId, SecurityServerType> getSecurityServersById() {
+        return indexes.securityServersById;
+    }
+
+    List<X509Certificate> getTspCertificates() {
+        return indexes.tspCertificates;
     }
 
     @Override
@@ -159,10 +206,15 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         }
 
         try {
-            clearCache();
-            cacheCaCerts();
-            cacheKnownAddresses();
-            cacheSecurityServers();
+            Indexes loaded = new Indexes();
+            loaded.cacheCaCerts();
+            loaded.cacheKnownAddresses();
+            loaded.cacheSecurityServers();
+            loaded.cacheGlobalGroups();
+            loaded.cacheTspCertificates();
+            loaded.makeImmutable();
+
+            indexes = loaded;
         } catch (Exception e) {
             throw translateException(e);
         }
@@ -178,115 +230,168 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
 
     // ------------------------------------------------------------------------
 
-    private void clearCache() {
-        subjectsAndCaCerts.clear();
-        caCertsAndCertProfiles.clear();
-        caCertsAndOcspData.clear();
-        memberAddresses.clear();
-        memberAuthCerts.clear();
-        serverByAuthCert.clear();
-        securityServerClients.clear();
-        verificationCaCerts.clear();
-        knownAddresses.clear();
-        securityServersById.clear();
-    }
+    /**
+     * The lookup indexes of one loaded configuration. The indexes are filled
+     * before the instance is published and are not modified after that.
+     */
+    private final class Indexes {
+
+        private Map<X500Name, X509Certificate> subjectsAndCaCerts = new HashMap<>();
+        private Map<X509Certificate, String> caCertsAndCertProfiles = new HashMap<>();
+        private Map<X509Certificate, List<OcspInfoType>> caCertsAndOcspData = new HashMap<>();
+        private Map<X509Certificate, Set<X509Certificate>> caCertsAndOcspResponderCerts = new HashMap<>();
+        private Map<ClientId, Set<String>> memberAddresses = new HashMap<>();
+        private Map<ClientId, Set<String>> memberAuthCerts = new HashMap<>();
+        private Map<String, SecurityServerType> serverByAuthCert = new HashMap<>();
+        private Map<SecurityServerId, Set<ClientId>> securityServerClients = new HashMap<>();
+        private List<X509Certificate> verificationCaCerts = new ArrayList<>();
+        private Set<String> knownAddresses = new HashSet<>();
+        private Map<SecurityServerId, SecurityServerType> securityServersById = new HashMap<>();
+        private Map<String, Set<ClientId>> globalGroupMembers = new HashMap<>();
+        private List<X509Certificate> tspCertificates = new ArrayList<>();
+
+        private void makeImmutable() {
+            subjectsAndCaCerts = Collections.unmodifiableMap(subjectsAndCaCerts);
+            caCertsAndCertProfiles = Collections.unmodifiableMap(caCertsAndCertProfiles);
+            caCertsAndOcspData = immutableValues(caCertsAndOcspData, Collections::unmodifiableList);
+            caCertsAndOcspResponderCerts = immutableValues(caCertsAndOcspResponderCerts,
+                    Collections::unmodifiableSet);
+            memberAddresses = immutableValues(memberAddresses, Collections::unmodifiableSet);
+            memberAuthCerts = immutableValues(memberAuthCerts, Collections::unmodifiableSet);
+            serverByAuthCert = Collections.unmodifiableMap(serverByAuthCert);
+            securityServerClients = immutableValues(securityServerClients, Collections::unmodifiableSet);
+            verificationCaCerts = Collections.unmodifiableList(verificationCaCerts);
+            knownAddresses = Collections.unmodifiableSet(knownAddresses);
+            securityServersById = Collections.unmodifiableMap(securityServersById);
+            globalGroupMembers = immutableValues(globalGroupMembers, Collections::unmodifiableSet);
+            tspCertificates = Collections.unmodifiableList(tspCertificates);
+        }
+
+        private void cacheCaCerts() throws CertificateException, IOException {
+            List<X509Certificate> allCaCerts = new ArrayList<>();
 
-    private void cacheCaCerts() throws CertificateException, IOException {
-        List<X509Certificate> allCaCerts = new ArrayList<>();
+            for (ApprovedCATypeV2 caType : confType.getApprovedCA()) {
+                List<CaInfoType> topCAs = Arrays.asList(caType.getTopCA());
+                List<CaInfoType> intermediateCAs = caType.getIntermediateCA();
 
-        for (ApprovedCATypeV2 caType : confType.getApprovedCA()) {
-            List<CaInfoType> topCAs = Arrays.asList(caType.getTopCA());
-            List<CaInfoType> intermediateCAs = caType.getIntermediateCA();
+                cacheOcspData(topCAs);
+                cacheOcspData(intermediateCAs);
 
-            cacheOcspData(topCAs);
-            cacheOcspData(intermediateCAs);
+                List<X509Certificate> pkiCaCerts = new ArrayList<>();
 
-            List<X509Certificate> pkiCaCerts = new ArrayList<>();
+                pkiCaCerts.addAll(getTopOrIntermediateCaCerts(topCAs));
+                pkiCaCerts.addAll(getTopOrIntermediateCaCerts(intermediateCAs));
 
-            pkiCaCerts.addAll(getTopOrIntermediateCaCerts(topCAs));
-            pkiCaCerts.addAll(getTopOrIntermediateCaCerts(intermediateCAs));
+                Boolean authenticationOnly = caType.isAuthenticationOnly();
+                if (authenticationOnly == null || !authenticationOnly) {
+                    verificationCaCerts.addAll(pkiCaCerts);
+                }
 
-            Boolean authenticationOnly = caType.isAuthenticationOnly();
-            if (authenticationOnly == null || !authenticationOnly) {
-                verificationCaCerts.addAll(pkiCaCerts);
+                for (X509Certificate pkiCaCert : pkiCaCerts) {
+                    caCertsAndCertProfiles.put(pkiCaCert,
+                            caType.getCertificateProfileInfo());
+                }
+                allCaCerts.addAll(pkiCaCerts);
             }
 
-            for (X509Certificate pkiCaCert : pkiCaCerts) {
-                caCertsAndCertProfiles.put(pkiCaCert,
-                        caType.getCertificateProfileInfo());
+            for (X509Certificate cert : allCaCerts) {
+                X509CertificateHolder certHolder =
+                        new X509CertificateHolder(cert.getEncoded());
+                subjectsAndCaCerts.put(certHolder.getSubject(), cert);
             }
-            allCaCerts.addAll(pkiCaCerts);
         }
 
-        for (X509Certificate cert : allCaCerts) {
-            X509CertificateHolder certHolder =
-                    new X509CertificateHolder(cert.getEncoded());
-            subjectsAndCaCerts.put(certHolder.getSubject(), cert);
+        private void cacheKnownAddresses() {
+            confType.getSecurityServer().stream().map(s -> s.getAddress())
+                .filter(StringUtils::isNotBlank)
+                .forEach(knownAddresses::add);
         }
-    }
-
-    private void cacheKnownAddresses() {
-        confType.getSecurityServer().stream().map(s -> s.getAddress())
-            .filter(StringUtils::isNotBlank)
-            .forEach(knownAddresses::add);
-    }
-
-    private void cacheSecurityServers() {
-        // Map of XML ID fields mapped to client IDs
-        Map<String, ClientId> clientIds = getClientIds();
 
-        for (SecurityServerType securityServer : confType.getSecurityServer()) {
-            // Cache the server.
-            for (byte[] certHash: securityServer.getAuthCertHash()) {
-                serverByAuthCert.put(encodeBase64(certHash),
-                        securityServer);
+        private void cacheGlobalGroups() {
+            for (GlobalGroupType globalGroup : confType.getGlobalGroup()) {
+                globalGroupMembers.put(globalGroup.getGroupCode(),
+                        new HashSet<>(globalGroup.getGroupMember()));
             }
+        }
 
-            // Add owner of the security server.
-            MemberType owner = (MemberType) securityServer.getOwner();
-            addServerClient(createMemberId(owner), securityServer);
-
-            // cache security server information by serverId
-            SecurityServerId securityServerId = SecurityServerId.create(
-                    confType.getInstanceIdentifier(),
-                    owner.getMemberClass().getCode(),
-                    owner.getMemberCode(), securityServer.getServerCode());
-            securityServersById.put(securityServerId, securityServer);
+        private void cacheTspCertificates() {
+            confType.getApprovedTSA().stream().map(ApprovedTSAType::getCert)
+                .filter(Objects::nonNull)
+                .map(CryptoUtils::readCertificate)
+                .forEach(tspCertificates::add);
+        }
 
-            // Add clients of the security server.
-            for (JAXBElement<?> client : securityServer.getClient()) {
-                Object val = client.getValue();
+        private void cacheSecurityServers() {
+            // Map of XML ID fields mapped to client IDs
+            Map<String, ClientId> clientIds = getClientIds();
 
-                if (val instanceof MemberType) {
-                    addServerClient(createMemberId((MemberType) val),
-                            securityServer);
-                } else if (val instanceof SubsystemType) {
-                    addServerClient(
-                            clientIds.get(((SubsystemType) val).getId()),
+            for (SecurityServerType securityServer : confType.getSecurityServer()) {
+                // Cache the server.
+                for (byte[] certHash: securityServer.getAuthCertHash()) {
+                    serverByAuthCert.put(encodeBase64(certHash),
                             securityServer);
                 }
+
+                // Add owner of the security server.
+                MemberType owner = (MemberType) securityServer.getOwner();
+                addServerClient(createMemberId(owner), securityServer);
+
+                // cache security server information by serverId
+                SecurityServerId securityServerId = SecurityServerId.create(
+                        confType.getInstanceIdentifier(),
+                        owner.getMemberClass().getCode(),
+                        owner.getMemberCode(), securityServer.getServerCode());
+                securityServersById.put(securityServerId, securityServer);
+
+                // Add clients of the security server.
+                for (JAXBElement<?> client : securityServer.getClient()) {
+                    Object val = client.getValue();
+
+                    if (val instanceof MemberType) {
+                        addServerClient(createMemberId((MemberType) val),
+                                securityServer);
+                    } else if (val instanceof SubsystemType) {
+                        addServerClient(
+                                clientIds.get(((SubsystemType) val).getId()),
+                                securityServer);
+                    }
+                }
             }
         }
-    }
 
-    private void addServerClient(ClientId client, SecurityServerType server) {
-        // Add the mapping from client to security server address.
-        if (isNotBlank(server.getAddress())) {
-            addToMap(memberAddresses, client, server.getAddress());
-        }
+        private void addServerClient(ClientId client, SecurityServerType server) {
+            // Add the mapping from client to security server address.
+            if (isNotBlank(server.getAddress())) {
+                addToMap(memberAddresses, client, server.getAddress());
+            }
 
-        // Add the mapping from client to authentication certificate.
-        for (byte[] authCert : server.getAuthCertHash()) {
-            addToMap(memberAuthCerts, client, authCert);
-        }
+            // Add the mapping from client to authentication certificate hash.
+            for (byte[] authCertHash : server.getAuthCertHash()) {
+                addToMap(memberAuthCerts, client, encodeBase64(authCertHash));
+            }
 
-        MemberType owner = getOwner(server);
-        SecurityServerId securityServerId = SecurityServerId.create(
-                confType.getInstanceIdentifier(),
-                owner.getMemberClass().getCode(),
-                owner.getMemberCode(), server.getServerCode());
+            MemberType owner = getOwner(server);
+            SecurityServerId securityServerId = SecurityServerId.create(
+                    confType.getInstanceIdentifier(),
+                    owner.getMemberClass().getCode(),
+                    owner.getMemberCode(), server.getServerCode());
+
+            addToMap(securityServerClients, securityServerId, client);
+        }
 
-        addToMap(securityServerClients, securityServerId, client);
+        private void cacheOcspData(List<CaInfoType> typesUnderCA)
+                throws CertificateException, IOException {
+            for (CaInfoType caType : typesUnderCA) {
+                X509Certificate cert = readCertificate(caType.getCert());
+                List<OcspInfoType> caOcspTypes = caType.getOcsp();
+                caCertsAndOcspData.put(cert, caOcspTypes);
+                caCertsAndOcspResponderCerts.put(cert, caOcspTypes.stream()
+                        .map(OcspInfoType::getCert)
+                        .filter(Objects::nonNull)
+                        .map(CryptoUtils::readCertificate)
+                        .collect(Collectors.toSet()));
+            }
+        }
     }
 
     private Map<String, ClientId> getClientIds() {
@@ -304,13 +409,10 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         return ret;
     }
 
-    private void cacheOcspData(List<CaInfoType> typesUnderCA)
-            throws CertificateException, IOException {
-        for (CaInfoType caType : typesUnderCA) {
-            X509Certificate cert = readCertificate(caType.getCert());
-            List<OcspInfoType> caOcspTypes = caType.getOcsp();
-            caCertsAndOcspData.put(cert, caOcspTypes);
-        }
+    private static <K, V> Map<K, V> immutableValues(Map<K, V> map, UnaryOperator<V> immutable) {
+        map.replaceAll((key, value) -> immutable.apply(value));
+
+        return Collections.unmodifiableMap(map);
     }
 
     private static <K, V> void addToMap(Map<K, Set<V>> map, K key, V value) {
@@ -22,6 +22,8 @@
  */
 package ee.ria.xroad.common.identifier;
 
+import java.util.Objects;
+
 /**
  * Base class for group IDs.
  */
@@ -52,4 +54,14 @@ public abstract class AbstractGroupId extends XRoadId {
     protected String[] getFieldsForStringFormat() {
         return new String[] {groupCode};
     }
+
+    @Override
+    protected boolean equalsFields(XRoadId other) {
+        return Objects.equals(groupCode, ((AbstractGroupId) other).groupCode);
+    }
+
+    @Override
+    protected int hashCodeFields() {
+        return Objects.hashCode(groupCode);
+    }
 }
@@ -26,6 +26,8 @@ package ee.ria.xroad.common.identifier;
 import static ee.ria.xroad.common.identifier.XRoadObjectType.MEMBER;
 import static ee.ria.xroad.common.identifier.XRoadObjectType.SUBSYSTEM;
 
+import java.util.Objects;
+
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 /**
@@ -118,6 +120,19 @@ public final class ClientId extends XRoadId {
         return new String[] {memberClass, memberCode, subsystemCode};
     }
 
+    @Override
+    protected boolean equalsFields(XRoadId other) {
+        ClientId that = (ClientId) other;
+        return Objects.equals(memberClass, that.memberClass)
+                && Objects.equals(memberCode, that.memberCode)
+                && Objects.equals(subsystemCode, that.subsystemCode);
+    }
+
+    @Override
+    protected int hashCodeFields() {
+        return Objects.hash(memberClass, memberCode, subsystemCode);
+    }
+
     /**
      * Factory method for creating a new Subsystem.
      * @param xRoadInstance instance of the new subsystem
@@ -22,6 +22,8 @@
  */
 package ee.ria.xroad.common.identifier;
 
+import java.util.Objects;
+
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 /**
@@ -55,6 +57,17 @@ public final class SecurityCategoryId extends XRoadId {
         return new String[] {securityCategory};
     }
 
+    @Override
+    protected boolean equalsFields(XRoadId other) {
+        return Objects.equals(securityCategory,
+                ((SecurityCategoryId) other).securityCategory);
+    }
+
+    @Override
+    protected int hashCodeFields() {
+        return Objects.hashCode(securityCategory);
+    }
+
     /**
      * Factory method for creating a new GlobalGroupId.
      * @param xRoadInstance instance of the new security category
@@ -22,6 +22,8 @@
  */
 package ee.ria.xroad.common.identifier;
 
+import java.util.Objects;
+
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 /**
@@ -84,6 +86,19 @@ public final class SecurityServerId extends XRoadId {
         return new String[] {memberClass, memberCode, serverCode};
     }
 
+    @Override
+    protected boolean equalsFields(XRoadId other) {
+        SecurityServerId that = (SecurityServerId) other;
+        return Objects.equals(memberClass, that.memberClass)
+                && Objects.equals(memberCode, that.memberCode)
+                && Objects.equals(serverCode, that.serverCode);
+    }
+
+    @Override
+    protected int hashCodeFields() {
+        return Objects.hash(memberClass, memberCode, serverCode);
+    }
+
     /**
      * Factory method for creating a new SecurityServerId.
      * @param xRoadInstance instance of the new security server
@@ -22,6 +22,8 @@
  */
 package ee.ria.xroad.common.identifier;
 
+import java.util.Objects;
+
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 /**
@@ -115,6 +117,22 @@ public class ServiceId extends XRoadId {
                 serviceVersion };
     }
 
+    @Override
+    protected boolean equalsFields(XRoadId other) {
+        ServiceId that = (ServiceId) other;
+        return Objects.equals(serviceCode, that.serviceCode)
+                && Objects.equals(memberCode, that.memberCode)
+                && Objects.equals(memberClass, that.memberClass)
+                && Objects.equals(subsystemCode, that.subsystemCode)
+                && Objects.equals(serviceVersion, that.serviceVersion);
+    }
+
+    @Override
+    protected int hashCodeFields() {
+        return Objects.hash(memberClass, memberCode, subsystemCode,
+                serviceCode, serviceVersion);
+    }
+
     /**
      * Factory method for creating a new ServiceId.
      * @param client ID of the service provider
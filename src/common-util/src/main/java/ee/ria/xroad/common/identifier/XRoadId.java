@@ -23,11 +23,10 @@
 package ee.ria.xroad.common.identifier;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang3.StringUtils;
 
 
@@ -42,6 +41,9 @@ public abstract class XRoadId implements Serializable {
 
     private Long id; // used for references in database
 
+    // Lazily computed, since Hibernate sets the fields after construction
+    private transient int hash;
+
     XRoadId() {
         this(null, null);
     }
@@ -74,16 +76,45 @@ public abstract class XRoadId implements Serializable {
     public boolean equals(Object obj) {
         // exclude 'id' field, because it is not part of identifier
         // and all identifiers are unique
-        return EqualsBuilder.reflectionEquals(this, obj, new String[] {"id"});
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        XRoadId other = (XRoadId) obj;
+        return type == other.type
+                && Objects.equals(xRoadInstance, other.xRoadInstance)
+                && equalsFields(other);
     }
 
     @Override
     public int hashCode() {
-        // exclude 'id' field, because it is not part of identifier
-        // and all identifiers are unique
-        return HashCodeBuilder.reflectionHashCode(this, new String[] {"id"});
+        int h = hash;
+        if (h == 0) {
+            h = 31 * Objects.hashCode(type) + Objects.hashCode(xRoadInstance);
+            h = 31 * h + hashCodeFields();
+            hash = h;
+        }
+
+        return h;
     }
 
+    /**
+     * Compares the fields declared by the subclass.
+     * @param other identifier of the same class as this identifier
+     * @return true if the fields of the subclass are equal
+     */
+    protected abstract boolean equalsFields(XRoadId other);
+
+    /**
+     * Returns the hash code of the fields declared by the subclass.
+     * @return int
+     */
+    protected abstract int hashCodeFields();
+
     @Override
     public String toString() {
         return type + ":" + toShortString();
@@ -40,6 +40,8 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.soap.SOAPException;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
@@ -49,6 +51,7 @@ import org.apache.commons.io.input.BOMInputStream;
 import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.operator.DigestCalculator;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -56,15 +59,18 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DefaultHandler2;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.identifier.CentralServiceId;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadId;
 import ee.ria.xroad.common.identifier.XRoadObjectType;
 import ee.ria.xroad.common.util.MimeUtils;
 
 import static ee.ria.xroad.common.ErrorCodes.*;
 import static ee.ria.xroad.common.message.SoapUtils.validateMimeType;
+import static ee.ria.xroad.common.util.CryptoUtils.createDigestCalculator;
 import static ee.ria.xroad.common.util.MimeUtils.UTF8;
 import static ee.ria.xroad.common.util.MimeUtils.hasUtf8Charset;
 
@@ -160,6 +166,12 @@ public class SaxSoapParserImpl implements SoapParser {
 
     private static final SAXParserFactory PARSER_FACTORY = createSaxParserFactory();
 
+    // Identifiers parsed from the headers are shared between messages when
+    // interning is enabled, so the same client or service is not kept in
+    // memory once per message and its hash code is computed only once.
+    private static final Interner<XRoadId> IDENTIFIERS = SystemProperties.isInternSoapIdentifiers()
+            ? Interners.newWeakInterner() : null;
+
     @Override
     public Soap parse(String contentType, InputStream is) {
         String mimeType = MimeUtils.getBaseContentType(contentType);
@@ -183,27 +195,37 @@ public class SaxSoapParserImpl implements SoapParser {
     private Soap parseMessage(InputStream is, String mimeType, String contentType, String charset) throws Exception {
         log.trace("parseMessage({}, {})", mimeType, charset);
 
-        ByteArrayOutputStream rawXml = new ByteArrayOutputStream();
+        RawXmlBuffer rawXml = createRawXmlBuffer();
         ByteArrayOutputStream processedXml = new ByteArrayOutputStream();
 
         InputStream proxyStream = excludeUtf8Bom(contentType, new TeeInputStream(is, rawXml));
         Writer outputWriter = new OutputStreamWriter(processedXml, charset);
-        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream);
+        XRoadSoapHandler handler = handleSoap(outputWriter, rawXml, proxyStream);
 
         CodedException fault = handler.getFault();
         if (fault != null) {
-            return createSoapFault(charset, rawXml, fault);
+            // the raw XML is only released for non-fault bodies, but a fault
+            // may still follow the body element in a malformed message
+            ByteArrayOutputStream faultXml = rawXml.isReleased() ? processedXml : rawXml;
+            return createSoapFault(charset, faultXml, fault);
         }
 
-        byte[] xmlBytes = isProcessedXmlRequired() ? processedXml.toByteArray() : rawXml.toByteArray();
+        if (isProcessedXmlRequired()) {
+            return createSoapMessage(contentType, charset, handler, processedXml.toByteArray(), null);
+        }
 
-        return createSoapMessage(contentType, charset, handler, xmlBytes);
+        return createSoapMessage(contentType, charset, handler, rawXml.toByteArray(),
+                rawXml.getDigest(SoapUtils.getHashAlgoId()));
     }
 
-    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream)
+    RawXmlBuffer createRawXmlBuffer() {
+        return new RawXmlBuffer();
+    }
+
+    private XRoadSoapHandler handleSoap(Writer writer, RawXmlBuffer rawXml, InputStream inputStream)
             throws Exception {
         try (BufferedWriter out = new BufferedWriter(writer)) {
-            XRoadSoapHandler handler = new XRoadSoapHandler(out);
+            XRoadSoapHandler handler = new XRoadSoapHandler(out, rawXml);
             SAXParser saxParser = PARSER_FACTORY.newSAXParser();
             XMLReader xmlReader = saxParser.getXMLReader();
             xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
@@ -219,9 +241,9 @@ public class SaxSoapParserImpl implements SoapParser {
     }
 
     private static Soap createSoapMessage(String contentType, String charset,
-            XRoadSoapHandler handler, byte[] xmlBytes) throws Exception {
+            XRoadSoapHandler handler, byte[] xmlBytes, byte[] hash) throws Exception {
         return new SoapMessageImpl(xmlBytes, charset, handler.getHeader(),
-                null, handler.getServiceName(), handler.isRpc(), contentType);
+                null, handler.getServiceName(), handler.isRpc(), contentType, hash);
     }
 
     private static Soap createSoapFault(String charset,
@@ -244,9 +266,17 @@ public class SaxSoapParserImpl implements SoapParser {
         return factory;
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T extends XRoadId> T intern(T id) {
+        return IDENTIFIERS != null ? (T) IDENTIFIERS.intern(id) : id;
+    }
+
     /**
      * Determines whether the raw XML of the SOAP message should be re-encoded
-     * or if the original should be used in the output.
+     * or if the original should be used in the output. The value returned once
+     * the SOAP header has been parsed must not change during the rest of the
+     * message, since the raw XML is not buffered beyond that point if
+     * processed XML is required.
      * @return false by default
      */
     protected boolean isProcessedXmlRequired() {
@@ -296,6 +326,8 @@ public class SaxSoapParserImpl implements SoapParser {
 
         private final BufferedWriter out;
 
+        private final RawXmlBuffer rawXml;
+
         private char[] xmlEntity;
 
         private Stack<XmlElementHandler> elementHandlers = new Stack<>();
@@ -352,12 +384,25 @@ public class SaxSoapParserImpl implements SoapParser {
         }
 
         private void handleElement(Attributes attributes, QName element) {
-            XmlElementHandler elementHandler = elementHandlers.peek().getChildElementHandler(element);
+            XmlElementHandler parentHandler = elementHandlers.peek();
+            if (parentHandler instanceof SoapBodyHandler) {
+                handleBodyContent(element);
+            }
+
+            XmlElementHandler elementHandler = parentHandler.getChildElementHandler(element);
             elementHandler.setAttributes(attributes);
             elementHandler.openTag();
             elementHandlers.push(elementHandler);
         }
 
+        private void handleBodyContent(QName element) {
+            // The header has been parsed by now, so the output can be decided.
+            // Keeping the raw XML is pointless if the processed XML is used.
+            if (!element.equals(QNAME_SOAP_FAULT) && isProcessedXmlRequired()) {
+                rawXml.release();
+            }
+        }
+
         private void handleRootElement(Attributes attributes, QName element) {
             if (element.equals(QNAME_SOAP_ENVELOPE)) {
                 envelopeHandler = new SoapEnvelopeHandler(getSoapHeaderHandler(header));
@@ -470,6 +515,55 @@ public class SaxSoapParserImpl implements SoapParser {
         }
     }
 
+    /**
+     * Buffer for the raw XML of the message. The buffer can be released when
+     * it is known that the processed XML will be used instead, so that large
+     * messages are not held in memory twice. The hash of the raw XML is only
+     * calculated if the raw XML is used, directly from the buffer.
+     */
+    static class RawXmlBuffer extends ByteArrayOutputStream {
+        @Getter
+        private boolean released;
+
+        @Override
+        public synchronized void write(int b) {
+            if (!released) {
+                super.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (!released) {
+                super.write(b, off, len);
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            buf = new byte[0];
+            count = 0;
+        }
+
+        /**
+         * Calculates the hash of the buffered raw XML without copying it.
+         * @param hashAlgoId the hash algorithm identifier
+         * @return the hash or null if the buffer has been released
+         */
+        @SneakyThrows
+        synchronized byte[] getDigest(String hashAlgoId) {
+            if (released) {
+                return null;
+            }
+
+            DigestCalculator digestCalculator = createDigestCalculator(hashAlgoId);
+            digestCalculator.getOutputStream().write(buf, 0, count);
+            digestCalculator.getOutputStream().close();
+
+            return digestCalculator.getDigest();
+        }
+    }
+
     private static void validateDuplicateHeader(QName qName,
             Object existing) {
         if (existing != null) {
@@ -858,11 +952,11 @@ public class SaxSoapParserImpl implements SoapParser {
 
         @Override
         public void closeTag() {
-            onClientCallback.accept(ClientId.create(
+            onClientCallback.accept(intern(ClientId.create(
                     getValue(QNAME_ID_INSTANCE),
                     getValue(QNAME_ID_MEMBER_CLASS),
                     getValue(QNAME_ID_MEMBER_CODE),
-                    getValue(QNAME_ID_SUBSYSTEM_CODE)));
+                    getValue(QNAME_ID_SUBSYSTEM_CODE))));
         }
     }
 
@@ -890,13 +984,13 @@ public class SaxSoapParserImpl implements SoapParser {
 
         @Override
         protected void closeTag() {
-            onServiceCallback.accept(ServiceId.create(
+            onServiceCallback.accept(intern(ServiceId.create(
                     getValue(QNAME_ID_INSTANCE),
                     getValue(QNAME_ID_MEMBER_CLASS),
                     getValue(QNAME_ID_MEMBER_CODE),
                     getValue(QNAME_ID_SUBSYSTEM_CODE),
                     getValue(QNAME_ID_SERVICE_CODE),
-                    getValue(QNAME_ID_SERVICE_VERSION)));
+                    getValue(QNAME_ID_SERVICE_VERSION))));
         }
     }
 
@@ -981,9 +1075,9 @@ public class SaxSoapParserImpl implements SoapParser {
 
         @Override
         protected void closeTag() {
-            onServiceCallback.accept(CentralServiceId.create(
+            onServiceCallback.accept(intern(CentralServiceId.create(
                     getValue(QNAME_ID_INSTANCE),
-                    getValue(QNAME_ID_SERVICE_CODE)));
+                    getValue(QNAME_ID_SERVICE_CODE))));
         }
     }
 
@@ -1010,11 +1104,11 @@ public class SaxSoapParserImpl implements SoapParser {
 
         @Override
         protected void closeTag() {
-            onServiceCallback.accept(SecurityServerId.create(
+            onServiceCallback.accept(intern(SecurityServerId.create(
                     getValue(QNAME_ID_INSTANCE),
                     getValue(QNAME_ID_MEMBER_CLASS),
                     getValue(QNAME_ID_MEMBER_CODE),
-                    getValue(QNAME_ID_SERVER_CODE)));
+                    getValue(QNAME_ID_SERVER_CODE))));
         }
     }
 
@@ -44,13 +44,23 @@ public class SoapMessageImpl extends AbstractSoapMessage<SoapHeader> {
     SoapMessageImpl(byte[] rawXml, String charset, SoapHeader header,
             SOAPMessage soap, String serviceName, boolean isRpcEncoded,
             String originalContentType) throws Exception {
+        this(rawXml, charset, header, soap, serviceName, isRpcEncoded,
+                originalContentType, null);
+    }
+
+    SoapMessageImpl(byte[] rawXml, String charset, SoapHeader header,
+            SOAPMessage soap, String serviceName, boolean isRpcEncoded,
+            String originalContentType, byte[] hash) throws Exception {
         super(rawXml, charset, header, soap, isResponseMessage(serviceName),
                 isRpcEncoded, originalContentType);
+
+        this.hash = hash;
     }
 
     /**
      * Lazy method to retrieve the hash of the message, will calculate it
-     * on the first invocation of the method.
+     * on the first invocation of the method unless it was already calculated
+     * while the message was being parsed.
      * @return hash of the message
      */
     @SneakyThrows
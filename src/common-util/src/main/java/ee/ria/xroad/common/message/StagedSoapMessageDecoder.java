@@ -0,0 +1,218 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.stream.EntityState;
+import org.apache.james.mime4j.stream.Field;
+import org.apache.james.mime4j.stream.MimeConfig;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+
+import ee.ria.xroad.common.CodedException;
+
+import static ee.ria.xroad.common.ErrorCodes.*;
+import static ee.ria.xroad.common.util.MimeTypes.*;
+import static ee.ria.xroad.common.util.MimeUtils.HEADER_CONTENT_TYPE;
+import static ee.ria.xroad.common.util.MimeUtils.getBaseContentType;
+
+/**
+ * Decodes SOAP messages from an input stream in two stages. First the SOAP
+ * part is read, after which the caller can decide where to send the message
+ * before the attachments are read. Unlike {@link SoapMessageDecoder}, the
+ * multipart message is pulled from the stream by the calling thread, so the
+ * attachments can be streamed directly to their destination.
+ */
+@Slf4j
+public class StagedSoapMessageDecoder {
+
+    private final String contentType;
+    private final Callback callback;
+    private final String baseContentType;
+    private final SoapParser parser;
+
+    private MimeTokenStream mimeStream;
+
+    private Map<String, String> headers;
+    private String partContentType;
+
+    /**
+     * Callback interface for handling the decoded parts of the message.
+     */
+    public interface Callback extends SoapMessageConsumer {
+
+        /**
+         * Called when SoapFault has been completely read.
+         *
+         * @param fault SOAP fault that's been read from the stream
+         * @throws Exception in case of any errors
+         */
+        void fault(SoapFault fault) throws Exception;
+    }
+
+    /**
+     * Creates a new staged SOAP message decoder of the given content type
+     * and with the provided callback and SOAP parser implementation.
+     *
+     * @param contentType the expected content type
+     * @param callback    the callback to handle the decoded parts
+     * @param parserImpl  SOAP parser implementation to use
+     */
+    public StagedSoapMessageDecoder(String contentType, Callback callback,
+                                    SoapParser parserImpl) {
+        this.contentType = contentType;
+        this.callback = callback;
+        this.parser = parserImpl;
+
+        this.baseContentType = getBaseContentType(contentType);
+    }
+
+    /**
+     * Decodes the SOAP part of the message from the given input stream.
+     * For multipart messages the stream is read only up to the end of the
+     * SOAP part, the rest must be read using {@link #parseAttachments()}.
+     *
+     * @param soapStream input stream with the SOAP message data
+     * @throws Exception if any errors occur
+     */
+    public void parseSoap(InputStream soapStream) throws Exception {
+        if (baseContentType == null) {
+            throw new CodedException(X_INVALID_REQUEST,
+                    "Could not get content type from request");
+        }
+
+        switch (baseContentType.toLowerCase()) {
+            case TEXT_XML:
+            case XOP_XML:
+                handleSoap(parser.parse(contentType, soapStream), new HashMap<>());
+                break;
+            case MULTIPART_RELATED:
+                readMultipartSoap(soapStream);
+                break;
+            default:
+                throw new CodedException(X_INVALID_CONTENT_TYPE,
+                        "Invalid content type: %s", baseContentType);
+        }
+    }
+
+    /**
+     * Decodes the attachments that follow the SOAP part of a multipart
+     * message. Does nothing if the message is not multipart.
+     *
+     * @throws Exception if any errors occur
+     */
+    public void parseAttachments() throws Exception {
+        if (mimeStream == null) {
+            return;
+        }
+
+        while (nextBodyPart()) {
+            log.trace("Read attachment from multipart: {}", partContentType);
+
+            callback.attachment(partContentType, mimeStream.getInputStream(), headers);
+        }
+    }
+
+    private void readMultipartSoap(InputStream is) throws Exception {
+        log.trace("readMultipartSoap");
+
+        headers = new HashMap<>();
+        partContentType = contentType;
+
+        mimeStream = new MimeTokenStream(new MimeConfig());
+        mimeStream.parseHeadless(is, contentType);
+
+        if (nextBodyPart()) {
+            // First part, consisting of the SOAP message.
+            log.trace("Read SOAP from multipart: {}", partContentType);
+
+            handleSoap(parser.parse(partContentType, mimeStream.getInputStream()), headers);
+        }
+    }
+
+    private void handleSoap(Soap soap, Map<String, String> soapHeaders) throws Exception {
+        if (soap instanceof SoapMessage) {
+            callback.soap((SoapMessage) soap, soapHeaders);
+        } else if (soap instanceof SoapFault) {
+            callback.fault((SoapFault) soap);
+        } else {
+            throw new CodedException(X_INTERNAL_ERROR, "Unexpected SOAP message");
+        }
+    }
+
+    /**
+     * Advances the MIME stream to the body of the next part, collecting the
+     * part headers on the way.
+     * @return false if the end of the stream was reached
+     */
+    private boolean nextBodyPart() throws Exception {
+        try {
+            EntityState state = mimeStream.next();
+
+            while (state != EntityState.T_END_OF_STREAM) {
+                switch (state) {
+                    case T_START_HEADER:
+                        headers = new HashMap<>();
+                        partContentType = null;
+                        break;
+                    case T_FIELD:
+                        addField(mimeStream.getField());
+                        break;
+                    case T_BODY:
+                        if (!headers.isEmpty()) {
+                            log.trace("headers: {}", headers);
+                        }
+
+                        if (partContentType == null) {
+                            throw new CodedException(X_INVALID_CONTENT_TYPE,
+                                    "Could not get content type for part");
+                        }
+
+                        return true;
+                    default:
+                        break;
+                }
+
+                state = mimeStream.next();
+            }
+
+            return false;
+        } catch (MimeException ex) {
+            // We catch the mime parsing separately because this indicates
+            // invalid request from client and we want to report it as that.
+            throw new CodedException(X_MIME_PARSING_FAILED, ex);
+        }
+    }
+
+    private void addField(Field field) {
+        if (field.getName().toLowerCase().equals(HEADER_CONTENT_TYPE)) {
+            partContentType = field.getBody();
+        } else {
+            headers.put(field.getName(), field.getBody());
+        }
+    }
+}
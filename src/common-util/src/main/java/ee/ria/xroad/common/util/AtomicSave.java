@@ -46,9 +46,26 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public final class AtomicSave {
 
+    /**
+     * Suffix of the temporary files written next to the target files.
+     * Directory scanners must skip the files with this suffix.
+     */
+    public static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final String TEMP_FILE_PREFIX = ".";
+
     private AtomicSave() {
     }
 
+    /**
+     * Checks whether the given file is a temporary file of an atomic save.
+     * @param file the file
+     * @return true if the file is a temporary file
+     */
+    public static boolean isTempFile(Path file) {
+        return file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX);
+    }
+
     /**
      * Functional interface for a callback that should be executed when data is being saved.
      */
@@ -65,6 +82,8 @@ public final class AtomicSave {
     /**
      * Atomically executes the given callback as part of the atomic save to the
      * provided filename. If an error occurs no changes to the file will be made.
+     * The data is written to a hidden temporary file in the directory of the
+     * target file, which is then moved in place of the target file.
      * @param fileName filename where data should be atomically saved
      * @param tmpPrefix prefix of the temporary file used in the process
      * @param callback callback that should be executed when data is atomically saved
@@ -77,19 +96,24 @@ public final class AtomicSave {
         Path target = Paths.get(fileName);
         Path parentPath = target.getParent();
 
-        Path tempFile = DefaultFilepaths.createTempFile(parentPath, tmpPrefix, null);
+        Path tempFile = DefaultFilepaths.createTempFile(parentPath,
+                TEMP_FILE_PREFIX + tmpPrefix, TEMP_FILE_SUFFIX);
 
-        SeekableByteChannel channel = Files.newByteChannel(tempFile, CREATE,
-                WRITE, TRUNCATE_EXISTING, DSYNC);
+        try {
+            SeekableByteChannel channel = Files.newByteChannel(tempFile, CREATE,
+                    WRITE, TRUNCATE_EXISTING, DSYNC);
 
-        try (OutputStream out = Channels.newOutputStream(channel)) {
-            callback.save(out);
-        }
+            try (OutputStream out = Channels.newOutputStream(channel)) {
+                callback.save(out);
+            }
 
-        if (options.length == 0) {
-            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
-        } else {
-            Files.move(tempFile, target, options);
+            if (options.length == 0) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(tempFile, target, options);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
     }
 
@@ -31,6 +31,8 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
 
 /**
  * This class encapsulates the sending and receiving of content via HTTP POST
@@ -95,6 +97,34 @@ public class HttpSender extends AbstractHttpSender {
         doRequest(post);
     }
 
+    /**
+     * Sends data produced by the given content producer using POST method
+     * to some address. The content is written to the connection by the
+     * calling thread using chunked transfer encoding.
+     * Method blocks until response becomes available, after which
+     * {@link #getResponseContent()} and {@link #getResponseContentType()}
+     * can be used to retrieve the response.
+     *
+     * @param address the address to send
+     * @param content the producer that writes the content to send
+     * @param contentType the content type of the input data
+     * @throws Exception if an error occurs
+     */
+    public void doPost(URI address, ContentProducer content, String contentType) throws Exception {
+        log.trace("doPost(address = {}, connectionTimeout = {}, socketTimeout = {})", address, connectionTimeout,
+                socketTimeout);
+
+        EntityTemplate entity = new EntityTemplate(content);
+        entity.setChunked(true);
+        entity.setContentType(contentType);
+
+        HttpPost post = new HttpPost(address);
+        post.setConfig(getRequestConfig());
+        post.setEntity(entity);
+
+        doRequest(post);
+    }
+
     @Override
     public void doGet(URI address) throws Exception {
         log.trace("doGet(address = {}, connectionTimeout = {}, socketTimeout = {})", address, connectionTimeout,
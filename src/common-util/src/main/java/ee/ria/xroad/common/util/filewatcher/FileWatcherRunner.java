@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
@@ -42,6 +43,7 @@ public final class FileWatcherRunner {
     private final ExecutorService executor;
     private final FileWatcher watcher;
 
+    private volatile Future<?> running;
 
     public static Builder create() {
         return new Builder();
@@ -144,10 +146,18 @@ public final class FileWatcherRunner {
     }
 
     private FileWatcherRunner start() {
-        executor.execute(watcher);
+        running = executor.submit(watcher);
         return this;
     }
 
+    /**
+     * @return true if the watcher has not stopped, either on request or
+     * because watching the file failed
+     */
+    public boolean isRunning() {
+        return !running.isDone();
+    }
+
     /**
      * Stop the running watcher
      */
@@ -108,6 +108,25 @@ public class ConfigurationDirectoryTest {
                         + ConfigurationDirectoryV2.PRIVATE_PARAMETERS_XML));
     }
 
+    /**
+     * Test to ensure a configuration directory snapshot is read properly.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void readDirectorySnapshot() throws Exception {
+        ConfigurationDirectorySnapshot dir = new ConfigurationDirectorySnapshot(
+                "src/test/resources/globalconf_good_v2");
+
+        assertEquals("EE", dir.getInstanceIdentifier());
+        assertEquals("foo", dir.getPrivate("foo").getInstanceIdentifier());
+        assertEquals("foo", dir.getShared("foo").getInstanceIdentifier());
+        assertNull(dir.getPrivate("bar"));
+        assertNotNull(dir.getShared("bar"));
+        assertEquals(3, dir.getShared().size());
+
+        dir.verifyUpToDate();
+    }
+
     /**
      * Test to ensure a correct configuration directory is read properly.
      * @throws Exception in case of any unexpected errors
@@ -0,0 +1,216 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.GlobalGroupType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+/**
+ * Shared parameters lookup benchmark program. Generates a configuration with
+ * the given number of members, each with a subsystem and a security server,
+ * and measures the indexed lookups of the global configuration. The global
+ * group membership lookup is also compared with scanning the group members.
+ */
+public final class SharedParametersV2Benchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final String INSTANCE = "EE";
+
+    private static final String MEMBER_CLASS = "BUSINESS";
+
+    private static final String GROUP_CODE = "Benchmark group";
+
+    private SharedParametersV2Benchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments: the number of members and the
+     * number of lookups per round
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        SharedParametersV2 parameters = load(members);
+
+        List<ClientId> memberIds = new ArrayList<>();
+        List<ClientId> subsystemIds = new ArrayList<>();
+        List<SecurityServerId> serverIds = new ArrayList<>();
+        List<String> authCertHashes = new ArrayList<>();
+        List<String> addresses = new ArrayList<>();
+
+        for (int i = 0; i < members; i++) {
+            memberIds.add(ClientId.create(INSTANCE, MEMBER_CLASS, getMemberCode(i)));
+            subsystemIds.add(ClientId.create(INSTANCE, MEMBER_CLASS, getMemberCode(i), "subsystem"));
+            serverIds.add(SecurityServerId.create(INSTANCE, MEMBER_CLASS, getMemberCode(i), "server" + i));
+            authCertHashes.add(getAuthCertHash(i));
+            addresses.add(getAddress(i));
+        }
+
+        GlobalGroupId groupId = GlobalGroupId.create(INSTANCE, GROUP_CODE);
+        GlobalGroupType group = parameters.findGlobalGroup(groupId);
+
+        List<String> names = new ArrayList<>();
+        List<IntPredicate> benchmarks = new ArrayList<>();
+
+        add(names, benchmarks, "group", i -> parameters.isGlobalGroupMember(groupId, memberIds.get(i)));
+        add(names, benchmarks, "group scan", i -> group.getGroupMember().contains(memberIds.get(i)));
+        add(names, benchmarks, "address", i -> parameters.getMemberAddresses().get(subsystemIds.get(i)) != null);
+        add(names, benchmarks, "known", i -> parameters.getKnownAddresses().contains(addresses.get(i)));
+        add(names, benchmarks, "server", i -> parameters.getSecurityServersById().get(serverIds.get(i)) != null);
+        add(names, benchmarks, "client", i -> parameters.getSecurityServerClients().get(serverIds.get(i))
+                .contains(subsystemIds.get(i)));
+        add(names, benchmarks, "auth cert", i -> parameters.getServerByAuthCert().get(authCertHashes.get(i)) != null);
+        add(names, benchmarks, "auth certs", i -> parameters.getMemberAuthCerts().get(memberIds.get(i)) != null);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            for (IntPredicate benchmark : benchmarks) {
+                run(benchmark, members, lookups);
+            }
+        }
+
+        for (int i = 0; i < benchmarks.size(); i++) {
+            report(names.get(i), run(benchmarks.get(i), members, lookups), members, lookups);
+        }
+    }
+
+    private static void add(List<String> names, List<IntPredicate> benchmarks, String name, IntPredicate lookup) {
+        names.add(name);
+        benchmarks.add(lookup);
+    }
+
+    /**
+     * Writes the generated configuration into a temporary file and loads it.
+     */
+    private static SharedParametersV2 load(int members) throws Exception {
+        String template = new String(Files.readAllBytes(
+                Paths.get(SharedParametersV2Test.CONF_DIR, INSTANCE, "shared-params.xml")), StandardCharsets.UTF_8);
+
+        StringBuilder memberXml = new StringBuilder();
+        StringBuilder serverXml = new StringBuilder();
+        StringBuilder groupXml = new StringBuilder("    <globalGroup>\n        <groupCode>" + GROUP_CODE
+                + "</groupCode>\n        <description>Every other member</description>\n");
+
+        for (int i = 0; i < members; i++) {
+            memberXml.append("    <member id=\"m").append(i).append("\">\n")
+                    .append("        <memberClass><code>").append(MEMBER_CLASS)
+                    .append("</code><description>1</description></memberClass>\n")
+                    .append("        <memberCode>").append(getMemberCode(i)).append("</memberCode>\n")
+                    .append("        <name>Member ").append(i).append("</name>\n")
+                    .append("        <subsystem id=\"s").append(i).append("\">")
+                    .append("<subsystemCode>subsystem</subsystemCode></subsystem>\n")
+                    .append("    </member>\n");
+
+            serverXml.append("    <securityServer>\n")
+                    .append("        <owner>m").append(i).append("</owner>\n")
+                    .append("        <serverCode>server").append(i).append("</serverCode>\n")
+                    .append("        <address>").append(getAddress(i)).append("</address>\n")
+                    .append("        <authCertHash>").append(getAuthCertHash(i)).append("</authCertHash>\n")
+                    .append("        <client>s").append(i).append("</client>\n")
+                    .append("    </securityServer>\n");
+
+            if (i % 2 == 0) {
+                groupXml.append("        <groupMember id:objectType=\"MEMBER\">")
+                        .append("<id:xRoadInstance>").append(INSTANCE).append("</id:xRoadInstance>")
+                        .append("<id:memberClass>").append(MEMBER_CLASS).append("</id:memberClass>")
+                        .append("<id:memberCode>").append(getMemberCode(i)).append("</id:memberCode>")
+                        .append("</groupMember>\n");
+            }
+        }
+
+        groupXml.append("    </globalGroup>\n");
+
+        String xml = insertBefore(template, "    <member id=\"producerId\">", memberXml);
+        xml = insertBefore(xml, "    <globalGroup>", serverXml);
+        xml = insertBefore(xml, "    <centralService>", groupXml);
+
+        Path file = Files.createTempFile("shared-params", ".xml");
+        file.toFile().deleteOnExit();
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+
+        SharedParametersV2 parameters = new SharedParametersV2();
+        parameters.load(file.toString());
+
+        return parameters;
+    }
+
+    private static String insertBefore(String xml, String element, CharSequence inserted) {
+        int index = xml.indexOf(element);
+        if (index < 0) {
+            throw new IllegalStateException("Template has no " + element.trim());
+        }
+
+        return xml.substring(0, index) + inserted + xml.substring(index);
+    }
+
+    private static String getMemberCode(int i) {
+        return "member" + i;
+    }
+
+    private static String getAddress(int i) {
+        return "server" + i + ".example.com";
+    }
+
+    private static String getAuthCertHash(int i) {
+        return CryptoUtils.encodeBase64(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long run(IntPredicate lookup, int members, int lookups) {
+        int found = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < lookups; i++) {
+            if (lookup.test(i % members)) {
+                found++;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (found < 0) {
+            // keeps the lookups from being optimized away
+            System.out.println(found);
+        }
+
+        return elapsed;
+    }
+
+    private static void report(String name, long elapsed, int members, int lookups) {
+        System.out.printf("%-10s %d members, %d lookups, %.1f ns/lookup%n", name, members, lookups,
+                (double) elapsed / lookups);
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.GlobalGroupType;
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberType;
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the indexes of the shared parameters give the same answers
+ * as scanning the parameters.
+ */
+public class SharedParametersV2Test {
+
+    static final String CONF_DIR = "src/test/resources/globalconf_good_v2/";
+
+    /**
+     * Tests that global group membership is answered as by scanning the
+     * group members.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void globalGroupMembersMatchGroups() throws Exception {
+        SharedParametersV2 parameters = load("EE");
+
+        for (GlobalGroupType group : parameters.getGlobalGroups()) {
+            GlobalGroupId groupId = parameters.createGlobalGroupId(group);
+
+            for (ClientId subject : getSubjects(parameters)) {
+                assertEquals(subject + " in " + groupId,
+                        group.getGroupMember().contains(subject),
+                        parameters.isGlobalGroupMember(groupId, subject));
+            }
+        }
+    }
+
+    /**
+     * Tests that global groups of other instances and unknown groups have
+     * no members.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void unknownGlobalGroupHasNoMembers() throws Exception {
+        SharedParametersV2 parameters = load("EE");
+        ClientId member = parameters.getGlobalGroups().get(0).getGroupMember().get(0);
+
+        assertTrue(parameters.isGlobalGroupMember(GlobalGroupId.create("EE", "Test group"), member));
+        assertFalse(parameters.isGlobalGroupMember(GlobalGroupId.create("foo", "Test group"), member));
+        assertFalse(parameters.isGlobalGroupMember(GlobalGroupId.create("EE", "foo"), member));
+    }
+
+    /**
+     * Tests that the indexes are rebuilt when other parameters are loaded.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void reloadReplacesIndexes() throws Exception {
+        SharedParametersV2 parameters = load("EE");
+        ClientId eeMember = parameters.getGlobalGroups().get(0).getGroupMember().get(0);
+
+        parameters.load(CONF_DIR + "bar/shared-params.xml");
+
+        ClientId barMember = parameters.getGlobalGroups().get(0).getGroupMember().get(0);
+
+        assertFalse(parameters.isGlobalGroupMember(GlobalGroupId.create("EE", "Test group"), eeMember));
+        assertFalse(parameters.isGlobalGroupMember(GlobalGroupId.create("bar", "Test group"), eeMember));
+        assertTrue(parameters.isGlobalGroupMember(GlobalGroupId.create("bar", "Test group"), barMember));
+    }
+
+    /**
+     * Tests that the indexes cannot be modified and that a reload publishes
+     * new indexes instead of changing the ones already handed out.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void reloadDoesNotModifyPublishedIndexes() throws Exception {
+        SharedParametersV2 parameters = load("EE");
+
+        Set<String> knownAddresses = parameters.getKnownAddresses();
+        Set<String> knownAddressesCopy = new HashSet<>(knownAddresses);
+        Map<ClientId, Set<String>> memberAddresses = parameters.getMemberAddresses();
+        int memberCount = memberAddresses.size();
+
+        parameters.load(CONF_DIR + "bar/shared-params.xml");
+
+        assertNotSame(knownAddresses, parameters.getKnownAddresses());
+        assertEquals(knownAddressesCopy, knownAddresses);
+        assertEquals(memberCount, memberAddresses.size());
+
+        try {
+            parameters.getKnownAddresses().clear();
+            fail("Known addresses must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+
+        try {
+            memberAddresses.values().iterator().next().clear();
+            fail("Member addresses must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    static SharedParametersV2 load(String instanceIdentifier) throws Exception {
+        SharedParametersV2 parameters = new SharedParametersV2();
+        parameters.load(CONF_DIR + instanceIdentifier + "/shared-params.xml");
+
+        return parameters;
+    }
+
+    static Set<ClientId> getSubjects(SharedParametersV2 parameters) {
+        Set<ClientId> subjects = new HashSet<>();
+
+        for (MemberType member : parameters.getMembers()) {
+            subjects.add(parameters.createMemberId(member));
+
+            for (SubsystemType subsystem : member.getSubsystem()) {
+                subjects.add(parameters.createSubsystemId(member, subsystem));
+            }
+        }
+
+        for (GlobalGroupType group : parameters.getGlobalGroups()) {
+            subjects.addAll(group.getGroupMember());
+        }
+
+        subjects.add(ClientId.create(parameters.getInstanceIdentifier(), "BUSINESS", "unknown"));
+
+        return subjects;
+    }
+}
@@ -26,15 +26,23 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -274,5 +282,83 @@ public class IdentifierEqualsAndHashCodeTest {
         Object outputId = oin.readObject();
         assertNotNull(outputId);
         assertEquals(inputId, outputId);
+        assertEquals(inputId.hashCode(), outputId.hashCode());
+    }
+
+    /**
+     * Test case to ensure that a hash code cached before serialization is
+     * consistent with the hash code computed after deserialization.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void cachedHashCodeShouldMatchAfterDeserialization() throws Exception {
+        XRoadId inputId = provider.provideVariant1();
+        int hashCode = inputId.hashCode();
+
+        XRoadId outputId = (XRoadId) serializeAndDeserialize(inputId);
+
+        assertEquals(hashCode, outputId.hashCode());
+        assertEquals(provider.provideVariant1().hashCode(), outputId.hashCode());
+        assertTrue(outputId.equals(inputId));
+        assertTrue(inputId.equals(outputId));
+    }
+
+    /**
+     * Test case to ensure that identifiers can be looked up from a
+     * deserialized set and vice versa.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deserializedSetShouldContainIdentifiers() throws Exception {
+        Set<XRoadId> ids = new HashSet<>(Arrays.asList(provider.provideVariant1(),
+                provider.provideVariant2(), provider.provideVariant3()));
+
+        Set<XRoadId> outputIds = (Set<XRoadId>) serializeAndDeserialize(ids);
+
+        assertEquals(ids, outputIds);
+        assertTrue(outputIds.contains(provider.provideVariant1()));
+        assertFalse(outputIds.contains(provider.provideVariant4()));
+
+        for (XRoadId outputId : outputIds) {
+            assertTrue(ids.contains(outputId));
+        }
+    }
+
+    /**
+     * Test case to ensure that interned and non-interned identifiers are
+     * equal and have the same hash codes.
+     */
+    @Test
+    public void internedShouldEqualNonInterned() {
+        Interner<XRoadId> interner = Interners.newWeakInterner();
+
+        XRoadId interned = interner.intern(provider.provideVariant1());
+        XRoadId nonInterned = provider.provideVariant1();
+
+        assertSame(interned, interner.intern(provider.provideVariant1()));
+        assertNotSame(interned, interner.intern(provider.provideVariant2()));
+        assertNotSame(interned, nonInterned);
+
+        assertEquals(interned, nonInterned);
+        assertEquals(nonInterned, interned);
+        assertEquals(interned.hashCode(), nonInterned.hashCode());
+
+        Set<XRoadId> ids = new HashSet<>();
+        ids.add(interned);
+
+        assertTrue(ids.contains(nonInterned));
+    }
+
+    private static Object serializeAndDeserialize(Object input) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(input);
+        }
+
+        try (ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return oin.readObject();
+        }
     }
 }
@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.identifier;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+/**
+ * Identifier lookup benchmark program. Compares looking up services in a
+ * hash map with identifiers parsed anew for every lookup, with interned
+ * identifiers and with the reflection based equals and hash code that the
+ * identifiers used before.
+ */
+public final class XRoadIdBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int SERVICES = 1000;
+
+    private static final String[] EXCLUDED_FIELDS = {"id", "hash"};
+
+    private XRoadIdBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments: the number of lookups per round
+     */
+    public static void main(String[] args) {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        Map<ServiceId, Integer> services = new HashMap<>();
+        Map<ReflectionKey, Integer> reflectionServices = new HashMap<>();
+
+        for (int i = 0; i < SERVICES; i++) {
+            services.put(createServiceId(i), i);
+            reflectionServices.put(new ReflectionKey(createServiceId(i)), i);
+        }
+
+        Interner<XRoadId> interner = Interners.newWeakInterner();
+
+        Function<Integer, Integer> parsed = i -> services.get(createServiceId(i));
+        Function<Integer, Integer> interned = i -> services.get((ServiceId) interner.intern(createServiceId(i)));
+        Function<Integer, Integer> reflection = i -> reflectionServices.get(new ReflectionKey(createServiceId(i)));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(parsed, lookups);
+            run(interned, lookups);
+            run(reflection, lookups);
+        }
+
+        report("parsed", run(parsed, lookups), lookups);
+        report("interned", run(interned, lookups), lookups);
+        report("reflection", run(reflection, lookups), lookups);
+    }
+
+    private static ServiceId createServiceId(int i) {
+        // new strings, as when the identifier is parsed from a message
+        return ServiceId.create(new String("EE"), new String("BUSINESS"), "member" + i % 100, null,
+                "service" + i);
+    }
+
+    private static long run(Function<Integer, Integer> lookup, int lookups) {
+        long found = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < lookups; i++) {
+            found += lookup.apply(i % SERVICES);
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (found < 0) {
+            // keeps the lookups from being optimized away
+            System.out.println(found);
+        }
+
+        return elapsed;
+    }
+
+    private static void report(String name, long elapsed, int lookups) {
+        System.out.printf("%-10s %d lookups, %.1f ns/lookup%n", name, lookups, (double) elapsed / lookups);
+    }
+
+    /**
+     * Map key with the reflection based equals and hash code.
+     */
+    private static final class ReflectionKey {
+        private final XRoadId id;
+
+        ReflectionKey(XRoadId id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ReflectionKey
+                    && EqualsBuilder.reflectionEquals(id, ((ReflectionKey) obj).id, EXCLUDED_FIELDS);
+        }
+
+        @Override
+        public int hashCode() {
+            return HashCodeBuilder.reflectionHashCode(id, EXCLUDED_FIELDS);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ee.ria.xroad.common.message.SaxSoapParserImpl.RawXmlBuffer;
+import ee.ria.xroad.common.util.MimeTypes;
+
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.fileToBytes;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the buffering and hashing of the raw XML in the SAX SOAP parser.
+ */
+public class SaxSoapParserImplTest {
+
+    private static final String[] QUERIES = {
+        "simple.query", "simple-rpc.query", "simple-representedparty.query"
+    };
+
+    /**
+     * Test that the hash of the raw XML calculated while parsing is the same
+     * as the hash calculated from the bytes of the message afterwards.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void rawXmlHashEqualsHashOfMessageBytes() throws Exception {
+        String hashAlgoId = SoapUtils.getHashAlgoId();
+
+        for (String query : QUERIES) {
+            byte[] in = fileToBytes(query);
+            TestSaxSoapParser parser = new TestSaxSoapParser(false);
+            SoapMessageImpl message = parse(parser, in);
+
+            assertFalse(parser.rawXml.isReleased());
+            assertArrayEquals(query, in, message.getBytes());
+            assertArrayEquals(query, calculateDigest(hashAlgoId, in), parser.rawXml.getDigest(hashAlgoId));
+            assertArrayEquals(query, calculateDigest(hashAlgoId, message.getBytes()), message.getHash());
+        }
+    }
+
+    /**
+     * Test that the raw XML is released if processed XML is required and
+     * that the hash is then calculated from the processed XML.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void processedXmlReleasesRawXml() throws Exception {
+        String hashAlgoId = SoapUtils.getHashAlgoId();
+
+        for (String query : QUERIES) {
+            byte[] in = fileToBytes(query);
+            TestSaxSoapParser parser = new TestSaxSoapParser(true);
+            SoapMessageImpl message = parse(parser, in);
+
+            assertTrue(query, parser.rawXml.isReleased());
+            assertEquals(query, 0, parser.rawXml.size());
+            assertNull(query, parser.rawXml.getDigest(hashAlgoId));
+
+            // the processed XML omits the XML declaration of the input
+            assertFalse(query, Arrays.equals(in, message.getBytes()));
+            assertArrayEquals(query, calculateDigest(hashAlgoId, message.getBytes()), message.getHash());
+            assertFalse(query, Arrays.equals(calculateDigest(hashAlgoId, in), message.getHash()));
+        }
+    }
+
+    /**
+     * Test that a released buffer ignores any further bytes.
+     */
+    @Test
+    public void releasedBufferIgnoresWrites() {
+        RawXmlBuffer buffer = new RawXmlBuffer();
+        byte[] bytes = "<a/>".getBytes(StandardCharsets.UTF_8);
+
+        buffer.write(bytes, 0, bytes.length);
+        assertEquals(bytes.length, buffer.size());
+
+        buffer.release();
+        buffer.write(bytes, 0, bytes.length);
+        buffer.write('b');
+
+        assertTrue(buffer.isReleased());
+        assertEquals(0, buffer.size());
+        assertNull(buffer.getDigest(SoapUtils.getHashAlgoId()));
+    }
+
+    private static SoapMessageImpl parse(SaxSoapParserImpl parser, byte[] in) {
+        return (SoapMessageImpl) parser.parse(MimeTypes.TEXT_XML_UTF8, new ByteArrayInputStream(in));
+    }
+
+    private static final class TestSaxSoapParser extends SaxSoapParserImpl {
+        private final boolean processedXmlRequired;
+
+        private RawXmlBuffer rawXml;
+
+        TestSaxSoapParser(boolean processedXmlRequired) {
+            this.processedXmlRequired = processedXmlRequired;
+        }
+
+        @Override
+        RawXmlBuffer createRawXmlBuffer() {
+            rawXml = super.createRawXmlBuffer();
+            return rawXml;
+        }
+
+        @Override
+        protected boolean isProcessedXmlRequired() {
+            return processedXmlRequired;
+        }
+    }
+}
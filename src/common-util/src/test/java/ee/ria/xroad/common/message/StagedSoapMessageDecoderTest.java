@@ -0,0 +1,274 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+
+import ee.ria.xroad.common.util.ExpectedCodedException;
+
+import static ee.ria.xroad.common.ErrorCodes.*;
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.fileToBytes;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the staged SOAP message decoder.
+ */
+public class StagedSoapMessageDecoderTest {
+
+    private static final String BOUNDARY = "jetty771207119h3h10dty";
+
+    private static final String MULTIPART_CONTENT_TYPE =
+            "multipart/related; charset=UTF-8; type=\"text/xml\"; boundary=" + BOUNDARY;
+
+    private static final int ATTACHMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public ExpectedCodedException thrown = ExpectedCodedException.none();
+
+    /**
+     * Test that a plain SOAP message is decoded and that attachment
+     * parsing is a no-op for it.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void plainSoap() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        StagedSoapMessageDecoder decoder = createDecoder("text/xml; charset=UTF-8", callback);
+
+        decoder.parseSoap(new ByteArrayInputStream(fileToBytes("simple.query")));
+
+        assertNotNull(callback.soap);
+        assertEquals("1234567890", ((SoapMessageImpl) callback.soap).getQueryId());
+
+        decoder.parseAttachments();
+
+        assertTrue(callback.attachments.isEmpty());
+    }
+
+    /**
+     * Test that the SOAP part of a multipart message is decoded before
+     * the attachments are read and that the attachments are passed to the
+     * callback in order with their headers.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void multipartWithAttachments() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        StagedSoapMessageDecoder decoder = createDecoder(MULTIPART_CONTENT_TYPE, callback);
+
+        decoder.parseSoap(new ByteArrayInputStream(multipart(
+                part("text/xml; charset=UTF-8", new String(fileToBytes("simple.query"), StandardCharsets.UTF_8)),
+                part("application/octet-stream", "first attachment"),
+                part("text/plain", "second attachment"))));
+
+        assertNotNull(callback.soap);
+        assertTrue(callback.attachments.isEmpty());
+
+        decoder.parseAttachments();
+
+        assertEquals(2, callback.attachments.size());
+        assertEquals("application/octet-stream", callback.contentTypes.get(0));
+        assertEquals("first attachment", callback.attachments.get(0));
+        assertEquals("text/plain", callback.contentTypes.get(1));
+        assertEquals("second attachment", callback.attachments.get(1));
+        assertEquals("<attachment-1>", callback.headers.get(0).get("Content-ID"));
+    }
+
+    /**
+     * Test that malformed XML is reported as invalid XML.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void malformedXml() throws Exception {
+        thrown.expectError(X_INVALID_XML);
+
+        createDecoder("text/xml; charset=UTF-8", new RecordingCallback())
+                .parseSoap(new ByteArrayInputStream("<SOAP-ENV:Envelope".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Test that an unsupported content type is rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void invalidContentType() throws Exception {
+        thrown.expectError(X_INVALID_CONTENT_TYPE);
+
+        createDecoder("application/json", new RecordingCallback())
+                .parseSoap(new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * Test that an attachment without a content type is rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void attachmentWithoutContentType() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        StagedSoapMessageDecoder decoder = createDecoder(MULTIPART_CONTENT_TYPE, callback);
+
+        decoder.parseSoap(new ByteArrayInputStream(multipart(
+                part("text/xml; charset=UTF-8", new String(fileToBytes("simple.query"), StandardCharsets.UTF_8)),
+                part(null, "attachment"))));
+
+        thrown.expectError(X_INVALID_CONTENT_TYPE);
+
+        decoder.parseAttachments();
+    }
+
+    /**
+     * Test that a failure of the client stream in the middle of an
+     * attachment is passed to the caller after the SOAP part has been
+     * handled, and no incomplete attachment is reported as read.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void streamFailureInAttachment() throws Exception {
+        byte[] message = multipart(
+                part("text/xml; charset=UTF-8", new String(fileToBytes("simple.query"), StandardCharsets.UTF_8)),
+                part("application/octet-stream", StringUtils.repeat('x', ATTACHMENT_SIZE)));
+
+        int failAt = message.length / 2;
+
+        RecordingCallback callback = new RecordingCallback();
+        StagedSoapMessageDecoder decoder = createDecoder(MULTIPART_CONTENT_TYPE, callback);
+
+        decoder.parseSoap(new FailingInputStream(message, failAt));
+
+        assertNotNull(callback.soap);
+
+        try {
+            decoder.parseAttachments();
+            fail("Expected the stream failure to be passed to the caller");
+        } catch (IOException expected) {
+            assertTrue(callback.attachments.isEmpty());
+        }
+    }
+
+    private static StagedSoapMessageDecoder createDecoder(String contentType, RecordingCallback callback) {
+        return new StagedSoapMessageDecoder(contentType, callback, new SoapParserImpl());
+    }
+
+    private static String part(String contentType, String content) {
+        StringBuilder sb = new StringBuilder();
+
+        if (contentType != null) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+
+        if (contentType == null || !contentType.startsWith("text/xml")) {
+            sb.append("Content-ID: <attachment-1>\r\n");
+        }
+
+        return sb.append("\r\n").append(content).toString();
+    }
+
+    private static byte[] multipart(String... parts) {
+        StringBuilder sb = new StringBuilder();
+
+        for (String part : parts) {
+            sb.append("--").append(BOUNDARY).append("\r\n").append(part).append("\r\n");
+        }
+
+        return sb.append("--").append(BOUNDARY).append("--\r\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordingCallback implements StagedSoapMessageDecoder.Callback {
+        private SoapMessage soap;
+        private final List<String> contentTypes = new ArrayList<>();
+        private final List<String> attachments = new ArrayList<>();
+        private final List<Map<String, String>> headers = new ArrayList<>();
+
+        @Override
+        public void soap(SoapMessage message, Map<String, String> additionalHeaders) throws Exception {
+            soap = message;
+        }
+
+        @Override
+        public void attachment(String contentType, InputStream content, Map<String, String> additionalHeaders)
+                throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtils.copy(content, out);
+
+            contentTypes.add(contentType);
+            attachments.add(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            headers.add(additionalHeaders);
+        }
+
+        @Override
+        public void fault(SoapFault fault) throws Exception {
+            fail("Unexpected SOAP fault");
+        }
+    }
+
+    /**
+     * Input stream that fails after the given number of bytes.
+     */
+    private static final class FailingInputStream extends FilterInputStream {
+        private int remaining;
+
+        FailingInputStream(byte[] data, int failAt) {
+            super(new ByteArrayInputStream(data));
+            this.remaining = failAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+
+            remaining--;
+
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+
+            int read = super.read(b, off, Math.min(len, remaining));
+
+            if (read > 0) {
+                remaining -= read;
+            }
+
+            return read;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests sending content produced by a content producer with the HTTP sender.
+ */
+public class HttpSenderTest {
+
+    private static final URI ADDRESS = URI.create("http://127.0.0.1:8080/");
+
+    private HttpClient client;
+    private AtomicReference<HttpPost> sentRequest;
+    private ByteArrayOutputStream sentContent;
+
+    /**
+     * Sets up a HTTP client mock that writes the request entity into a buffer
+     * and returns a fixed response.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        client = mock(HttpClient.class);
+        sentRequest = new AtomicReference<>();
+        sentContent = new ByteArrayOutputStream();
+
+        when(client.execute(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(invocation -> {
+            HttpPost post = (HttpPost) invocation.getArguments()[0];
+            sentRequest.set(post);
+
+            post.getEntity().writeTo(sentContent);
+
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            response.setEntity(new StringEntity("response", ContentType.TEXT_XML));
+
+            return response;
+        });
+    }
+
+    /**
+     * Test that the produced content is sent chunked with the given content
+     * type and that the response is available afterwards.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void sendProducedContent() throws Exception {
+        try (HttpSender sender = new HttpSender(client)) {
+            sender.doPost(ADDRESS, out -> out.write("request".getBytes(StandardCharsets.UTF_8)),
+                    MimeTypes.TEXT_XML_UTF8);
+
+            assertTrue(sentRequest.get().getEntity().isChunked());
+            assertEquals(MimeTypes.TEXT_XML_UTF8, sentRequest.get().getEntity().getContentType().getValue());
+            assertEquals("request", new String(sentContent.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals("response", IOUtils.toString(sender.getResponseContent(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Test that a producer failure in the middle of the content is passed
+     * to the caller and the request is aborted.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void producerFailureInMiddleOfContent() throws Exception {
+        IOException failure = new IOException("Failed to write request");
+
+        try (HttpSender sender = new HttpSender(client)) {
+            sender.doPost(ADDRESS, out -> {
+                out.write("partial".getBytes(StandardCharsets.UTF_8));
+
+                throw failure;
+            }, MimeTypes.TEXT_XML_UTF8);
+
+            fail("Expected the producer failure to be passed to the caller");
+        } catch (IOException expected) {
+            assertSame(failure, expected);
+            assertEquals("partial", new String(sentContent.toByteArray(), StandardCharsets.UTF_8));
+            assertTrue(sentRequest.get().isAborted());
+        }
+    }
+}
@@ -33,14 +33,24 @@ import ee.ria.xroad.common.identifier.GlobalGroupId;
 import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.util.AtomicSave;
+import ee.ria.xroad.common.util.filewatcher.FileWatcherRunner;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
@@ -66,6 +76,33 @@ public final class GlobalConf {
 
     private static volatile GlobalConfProvider instance;
 
+    private static final String DOWNLOADED_FILES = "files";
+
+    // Events that arrive within this delay from the first one are handled
+    // by a single reload
+    private static final long SNAPSHOT_RELOAD_DELAY_MILLIS = 1000;
+
+    // Interval of the fallback check that restarts a stopped watcher and
+    // reloads the snapshot if the configuration directory has changed
+    private static final long SNAPSHOT_CHECK_INTERVAL_SECONDS = 60;
+
+    // Set when the configuration is published as snapshots that are
+    // replaced by the watcher whenever the configuration client has
+    // finished downloading the configuration.
+    private static volatile FileWatcherRunner snapshotWatcher;
+
+    private static volatile ScheduledExecutorService snapshotScheduler;
+
+    private static final AtomicBoolean SNAPSHOT_RELOAD_SCHEDULED = new AtomicBoolean();
+
+    // Fingerprint of the configuration directory the current snapshot
+    // was loaded from
+    private static volatile long snapshotFingerprint;
+
+    // Set when a provider has been given explicitly, in which case it is
+    // never replaced by a snapshot.
+    private static volatile boolean providerFixed;
+
     private GlobalConf() {
     }
 
@@ -88,24 +125,184 @@ public final class GlobalConf {
      * Initializes current instance of conf for the calling thread.
      * Example usage: calling this method in RequestProcessor to have
      * a copy of current config for the current message.
+     *
+     * The first call starts watching the configuration directory, which is
+     * also checked periodically in case the watcher misses a change; after
+     * that the calling thread only reads the latest published snapshot and
+     * does not take locks or access the file system.
      */
     public static void initForCurrentThread() {
         log.trace("initForCurrentThread()");
 
+        if (snapshotWatcher == null && !providerFixed) {
+            startSnapshotWatcher();
+        }
+
+        THREAD_LOCAL.set(instance);
+    }
+
+    private static synchronized void startSnapshotWatcher() {
+        if (snapshotWatcher != null || providerFixed) {
+            return;
+        }
+
+        try {
+            snapshotFingerprint = getConfigurationFingerprint();
+            instance = instanceFactory.createSnapshotInstance();
+        } catch (Exception e) {
+            log.error("Failed to load global configuration snapshot", e);
+        }
+
         if (instance == null) {
             instance = instanceFactory.createInstance(false);
         }
 
-        reloadIfChanged();
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "GlobalConfSnapshotReloader");
+            thread.setDaemon(true);
 
-        THREAD_LOCAL.set(instance);
+            return thread;
+        });
+
+        snapshotWatcher = createSnapshotWatcher();
+
+        snapshotScheduler.scheduleWithFixedDelay(GlobalConf::checkSnapshot,
+                SNAPSHOT_CHECK_INTERVAL_SECONDS, SNAPSHOT_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static FileWatcherRunner createSnapshotWatcher() {
+        // The configuration client rewrites the list of downloaded files
+        // after all the files of a download cycle have been written
+        return FileWatcherRunner.create()
+                .watchForChangesIn(Paths.get(SystemProperties.getConfigurationPath(), DOWNLOADED_FILES))
+                .listenToCreate().listenToModify()
+                .andOnChangeNotify(GlobalConf::scheduleSnapshotReload)
+                .buildAndStartWatcher();
+    }
+
+    private static void scheduleSnapshotReload() {
+        ScheduledExecutorService scheduler = snapshotScheduler;
+
+        if (scheduler != null && SNAPSHOT_RELOAD_SCHEDULED.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                SNAPSHOT_RELOAD_SCHEDULED.set(false);
+                reloadSnapshot();
+            }, SNAPSHOT_RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void checkSnapshot() {
+        log.trace("checkSnapshot()");
+
+        synchronized (GlobalConf.class) {
+            if (snapshotWatcher != null && !snapshotWatcher.isRunning()) {
+                log.warn("Global configuration watcher has stopped, restarting it");
+
+                snapshotWatcher.stop();
+                snapshotWatcher = createSnapshotWatcher();
+            }
+        }
+
+        reloadSnapshot();
+    }
+
+    private static void reloadSnapshot() {
+        log.trace("reloadSnapshot()");
+
+        GlobalConfProvider snapshot;
+        long fingerprint;
+        try {
+            fingerprint = getConfigurationFingerprint();
+
+            if (fingerprint == snapshotFingerprint) {
+                log.trace("Global configuration has not changed");
+                return;
+            }
+
+            snapshot = instanceFactory.createSnapshotInstance();
+        } catch (Exception e) {
+            log.error("Failed to reload global configuration, "
+                    + "keeping the previous configuration", e);
+            return;
+        }
+
+        synchronized (GlobalConf.class) {
+            if (snapshot != null && !providerFixed) {
+                instance = snapshot;
+                snapshotFingerprint = fingerprint;
+            }
+        }
+    }
+
+    /**
+     * The configuration client writes a file only when its content or
+     * metadata has changed, so the names, sizes and modification times of
+     * the files tell whether the snapshot is out of date. The list of
+     * downloaded files is rewritten on every download cycle and is left out,
+     * as are the temporary files of saves in progress.
+     */
+    private static long getConfigurationFingerprint() throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> paths = Files.walk(Paths.get(SystemProperties.getConfigurationPath()))) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(file -> !AtomicSave.isTempFile(file))
+                    .filter(file -> !file.getFileName().toString().equals(DOWNLOADED_FILES))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        long fingerprint = 1;
+
+        for (Path file : files) {
+            fingerprint = 31 * fingerprint + file.hashCode();
+
+            try {
+                fingerprint = 31 * fingerprint + Files.size(file);
+                fingerprint = 31 * fingerprint + Files.getLastModifiedTime(file).toMillis();
+            } catch (IOException e) {
+                // the file was removed after listing, which counts as a change
+                fingerprint = 31 * fingerprint;
+            }
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Stops watching the configuration directory and forgets the current
+     * configuration, after which the configuration is loaded again on the
+     * next use. Used in tests.
+     */
+    static synchronized void reset() {
+        if (snapshotWatcher != null) {
+            snapshotWatcher.stop();
+            snapshotScheduler.shutdownNow();
+        }
+
+        snapshotWatcher = null;
+        snapshotScheduler = null;
+        snapshotFingerprint = 0;
+        SNAPSHOT_RELOAD_SCHEDULED.set(false);
+        providerFixed = false;
+        instance = null;
+        THREAD_LOCAL.remove();
     }
 
     /**
      * Reloads the configuration.
      */
     public static synchronized void reload() {
-        if (instance != null) {
+        if (snapshotWatcher != null && !providerFixed) {
+            log.trace("reload called, replace snapshot");
+            try {
+                snapshotFingerprint = getConfigurationFingerprint();
+            } catch (IOException e) {
+                throw translateException(e);
+            }
+
+            instance = instanceFactory.createSnapshotInstance();
+        } else if (instance != null) {
             try {
                 log.trace("reload called");
                 instance.load(null);
@@ -122,8 +319,9 @@ public final class GlobalConf {
      * Reloads the configuration with given configuration instance.
      * @param conf the configuration provider instance
      */
-    public static void reload(GlobalConfProvider conf) {
+    public static synchronized void reload(GlobalConfProvider conf) {
         log.trace("reload called with parameter class {}", conf.getClass());
+        providerFixed = true;
         instance = conf;
     }
 
@@ -133,6 +331,11 @@ public final class GlobalConf {
      */
     public static synchronized void reloadIfChanged() {
         log.trace("reloadIfChanged called");
+        if (snapshotWatcher != null && !providerFixed) {
+            // snapshots are replaced by the watcher, never reloaded in place
+            return;
+        }
+
         if (instance != null) {
             try {
                 instance.load(null);
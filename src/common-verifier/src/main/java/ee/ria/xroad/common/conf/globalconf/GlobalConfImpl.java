@@ -38,7 +38,6 @@ import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SecurityServerTyp
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
 import ee.ria.xroad.common.identifier.*;
 import ee.ria.xroad.common.util.CertUtils;
-import ee.ria.xroad.common.util.CryptoUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -303,13 +302,8 @@ public class GlobalConfImpl implements GlobalConfProvider {
         List<X509Certificate> responderCerts = new ArrayList<>();
         try {
             for (SharedParametersV2 p : getSharedParameters()) {
-                for (List<OcspInfoType> ocspTypes
-                        : p.getCaCertsAndOcspData().values()) {
-                    ocspTypes.stream().map(OcspInfoType::getCert)
-                            .filter(Objects::nonNull)
-                            .map(CryptoUtils::readCertificate)
-                            .forEach(responderCerts::add);
-                }
+                p.getCaCertsAndOcspResponderCerts().values()
+                        .forEach(responderCerts::addAll);
             }
         } catch (Exception e) {
             log.error("Error while getting OCSP responder certificates", e);
@@ -382,12 +376,8 @@ public class GlobalConfImpl implements GlobalConfProvider {
     public boolean isOcspResponderCert(X509Certificate ca,
             X509Certificate ocspCert) {
         return getSharedParameters().stream()
-                .map(p -> p.getCaCertsAndOcspData().get(ca))
-                .filter(Objects::nonNull).flatMap(o -> o.stream())
-                .map(OcspInfoType::getCert).filter(Objects::nonNull)
-                .map(CryptoUtils::readCertificate)
-                .filter(c -> c.equals(ocspCert))
-                .findFirst().isPresent();
+                .map(p -> p.getCaCertsAndOcspResponderCerts().get(ca))
+                .anyMatch(c -> c != null && c.contains(ocspCert));
     }
 
     @Override
@@ -435,12 +425,10 @@ public class GlobalConfImpl implements GlobalConfProvider {
     @Override
     public boolean authCertMatchesMember(X509Certificate cert,
             ClientId memberId) throws Exception {
-        byte[] inputCertHash = certHash(cert);
+        String b64 = encodeBase64(certHash(cert));
         return getSharedParameters().stream()
                 .map(p -> p.getMemberAuthCerts().get(memberId))
-                .filter(Objects::nonNull).flatMap(h -> h.stream())
-                .filter(h -> Arrays.equals(inputCertHash, h)).findFirst()
-                .isPresent();
+                .anyMatch(h -> h != null && h.contains(b64));
     }
 
     @Override
@@ -511,16 +499,19 @@ public class GlobalConfImpl implements GlobalConfProvider {
     @Override
     public List<X509Certificate> getTspCertificates() throws Exception {
         return getSharedParameters().stream()
-                .flatMap(p -> p.getApprovedTSAs().stream())
-                .map(ApprovedTSAType::getCert)
-                .filter(Objects::nonNull)
-                .map(CryptoUtils::readCertificate)
+                .flatMap(p -> p.getTspCertificates().stream())
                 .collect(Collectors.toList());
     }
 
     @Override
     public Set<String> getKnownAddresses() {
-        return getSharedParameters().stream()
+        List<SharedParametersV2> sharedParameters = getSharedParameters();
+        if (sharedParameters.size() == 1) {
+            // immutable, the set is replaced when the conf is reloaded
+            return sharedParameters.get(0).getKnownAddresses();
+        }
+
+        return sharedParameters.stream()
                 .flatMap(p -> p.getKnownAddresses().stream())
                 .collect(Collectors.toSet());
     }
@@ -537,17 +528,7 @@ public class GlobalConfImpl implements GlobalConfProvider {
             log.warn("Got exception while getting shared parameters.", e);
         }
 
-        if (p == null) {
-            return false;
-        }
-
-        GlobalGroupType group = p.findGlobalGroup(groupId);
-        if (group == null) {
-            return false;
-        }
-
-        return group.getGroupMember().stream().filter(m -> m.equals(subjectId))
-                .findFirst().isPresent();
+        return p != null && p.isGlobalGroupMember(groupId, subjectId);
     }
 
     @Override
@@ -29,6 +29,9 @@ import org.apache.commons.lang3.StringUtils;
 import ee.ria.xroad.common.SystemProperties;
 import lombok.extern.slf4j.Slf4j;
 
+import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_GLOBALCONF;
+import static ee.ria.xroad.common.ErrorCodes.translateWithPrefix;
+
 @Slf4j
 class GlobalConfProviderFactory {
 
@@ -73,4 +76,22 @@ class GlobalConfProviderFactory {
         return null;
     }
 
+    /**
+     * Creates a provider that is read once and is replaced instead of
+     * reloaded. Custom providers are created as with
+     * {@link #createInstance(boolean)}.
+     */
+    GlobalConfProvider createSnapshotInstance() {
+        if (instanceConstructor.getDeclaringClass() != GlobalConfImpl.class) {
+            return createInstance(false);
+        }
+
+        try {
+            return new GlobalConfImpl(new ConfigurationDirectorySnapshot(
+                    SystemProperties.getConfigurationPath()));
+        } catch (Exception e) {
+            throw translateWithPrefix(X_MALFORMED_GLOBALCONF, e);
+        }
+    }
+
 }
@@ -74,6 +74,19 @@ public class OcspCache {
         return cache.put(key, value);
     }
 
+    /**
+     * Associates a key with the OCSP response, unless the key is already
+     * associated with a response.
+     * @param key the key
+     * @param value the OCSP response
+     * @return the previous OCSP response or null, if the key was not
+     * associated with a response
+     */
+    public OCSPResp putIfAbsent(String key, OCSPResp value) {
+        log.trace("Setting OCSP response for '{}' if absent", key);
+        return cache.putIfAbsent(key, value);
+    }
+
     /**
      * Removes all OCSP responses from the cache.
      */
@@ -0,0 +1,160 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.AtomicSave;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the global configuration snapshot is replaced when the
+ * configuration client has changed the configuration directory.
+ */
+public class GlobalConfSnapshotTest {
+
+    private static final long RELOAD_TIMEOUT_MILLIS = 10000;
+
+    private static final long DOWNLOAD_INTERVAL_MILLIS = 500;
+
+    // longer than the delay used for coalescing the change events
+    private static final long NO_RELOAD_WAIT_MILLIS = 3000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String originalConfigurationPath;
+    private File confDir;
+
+    /**
+     * Copies the test configuration to a temporary directory and starts
+     * watching it.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        confDir = temporaryFolder.newFolder("globalconf");
+        FileUtils.copyDirectory(new File("../common-util/src/test/resources/globalconf_good_v2"), confDir);
+
+        originalConfigurationPath = System.getProperty(SystemProperties.CONFIGURATION_PATH);
+        System.setProperty(SystemProperties.CONFIGURATION_PATH, confDir.getAbsolutePath());
+
+        GlobalConf.reset();
+
+        // The watcher is started by the first thread that initializes the
+        // configuration, the thread local copy is left to the other thread
+        Thread init = new Thread(GlobalConf::initForCurrentThread);
+        init.start();
+        init.join();
+    }
+
+    /**
+     * Stops watching the temporary directory.
+     */
+    @After
+    public void tearDown() {
+        GlobalConf.reset();
+
+        if (originalConfigurationPath == null) {
+            System.clearProperty(SystemProperties.CONFIGURATION_PATH);
+        } else {
+            System.setProperty(SystemProperties.CONFIGURATION_PATH, originalConfigurationPath);
+        }
+    }
+
+    /**
+     * Tests that a changed file is loaded after the list of downloaded
+     * files has been written.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void reloadsChangedConfiguration() throws Exception {
+        assertEquals("EE", GlobalConf.getInstanceIdentifier());
+
+        write("instance-identifier", "foo");
+
+        // The list is rewritten as the configuration client would do on
+        // every download cycle, in case the watcher was not yet registered
+        long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT_MILLIS;
+
+        while (!"foo".equals(GlobalConf.getInstanceIdentifier())) {
+            assertTrue("Configuration was not reloaded", System.currentTimeMillis() < deadline);
+
+            write("files", "");
+            Thread.sleep(DOWNLOAD_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Tests that the snapshot is kept when the list of downloaded files is
+     * rewritten without changes to the configuration.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void keepsUnchangedConfiguration() throws Exception {
+        GlobalConfProvider snapshot = GlobalConf.getInstance();
+
+        write("files", "");
+
+        Thread.sleep(NO_RELOAD_WAIT_MILLIS);
+
+        assertSame(snapshot, GlobalConf.getInstance());
+    }
+
+    /**
+     * Tests that the temporary files of saves in progress do not change the
+     * configuration and that the saves leave no temporary files behind.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void ignoresTemporaryFiles() throws Exception {
+        GlobalConfProvider snapshot = GlobalConf.getInstance();
+
+        File tempFile = new File(confDir, ".tmpconf1" + AtomicSave.TEMP_FILE_SUFFIX);
+        Files.write(tempFile.toPath(), "foo".getBytes(StandardCharsets.UTF_8));
+        AtomicSave.execute(new File(confDir, "files").getAbsolutePath(), "tmpfiles", new byte[0]);
+
+        Thread.sleep(NO_RELOAD_WAIT_MILLIS);
+
+        assertSame(snapshot, GlobalConf.getInstance());
+
+        assertTrue(tempFile.delete());
+        assertEquals(0, confDir.listFiles((dir, name) -> name.endsWith(AtomicSave.TEMP_FILE_SUFFIX)).length);
+    }
+
+    private void write(String fileName, String content) throws Exception {
+        Files.write(new File(confDir, fileName).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
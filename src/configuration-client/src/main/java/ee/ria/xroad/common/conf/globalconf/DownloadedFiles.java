@@ -22,13 +22,14 @@
  */
 package ee.ria.xroad.common.conf.globalconf;
 
+import ee.ria.xroad.common.util.AtomicSave;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -91,8 +92,10 @@ class DownloadedFiles {
     void save() throws Exception {
         log.trace("save()");
 
-        try (FileWriter file = new FileWriter(confFile.toFile())) {
-            IOUtils.writeLines(oldList, null, file);
-        }
+        // Written atomically, since the list is watched by the components
+        // as the marker of a completed download cycle
+        AtomicSave.execute(confFile.toString(), "tmpfiles",
+                out -> IOUtils.writeLines(oldList, null, out),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 }
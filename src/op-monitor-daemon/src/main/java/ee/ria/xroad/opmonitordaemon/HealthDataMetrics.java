@@ -22,9 +22,11 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -32,8 +34,9 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
+import org.apache.commons.lang3.ObjectUtils;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import ee.ria.xroad.common.identifier.ServiceId;
@@ -45,6 +48,7 @@ import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.*;
 /**
  * Health data metrics forwarded over JMX. Also, these metrics are used when
  * health data is requested using the getSecurityServerHealthData SOAP request.
+ * The metrics are kept in the metric registry the instance is created with.
  */
 @Slf4j
 final class HealthDataMetrics {
@@ -59,22 +63,32 @@ final class HealthDataMetrics {
     static final String MONITORING_STARTUP_TIMESTAMP =
             "monitoringStartupTimestamp";
 
-    // The timestamps of last successful and unsuccessful requests are stored
-    // for each service that is handled for, and are provided when the
-    // respective gauge is queried.
-    private static Map<String, Long> requestTimestamps = new HashMap<>();
+    // The number of values kept per successful request for the histograms
+    private static final int SAMPLE_SIZE = 3;
 
-    private HealthDataMetrics() {
+    @Getter
+    private final MetricRegistry registry;
+
+    // The health metrics of each service that is handled for. Looking up
+    // the metrics of a record takes a single hash lookup instead of
+    // searching the registry by metric name.
+    private final Map<ServiceId, ServiceMetrics> serviceMetrics =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates the health data metrics kept in the given registry.
+     * @param registry the metric registry of the operational monitoring daemon
+     */
+    HealthDataMetrics(MetricRegistry registry) {
+        this.registry = registry;
     }
 
     /**
      * Register the metrics of health data known at startup.
-     * @param registry the metric registry of the operational monitoring daemon
      * @param startupTimestampProvider a Supplier instance whose get() method
      * is called when the startup timestamp gauge is queried for data
      */
-    static void registerInitialMetrics(MetricRegistry registry,
-            Supplier<Long> startupTimestampProvider) {
+    void registerInitialMetrics(Supplier<Long> startupTimestampProvider) {
         registerMonitoringStartupTimestampGauge(registry,
                 startupTimestampProvider);
         registerHealthStatisticsPeriodSecondsGauge(registry);
@@ -83,100 +97,217 @@ final class HealthDataMetrics {
     /**
      * Pick the required health data from all the records and update the
      * metrics registry. If necessary, new metrics are registered.
-     * @param registry the metric registry of the operational monitoring daemon
      * @param records a list of operational data records that will be
      * analyzed for health metrics
      */
-    static void processRecords(MetricRegistry registry,
-            List<OperationalDataRecord> records) {
-        for (OperationalDataRecord rec: records) {
-            if (!rec.getSecurityServerType().equals(
-                    OpMonitoringData.SecurityServerType.PRODUCER)) {
-                // Health data is computed over the requests that are handled
-                // in the producer role only.
-                continue;
-            }
+    void processRecords(List<OperationalDataRecord> records) {
+        Aggregates aggregates = new Aggregates();
+        records.forEach(aggregates::add);
 
-            ServiceId serviceId = HealthDataMetricsUtil.getServiceId(rec);
+        processAggregates(aggregates);
+    }
 
-            if (serviceId == null) {
-                // Ignore records without service ID.
-                continue;
-            }
+    /**
+     * Update the metrics registry with the health data aggregated from
+     * the records. If necessary, new metrics are registered.
+     * @param aggregates the health data of the records, per service
+     */
+    void processAggregates(Aggregates aggregates) {
+        aggregates.services.forEach((serviceId, aggregate) ->
+                serviceMetrics.computeIfAbsent(serviceId, ServiceMetrics::new)
+                        .update(registry, aggregate));
+    }
+
+    /**
+     * @param rec an operational data record
+     * @return true if health data is computed over the record
+     */
+    static boolean isHealthDataRecord(OperationalDataRecord rec) {
+        // Health data is computed over the requests that are handled in the
+        // producer role only. Records without service ID are ignored.
+        return OpMonitoringData.SecurityServerType.PRODUCER.equals(
+                rec.getSecurityServerType())
+                && HealthDataMetricsUtil.getServiceId(rec) != null;
+    }
+
+    /**
+     * The health metrics of a service. The metrics are registered in the
+     * registry under the names the health data request handler and JMX
+     * clients look them up by, when the first record that needs them is
+     * processed.
+     */
+    private static final class ServiceMetrics {
+
+        private final ServiceId serviceId;
 
-            registerOrUpdateGauges(registry, serviceId, rec);
-            registerOrUpdateCounters(registry, serviceId, rec);
+        // The timestamps of last successful and unsuccessful requests are
+        // provided when the respective gauge is queried.
+        private volatile Long lastSuccessfulRequestTimestamp;
+        private volatile Long lastUnsuccessfulRequestTimestamp;
+
+        // Whether the metrics of successful and unsuccessful requests have
+        // been registered. The metrics are registered when the first
+        // respective request is processed.
+        private boolean successfulRegistered;
+        private boolean unsuccessfulRegistered;
+
+        private Counter successfulRequestCount;
+        private Counter unsuccessfulRequestCount;
+
+        private Histogram requestDuration;
+        private Histogram requestSoapSize;
+        private Histogram responseSoapSize;
+
+        ServiceMetrics(ServiceId serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        synchronized void update(MetricRegistry registry,
+                ServiceAggregate aggregate) {
+            if (aggregate.successfulCount > 0) {
+                updateSuccessful(registry, aggregate);
+            }
 
-            if (rec.getSucceeded()) {
-                // Statistics of request duration and the sizes of the request
-                // and response are computed over the successful requests only.
-                registerOrUpdateHistograms(registry, serviceId, rec);
+            if (aggregate.unsuccessfulCount > 0) {
+                updateUnsuccessful(registry, aggregate);
             }
         }
-    }
 
-    private static void registerOrUpdateGauges(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
+        private void updateSuccessful(MetricRegistry registry,
+                ServiceAggregate aggregate) {
+            if (!successfulRegistered) {
+                registry.register(
+                        getLastRequestTimestampGaugeName(serviceId, true),
+                        (Gauge<Long>) () -> lastSuccessfulRequestTimestamp);
+                successfulRequestCount = registry.register(
+                        getRequestCounterName(serviceId, true),
+                        createCounter());
+
+                // Statistics of request duration and the sizes of the
+                // request and response are computed over the successful
+                // requests only.
+                requestDuration = registry.register(
+                        getRequestDurationName(serviceId), createHistogram());
+                requestSoapSize = registry.register(
+                        getRequestSoapSizeName(serviceId), createHistogram());
+                responseSoapSize = registry.register(
+                        getResponseSoapSizeName(serviceId), createHistogram());
+
+                successfulRegistered = true;
+            }
 
-        String expectedGaugeName = getLastRequestTimestampGaugeName(serviceId,
-                rec.getSucceeded());
-        requestTimestamps.put(expectedGaugeName, rec.getResponseOutTs());
+            if (aggregate.lastSuccessfulRequestTimestamp != null) {
+                lastSuccessfulRequestTimestamp =
+                        aggregate.lastSuccessfulRequestTimestamp;
+            }
 
-        // Try and find a gauge corresponding strictly to the given gauge name.
-        Gauge gauge = HealthDataMetricsUtil.findGauge(registry,
-                expectedGaugeName);
+            successfulRequestCount.inc(aggregate.successfulCount);
 
-        if (gauge == null) {
-            // Add a new gauge corresponding to the expected gauge name.
-            registry.register(expectedGaugeName,
-                    (Gauge<Long>) () -> requestTimestamps.get(
-                            expectedGaugeName));
+            for (int i = 0; i < aggregate.successfulCount; i++) {
+                requestDuration.update(aggregate.samples[i * SAMPLE_SIZE]);
+                requestSoapSize.update(aggregate.samples[i * SAMPLE_SIZE + 1]);
+                responseSoapSize.update(
+                        aggregate.samples[i * SAMPLE_SIZE + 2]);
+            }
         }
 
-        // No need to update the gauge -- it will be queried on demand.
-    }
+        private void updateUnsuccessful(MetricRegistry registry,
+                ServiceAggregate aggregate) {
+            if (!unsuccessfulRegistered) {
+                registry.register(
+                        getLastRequestTimestampGaugeName(serviceId, false),
+                        (Gauge<Long>) () -> lastUnsuccessfulRequestTimestamp);
+                unsuccessfulRequestCount = registry.register(
+                        getRequestCounterName(serviceId, false),
+                        createCounter());
+
+                unsuccessfulRegistered = true;
+            }
 
-    private static void registerOrUpdateCounters(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
-        String expectedCounterName = getRequestCounterName(serviceId,
-                rec.getSucceeded());
-        Counter counter = HealthDataMetricsUtil.findCounter(registry,
-                expectedCounterName);
-
-        if (counter == null) {
-            // Register and increment a new counter.
-            counter = new SlidingTimeWindowCounter(
-                    OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS);
-            registry.register(expectedCounterName, counter);
-        }
+            if (aggregate.lastUnsuccessfulRequestTimestamp != null) {
+                lastUnsuccessfulRequestTimestamp =
+                        aggregate.lastUnsuccessfulRequestTimestamp;
+            }
 
-        counter.inc();
+            unsuccessfulRequestCount.inc(aggregate.unsuccessfulCount);
+        }
     }
 
-    private static void registerOrUpdateHistograms(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
-        registerOrUpdateHistogram(registry, getRequestDurationName(serviceId),
-                getRequestDuration(rec));
-        registerOrUpdateHistogram(registry, getRequestSoapSizeName(serviceId),
-                rec.getRequestSoapSize());
-        registerOrUpdateHistogram(registry, getResponseSoapSizeName(serviceId),
-                rec.getResponseSoapSize());
+    /**
+     * The health data of a set of records, aggregated per service. Only the
+     * values the metrics are updated with are kept, so the records can be
+     * released as soon as they are added.
+     */
+    static final class Aggregates {
+
+        private final Map<ServiceId, ServiceAggregate> services =
+                new HashMap<>();
+
+        /**
+         * Adds the health data of the given record, if health data is
+         * computed over it.
+         * @param rec an operational data record
+         */
+        void add(OperationalDataRecord rec) {
+            if (isHealthDataRecord(rec)) {
+                services.computeIfAbsent(
+                        HealthDataMetricsUtil.getServiceId(rec),
+                        k -> new ServiceAggregate()).add(rec);
+            }
+        }
     }
 
-    private static void registerOrUpdateHistogram(MetricRegistry registry,
-            String histogramName, Long newValue) {
-        Histogram histogram = HealthDataMetricsUtil.findHistogram(registry,
-                histogramName);
-
-        if (histogram == null) {
-            // Add a histogram corresponding to the service and update it.
-            histogram = registry.register(histogramName,
-                new Histogram(new SlidingTimeWindowReservoir(
-                        OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS,
-                        TimeUnit.SECONDS)));
+    /**
+     * The request counts and last request timestamps of a service, and the
+     * duration and SOAP sizes of each successful request for the histograms.
+     */
+    private static final class ServiceAggregate {
+
+        private int successfulCount;
+        private int unsuccessfulCount;
+
+        private Long lastSuccessfulRequestTimestamp;
+        private Long lastUnsuccessfulRequestTimestamp;
+
+        // The duration, request SOAP size and response SOAP size of each
+        // successful request, one after another.
+        private long[] samples = new long[SAMPLE_SIZE];
+
+        void add(OperationalDataRecord rec) {
+            // A record without the response timestamp does not change the
+            // last request timestamp.
+            if (!rec.getSucceeded()) {
+                unsuccessfulCount++;
+                lastUnsuccessfulRequestTimestamp = ObjectUtils.defaultIfNull(
+                        rec.getResponseOutTs(),
+                        lastUnsuccessfulRequestTimestamp);
+
+                return;
+            }
+
+            int offset = successfulCount * SAMPLE_SIZE;
+            if (offset == samples.length) {
+                samples = Arrays.copyOf(samples, samples.length * 2);
+            }
+
+            samples[offset] = getRequestDuration(rec);
+            samples[offset + 1] = rec.getRequestSoapSize();
+            samples[offset + 2] = rec.getResponseSoapSize();
+
+            successfulCount++;
+            lastSuccessfulRequestTimestamp = ObjectUtils.defaultIfNull(
+                    rec.getResponseOutTs(), lastSuccessfulRequestTimestamp);
         }
+    }
+
+    private static Counter createCounter() {
+        return new SlidingTimeWindowCounter(
+                OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
 
-        histogram.update(newValue);
+    private static Histogram createHistogram() {
+        return new Histogram(new SlidingTimeWindowStatsReservoir(
+                OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS));
     }
 
     /**
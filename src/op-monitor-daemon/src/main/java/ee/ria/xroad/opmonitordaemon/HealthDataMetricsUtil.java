@@ -22,12 +22,10 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
-import java.util.SortedMap;
-import java.util.regex.Pattern;
-
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 
 import lombok.extern.slf4j.Slf4j;
@@ -151,16 +149,6 @@ final class HealthDataMetricsUtil {
                 .replaceAll("/", "&#47;");
     }
 
-    /**
-     * @param metricName an metric name where the service ID part has been
-     * escaped using escapeServiceId().
-     * @return the quoted metric name suitable for passing to a regular
-     * expression matcher method
-     */
-    static String formatMetricMatchRegexp(String metricName) {
-        return String.format("^%s$", Pattern.quote(metricName));
-    }
-
     /**
      * @param serviceId the service ID as obtained using getServiceIdInRecord()
      * @param parameterKeyTemplate template string of the JMX parameter name
@@ -217,18 +205,7 @@ final class HealthDataMetricsUtil {
      * @return the found gauge or null if it does not exist
      */
     static Gauge findGauge(MetricRegistry registry, String expectedGaugeName) {
-        SortedMap<String, Gauge> gauges = registry.getGauges(
-                (name, metric) -> name.matches(HealthDataMetricsUtil
-                        .formatMetricMatchRegexp(expectedGaugeName))
-        );
-
-        if (gauges.size() > 1) {
-            // Should not happen because we use a strict regexp.
-            log.warn("Multiple gauges matched the name "
-                    + expectedGaugeName);
-        }
-
-        return gauges.isEmpty() ? null : gauges.values().iterator().next();
+        return findMetric(registry, expectedGaugeName, Gauge.class);
     }
 
     /**
@@ -238,18 +215,7 @@ final class HealthDataMetricsUtil {
      */
     static Counter findCounter(MetricRegistry registry,
             String expectedCounterName) {
-        SortedMap<String, Counter> counters = registry.getCounters(
-                (name, metric) -> name.matches(HealthDataMetricsUtil
-                        .formatMetricMatchRegexp(expectedCounterName))
-        );
-
-        if (counters.size() > 1) {
-            // Should not happen because we use a strict regexp.
-            log.warn("Multiple counters matched the name "
-                    + expectedCounterName);
-        }
-
-        return counters.isEmpty() ? null : counters.values().iterator().next();
+        return findMetric(registry, expectedCounterName, Counter.class);
     }
 
     /**
@@ -260,18 +226,22 @@ final class HealthDataMetricsUtil {
      */
     static Histogram findHistogram(MetricRegistry registry,
             String expectedHistogramName) {
-        SortedMap<String, Histogram> histograms = registry.getHistograms(
-                (name, metric) -> name.matches(HealthDataMetricsUtil
-                        .formatMetricMatchRegexp(expectedHistogramName))
-        );
-
-        if (histograms.size() > 1) {
-            // Should not happen because we use a strict regexp.
-            log.warn("Multiple histograms matched the name "
-                    + expectedHistogramName);
+        return findMetric(registry, expectedHistogramName, Histogram.class);
+    }
+
+    private static <T extends Metric> T findMetric(MetricRegistry registry,
+            String expectedMetricName, Class<T> metricClass) {
+        // The registry keeps the metrics in a map by name, so the metric
+        // is looked up directly instead of matching all the names.
+        Metric metric = registry.getMetrics().get(expectedMetricName);
+
+        if (metric != null && !metricClass.isInstance(metric)) {
+            log.warn("Metric {} is not a {}", expectedMetricName,
+                    metricClass.getSimpleName());
+
+            return null;
         }
 
-        return histograms.isEmpty() ? null
-                : histograms.values().iterator().next();
+        return metricClass.cast(metric);
     }
 }
@@ -67,9 +67,10 @@ final class OpMonitorDaemon implements StartStop {
 
     private Server server = new Server();
 
-    private final MetricRegistry healthMetricRegistry = new MetricRegistry();
+    private final HealthDataMetrics healthDataMetrics =
+            new HealthDataMetrics(new MetricRegistry());
     private final JmxReporter reporter = JmxReporter.forRegistry(
-            healthMetricRegistry).build();
+            healthDataMetrics.getRegistry()).build();
 
     /**
      * Constructor. Creates the connector and request handlers.
@@ -150,11 +151,10 @@ final class OpMonitorDaemon implements StartStop {
 
     private void createHandler() {
         server.setHandler(
-                new OpMonitorDaemonRequestHandler(healthMetricRegistry));
+                new OpMonitorDaemonRequestHandler(healthDataMetrics));
     }
 
     private void registerHealthMetrics() {
-        HealthDataMetrics.registerInitialMetrics(healthMetricRegistry,
-                this::getStartTimestamp);
+        healthDataMetrics.registerInitialMetrics(this::getStartTimestamp);
     }
 }
@@ -27,8 +27,6 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.codahale.metrics.MetricRegistry;
-
 import com.google.gson.Gson;
 
 import lombok.SneakyThrows;
@@ -57,10 +55,10 @@ class OpMonitorDaemonRequestHandler extends HandlerBase {
 
     private static final byte[] OK_RESPONSE_BYTES = getOkResponseBytes();
 
-    private final MetricRegistry healthMetricRegistry;
+    private final HealthDataMetrics healthDataMetrics;
 
-    OpMonitorDaemonRequestHandler(MetricRegistry healthMetricRegistry) {
-        this.healthMetricRegistry = healthMetricRegistry;
+    OpMonitorDaemonRequestHandler(HealthDataMetrics healthDataMetrics) {
+        this.healthDataMetrics = healthDataMetrics;
     }
 
     @Override
@@ -102,7 +100,7 @@ class OpMonitorDaemonRequestHandler extends HandlerBase {
             log.info("Received query request from {}", request.getRemoteAddr());
 
             new QueryRequestProcessor(request, response,
-                    healthMetricRegistry).process();
+                    healthDataMetrics.getRegistry()).process();
         } catch (Throwable t) { // We want to catch serious errors as well
             log.error("Error while handling query request", t);
 
@@ -131,7 +129,7 @@ class OpMonitorDaemonRequestHandler extends HandlerBase {
             log.info("Received store request from {}", request.getRemoteAddr());
 
             new StoreRequestProcessor(
-                    request, healthMetricRegistry).process();
+                    request, healthDataMetrics).process();
         } catch (Throwable t) { // We want to catch serious errors as well
             log.error("Error while handling data store request", t);
 
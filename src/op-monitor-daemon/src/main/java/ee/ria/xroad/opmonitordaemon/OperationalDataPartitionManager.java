@@ -0,0 +1,94 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+
+/**
+ * Maintains the daily partitions of the operational_data table in
+ * PostgreSQL databases. The records are routed to the partition of their
+ * monitoringDataTs day, so that time range queries only scan the partitions
+ * of the range and the outdated days are removed by dropping their
+ * partitions instead of deleting the records one by one.
+ */
+@Slf4j
+final class OperationalDataPartitionManager {
+
+    private static final int PARTITIONS_AHEAD_DAYS = 7;
+
+    private OperationalDataPartitionManager() {
+    }
+
+    /**
+     * Creates the partitions from yesterday to a week ahead and drops the
+     * partitions that only contain records older than the given time.
+     * Does nothing if the database is not a PostgreSQL database.
+     * @param before the time before which the records are outdated
+     * @return the number of dropped partitions
+     * @throws Exception if an error occurs
+     */
+    static int maintainPartitions(DateTime before) throws Exception {
+        log.trace("maintainPartitions({})", before);
+
+        return doInTransaction(session -> {
+            if (!isPostgreSQL(session)) {
+                log.trace("Partitions are only maintained in PostgreSQL");
+
+                return 0;
+            }
+
+            LocalDate today = new LocalDate(DateTimeZone.UTC);
+            LocalDate dropBefore = before.withZone(DateTimeZone.UTC)
+                    .toLocalDate();
+
+            int dropped = ((Number) session.createSQLQuery(
+                    "select operational_data_maintain_partitions("
+                    + "cast(:firstDay as date), cast(:lastDay as date), "
+                    + "cast(:dropBefore as date))")
+                    .setString("firstDay", today.minusDays(1).toString())
+                    .setString("lastDay",
+                            today.plusDays(PARTITIONS_AHEAD_DAYS).toString())
+                    .setString("dropBefore", dropBefore.toString())
+                    .uniqueResult()).intValue();
+
+            log.info("Dropped {} outdated operational data partitions",
+                    dropped);
+
+            return dropped;
+        });
+    }
+
+    private static boolean isPostgreSQL(Session session) {
+        return ((SessionFactoryImplementor) session.getSessionFactory())
+                .getDialect() instanceof PostgreSQL81Dialect;
+    }
+}
@@ -36,12 +36,11 @@ import org.joda.time.DateTime;
 import org.quartz.JobDataMap;
 import org.quartz.SchedulerException;
 
+import ee.ria.xroad.common.db.ChunkedRecordCleaner;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.common.util.MessageSendingJob;
 
-import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
-
 /**
  * Deletes outdated operational data records from the database.
  */
@@ -53,6 +52,10 @@ final class OperationalDataRecordCleaner extends UntypedActor {
     private static final String OPERATIONAL_DATA_RECORD_CLEANER =
             OperationalDataRecordCleaner.class.getSimpleName();
 
+    // The cleanup blocks the actor's thread until it is finished, so the
+    // cleaner runs on its own thread instead of the default dispatcher.
+    private static final String DISPATCHER = "akka.record-cleaner-dispatcher";
+
     /**
      * Initializes the operational data recorder cleaner creating an operational
      * data records cleaner actor in the given actor system and scheduling a
@@ -61,8 +64,8 @@ final class OperationalDataRecordCleaner extends UntypedActor {
      * @param actorSystem the actor system
      */
     public static void init(JobManager jobManager, ActorSystem actorSystem) {
-        actorSystem.actorOf(Props.create(OperationalDataRecordCleaner.class),
-                OPERATIONAL_DATA_RECORD_CLEANER);
+        actorSystem.actorOf(Props.create(OperationalDataRecordCleaner.class)
+                .withDispatcher(DISPATCHER), OPERATIONAL_DATA_RECORD_CLEANER);
 
         registerCronJob(jobManager, actorSystem, START_CLEANING,
                 OpMonitoringSystemProperties.getOpMonitorCleanInterval());
@@ -84,31 +87,62 @@ final class OperationalDataRecordCleaner extends UntypedActor {
         }
     }
 
+    @Override
+    public void preStart() throws Exception {
+        if (OpMonitoringSystemProperties.isOpMonitorPartitioningEnabled()) {
+            try {
+                OperationalDataPartitionManager.maintainPartitions(
+                        getOutdatedRecordsTime());
+            } catch (Exception e) {
+                log.error("Failed to maintain operational data partitions", e);
+            }
+        }
+    }
+
     private static void handleCleanup() throws Exception {
-        cleanRecords(new DateTime().minusDays(
-                OpMonitoringSystemProperties.getOpMonitorKeepRecordsForDays()));
+        DateTime before = getOutdatedRecordsTime();
+
+        if (OpMonitoringSystemProperties.isOpMonitorPartitioningEnabled()) {
+            // The records left over, e.g. the records of the partially
+            // outdated day, are deleted below.
+            try {
+                OperationalDataPartitionManager.maintainPartitions(before);
+            } catch (Exception e) {
+                log.error("Failed to maintain operational data partitions", e);
+            }
+        }
+
+        cleanRecords(before);
+    }
+
+    private static DateTime getOutdatedRecordsTime() {
+        return new DateTime().minusDays(
+                OpMonitoringSystemProperties.getOpMonitorKeepRecordsForDays());
     }
 
     static int cleanRecords(DateTime before) throws Exception {
         log.trace("cleanRecords({})", before);
 
-        return doInTransaction(session -> {
-            String hql =
-                    "delete OperationalDataRecord r where r.monitoringDataTs < "
-                    + TimeUnit.MILLISECONDS.toSeconds(before.getMillis());
+        ChunkedRecordCleaner cleaner = new ChunkedRecordCleaner(
+                OpMonitorDaemonDatabaseCtx.get(), "OperationalDataRecord",
+                "r.monitoringDataTs < "
+                        + TimeUnit.MILLISECONDS.toSeconds(before.getMillis()),
+                OpMonitoringSystemProperties.getOpMonitorCleanBatchSize(),
+                OpMonitoringSystemProperties.getOpMonitorCleanBatchPauseMillis(),
+                TimeUnit.SECONDS.toMillis(OpMonitoringSystemProperties
+                        .getOpMonitorCleanMaxDurationSeconds()));
 
-            int removed = session.createQuery(hql).executeUpdate();
+        int removed = cleaner.clean();
 
-            if (removed == 0) {
-                log.info("No outdated operational data records to remove from"
-                        + " the database");
-            } else {
-                log.info("Removed {} outdated operational data records from"
-                        + " the database", removed);
-            }
+        if (removed == 0) {
+            log.info("No outdated operational data records to remove from"
+                    + " the database");
+        } else {
+            log.info("Removed {} outdated operational data records from"
+                    + " the database", removed);
+        }
 
-            return removed;
-        });
+        return removed;
     }
 
     private static void registerCronJob(JobManager jobManager,
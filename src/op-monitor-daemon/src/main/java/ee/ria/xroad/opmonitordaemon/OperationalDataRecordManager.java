@@ -22,16 +22,20 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.cfg.Environment;
 import org.hibernate.criterion.Criterion;
@@ -60,6 +64,8 @@ final class OperationalDataRecordManager {
 
     private static final int DEFAULT_BATCH_SIZE = 50;
 
+    private static final int FETCH_SIZE = 100;
+
     @Setter
     private static int maxRecordsInPayload =
             OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload();
@@ -71,8 +77,27 @@ final class OperationalDataRecordManager {
 
     static void storeRecords(List<OperationalDataRecord> records,
             long timestamp) throws Exception {
-        doInTransaction(session -> storeInTransaction(session, records,
-                timestamp));
+        storeRecords(records.iterator(), timestamp, batch -> { });
+    }
+
+    /**
+     * Stores the records in one transaction without holding all of them in
+     * memory. The records are flushed to the database in JDBC batches and
+     * every flushed batch is passed to the given handler. The handler is
+     * called before the transaction is committed, so the batches passed to
+     * it may still be rolled back.
+     * @param records the records to store
+     * @param timestamp the monitoring data timestamp of the records
+     * @param storedBatchHandler the handler of the flushed batches
+     * @return the number of stored records
+     * @throws Exception if an error occurs
+     */
+    static int storeRecords(Iterator<OperationalDataRecord> records,
+            long timestamp,
+            Consumer<List<OperationalDataRecord>> storedBatchHandler)
+            throws Exception {
+        return doInTransaction(session -> storeInTransaction(session, records,
+                timestamp, storedBatchHandler));
     }
 
     static OperationalDataRecords queryAllRecords() throws Exception {
@@ -95,32 +120,72 @@ final class OperationalDataRecordManager {
     static OperationalDataRecords queryRecords(long recordsFrom, long recordsTo,
             ClientId clientFilter, ClientId serviceProviderFilter,
             Set<String> outputFields) throws Exception {
-        OperationalDataRecords records = doInTransaction(
-                session -> queryOperationalDataInTransaction(session,
-                        recordsFrom, recordsTo, clientFilter,
-                        serviceProviderFilter, outputFields));
+        List<OperationalDataRecord> recordList = new ArrayList<>();
 
-        removeMonitoringDataTsIfNotSpecified(records, outputFields);
+        Long nextRecordsFrom = queryRecords(recordsFrom, recordsTo,
+                clientFilter, serviceProviderFilter, outputFields,
+                recordList::add);
+
+        OperationalDataRecords records =
+                new OperationalDataRecords(recordList);
+        records.setNextRecordsFrom(nextRecordsFrom);
 
         return records;
     }
 
-    private static Void storeInTransaction(Session session,
-            List<OperationalDataRecord> records, long timestamp) {
+    /**
+     * Queries operational data records from the database using search
+     * criteria parameters and passes them to the given consumer as they are
+     * read, so that the records are not held in memory.
+     * @param recordsFrom records from timestamp seconds
+     * @param recordsTo records to timestamp seconds
+     * @param clientFilter filter records by client (if not null)
+     * @param serviceProviderFilter filter records by service provider
+     * (if not null)
+     * @param outputFields list of the requested operational data field
+     * @param recordConsumer the consumer of the records
+     * @return the timestamp to query the next records from in case of
+     * records overflow, otherwise null
+     * @throws Exception if an error occurs
+     */
+    static Long queryRecords(long recordsFrom, long recordsTo,
+            ClientId clientFilter, ClientId serviceProviderFilter,
+            Set<String> outputFields,
+            Consumer<OperationalDataRecord> recordConsumer) throws Exception {
+        return doInTransaction(session -> queryOperationalDataInTransaction(
+                session, recordsFrom, recordsTo, clientFilter,
+                serviceProviderFilter, outputFields, recordConsumer));
+    }
+
+    private static int storeInTransaction(Session session,
+            Iterator<OperationalDataRecord> records, long timestamp,
+            Consumer<List<OperationalDataRecord>> storedBatchHandler) {
         int storedCount = 0;
         int batchSize = getConfiguredBatchSize(session);
+        List<OperationalDataRecord> batch = new ArrayList<>(batchSize);
 
-        for (OperationalDataRecord record : records) {
+        while (records.hasNext()) {
+            OperationalDataRecord record = records.next();
             record.setMonitoringDataTs(timestamp);
             session.save(record);
+            batch.add(record);
 
             if (++storedCount % batchSize == 0) {
                 session.flush();
                 session.clear();
+
+                storedBatchHandler.accept(batch);
+                batch.clear();
             }
         }
 
-        return null;
+        if (!batch.isEmpty()) {
+            session.flush();
+
+            storedBatchHandler.accept(batch);
+        }
+
+        return storedCount;
     }
 
     private static int getConfiguredBatchSize(Session session) {
@@ -149,7 +214,9 @@ final class OperationalDataRecordManager {
      * Queries operational data records from the database using search criteria
      * parameters. The number of returned records is limited by the configured
      * value maxRecordsInPayload plus overflow records with the same
-     * monitorindDataTs timestamp as the last included record.
+     * monitorindDataTs timestamp as the last included record. The records
+     * are scrolled in the order of their timestamps, so the overflow is
+     * detected by the first record that is left out.
      * @param session database session
      * @param recordsFrom records from timestamp seconds
      * @param recordsTo records to timestamp seconds
@@ -157,93 +224,63 @@ final class OperationalDataRecordManager {
      * @param serviceProviderFilter filter records by service provider
      * (if not null)
      * @param outputFields list of the requested operational data field
-     * @return operational data records.
+     * @param recordConsumer the consumer of the records
+     * @return the timestamp to query the next records from in case of
+     * records overflow, otherwise null
      */
-    @SuppressWarnings("unchecked")
-    private static OperationalDataRecords queryOperationalDataInTransaction(
-            Session session, long recordsFrom, long recordsTo,
-            ClientId clientFilter, ClientId serviceProviderFilter,
-            Set<String> outputFields) {
-        Criteria criteria = createCriteria(session, recordsFrom, recordsTo,
-                clientFilter, serviceProviderFilter, outputFields);
-        OperationalDataRecords records = new OperationalDataRecords(
-                criteria.list());
-
-        // Check overflow.
-        if (records.size() == maxRecordsInPayload) {
-            log.trace("Check possible records overflow");
-
-            long lastMonitoringDataTs = records.getLastMonitoringDataTs();
-
-            Criteria overflowCriteria = createOverflowCriteria(session,
-                    lastMonitoringDataTs, clientFilter, serviceProviderFilter,
-                    outputFields);
-            OperationalDataRecords overflowRecords =
-                    new OperationalDataRecords(overflowCriteria.list());
-
-            records.removeRecordsByMonitoringDataTs(lastMonitoringDataTs);
-            records.append(overflowRecords);
+    private static Long queryOperationalDataInTransaction(Session session,
+            long recordsFrom, long recordsTo, ClientId clientFilter,
+            ClientId serviceProviderFilter, Set<String> outputFields,
+            Consumer<OperationalDataRecord> recordConsumer) {
+        Criteria criteria = createCriteria(session, clientFilter,
+                serviceProviderFilter, outputFields);
 
-            if (recordsOverflow(session, lastMonitoringDataTs,
-                    recordsTo, clientFilter, serviceProviderFilter)) {
-                log.debug("Records overflow, set nextRecordsFrom to {}",
-                        lastMonitoringDataTs + 1);
+        // BETWEEN treats the endpoint values as included in the range.
+        criteria.add(Restrictions.between(MONITORING_DATA_TS,
+                recordsFrom, recordsTo));
+        criteria.addOrder(Order.asc(MONITORING_DATA_TS));
+        criteria.setReadOnly(true);
+        criteria.setFetchSize(FETCH_SIZE);
 
-                records.setNextRecordsFrom(lastMonitoringDataTs + 1);
-            }
-        }
+        boolean removeMonitoringDataTs = !outputFields.isEmpty()
+                && !outputFields.contains(MONITORING_DATA_TS);
 
-        return records;
-    }
+        ScrollableResults results = criteria.scroll(ScrollMode.FORWARD_ONLY);
 
-    private static void removeMonitoringDataTsIfNotSpecified(
-            OperationalDataRecords records, Set<String> outputFields) {
-        if (!outputFields.isEmpty()
-                && !outputFields.contains(MONITORING_DATA_TS)) {
-            records.getRecords().forEach(i -> i.setMonitoringDataTs(null));
-        }
-    }
+        try {
+            int count = 0;
+            long lastMonitoringDataTs = 0;
 
-    private static boolean recordsOverflow(Session session,
-            long lastMonitoringDataTs, long recordsTo, ClientId clientFilter,
-            ClientId serviceProviderFilter) {
-        // Indicate overflow only if some records are not included.
-        return lastMonitoringDataTs < recordsTo && hasRecordsLeft(session,
-                lastMonitoringDataTs, recordsTo, clientFilter,
-                serviceProviderFilter);
-    }
+            while (results.next()) {
+                OperationalDataRecord record =
+                        (OperationalDataRecord) results.get(0);
+                long monitoringDataTs = record.getMonitoringDataTs();
 
-    private static boolean hasRecordsLeft(Session session,
-            long lastMonitoringDataTs, long recordsTo, ClientId clientFilter,
-            ClientId serviceProviderFilter) {
-        if (lastMonitoringDataTs == recordsTo) {
-            return false;
-        }
+                if (count >= maxRecordsInPayload
+                        && monitoringDataTs != lastMonitoringDataTs) {
+                    log.debug("Records overflow, set nextRecordsFrom to {}",
+                            lastMonitoringDataTs + 1);
 
-        Criteria criteria = createCriteria(session, clientFilter,
-                serviceProviderFilter,
-                Collections.singleton(MONITORING_DATA_TS));
-        // BETWEEN treats the endpoint values as included in the range.
-        criteria.add(Restrictions.between(MONITORING_DATA_TS,
-                lastMonitoringDataTs + 1, recordsTo));
-        criteria.setMaxResults(1);
+                    return lastMonitoringDataTs + 1;
+                }
 
-        return criteria.list().size() > 0;
-    }
+                if (removeMonitoringDataTs) {
+                    record.setMonitoringDataTs(null);
+                }
 
-    private static Criteria createCriteria(Session session, long recordsFrom,
-            long recordsTo, ClientId clientFilter,
-            ClientId serviceProviderFilter, Set<String> outputFields) {
-        Criteria criteria = createCriteria(session, clientFilter,
-                serviceProviderFilter, outputFields);
+                recordConsumer.accept(record);
+                lastMonitoringDataTs = monitoringDataTs;
 
-        // BETWEEN treats the endpoint values as included in the range.
-        criteria.add(Restrictions.between(MONITORING_DATA_TS,
-                recordsFrom, recordsTo));
-        criteria.addOrder(Order.asc(MONITORING_DATA_TS));
-        criteria.setMaxResults(maxRecordsInPayload);
+                if (++count % FETCH_SIZE == 0) {
+                    // Release the records read so far.
+                    session.clear();
+                }
+            }
 
-        return criteria;
+            return null;
+        } finally {
+            results.close();
+        }
     }
 
     private static Criteria createCriteria(Session session,
@@ -340,16 +377,4 @@ final class OperationalDataRecordManager {
                         : Restrictions.eq(isClient ? CLIENT_SUBSYSTEM_CODE
                         : SERVICE_SUBSYSTEM_CODE, member.getSubsystemCode()));
     }
-
-    private static Criteria createOverflowCriteria(Session session,
-            long monitoringDataTs, ClientId clientFilter,
-            ClientId serviceProviderFilter, Set<String> outputFields) {
-        Criteria criteria = createCriteria(session, clientFilter,
-                serviceProviderFilter, outputFields);
-
-        criteria.add(Restrictions.eq(MONITORING_DATA_TS,
-                monitoringDataTs));
-
-        return criteria;
-    }
 }
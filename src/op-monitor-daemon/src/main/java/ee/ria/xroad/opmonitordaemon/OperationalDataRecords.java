@@ -60,19 +60,6 @@ class OperationalDataRecords {
         return records.size();
     }
 
-    void append(OperationalDataRecords operationalDataRecords) {
-        records.addAll(operationalDataRecords.getRecords());
-    }
-
-    void removeRecordsByMonitoringDataTs(long monitoringDataTs) {
-        records.removeIf(i -> i.getMonitoringDataTs() == monitoringDataTs);
-    }
-
-    Long getLastMonitoringDataTs() {
-        return records.size() == 0
-                ? null : records.get(records.size() - 1).getMonitoringDataTs();
-    }
-
     String getPayload(Gson gson) {
         return gson.toJson(this);
     }
@@ -0,0 +1,148 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import lombok.Getter;
+
+/**
+ * Reads the records of a store operational data request one by one from a
+ * JSON stream, without building the whole request in memory. Like Gson's
+ * JsonStreamParser, the reader reports errors with JsonParseException.
+ */
+class OperationalDataRecordsReader
+        implements Iterator<OperationalDataRecord>, Closeable {
+
+    private static final String RECORDS = "records";
+
+    private final Gson gson;
+    private final JsonReader reader;
+
+    private boolean started = false;
+    private boolean finished = false;
+
+    /**
+     * True if the stream contained no JSON at all.
+     */
+    @Getter
+    private boolean empty = false;
+
+    OperationalDataRecordsReader(Gson gson, Reader in) {
+        this.gson = gson;
+        this.reader = new JsonReader(in);
+        this.reader.setLenient(true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            if (!started) {
+                started = true;
+                start();
+            }
+
+            if (finished) {
+                return false;
+            }
+
+            if (reader.hasNext()) {
+                return true;
+            }
+
+            reader.endArray();
+            finish();
+
+            return false;
+        } catch (MalformedJsonException | EOFException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public OperationalDataRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return gson.fromJson(reader, OperationalDataRecord.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // Moves the reader into the records array, skipping any other values.
+    private void start() throws IOException {
+        try {
+            reader.peek();
+        } catch (EOFException e) {
+            empty = true;
+            finished = true;
+
+            return;
+        }
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if (RECORDS.equals(reader.nextName())
+                    && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+
+                return;
+            }
+
+            reader.skipValue();
+        }
+
+        reader.endObject();
+        finished = true;
+    }
+
+    // Skips the values after the records array.
+    private void finish() throws IOException {
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+
+        reader.endObject();
+        finished = true;
+    }
+}
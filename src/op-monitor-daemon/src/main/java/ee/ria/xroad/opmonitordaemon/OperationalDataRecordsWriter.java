@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import lombok.Getter;
+
+/**
+ * Writes the records of an operational data response one by one to a JSON
+ * stream, producing the same payload as OperationalDataRecords without
+ * holding the records in memory. Like Gson, the writer reports errors with
+ * JsonIOException.
+ */
+class OperationalDataRecordsWriter
+        implements Consumer<OperationalDataRecord>, Closeable {
+
+    private static final String RECORDS = "records";
+
+    private final Gson gson;
+    private final JsonWriter writer;
+
+    /**
+     * The number of written records.
+     */
+    @Getter
+    private int count = 0;
+
+    OperationalDataRecordsWriter(Gson gson, Writer out) throws IOException {
+        this.gson = gson;
+        this.writer = new JsonWriter(out);
+
+        writer.beginObject();
+        writer.name(RECORDS);
+        writer.beginArray();
+    }
+
+    @Override
+    public void accept(OperationalDataRecord record) {
+        gson.toJson(record, OperationalDataRecord.class, writer);
+        count++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.endArray();
+        writer.endObject();
+        writer.close();
+    }
+}
@@ -38,15 +38,19 @@ import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerOperationalDataType
 import ee.ria.xroad.opmonitordaemon.message.SearchCriteriaType;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.*;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.OUTPUT_FIELDS;
@@ -158,7 +162,6 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
             long recordsFrom, long recordsTo, ClientId filterByServiceProvider,
             Set<String> outputFields, long recordsAvailableBefore)
             throws IOException {
-        OperationalDataRecords responseRecords;
         GetSecurityServerOperationalDataResponseType opDataResponse =
                 OBJECT_FACTORY
                         .createGetSecurityServerOperationalDataResponseType();
@@ -173,22 +176,28 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
             opDataResponse.setNextRecordsFrom(recordsAvailableBefore);
         }
 
-        responseRecords = getOperationalDataRecords(filterByClient,
-                recordsFrom, recordsTo, filterByServiceProvider, outputFields);
-
-        opDataResponse.setRecordsCount(responseRecords.size());
-        String payload = responseRecords.getPayload(GSON);
-
-        // Optimize memory usage: release records memory before compressing
-        // operation.
-        responseRecords.getRecords().clear();
+        // The records are compressed as they are read from the database. The
+        // compressed payload is buffered, because the records count and
+        // nextRecordsFrom in the SOAP part precede the attachment.
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        Long nextRecordsFrom;
+
+        try (OperationalDataRecordsWriter writer =
+                new OperationalDataRecordsWriter(GSON, new OutputStreamWriter(
+                        new GZIPOutputStream(payload),
+                        StandardCharsets.UTF_8))) {
+            nextRecordsFrom = writeOperationalDataRecords(filterByClient,
+                    recordsFrom, recordsTo, filterByServiceProvider,
+                    outputFields, writer);
+
+            opDataResponse.setRecordsCount(writer.getCount());
+        }
 
-        opDataResponse.setRecords(createAttachmentDataSource(compress(payload),
-                CID, MimeTypes.GZIP));
+        opDataResponse.setRecords(createAttachmentDataSource(
+                payload.toByteArray(), CID, MimeTypes.GZIP));
 
-        if (responseRecords.getNextRecordsFrom() != null) {
-            opDataResponse.setNextRecordsFrom(
-                    responseRecords.getNextRecordsFrom());
+        if (nextRecordsFrom != null) {
+            opDataResponse.setNextRecordsFrom(nextRecordsFrom);
         }
 
         return opDataResponse;
@@ -200,13 +209,14 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
                 opDataResponse);
     }
 
-    protected OperationalDataRecords getOperationalDataRecords(
-            ClientId filterByClient, long recordsFrom, long recordsTo,
-            ClientId filterByServiceProvider, Set<String> outputFields) {
+    protected Long writeOperationalDataRecords(ClientId filterByClient,
+            long recordsFrom, long recordsTo, ClientId filterByServiceProvider,
+            Set<String> outputFields,
+            Consumer<OperationalDataRecord> recordConsumer) {
         try {
             return OperationalDataRecordManager.queryRecords(recordsFrom,
                     recordsTo, filterByClient, filterByServiceProvider,
-                    outputFields);
+                    outputFields, recordConsumer);
         } catch (Exception e) {
             log.error("Failed to get records for response", e);
 
@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Divides a sliding time window into a fixed number of buckets that are
+ * reused in a ring. Metrics that keep their data per bucket take a fixed
+ * amount of memory regardless of the number of updates, and the data of a
+ * bucket expires as a whole when the bucket falls out of the window.
+ * The class is not thread-safe, the callers synchronize the access.
+ */
+final class SlidingTimeWindowBuckets {
+
+    static final int NUMBER_OF_BUCKETS = 20;
+
+    private final Clock clock;
+    private final long bucketNanos;
+
+    // The tick (the number of the bucket duration since the start of the
+    // clock) that each bucket currently holds the data of.
+    private final long[] ticks = new long[NUMBER_OF_BUCKETS];
+
+    /**
+     * Creates buckets for the given window of time.
+     * @param window the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param clock the clock to use for the time
+     */
+    SlidingTimeWindowBuckets(long window, TimeUnit windowUnit, Clock clock) {
+        this.clock = clock;
+        this.bucketNanos = Math.max(
+                windowUnit.toNanos(window) / NUMBER_OF_BUCKETS, 1);
+
+        Arrays.fill(ticks, Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns the index of the bucket of the current time. If the bucket
+     * holds expired data, it is reset first.
+     * @param reset the action that resets the data of the bucket of the
+     * given index
+     * @return the index of the current bucket
+     */
+    int current(IntConsumer reset) {
+        long tick = getTick();
+        int index = (int) Math.floorMod(tick, NUMBER_OF_BUCKETS);
+
+        if (ticks[index] != tick) {
+            reset.accept(index);
+            ticks[index] = tick;
+        }
+
+        return index;
+    }
+
+    /**
+     * Performs the given action for the index of each bucket within the
+     * window of time.
+     * @param action the action to perform
+     */
+    void forEachInWindow(IntConsumer action) {
+        long tick = getTick();
+
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            if (ticks[i] > tick - NUMBER_OF_BUCKETS && ticks[i] <= tick) {
+                action.accept(i);
+            }
+        }
+    }
+
+    private long getTick() {
+        return clock.getTick() / bucketNanos;
+    }
+}
@@ -24,13 +24,16 @@ package ee.ria.xroad.opmonitordaemon;
 
 import java.util.concurrent.TimeUnit;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
-import com.codahale.metrics.Reservoir;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
+
+import static ee.ria.xroad.opmonitordaemon.SlidingTimeWindowBuckets.NUMBER_OF_BUCKETS;
 
 /**
- * A counter metric that uses the sliding time window reservoir internally to
- * support periodic and configurable resetting.
+ * A counter metric that counts the increments within a sliding time window
+ * to support periodic and configurable resetting. The window is divided into
+ * a fixed number of time buckets, so the memory used by the counter does not
+ * depend on the number of increments.
  * This counter does not support manually decrementing the count (the dec()
  * methods raise a runtime exception).
  * We extend Counter instead of implementing the Metric and Counting
@@ -39,7 +42,9 @@ import com.codahale.metrics.SlidingTimeWindowReservoir;
  */
 class SlidingTimeWindowCounter extends Counter {
 
-    private final Reservoir reservoir;
+    private final SlidingTimeWindowBuckets buckets;
+
+    private final long[] counts = new long[NUMBER_OF_BUCKETS];
 
     /**
      * Creates a counter with the given window of time.
@@ -48,27 +53,40 @@ class SlidingTimeWindowCounter extends Counter {
      * @param windowUnit the unit of {@code window}
      */
     SlidingTimeWindowCounter(long window, TimeUnit windowUnit) {
-        reservoir = new SlidingTimeWindowReservoir(window, windowUnit);
+        this(window, windowUnit, Clock.defaultClock());
     }
 
     /**
-     * @return the snapshot size of the sliding time window reservoir.
+     * Creates a counter with the given window of time and clock.
+     *
+     * @param window     the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param clock      the clock to use for the time
+     */
+    SlidingTimeWindowCounter(long window, TimeUnit windowUnit, Clock clock) {
+        buckets = new SlidingTimeWindowBuckets(window, windowUnit, clock);
+    }
+
+    /**
+     * @return the number of increments within the sliding time window.
      */
     @Override
-    public long getCount() {
-        return reservoir.getSnapshot().size();
+    public synchronized long getCount() {
+        long[] count = new long[1];
+
+        buckets.forEachInWindow(i -> count[0] += counts[i]);
+
+        return count[0];
     }
 
     @Override
     public void inc() {
-        reservoir.update(1L);
+        inc(1L);
     }
 
     @Override
-    public void inc(long n) {
-        for (int i = 0; i < n; ++i) {
-            inc();
-        }
+    public synchronized void inc(long n) {
+        counts[buckets.current(i -> counts[i] = 0)] += n;
     }
 
     @Override
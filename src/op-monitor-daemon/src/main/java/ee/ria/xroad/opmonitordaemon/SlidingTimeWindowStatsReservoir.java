@@ -0,0 +1,282 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import static ee.ria.xroad.opmonitordaemon.SlidingTimeWindowBuckets.NUMBER_OF_BUCKETS;
+
+/**
+ * A reservoir that keeps the statistics of the values within a sliding time
+ * window instead of the values themselves. The window is divided into a
+ * fixed number of time buckets, each holding the count, sum, sum of squares,
+ * minimum and maximum of its values and a histogram of the values with a bin
+ * for each power of two. The buckets are merged into a snapshot, so the
+ * memory used by the reservoir and the cost of a snapshot do not depend on
+ * the number of values.
+ * The minimum, maximum, mean and standard deviation of a snapshot are exact
+ * for the values within the window, the quantiles are estimated from the
+ * histogram.
+ */
+class SlidingTimeWindowStatsReservoir implements Reservoir {
+
+    // The bin 0 holds the values <= 0, the bin n the values 2^(n-1)..2^n-1.
+    private static final int NUMBER_OF_BINS = Long.SIZE + 1;
+
+    private final SlidingTimeWindowBuckets buckets;
+
+    private final long[] counts = new long[NUMBER_OF_BUCKETS];
+    private final long[] sums = new long[NUMBER_OF_BUCKETS];
+    private final double[] sumsOfSquares = new double[NUMBER_OF_BUCKETS];
+    private final long[] mins = new long[NUMBER_OF_BUCKETS];
+    private final long[] maxs = new long[NUMBER_OF_BUCKETS];
+
+    // The histograms are allocated when the buckets are first used.
+    private final long[][] bins = new long[NUMBER_OF_BUCKETS][];
+
+    /**
+     * Creates a reservoir with the given window of time.
+     * @param window the window of time
+     * @param windowUnit the unit of {@code window}
+     */
+    SlidingTimeWindowStatsReservoir(long window, TimeUnit windowUnit) {
+        this(window, windowUnit, Clock.defaultClock());
+    }
+
+    /**
+     * Creates a reservoir with the given window of time and clock.
+     * @param window the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param clock the clock to use for the time
+     */
+    SlidingTimeWindowStatsReservoir(long window, TimeUnit windowUnit,
+            Clock clock) {
+        buckets = new SlidingTimeWindowBuckets(window, windowUnit, clock);
+    }
+
+    @Override
+    public synchronized int size() {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public synchronized void update(long value) {
+        int i = buckets.current(this::reset);
+
+        counts[i]++;
+        sums[i] += value;
+        sumsOfSquares[i] += (double) value * value;
+        mins[i] = Math.min(mins[i], value);
+        maxs[i] = Math.max(maxs[i], value);
+
+        if (bins[i] == null) {
+            bins[i] = new long[NUMBER_OF_BINS];
+        }
+
+        bins[i][getBin(value)]++;
+    }
+
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        StatsSnapshot snapshot = new StatsSnapshot();
+
+        buckets.forEachInWindow(i -> snapshot.add(counts[i], sums[i],
+                sumsOfSquares[i], mins[i], maxs[i], bins[i]));
+
+        return snapshot;
+    }
+
+    private void reset(int i) {
+        counts[i] = 0;
+        sums[i] = 0;
+        sumsOfSquares[i] = 0;
+        mins[i] = Long.MAX_VALUE;
+        maxs[i] = Long.MIN_VALUE;
+
+        if (bins[i] != null) {
+            Arrays.fill(bins[i], 0);
+        }
+    }
+
+    private static int getBin(long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    private static double getBinLowerBound(int bin) {
+        return bin == 0 ? Long.MIN_VALUE : Math.pow(2, bin - 1);
+    }
+
+    private static double getBinUpperBound(int bin) {
+        return bin == 0 ? 0 : Math.pow(2, bin) - 1;
+    }
+
+    /**
+     * A snapshot of the merged statistics of the buckets within the window.
+     */
+    private static final class StatsSnapshot extends Snapshot {
+
+        private long count = 0;
+        private long sum = 0;
+        private double sumOfSquares = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private final long[] binCounts = new long[NUMBER_OF_BINS];
+
+        private void add(long bucketCount, long bucketSum,
+                double bucketSumOfSquares, long bucketMin, long bucketMax,
+                long[] bucketBins) {
+            if (bucketCount == 0) {
+                return;
+            }
+
+            count += bucketCount;
+            sum += bucketSum;
+            sumOfSquares += bucketSumOfSquares;
+            min = Math.min(min, bucketMin);
+            max = Math.max(max, bucketMax);
+
+            for (int i = 0; i < NUMBER_OF_BINS; i++) {
+                binCounts[i] += bucketBins[i];
+            }
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(
+                        quantile + " is not in [0..1]");
+            }
+
+            if (count == 0) {
+                return 0.0;
+            }
+
+            double position = quantile * (count - 1);
+
+            if (position <= 0) {
+                return min;
+            }
+
+            if (position >= count - 1) {
+                return max;
+            }
+
+            // The position of the value among the values within the window,
+            // the value is interpolated within its bin.
+            long preceding = 0;
+
+            for (int i = 0; i < NUMBER_OF_BINS; i++) {
+                if (binCounts[i] > 0 && position < preceding + binCounts[i]) {
+                    double lower = getLowerBound(i);
+                    double upper = getUpperBound(i);
+                    double fraction = binCounts[i] == 1 ? 0.0
+                            : (position - preceding) / (binCounts[i] - 1);
+
+                    return lower + (upper - lower) * fraction;
+                }
+
+                preceding += binCounts[i];
+            }
+
+            return max;
+        }
+
+        /**
+         * @return the middle value of each non-empty bin, the values
+         * themselves are not kept
+         */
+        @Override
+        public long[] getValues() {
+            return IntStream.range(0, NUMBER_OF_BINS)
+                    .filter(i -> binCounts[i] > 0)
+                    .mapToLong(i -> Math.round(
+                            (getLowerBound(i) + getUpperBound(i)) / 2))
+                    .toArray();
+        }
+
+        private double getLowerBound(int bin) {
+            return Math.max(getBinLowerBound(bin), min);
+        }
+
+        private double getUpperBound(int bin) {
+            return Math.min(getBinUpperBound(bin), max);
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(count, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        @Override
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        @Override
+        public long getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        /**
+         * @return the sample standard deviation of the values, like the
+         * standard deviation of the snapshot of the sliding time window
+         * reservoir
+         */
+        @Override
+        public double getStdDev() {
+            if (count <= 1) {
+                return 0;
+            }
+
+            double mean = getMean();
+            double variance = (sumOfSquares - mean * sum) / (count - 1);
+
+            return Math.sqrt(Math.max(variance, 0));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    output, StandardCharsets.UTF_8))) {
+                for (long value : getValues()) {
+                    out.printf("%d%n", value);
+                }
+            }
+        }
+    }
+}
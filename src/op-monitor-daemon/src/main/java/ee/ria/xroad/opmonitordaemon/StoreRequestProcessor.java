@@ -22,18 +22,16 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 
-import com.codahale.metrics.MetricRegistry;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import lombok.extern.slf4j.Slf4j;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
-
 import ee.ria.xroad.common.util.JsonUtils;
 
 import static ee.ria.xroad.common.util.TimeUtils.getEpochSecond;
@@ -49,54 +47,63 @@ class StoreRequestProcessor {
     /** The servlet request. */
     private HttpServletRequest servletRequest;
 
-    /** The registry of health data. */
-    private MetricRegistry healthMetricRegistry;
+    /** The health data metrics. */
+    private HealthDataMetrics healthDataMetrics;
 
     StoreRequestProcessor(HttpServletRequest servletRequest,
-            MetricRegistry healthMetricRegistry) {
+            HealthDataMetrics healthDataMetrics) {
         this.servletRequest = servletRequest;
-        this.healthMetricRegistry = healthMetricRegistry;
+        this.healthDataMetrics = healthDataMetrics;
     }
 
     /**
      * Processes the incoming message: stores the data and updates the related
-     * statistics.
+     * statistics. The records are read from the request stream and stored in
+     * batches, so the size of the request does not affect memory usage.
      * @throws Exception in case of any errors
      */
     void process() throws Exception {
-        String rawJson = IOUtils.toString(servletRequest.getInputStream(),
-                StandardCharsets.UTF_8);
-
-        log.trace("Incoming JSON: {}", rawJson);
-
-        List<OperationalDataRecord> records = prepareRawStoreData(rawJson);
-
-        log.debug("Process {} record{}", records.size(),
-                records.size() == 1 ? "" : "s");
+        int count = storeRecords(new InputStreamReader(
+                servletRequest.getInputStream(), StandardCharsets.UTF_8),
+                healthDataMetrics);
 
-        OperationalDataRecordManager.storeRecords(records, getEpochSecond());
-
-        HealthDataMetrics.processRecords(healthMetricRegistry, records);
+        log.debug("Processed {} record{}", count, count == 1 ? "" : "s");
     }
 
-    // Get usable operational data to be stored. If no such data is found,
-    // send an error message right away.
-    private static List<OperationalDataRecord> prepareRawStoreData(
-            String rawJsonData) throws Exception {
-        if (StringUtils.isBlank(rawJsonData)) {
-            throw new Exception(
-                    "No data was found in the request to store data");
-        }
-
-        OperationalDataRecords records;
-
-        try {
-            records = GSON.fromJson(rawJsonData, OperationalDataRecords.class);
-        } catch (Exception e) {
+    /**
+     * Stores the records of the given store request and updates the health
+     * data metrics once the records are committed.
+     * @param json the JSON of the store request
+     * @param healthDataMetrics the health data metrics
+     * @return the number of stored records
+     * @throws Exception in case of any errors
+     */
+    static int storeRecords(Reader json, HealthDataMetrics healthDataMetrics)
+            throws Exception {
+        // The health data of the stored batches is aggregated per service
+        // and applied once the transaction is committed, so the metrics of
+        // a failed request are not updated.
+        HealthDataMetrics.Aggregates healthData =
+                new HealthDataMetrics.Aggregates();
+        int count;
+
+        try (OperationalDataRecordsReader records =
+                new OperationalDataRecordsReader(GSON, json)) {
+            count = OperationalDataRecordManager.storeRecords(records,
+                    getEpochSecond(), batch -> batch.forEach(healthData::add));
+
+            // Get usable operational data to be stored. If no such data is
+            // found, send an error message right away.
+            if (records.isEmpty()) {
+                throw new Exception(
+                        "No data was found in the request to store data");
+            }
+        } catch (JsonParseException e) {
             throw new Exception("Received invalid request", e);
         }
 
-        return records.getRecords();
-    }
+        healthDataMetrics.processAggregates(healthData);
 
+        return count;
+    }
 }
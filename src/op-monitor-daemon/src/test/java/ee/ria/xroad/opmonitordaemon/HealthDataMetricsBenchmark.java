@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.codahale.metrics.MetricRegistry;
+
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+/**
+ * Health data metrics benchmark program. Measures registering the metrics
+ * of 10,000 services and updating them with batches of records spread over
+ * all the services.
+ */
+public final class HealthDataMetricsBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int SERVICES = 10000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private HealthDataMetricsBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments: the number of records per round
+     */
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        List<List<OperationalDataRecord>> batches = createBatches(records);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(new HealthDataMetrics(new MetricRegistry()), batches);
+        }
+
+        HealthDataMetrics healthDataMetrics =
+                new HealthDataMetrics(new MetricRegistry());
+
+        // The first round registers the metrics of every service
+        report("register", run(healthDataMetrics, batches), records);
+        report("update", run(healthDataMetrics, batches), records);
+
+        System.out.printf("%d metrics registered%n",
+                healthDataMetrics.getRegistry().getMetrics().size());
+    }
+
+    private static List<List<OperationalDataRecord>> createBatches(
+            int records) {
+        List<List<OperationalDataRecord>> batches = new ArrayList<>();
+        List<OperationalDataRecord> batch = new ArrayList<>();
+
+        for (int i = 0; i < records; i++) {
+            batch.add(createRecord(i));
+
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+
+    private static OperationalDataRecord createRecord(int i) {
+        ServiceId serviceId = ServiceId.create("EE", "GOV",
+                "member" + i % SERVICES, "subsystem", "service");
+
+        OperationalDataRecord record = new OperationalDataRecord();
+        record.setServiceXRoadInstance(serviceId.getXRoadInstance());
+        record.setServiceMemberClass(serviceId.getMemberClass());
+        record.setServiceMemberCode(serviceId.getMemberCode());
+        record.setServiceSubsystemCode(serviceId.getSubsystemCode());
+        record.setServiceCode(serviceId.getServiceCode());
+        record.setSecurityServerType(
+                OpMonitoringData.SecurityServerType.PRODUCER.getTypeString());
+        // Every tenth request of a service fails
+        record.setSucceeded(i / SERVICES % 10 != 0);
+        record.setRequestInTs((long) i);
+        record.setResponseOutTs((long) i + 10);
+        record.setRequestSoapSize(1000L);
+        record.setResponseSoapSize(2000L);
+
+        return record;
+    }
+
+    private static long run(HealthDataMetrics healthDataMetrics,
+            List<List<OperationalDataRecord>> batches) {
+        long start = System.nanoTime();
+
+        for (List<OperationalDataRecord> batch : batches) {
+            healthDataMetrics.processRecords(batch);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long elapsed, int records) {
+        System.out.printf("%-10s %d records of %d services, %.1f ns/record%n",
+                name, records, SERVICES, (double) elapsed / records);
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.*;
+
+/**
+ * Tests updating the health data metrics of operational data records.
+ */
+public class HealthDataMetricsTest {
+
+    private static final int NUMBER_OF_SERVICES = 10000;
+    private static final int NUMBER_OF_BATCHES = 10;
+
+    @Test
+    public void registerAndUpdateServiceMetrics() {
+        MetricRegistry registry = new MetricRegistry();
+        ServiceId serviceId = createServiceId(1);
+
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(createRecord(serviceId, true, 100L));
+        records.add(createRecord(serviceId, true, 200L));
+        records.add(createRecord(serviceId, false, 300L));
+
+        new HealthDataMetrics(registry).processRecords(records);
+
+        assertEquals(2, findCounter(registry,
+                getRequestCounterName(serviceId, true)).getCount());
+        assertEquals(1, findCounter(registry,
+                getRequestCounterName(serviceId, false)).getCount());
+        assertEquals(200L, findGauge(registry,
+                getLastRequestTimestampGaugeName(serviceId, true)).getValue());
+        assertEquals(300L, findGauge(registry,
+                getLastRequestTimestampGaugeName(serviceId, false))
+                .getValue());
+
+        Histogram duration = findHistogram(registry,
+                getRequestDurationName(serviceId));
+
+        assertEquals(2, duration.getCount());
+        assertEquals(100, duration.getSnapshot().getMin());
+        assertEquals(200, duration.getSnapshot().getMax());
+
+        assertNull(findCounter(registry,
+                getRequestCounterName(createServiceId(2), true)));
+    }
+
+    @Test
+    public void processRecordsOfManyServices() {
+        MetricRegistry registry = new MetricRegistry();
+        HealthDataMetrics healthDataMetrics = new HealthDataMetrics(registry);
+        List<OperationalDataRecord> records = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_SERVICES; i++) {
+            records.add(createRecord(createServiceId(i), i % 2 == 0, i));
+        }
+
+        for (int i = 0; i < NUMBER_OF_BATCHES; i++) {
+            healthDataMetrics.processRecords(records);
+        }
+
+        // The metrics of each service are registered once: the last request
+        // timestamp gauge and the request counter, plus three histograms
+        // for the successful requests.
+        assertEquals(NUMBER_OF_SERVICES / 2 * (2 + 2 + 3),
+                registry.getMetrics().size());
+
+        for (int i = 0; i < NUMBER_OF_SERVICES; i++) {
+            assertEquals(NUMBER_OF_BATCHES, findCounter(registry,
+                    getRequestCounterName(createServiceId(i), i % 2 == 0))
+                    .getCount());
+        }
+    }
+
+    @Test
+    public void unsuccessfulRecordsWithoutTimestamp() {
+        MetricRegistry registry = new MetricRegistry();
+        HealthDataMetrics healthDataMetrics = new HealthDataMetrics(registry);
+        ServiceId serviceId = createServiceId(1);
+
+        OperationalDataRecord record = createRecord(serviceId, false, 0L);
+        record.setResponseOutTs(null);
+
+        // The metrics are registered once although the last request
+        // timestamp stays null.
+        healthDataMetrics.processRecords(Collections.singletonList(record));
+        healthDataMetrics.processRecords(Collections.singletonList(record));
+
+        assertEquals(2, findCounter(registry,
+                getRequestCounterName(serviceId, false)).getCount());
+        assertNull(findGauge(registry,
+                getLastRequestTimestampGaugeName(serviceId, false))
+                .getValue());
+
+        healthDataMetrics.processRecords(Collections.singletonList(
+                createRecord(serviceId, false, 300L)));
+        healthDataMetrics.processRecords(Collections.singletonList(record));
+
+        assertEquals(300L, findGauge(registry,
+                getLastRequestTimestampGaugeName(serviceId, false))
+                .getValue());
+    }
+
+    private static ServiceId createServiceId(int number) {
+        return ServiceId.create("EE", "GOV", "member" + number, "subsystem",
+                "service");
+    }
+
+    private static OperationalDataRecord createRecord(ServiceId serviceId,
+            boolean succeeded, long timestamp) {
+        OperationalDataRecord record = new OperationalDataRecord();
+        record.setServiceXRoadInstance(serviceId.getXRoadInstance());
+        record.setServiceMemberClass(serviceId.getMemberClass());
+        record.setServiceMemberCode(serviceId.getMemberCode());
+        record.setServiceSubsystemCode(serviceId.getSubsystemCode());
+        record.setServiceCode(serviceId.getServiceCode());
+        record.setSecurityServerType(
+                OpMonitoringData.SecurityServerType.PRODUCER.getTypeString());
+        record.setSucceeded(succeeded);
+        record.setRequestInTs(0L);
+        record.setResponseOutTs(timestamp);
+        record.setRequestSoapSize(1000L);
+        record.setResponseSoapSize(2000L);
+
+        return record;
+    }
+}
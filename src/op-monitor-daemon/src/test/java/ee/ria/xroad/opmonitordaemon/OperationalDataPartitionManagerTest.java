@@ -0,0 +1,203 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryAllRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.storeRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.fillMinimalOperationalData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Test cases related to the daily partitions of the operational data table.
+ * The partitions are only maintained in PostgreSQL, so the partition tests
+ * are skipped unless the test database properties are changed to use
+ * PostgreSQL.
+ */
+public class OperationalDataPartitionManagerTest {
+
+    private static final String PARTITIONING_CHANGELOG = "../packages/xroad/"
+            + "op-monitor/usr/share/xroad/db/op-monitor/2-partitioning.xml";
+
+    private static final String CDATA_START = "<![CDATA[";
+    private static final String CDATA_END = "]]>";
+
+    /**
+     * Sets the test database properties.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        System.setProperty(SystemProperties.DATABASE_PROPERTIES,
+                "src/test/resources/hibernate.properties");
+    }
+
+    /**
+     * Cleanup the stored records before each test.
+     * @throws Exception if an error occurs.
+     */
+    @Before
+    public void beforeTest() throws Exception {
+        doInTransaction(session -> session.createQuery(
+                "delete OperationalDataRecord").executeUpdate());
+    }
+
+    @Test
+    public void noPartitionsWithoutPostgreSQL() throws Exception {
+        assumeFalse(isPostgreSQL());
+
+        storeRecords(Collections.singletonList(fillMinimalOperationalData()),
+                getSeconds(new DateTime().minusDays(30)));
+
+        assertEquals(0, OperationalDataPartitionManager.maintainPartitions(
+                new DateTime().minusDays(7)));
+
+        assertEquals(1, queryAllRecords().size());
+    }
+
+    @Test
+    public void createAndDropPartitions() throws Exception {
+        assumeTrue(isPostgreSQL());
+
+        installPartitioningFunctions();
+
+        LocalDate today = new LocalDate(DateTimeZone.UTC);
+        DateTime outdatedDay = today.minusDays(10)
+                .toDateTimeAtStartOfDay(DateTimeZone.UTC);
+
+        // Partitions of outdated days, as left over from earlier runs
+        doInTransaction(session -> session.createSQLQuery(
+                "select operational_data_maintain_partitions("
+                + "cast(:firstDay as date), cast(:lastDay as date), "
+                + "cast(:dropBefore as date))")
+                .setString("firstDay", today.minusDays(10).toString())
+                .setString("lastDay", today.minusDays(9).toString())
+                .setString("dropBefore", today.minusDays(30).toString())
+                .uniqueResult());
+
+        assertEquals(2, countPartitions());
+
+        storeRecord(getSeconds(outdatedDay));
+        assertEquals(1, countPartitionRecords(today.minusDays(10)));
+
+        // The partitions of yesterday to a week ahead are created and the
+        // partitions of the outdated days dropped.
+        assertEquals(2, OperationalDataPartitionManager.maintainPartitions(
+                new DateTime().minusDays(7)));
+
+        assertEquals(9, countPartitions());
+        assertEquals(0, queryAllRecords().size());
+
+        storeRecord(getSeconds(new DateTime()));
+        assertEquals(1, countPartitionRecords(today));
+        assertEquals(0, countRecordsInParentTable());
+
+        // The records of the days without a partition stay in the parent
+        // table and are left for the cleaner.
+        storeRecord(getSeconds(outdatedDay));
+        assertEquals(1, countRecordsInParentTable());
+        assertEquals(2, queryAllRecords().size());
+
+        assertEquals(0, OperationalDataPartitionManager.maintainPartitions(
+                new DateTime().minusDays(7)));
+        assertEquals(9, countPartitions());
+    }
+
+    private static void storeRecord(long monitoringDataTs) throws Exception {
+        storeRecords(Collections.singletonList(fillMinimalOperationalData()),
+                monitoringDataTs);
+    }
+
+    private static long getSeconds(DateTime time) {
+        return TimeUnit.MILLISECONDS.toSeconds(time.getMillis());
+    }
+
+    private static boolean isPostgreSQL() throws Exception {
+        return doInTransaction(session -> ((SessionFactoryImplementor) session
+                .getSessionFactory()).getDialect()
+                instanceof PostgreSQL81Dialect);
+    }
+
+    // Runs the SQL of the Liquibase change set, like the package
+    // installation does.
+    private static void installPartitioningFunctions() throws Exception {
+        String changelog = new String(Files.readAllBytes(
+                Paths.get(PARTITIONING_CHANGELOG)), StandardCharsets.UTF_8);
+
+        String sql = changelog.substring(
+                changelog.indexOf(CDATA_START) + CDATA_START.length(),
+                changelog.indexOf(CDATA_END));
+
+        doInTransaction(session -> {
+            session.doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("DROP TRIGGER IF EXISTS "
+                            + "operational_data_insert_trigger "
+                            + "ON operational_data");
+                    statement.execute(sql);
+                }
+            });
+
+            return null;
+        });
+    }
+
+    private static int countPartitions() throws Exception {
+        return doInTransaction(session -> ((Number) session.createSQLQuery(
+                "select count(*) from pg_catalog.pg_inherits "
+                + "where inhparent = cast('operational_data' as regclass)")
+                .uniqueResult()).intValue());
+    }
+
+    private static int countPartitionRecords(LocalDate day) throws Exception {
+        return doInTransaction(session -> ((Number) session.createSQLQuery(
+                "select count(*) from operational_data_"
+                + day.toString("yyyyMMdd")).uniqueResult()).intValue());
+    }
+
+    private static int countRecordsInParentTable() throws Exception {
+        return doInTransaction(session -> ((Number) session.createSQLQuery(
+                "select count(*) from only operational_data")
+                .uniqueResult()).intValue());
+    }
+}
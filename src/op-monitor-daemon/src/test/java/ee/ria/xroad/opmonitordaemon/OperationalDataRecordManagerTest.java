@@ -23,6 +23,7 @@
 package ee.ria.xroad.opmonitordaemon;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Collections;
 import java.util.HashSet;
 
@@ -98,6 +99,44 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(record, resultRecord);
     }
 
+    @Test
+    public void storeAndQueryAllFields() throws Exception {
+        // The records are stored with the explicit insert statement of the
+        // mapping, so each field gets a distinct value in order to detect
+        // columns listed in the wrong order.
+        OperationalDataRecord record = new OperationalDataRecord();
+        int value = 1;
+
+        for (Field field : OperationalDataRecord.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())
+                    || "id".equals(field.getName())) {
+                continue;
+            }
+
+            field.setAccessible(true);
+
+            if (field.getType() == Long.class) {
+                field.set(record, (long) value);
+            } else if (field.getType() == Integer.class) {
+                field.set(record, value);
+            } else if (field.getType() == Boolean.class) {
+                field.set(record, true);
+            } else {
+                field.set(record, field.getName() + value);
+            }
+
+            value++;
+        }
+
+        storeRecords(Collections.singletonList(record),
+                record.getMonitoringDataTs());
+
+        OperationalDataRecords result = queryAllRecords();
+
+        assertEquals(1, result.size());
+        assertEquals(record, result.getRecords().get(0));
+    }
+
     @Test
     public void storeAndQueryDataFromPeriods() throws Exception {
         storeFullOperationalDataRecords(1, 1474968960L);
@@ -0,0 +1,102 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.io.StringReader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import ee.ria.xroad.common.util.JsonUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading the records of store requests from JSON streams.
+ */
+public class OperationalDataRecordsReaderTest {
+
+    private static final Gson GSON = JsonUtils.getSerializer();
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void readRecords() {
+        OperationalDataRecordsReader reader = createReader(
+                "{\"skipped\":{\"records\":[1]},\"records\":["
+                + "{\"serviceCode\":\"a\",\"securityServerType\":\"Client\"},"
+                + "{\"serviceCode\":\"b\",\"securityServerType\":\"Producer\"}"
+                + "],\"after\":[1,2]}");
+
+        assertTrue(reader.hasNext());
+        assertEquals("a", reader.next().getServiceCode());
+        assertTrue(reader.hasNext());
+        assertEquals("b", reader.next().getServiceCode());
+        assertFalse(reader.hasNext());
+        assertFalse(reader.isEmpty());
+    }
+
+    @Test
+    public void readNoRecords() {
+        OperationalDataRecordsReader reader = createReader("{}");
+
+        assertFalse(reader.hasNext());
+        assertFalse(reader.isEmpty());
+
+        reader = createReader("{\"records\":[]}");
+
+        assertFalse(reader.hasNext());
+        assertFalse(reader.isEmpty());
+    }
+
+    @Test
+    public void readEmptyStream() {
+        OperationalDataRecordsReader reader = createReader("  ");
+
+        assertFalse(reader.hasNext());
+        assertTrue(reader.isEmpty());
+    }
+
+    @Test
+    public void readInvalidJson() {
+        expectedException.expect(JsonParseException.class);
+
+        OperationalDataRecordsReader reader = createReader(
+                "{\"records\":[{\"serviceCode\":\"a\"}");
+
+        while (reader.hasNext()) {
+            reader.next();
+        }
+    }
+
+    private static OperationalDataRecordsReader createReader(String json) {
+        return new OperationalDataRecordsReader(GSON, new StringReader(json));
+    }
+}
@@ -27,10 +27,10 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import com.codahale.metrics.MetricRegistry;
 import lombok.SneakyThrows;
@@ -85,11 +85,12 @@ public class QueryRequestHandlerTest {
 
         QueryRequestHandler handler = new OperationalDataRequestHandler() {
             @Override
-            protected OperationalDataRecords getOperationalDataRecords(
+            protected Long writeOperationalDataRecords(
                     ClientId filterByClient, long recordsFrom, long recordsTo,
                     ClientId filterByServiceProvider,
-                    Set<String> outputFields) {
-                return new OperationalDataRecords(Collections.emptyList());
+                    Set<String> outputFields,
+                    Consumer<OperationalDataRecord> recordConsumer) {
+                return null;
             }
 
             @Override
@@ -201,8 +202,8 @@ public class QueryRequestHandlerTest {
 
     private final class TestMetricsRegistry extends MetricRegistry {
         TestMetricsRegistry() {
-            HealthDataMetrics.registerInitialMetrics(this,
-                    () -> TEST_TIMESTAMP);
+            HealthDataMetrics healthDataMetrics = new HealthDataMetrics(this);
+            healthDataMetrics.registerInitialMetrics(() -> TEST_TIMESTAMP);
 
             List<OperationalDataRecord> records = new ArrayList<>();
 
@@ -231,7 +232,7 @@ public class QueryRequestHandlerTest {
                 records.add(record);
             }
 
-            HealthDataMetrics.processRecords(this, records);
+            healthDataMetrics.processRecords(records);
         }
 
         private OperationalDataRecord createRecord(ServiceId serviceId,
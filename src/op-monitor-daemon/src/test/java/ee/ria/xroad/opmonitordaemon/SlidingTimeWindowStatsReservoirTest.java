@@ -0,0 +1,136 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the sliding time window metrics that keep their data in time buckets.
+ */
+public class SlidingTimeWindowStatsReservoirTest {
+
+    private static final double DELTA = 0.000001;
+
+    private final TestClock clock = new TestClock();
+
+    @Test
+    public void computeStatsOfValuesInWindow() {
+        SlidingTimeWindowStatsReservoir reservoir =
+                new SlidingTimeWindowStatsReservoir(10, TimeUnit.SECONDS,
+                        clock);
+
+        reservoir.update(2);
+        reservoir.update(4);
+        clock.advance(5, TimeUnit.SECONDS);
+        reservoir.update(4);
+        reservoir.update(4);
+        reservoir.update(5);
+        reservoir.update(5);
+        reservoir.update(7);
+        reservoir.update(9);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(8, snapshot.size());
+        assertEquals(2, snapshot.getMin());
+        assertEquals(9, snapshot.getMax());
+        assertEquals(5.0, snapshot.getMean(), DELTA);
+        assertEquals(Math.sqrt(32.0 / 7), snapshot.getStdDev(), DELTA);
+
+        double median = snapshot.getMedian();
+
+        assertTrue(median >= 4 && median <= 7);
+        assertEquals(2.0, snapshot.getValue(0), DELTA);
+        assertEquals(9.0, snapshot.getValue(1), DELTA);
+    }
+
+    @Test
+    public void expireValuesOutOfWindow() {
+        SlidingTimeWindowStatsReservoir reservoir =
+                new SlidingTimeWindowStatsReservoir(10, TimeUnit.SECONDS,
+                        clock);
+
+        reservoir.update(100);
+        clock.advance(6, TimeUnit.SECONDS);
+        reservoir.update(1);
+        clock.advance(6, TimeUnit.SECONDS);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(1, snapshot.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(1, snapshot.getMax());
+        assertEquals(0.0, snapshot.getStdDev(), DELTA);
+
+        clock.advance(6, TimeUnit.SECONDS);
+
+        snapshot = reservoir.getSnapshot();
+
+        assertEquals(0, snapshot.size());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0.0, snapshot.getMean(), DELTA);
+    }
+
+    @Test
+    public void countIncrementsInWindow() {
+        SlidingTimeWindowCounter counter =
+                new SlidingTimeWindowCounter(10, TimeUnit.SECONDS, clock);
+
+        counter.inc();
+        clock.advance(6, TimeUnit.SECONDS);
+        counter.inc(2);
+
+        assertEquals(3, counter.getCount());
+
+        clock.advance(6, TimeUnit.SECONDS);
+
+        assertEquals(2, counter.getCount());
+
+        clock.advance(6, TimeUnit.SECONDS);
+
+        assertEquals(0, counter.getCount());
+    }
+
+    private static final class TestClock extends Clock {
+
+        private long tick = TimeUnit.DAYS.toNanos(1);
+
+        void advance(long duration, TimeUnit unit) {
+            tick += unit.toNanos(duration);
+        }
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.io.StringReader;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryAllRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests storing the records of store requests and updating the health data
+ * metrics of the stored records.
+ */
+public class StoreRequestProcessorTest extends BaseTestUsingDB {
+
+    // More than the JDBC batch size of the test database, so that the
+    // records are flushed in several batches.
+    private static final int RECORDS = 150;
+
+    private static final String PRODUCER_RECORD =
+            formatFullOperationalDataAsJson().replace(
+                    "\"securityServerType\":\"Client\"",
+                    "\"securityServerType\":\"Producer\"");
+
+    // Fails when flushed, because the internal IP is mandatory
+    private static final String INVALID_RECORD = PRODUCER_RECORD.replace(
+            "\"securityServerInternalIp\":\"192.168.3.250\",", "");
+
+    private static final ServiceId SERVICE_ID = HealthDataMetricsUtil
+            .getServiceId(GSON.fromJson(PRODUCER_RECORD,
+                    OperationalDataRecord.class));
+
+    /**
+     * Cleanup the stored records before each test.
+     * @throws Exception if an error occurs.
+     */
+    @Before
+    public void beforeTest() throws Exception {
+        doInTransaction(session -> session.createQuery(
+                "delete OperationalDataRecord").executeUpdate());
+    }
+
+    @Test
+    public void storeRecordsAndUpdateMetrics() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+
+        assertEquals(RECORDS, StoreRequestProcessor.storeRecords(
+                createRequest(-1), new HealthDataMetrics(registry)));
+
+        assertEquals(RECORDS, queryAllRecords().size());
+
+        Counter successful = registry.getCounters().get(
+                HealthDataMetricsUtil.getRequestCounterName(SERVICE_ID, true));
+
+        assertEquals(RECORDS, successful.getCount());
+    }
+
+    @Test
+    public void failedStoreLeavesMetricsUnchanged() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+
+        try {
+            // The first batch is flushed before the invalid record is
+            // stored.
+            StoreRequestProcessor.storeRecords(
+                    createRequest(RECORDS - 10),
+                    new HealthDataMetrics(registry));
+
+            fail("Storing an invalid record must fail");
+        } catch (Exception expected) {
+            // expected
+        }
+
+        assertEquals(0, queryAllRecords().size());
+        assertTrue(registry.getMetrics().isEmpty());
+    }
+
+    private static StringReader createRequest(int invalidRecordIndex) {
+        StringBuilder json = new StringBuilder("{\"records\":[");
+
+        for (int i = 0; i < RECORDS; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+
+            json.append(i == invalidRecordIndex
+                    ? INVALID_RECORD : PRODUCER_RECORD);
+        }
+
+        return new StringReader(json.append("]}").toString());
+    }
+}
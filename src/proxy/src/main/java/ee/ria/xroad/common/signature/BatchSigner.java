@@ -29,31 +29,40 @@ import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmId;
 
-import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import org.bouncycastle.operator.OperatorCreationException;
-
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Terminated;
 import akka.actor.UntypedActor;
-import akka.actor.UntypedActorWithStash;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
 import ee.ria.xroad.signer.protocol.SignerClient;
 import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
 import ee.ria.xroad.signer.protocol.message.Sign;
 import ee.ria.xroad.signer.protocol.message.SignResponse;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
 
 /**
  * This class handles batch signing. Batch signatures are created always, if
@@ -66,26 +75,50 @@ import scala.concurrent.Await;
  *
  * The batch signer is an Akka actor, it creates child actors per
  * signing certificate, which means there is essentially one batch signer
- * per signing certificate.
+ * per signing certificate. Each of them signs several batches concurrently
+ * to make use of the parallel signing capacity of Signer.
  */
 @Slf4j
 public class BatchSigner extends UntypedActor {
 
     private static final Timeout DEFAULT_TIMEOUT = new Timeout(30000, TimeUnit.MILLISECONDS);
 
+    // The names of the batch size histogram and signing time timer of each
+    // worker are batchsigner.<cert hash>.BatchSize and .SignTime.
+    static final String METRICS_PREFIX = "batchsigner";
+    static final String BATCH_SIZE = "BatchSize";
+    static final String SIGN_TIME = "SignTime";
+
     // Holds the actor instance, which sends and receives messages.
     private static ActorRef instance;
 
+    private final SignerConnection signer;
+
+    BatchSigner(SignerConnection signer) {
+        this.signer = signer;
+    }
+
     /**
      * Initializes the batch signer with the given actor system.
      * @param actorSystem actor system the batch signer should use
      */
     public static void init(ActorSystem actorSystem) {
         if (instance == null) {
-            instance = actorSystem.actorOf(Props.create(BatchSigner.class));
+            init(actorSystem, new SignerConnection());
         }
     }
 
+    /**
+     * Initializes the batch signer that sends the requests to Signer using
+     * the given connection, replacing the current batch signer.
+     * @param actorSystem actor system the batch signer should use
+     * @param signer the connection to Signer
+     */
+    static void init(ActorSystem actorSystem, SignerConnection signer) {
+        instance = actorSystem.actorOf(Props.create(BatchSigner.class,
+                signer));
+    }
+
     /**
      * Submits the given signing request for batch signing.
      * @param keyId the signing key
@@ -142,45 +175,102 @@ public class BatchSigner extends UntypedActor {
         if (worker == null) {
             log.trace("Creating new worker for cert '{}'", name);
 
-            worker = getContext().actorOf(Props.create(WorkerImpl.class), name);
+            worker = getContext().actorOf(Props.create(WorkerImpl.class,
+                    signer), name);
         }
 
         return worker;
     }
 
     /**
-     * This is the worker that does the heavy lifting.
+     * This is the worker that does the heavy lifting. The worker signs up to
+     * a configured number of batches concurrently. The size of a batch and
+     * the time the worker waits for more requests before starting a batch
+     * adapt to the observed signing time, request rate and queue depth.
      */
-    private static class WorkerImpl extends UntypedActorWithStash {
+    private static class WorkerImpl extends UntypedActor {
+
+        private static final String DISPATCH = "Dispatch";
+
+        // Weight of the latest observation in the moving averages.
+        private static final double AVERAGE_WEIGHT = 0.2;
+
+        private static final double NANOS_IN_MILLISECOND = 1000000.0;
 
-        // The currently active signing ctx.
-        private BatchSignatureCtx workingSigningCtx;
+        // Lower bound of the average request interval in milliseconds.
+        private static final double MIN_REQUEST_INTERVAL = 0.01;
 
-        // The next signing ctx, if batch signing.
-        private BatchSignatureCtx nextSigningCtx;
+        private final int maxConcurrentBatches = Math.max(1,
+                SystemProperties.getProxyBatchSignerMaxConcurrentBatches());
+        private final int maxBatchSize = Math.max(1,
+                SystemProperties.getProxyBatchSignerMaxBatchSize());
+        private final long maxLingerTime = Math.max(0,
+                SystemProperties.getProxyBatchSignerMaxLingerTime());
 
-        private long signStartTime;
-        private boolean workerBusy;
+        // The requests waiting to be signed.
+        private final Deque<PendingRequest> pendingRequests =
+                new ArrayDeque<>();
+
+        // The batches being signed, by the actor sending the batch to Signer.
+        private final Map<ActorRef, BatchSignatureCtx> inFlightBatches =
+                new HashMap<>();
+
+        private Histogram batchSizes;
+        private Timer signTimes;
+
+        private final SignerConnection signer;
 
         private Boolean batchSigningEnabled;
 
+        // Moving averages (in milliseconds) of the signing time and the time
+        // between requests.
+        private double averageSignTime;
+        private double averageRequestInterval;
+        private long lastRequestNanos;
+
+        private Cancellable lingerTimer;
+
+        WorkerImpl(SignerConnection signer) {
+            this.signer = signer;
+        }
+
+        @Override
+        public void preStart() throws Exception {
+            // The worker is named after the signing certificate hash
+            MetricRegistry metrics =
+                    MetricRegistryHolder.getInstance().getMetrics();
+            String name = getSelf().path().name();
+
+            batchSizes = metrics.histogram(
+                    MetricRegistry.name(METRICS_PREFIX, name, BATCH_SIZE));
+            signTimes = metrics.timer(
+                    MetricRegistry.name(METRICS_PREFIX, name, SIGN_TIME));
+        }
+
+        @Override
+        public void postStop() throws Exception {
+            cancelLingerTimer();
+        }
+
         @Override
         public void onReceive(Object message) throws Exception {
             log.trace("onReceive({})", message);
 
             if (message instanceof SigningRequestWrapper) {
                 handleSignRequest((SigningRequestWrapper) message);
-            } else if (message instanceof SignResponse) {
-                handleSignResponse((SignResponse) message);
-            } else if (message instanceof Exception) {
-                handleException((Exception) message);
+            } else if (message instanceof Terminated) {
+                handleTerminated(((Terminated) message).getActor());
+            } else if (inFlightBatches.containsKey(getSender())) {
+                handleSignResult(inFlightBatches.remove(getSender()), message);
+            } else if (DISPATCH.equals(message)) {
+                lingerTimer = null;
+                dispatch(true);
             } else {
                 unhandled(message);
             }
         }
 
-        private void handleSignRequest(SigningRequestWrapper signRequest)
-                throws Exception {
+        private void handleSignRequest(SigningRequestWrapper signRequest) {
             log.trace("handleSignRequest()");
 
             // If we do not know whether batch signing is enabled for the token,
@@ -190,152 +280,207 @@ public class BatchSigner extends UntypedActor {
                 queryBatchSigningEnabled(signRequest.getKeyId());
             }
 
-            // Handle incoming sign request. If the token worker is currently
-            // busy (signing, generating key, etc...) and batch signing is
-            // enabled then create signing context and collect all following
-            // sign requests to be signed in batch. Otherwise just sign the
-            // data straight away.
-            if (isWorkerBusy()) {
-                if (batchSigningEnabled) {
-                    doBatchSign(signRequest);
-                } else {
-                    log.trace("Batch signing not enabled, stashing request");
-                    // Batch signing not enabled, but currently busy,
-                    // so stash this message for future.
-                    stash();
-                }
-            } else {
-                doSign(signRequest);
-            }
+            updateRequestInterval();
+
+            pendingRequests.add(new PendingRequest(getSender(), signRequest));
+
+            dispatch(false);
         }
 
         private void queryBatchSigningEnabled(String keyId) {
             try {
                 batchSigningEnabled =
-                        SignerClient.execute(
-                                new GetTokenBatchSigningEnabled(keyId));
+                        signer.execute(new GetTokenBatchSigningEnabled(keyId));
             } catch (Exception e) {
                 log.error("Failed to query if batch signing is enabled for "
                         + "token with key {}", keyId, e);
             }
         }
 
-        private void doBatchSign(SigningRequestWrapper wrapper) {
-            log.trace("doBatchSign()");
+        private void handleSignResult(BatchSignatureCtx ctx, Object result) {
+            log.trace("handleSignResult()");
+
+            long signNanos = System.nanoTime() - ctx.getSignStartTime();
+            signTimes.update(signNanos, TimeUnit.NANOSECONDS);
+            updateSignTime(signNanos);
 
-            if (nextSigningCtx == null) {
-                nextSigningCtx = new BatchSignatureCtx(wrapper.getKeyId(),
-                        wrapper.getSignatureAlgorithmId());
+            // Send the signature (or the error) that came from Signer to the
+            // clients.
+            if (result instanceof SignResponse) {
+                try {
+                    sendSignatureResponse(ctx,
+                            ((SignResponse) result).getSignature());
+                } catch (Exception e) {
+                    sendResponse(ctx, translateException(e));
+                }
+            } else {
+                sendResponse(ctx, result);
             }
 
-            nextSigningCtx.add(getSender(), wrapper.getRequest());
+            // Start signing the requests that arrived meanwhile (if any).
+            dispatch(false);
         }
 
-        private void doSign(SigningRequestWrapper wrapper) throws Exception {
-            log.trace("doSign()");
+        private void handleTerminated(ActorRef requestSender) {
+            // The request sender relays the result before it stops, so the
+            // batch is still in flight only if the sender failed.
+            BatchSignatureCtx ctx = inFlightBatches.remove(requestSender);
+            if (ctx != null) {
+                log.error("Signing request sender stopped before the"
+                        + " signature was received");
 
-            BatchSignatureCtx ctx = new BatchSignatureCtx(wrapper.getKeyId(),
-                    wrapper.getSignatureAlgorithmId());
-            ctx.add(getSender(), wrapper.getRequest());
+                handleSignResult(ctx, new CodedException(X_INTERNAL_ERROR,
+                        "Signature creation failed"));
+            }
+        }
 
-            workingSigningCtx = ctx;
+        /**
+         * Starts new batches while there are pending requests and the number
+         * of concurrent batches allows. If other batches are being signed
+         * and there are fewer pending requests than the target batch size,
+         * waits for more requests (at most the linger time) before starting
+         * the batch. If no batch is being signed, starts at once.
+         */
+        private void dispatch(boolean lingerTimeElapsed) {
+            while (!pendingRequests.isEmpty()
+                    && inFlightBatches.size() < maxConcurrentBatches) {
+                int targetBatchSize = getTargetBatchSize();
+
+                if (!lingerTimeElapsed && !inFlightBatches.isEmpty()
+                        && pendingRequests.size() < targetBatchSize) {
+                    scheduleLingerTimer();
+                    return;
+                }
+
+                startBatch(getBatchSizeLimit(targetBatchSize));
+            }
 
-            doCalculateSignature(ctx.getKeyId(), ctx.getSignatureAlgorithmId(),
-                    ctx.getDataToBeSigned());
+            if (pendingRequests.isEmpty()) {
+                cancelLingerTimer();
+            }
         }
 
-        private void handleSignResponse(SignResponse signResponse) {
-            log.trace("handleSignResponse()");
+        /**
+         * @return the number of requests expected to arrive during the
+         * signing of a batch, divided over the concurrent batches
+         */
+        private int getTargetBatchSize() {
+            if (!Boolean.TRUE.equals(batchSigningEnabled)) {
+                return 1;
+            }
 
-            workerBusy = false;
+            double requestsPerSignature = averageSignTime
+                    / Math.max(averageRequestInterval, MIN_REQUEST_INTERVAL)
+                    / maxConcurrentBatches;
 
-            // Handle the (successful) signature calculation result that came
-            // from Signer -- send the signature to the clients.
-            sendResponse(signResponse);
+            return (int) Math.max(1, Math.min(Math.ceil(requestsPerSignature),
+                    maxBatchSize));
+        }
 
-            // If batch signing is not enabled, then start signing the next
-            // stashed messages.
-            if (!batchSigningEnabled) {
-                unstashAll();
-            } else if (nextSigningCtx != null) {
-                // Start the next batch signing (if any).
-                startNextBatchSigning();
+        /**
+         * @return the batch size limit that also spreads the queued requests
+         * over the free concurrent batches
+         */
+        private int getBatchSizeLimit(int targetBatchSize) {
+            if (!Boolean.TRUE.equals(batchSigningEnabled)) {
+                return 1;
             }
+
+            int freeBatches = maxConcurrentBatches - inFlightBatches.size();
+            int queueShare =
+                    (pendingRequests.size() + freeBatches - 1) / freeBatches;
+
+            return Math.min(Math.max(targetBatchSize, queueShare),
+                    maxBatchSize);
         }
 
-        private void handleException(Exception exception) {
-            log.trace("handleException()");
+        private void startBatch(int batchSizeLimit) {
+            PendingRequest first = pendingRequests.peek();
 
-            workerBusy = false;
+            BatchSignatureCtx ctx = new BatchSignatureCtx(
+                    first.getRequest().getKeyId(),
+                    first.getRequest().getSignatureAlgorithmId());
 
-            sendResponse(exception);
-        }
+            while (!pendingRequests.isEmpty()
+                    && ctx.getClients().size() < batchSizeLimit
+                    && isSameBatch(ctx, pendingRequests.peek())) {
+                PendingRequest pending = pendingRequests.poll();
+                ctx.add(pending.getClient(), pending.getRequest().getRequest());
+            }
+
+            log.trace("startBatch({})", ctx.getClients().size());
 
-        private void startNextBatchSigning() {
-            log.trace("startNextBatchSigning()");
+            batchSizes.update(ctx.getClients().size());
 
-            workingSigningCtx = nextSigningCtx;
-            nextSigningCtx = null;
             try {
-                doCalculateSignature(
-                        workingSigningCtx.getKeyId(),
-                        workingSigningCtx.getSignatureAlgorithmId(),
-                        workingSigningCtx.getDataToBeSigned());
-            } catch (Exception e) {
-                sendResponse(workingSigningCtx, translateException(e));
+                byte[] digest = calculateDigest(
+                        getDigestAlgorithmId(ctx.getSignatureAlgorithmId()),
+                        ctx.getDataToBeSigned());
 
-                workerBusy = true;
-                workingSigningCtx = null;
+                ctx.setSignStartTime(System.nanoTime());
+
+                // Proxy this request to the Signer.
+                ActorRef requestSender = getContext().actorOf(Props.create(
+                        SignRequestSender.class, signer, new Sign(
+                                ctx.getKeyId(), ctx.getSignatureAlgorithmId(),
+                                digest)));
+
+                // Watched, so that the batch is not left in flight if the
+                // request sender fails.
+                getContext().watch(requestSender);
+
+                inFlightBatches.put(requestSender, ctx);
+            } catch (Exception e) {
+                sendResponse(ctx, translateException(e));
             }
         }
 
-        private boolean isWorkerBusy() {
-            if (isSignatureCreationTimedOut()) {
-                workerBusy = false;
-                throw new CodedException(X_INTERNAL_ERROR,
-                        "Signature creation timed out");
+        private static boolean isSameBatch(BatchSignatureCtx ctx,
+                PendingRequest pending) {
+            return ctx.getKeyId().equals(pending.getRequest().getKeyId())
+                    && ctx.getSignatureAlgorithmId().equals(
+                            pending.getRequest().getSignatureAlgorithmId());
+        }
+
+        private void scheduleLingerTimer() {
+            if (lingerTimer != null) {
+                return;
             }
 
-            return workerBusy;
+            long lingerTime = Math.min(maxLingerTime,
+                    (long) (averageSignTime / maxConcurrentBatches));
+
+            lingerTimer = getContext().system().scheduler().scheduleOnce(
+                    Duration.create(lingerTime, TimeUnit.MILLISECONDS),
+                    getSelf(), DISPATCH, getContext().dispatcher(),
+                    ActorRef.noSender());
         }
 
-        private boolean isSignatureCreationTimedOut() {
-            return workerBusy && System.currentTimeMillis() - signStartTime
-                    >= DEFAULT_TIMEOUT.duration().length();
+        private void cancelLingerTimer() {
+            if (lingerTimer != null) {
+                lingerTimer.cancel();
+                lingerTimer = null;
+            }
         }
 
-        private void doCalculateSignature(String keyId,
-                String signatureAlgorithmId, byte[] data) throws
-                NoSuchAlgorithmException, IOException, OperatorCreationException {
-            workerBusy = true;
-            signStartTime = System.currentTimeMillis();
+        private void updateRequestInterval() {
+            long now = System.nanoTime();
 
-            byte[] digest = calculateDigest(
-                    getDigestAlgorithmId(signatureAlgorithmId), data);
+            if (lastRequestNanos != 0) {
+                averageRequestInterval = average(averageRequestInterval,
+                        (now - lastRequestNanos) / NANOS_IN_MILLISECOND);
+            }
 
-            // Proxy this request to the Signer.
-            SignerClient.execute(new Sign(keyId, signatureAlgorithmId, digest), getSelf());
+            lastRequestNanos = now;
         }
 
-        private void sendResponse(Object message) {
-            log.trace("sendResponse({})", message);
-
-            if (workingSigningCtx != null) {
-                try {
-                    if (message instanceof SignResponse) {
-                        sendSignatureResponse(workingSigningCtx,
-                                ((SignResponse) message).getSignature());
-                    } else {
-                        sendResponse(workingSigningCtx, message);
-                    }
-                } catch (Exception e) {
-                    sendResponse(workingSigningCtx, e);
-                }
+        private void updateSignTime(long signNanos) {
+            averageSignTime = average(averageSignTime,
+                    signNanos / NANOS_IN_MILLISECOND);
+        }
 
-                workingSigningCtx = null;
-            } else {
-                throw new RuntimeException("No signing context");
-            }
+        private static double average(double average, double value) {
+            return average + AVERAGE_WEIGHT * (value - average);
         }
 
         private void sendSignatureResponse(BatchSignatureCtx ctx,
@@ -368,6 +513,85 @@ public class BatchSigner extends UntypedActor {
         }
     }
 
+    /**
+     * Sends one signing request to Signer and relays the response (or a
+     * timeout error) to the worker, so that the worker can tell apart the
+     * responses of the concurrent batches.
+     */
+    private static class SignRequestSender extends UntypedActor {
+
+        private final SignerConnection signer;
+        private final Sign request;
+
+        SignRequestSender(SignerConnection signer, Sign request) {
+            this.signer = signer;
+            this.request = request;
+        }
+
+        @Override
+        public void preStart() throws Exception {
+            getContext().setReceiveTimeout(DEFAULT_TIMEOUT.duration());
+
+            try {
+                signer.execute(request, getSelf());
+            } catch (Exception e) {
+                log.error("Failed to send signing request to Signer", e);
+
+                reply(translateException(e));
+            }
+        }
+
+        @Override
+        public void onReceive(Object message) throws Exception {
+            if (message instanceof ReceiveTimeout) {
+                reply(new CodedException(X_INTERNAL_ERROR,
+                        "Signature creation timed out"));
+            } else {
+                reply(message);
+            }
+        }
+
+        private void reply(Object message) {
+            getContext().parent().tell(message, getSelf());
+            getContext().stop(getSelf());
+        }
+    }
+
+    /**
+     * Sends the requests of the batch signer to Signer.
+     */
+    static class SignerConnection {
+
+        /**
+         * Sends a message and waits for the response.
+         * @param <T> the type of the response
+         * @param message the message
+         * @return the response
+         * @throws Exception if the response is an exception
+         */
+        <T> T execute(Object message) throws Exception {
+            return SignerClient.execute(message);
+        }
+
+        /**
+         * Sends a message, the response is sent to the receiver.
+         * @param message the message
+         * @param receiver the receiver of the response
+         */
+        void execute(Object message, ActorRef receiver) {
+            SignerClient.execute(message, receiver);
+        }
+    }
+
+    /**
+     * A signing request waiting in the worker, along with the client.
+     */
+    @Data
+    private static class PendingRequest {
+        private final ActorRef client;
+        private final SigningRequestWrapper request;
+    }
+
     /**
      * Convenience class that wraps the request along with the keyId
      * and algorithm id.
@@ -391,6 +615,7 @@ public class BatchSigner extends UntypedActor {
 
         @Getter private final List<ActorRef> clients = new ArrayList<>();
         @Getter private final String keyId;
+        @Getter @Setter private long signStartTime;
 
         BatchSignatureCtx(String keyId, String signatureAlgorithmId) {
             super(signatureAlgorithmId);
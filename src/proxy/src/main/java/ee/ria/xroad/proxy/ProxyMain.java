@@ -26,6 +26,7 @@ import akka.actor.ActorSelection;
 import akka.actor.ActorSystem;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.codahale.metrics.JmxReporter;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
 import ee.ria.xroad.common.CommonMessages;
@@ -44,8 +45,10 @@ import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.common.util.JsonUtils;
 import ee.ria.xroad.common.util.StartStop;
 import ee.ria.xroad.common.util.healthcheck.HealthCheckPort;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
 import ee.ria.xroad.proxy.addon.AddOn;
 import ee.ria.xroad.proxy.clientproxy.ClientProxy;
+import ee.ria.xroad.proxy.conf.OcspResponseCache;
 import ee.ria.xroad.proxy.messagelog.MessageLog;
 import ee.ria.xroad.proxy.opmonitoring.OpMonitoring;
 import ee.ria.xroad.proxy.serverproxy.ServerProxy;
@@ -102,6 +105,8 @@ public final class ProxyMain {
     private static String version;
     private static ServiceLoader<AddOn> addOns = ServiceLoader.load(AddOn.class);
 
+    private static JmxReporter jmxReporter;
+
     private ProxyMain() {
     }
 
@@ -170,6 +175,8 @@ public final class ProxyMain {
         readProxyVersion();
 
         log.info("Starting proxy ({})...", getVersion());
+
+        startReporters();
     }
 
     private static void shutdown() throws Exception {
@@ -177,6 +184,19 @@ public final class ProxyMain {
 
         stopServices();
         actorSystem.shutdown();
+
+        if (jmxReporter != null) {
+            jmxReporter.stop();
+        }
+    }
+
+    private static void startReporters() {
+        jmxReporter = JmxReporter.forRegistry(MetricRegistryHolder.getInstance().getMetrics())
+                .convertRatesTo(TimeUnit.SECONDS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+
+        jmxReporter.start();
     }
 
     private static void createServices() throws Exception {
@@ -184,6 +204,7 @@ public final class ProxyMain {
 
         MonitorAgent.init(actorSystem);
         SignerClient.init(actorSystem);
+        OcspResponseCache.init(actorSystem);
         BatchSigner.init(actorSystem);
         MessageLog.init(actorSystem, jobManager);
         OpMonitoring.init(actorSystem);
@@ -22,9 +22,10 @@
  */
 package ee.ria.xroad.proxy.clientproxy;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.net.URI;
 import java.util.ArrayList;
@@ -34,12 +35,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -52,6 +47,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentProducer;
 
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.util.Arrays;
@@ -89,7 +85,6 @@ import ee.ria.xroad.proxy.util.MessageProcessorBase;
 import static ee.ria.xroad.common.ErrorCodes.*;
 import static ee.ria.xroad.common.SystemProperties.getServerProxyPort;
 import static ee.ria.xroad.common.SystemProperties.isSslEnabled;
-import static ee.ria.xroad.common.util.AbstractHttpSender.CHUNKED_LENGTH;
 import static ee.ria.xroad.common.util.CryptoUtils.decodeBase64;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
 import static ee.ria.xroad.common.util.MimeUtils.*;
@@ -99,43 +94,25 @@ import static ee.ria.xroad.proxy.clientproxy.FastestConnectionSelectingSSLSocket
 @Slf4j
 class ClientMessageProcessor extends MessageProcessorBase {
 
-    /**
-     * Timeout for waiting for the SOAP message to be read from the request.
-     */
-    private static final int WAIT_FOR_SOAP_TIMEOUT = 30; // seconds
-
-    /**
-     * By using a count down latch we can make the main thread wait for the
-     * request handler thread to read the SOAP request, since we cannot open
-     * connection to server proxy before we haven't read the receiver name from
-     * request SOAP.
-     */
-    private final CountDownLatch requestHandlerGate = new CountDownLatch(1);
-
-    /**
-     * By using a count down latch we can make the main thread wait for the
-     * HTTP sender to finish sending the entire request to the piped output
-     * stream, so we can check for errors in the handler thread before
-     * receiving the response.
-     */
-    private final CountDownLatch httpSenderGate = new CountDownLatch(1);
-
     /**
      * Holds the client side SSL certificate.
      */
     private final IsAuthenticationData clientCert;
 
+    /** Decodes the request, the attachments are read while sending. */
+    private final StagedSoapMessageDecoder soapMessageDecoder;
+
     /** Holds the incoming request SOAP message. */
-    private volatile SoapMessageImpl requestSoap;
-    private volatile ServiceId requestServiceId;
+    private SoapMessageImpl requestSoap;
+    private Map<String, String> requestSoapHeaders;
+    private ServiceId requestServiceId;
 
-    /** If the request failed, will contain SOAP fault. */
-    private volatile CodedException executionException;
+    /** If writing the request failed, will contain SOAP fault. */
+    private CodedException executionException;
 
     /** Holds the proxy message output stream and associated info. */
-    private PipedInputStream reqIns;
-    private volatile PipedOutputStream reqOuts;
-    private volatile String outputContentType;
+    private final RequestOutputStream reqOuts = new RequestOutputStream();
+    private String outputContentType;
 
     /** Holds the request to the server proxy. */
     private ProxyMessageEncoder request;
@@ -144,22 +121,7 @@ class ClientMessageProcessor extends MessageProcessorBase {
     private ProxyMessage response;
 
     //** Holds operational monitoring data. */
-    private volatile OpMonitoringData opMonitoringData;
-
-    private static final ExecutorService SOAP_HANDLER_EXECUTOR =
-            createSoapHandlerExecutor();
-
-    private static ExecutorService createSoapHandlerExecutor() {
-        return Executors.newCachedThreadPool(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread handlerThread = new Thread(r);
-                handlerThread.setName(Thread.currentThread().getName() + "-soap");
-
-                return handlerThread;
-            }
-        });
-    }
+    private final OpMonitoringData opMonitoringData;
 
     ClientMessageProcessor(HttpServletRequest servletRequest, HttpServletResponse servletResponse,
             HttpClient httpClient, IsAuthenticationData clientCert, OpMonitoringData opMonitoringData)
@@ -168,8 +130,8 @@ class ClientMessageProcessor extends MessageProcessorBase {
 
         this.clientCert = clientCert;
         this.opMonitoringData = opMonitoringData;
-        this.reqIns = new PipedInputStream();
-        this.reqOuts = new PipedOutputStream(reqIns);
+        this.soapMessageDecoder = new StagedSoapMessageDecoder(servletRequest.getContentType(),
+                new SoapMessageHandler(), new RequestSoapParserImpl());
     }
 
     @Override
@@ -178,15 +140,11 @@ class ClientMessageProcessor extends MessageProcessorBase {
 
         updateOpMonitoringClientSecurityServerAddress();
 
-        Future<?> soapHandler = SOAP_HANDLER_EXECUTOR.submit(this::handleSoap);
-
         try {
-            // Wait for the request SOAP message to be parsed before we can
-            // start sending stuff.
-            waitForSoapMessage();
-
-            // If the handler thread excepted, do not continue.
-            checkError();
+            // Read the request SOAP message before we can start sending
+            // stuff, since we need the receiver name to open the connection.
+            // The attachments are read later while the request is sent.
+            readSoapMessage();
 
             // Verify that the client is registered
             verifyClientStatus();
@@ -199,16 +157,6 @@ class ClientMessageProcessor extends MessageProcessorBase {
             if (response != null) {
                 sendResponse();
             }
-        } catch (Exception e) {
-            if (reqIns != null) {
-                reqIns.close();
-            }
-
-            // Let's interrupt the handler thread so that it won't
-            // block forever waiting for us to do something.
-            soapHandler.cancel(true);
-
-            throw e;
         } finally {
             if (response != null) {
                 response.consume();
@@ -231,8 +179,7 @@ class ClientMessageProcessor extends MessageProcessorBase {
         try (HttpSender httpSender = createHttpSender()) {
             sendRequest(httpSender);
 
-            // Check for any errors from the handler thread once more.
-            waitForRequestSent();
+            // Check for any errors that occurred while writing the request.
             checkError();
 
             parseResponse(httpSender);
@@ -246,59 +193,60 @@ class ClientMessageProcessor extends MessageProcessorBase {
     private void sendRequest(HttpSender httpSender) throws Exception {
         log.trace("sendRequest()");
 
-        try {
-            // If we're using SSL, we need to include the provider name in
-            // the HTTP request so that server proxy could verify the SSL
-            // certificate properly.
-            if (isSslEnabled()) {
-                httpSender.setAttribute(AuthTrustVerifier.ID_PROVIDERNAME, requestServiceId);
-            }
+        request = new ProxyMessageEncoder(reqOuts, SoapUtils.getHashAlgoId());
+        outputContentType = request.getContentType();
 
-            // Start sending the request to server proxies. The underlying
-            // SSLConnectionSocketFactory will select the fastest address
-            // (socket that connects first) from the provided addresses.
-            // Dummy service address is only needed so that host name resolving
-            // could do its thing and start the ssl connection.
-            URI[] addresses = getServiceAddresses(requestServiceId, requestSoap.getSecurityServer());
+        // If we're using SSL, we need to include the provider name in
+        // the HTTP request so that server proxy could verify the SSL
+        // certificate properly.
+        if (isSslEnabled()) {
+            httpSender.setAttribute(AuthTrustVerifier.ID_PROVIDERNAME, requestServiceId);
+        }
 
-            updateOpMonitoringServiceSecurityServerAddress(addresses, httpSender);
+        // Start sending the request to server proxies. The underlying
+        // SSLConnectionSocketFactory will select the fastest address
+        // (socket that connects first) from the provided addresses.
+        // Dummy service address is only needed so that host name resolving
+        // could do its thing and start the ssl connection.
+        URI[] addresses = getServiceAddresses(requestServiceId, requestSoap.getSecurityServer());
 
-            httpSender.setAttribute(ID_TARGETS, addresses);
+        updateOpMonitoringServiceSecurityServerAddress(addresses, httpSender);
 
-            if (SystemProperties.isEnableClientProxyPooledConnectionReuse()) {
-                // set the servers with this subsystem as the user token, this will pool the connections per groups of
-                // security servers.
-                httpSender.setAttribute(HttpClientContext.USER_TOKEN, new TargetHostsUserToken(addresses));
-            }
+        httpSender.setAttribute(ID_TARGETS, addresses);
 
-            httpSender.setConnectionTimeout(SystemProperties.getClientProxyTimeout());
-            httpSender.setSocketTimeout(SystemProperties.getClientProxyHttpClientTimeout());
+        if (SystemProperties.isEnableClientProxyPooledConnectionReuse()) {
+            // set the servers with this subsystem as the user token, this will pool the connections per groups of
+            // security servers.
+            httpSender.setAttribute(HttpClientContext.USER_TOKEN, new TargetHostsUserToken(addresses));
+        }
 
-            httpSender.addHeader(HEADER_HASH_ALGO_ID, SoapUtils.getHashAlgoId());
-            httpSender.addHeader(HEADER_PROXY_VERSION, ProxyMain.getVersion());
+        httpSender.setConnectionTimeout(SystemProperties.getClientProxyTimeout());
+        httpSender.setSocketTimeout(SystemProperties.getClientProxyHttpClientTimeout());
 
-            // Preserve the original content type in the "x-original-content-type"
-            // HTTP header, which will be used to send the request to the
-            // service provider
-            httpSender.addHeader(HEADER_ORIGINAL_CONTENT_TYPE, servletRequest.getContentType());
+        httpSender.addHeader(HEADER_HASH_ALGO_ID, SoapUtils.getHashAlgoId());
+        httpSender.addHeader(HEADER_PROXY_VERSION, ProxyMain.getVersion());
 
-            try {
-                opMonitoringData.setRequestOutTs(getEpochMillisecond());
+        // Preserve the original content type in the "x-original-content-type"
+        // HTTP header, which will be used to send the request to the
+        // service provider
+        httpSender.addHeader(HEADER_ORIGINAL_CONTENT_TYPE, servletRequest.getContentType());
 
-                httpSender.doPost(getDummyServiceAddress(addresses), reqIns, CHUNKED_LENGTH, outputContentType);
+        try {
+            opMonitoringData.setRequestOutTs(getEpochMillisecond());
 
-                opMonitoringData.setResponseInTs(getEpochMillisecond());
-            } catch (Exception e) {
-                // Failed to connect to server proxy
-                MonitorAgent.serverProxyFailed(createRequestMessageInfo());
+            httpSender.doPost(getDummyServiceAddress(addresses), new RequestContentProducer(), outputContentType);
 
-                // Rethrow
-                throw e;
-            }
-        } finally {
-            if (reqIns != null) {
-                reqIns.close();
-            }
+            opMonitoringData.setResponseInTs(getEpochMillisecond());
+        } catch (Exception e) {
+            // The request could not be written, the error is not caused
+            // by the server proxy.
+            checkError();
+
+            // Failed to connect to server proxy
+            MonitorAgent.serverProxyFailed(createRequestMessageInfo());
+
+            // Rethrow
+            throw e;
         }
     }
 
@@ -446,44 +394,20 @@ class ClientMessageProcessor extends MessageProcessorBase {
         }
     }
 
-    private void waitForSoapMessage() {
-        log.trace("waitForSoapMessage()");
+    private void readSoapMessage() throws Exception {
+        log.trace("readSoapMessage()");
 
         try {
-            if (!requestHandlerGate.await(WAIT_FOR_SOAP_TIMEOUT, TimeUnit.SECONDS)) {
-                throw new CodedException(X_INTERNAL_ERROR, "Reading SOAP from request timed out");
-            }
-        } catch (InterruptedException e) {
-            log.error("waitForSoapMessage interrupted", e);
-
-            Thread.currentThread().interrupt();
+            soapMessageDecoder.parseSoap(servletRequest.getInputStream());
+        } catch (Exception ex) {
+            throw new ClientException(translateException(ex));
         }
-    }
-
-    private void waitForRequestSent() {
-        log.trace("waitForRequestSent()");
-
-        try {
-            httpSenderGate.await();
-        } catch (InterruptedException e) {
-            log.error("waitForRequestSent interrupted", e);
 
-            Thread.currentThread().interrupt();
+        if (requestSoap == null) {
+            throw new ClientException(X_MISSING_SOAP, "Request does not contain SOAP message");
         }
     }
 
-    private void continueProcessing() {
-        log.trace("continueProcessing()");
-
-        requestHandlerGate.countDown();
-    }
-
-    private void continueReadingResponse() {
-        log.trace("continueReadingResponse()");
-
-        httpSenderGate.countDown();
-    }
-
     private void checkError() throws Exception {
         if (executionException != null) {
             log.trace("checkError(): ", executionException);
@@ -579,86 +503,48 @@ class ClientMessageProcessor extends MessageProcessorBase {
         return httpSender.getResponseHeaders().get(HEADER_HASH_ALGO_ID);
     }
 
-    public void handleSoap() {
-        try (SoapMessageHandler handler = new SoapMessageHandler()) {
-            SoapMessageDecoder soapMessageDecoder = new SoapMessageDecoder(servletRequest.getContentType(),
-                    handler, new RequestSoapParserImpl());
-            try {
-                soapMessageDecoder.parse(servletRequest.getInputStream());
-            } catch (Exception ex) {
-                throw new ClientException(translateException(ex));
-            }
-        } catch (Throwable ex) {
-            setError(ex);
-        } finally {
-            continueProcessing();
-            continueReadingResponse();
-        }
-    }
-
-
-    private class SoapMessageHandler implements SoapMessageDecoder.Callback {
+    /**
+     * Writes the request to the server proxy connection. The attachments are
+     * streamed from the client request as they are read, after which the
+     * request is signed and the signature is written. Runs on the thread that
+     * sends the request, errors are stored and rethrown after sending.
+     */
+    private class RequestContentProducer implements ContentProducer {
 
         @Override
-        public void soap(SoapMessage message, Map<String, String> headers) throws Exception {
-            if (log.isTraceEnabled()) {
-                log.trace("soap({})", message.getXml());
-            }
-
-            requestSoap = (SoapMessageImpl) message;
-            requestServiceId = requestSoap.getService();
-
-            updateOpMonitoringDataBySoapMessage(opMonitoringData, requestSoap);
-
-            if (request == null) {
-                request = new ProxyMessageEncoder(reqOuts, SoapUtils.getHashAlgoId());
-                outputContentType = request.getContentType();
-            }
+        public void writeTo(OutputStream out) throws IOException {
+            reqOuts.setOut(out);
 
-            // We have the request SOAP message, we can start sending the
-            // request to server proxy.
-            continueProcessing();
+            try {
+                writeRequest();
+            } catch (Exception ex) {
+                setError(ex);
 
-            // In SSL mode, we need to send the OCSP response of our SSL cert.
-            if (isSslEnabled()) {
-                writeOcspResponses();
+                throw new IOException("Failed to write request", ex);
+            } finally {
+                request.close();
             }
-
-            request.soap(requestSoap, headers);
-        }
-
-        @Override
-        public void attachment(String contentType, InputStream content, Map<String, String> additionalHeaders)
-                throws Exception {
-            log.trace("attachment()");
-
-            request.attachment(contentType, content, additionalHeaders);
         }
 
-        @Override
-        public void fault(SoapFault fault) throws Exception {
-            onError(fault.toCodedException());
-        }
-
-        @Override
-        public void onCompleted() {
-            log.trace("onCompleted()");
+        private void writeRequest() throws Exception {
+            try {
+                // In SSL mode, we need to send the OCSP response of our SSL cert.
+                if (isSslEnabled()) {
+                    writeOcspResponses();
+                }
 
-            if (requestSoap == null) {
-                setError(new ClientException(X_MISSING_SOAP, "Request does not contain SOAP message"));
+                request.soap(requestSoap, requestSoapHeaders);
 
-                return;
+                soapMessageDecoder.parseAttachments();
+            } catch (Exception ex) {
+                throw new ClientException(translateException(ex));
             }
 
             updateOpMonitoringData();
 
-            try {
-                request.sign(KeyConf.getSigningCtx(requestSoap.getClient()));
-                logRequestMessage();
-                request.writeSignature();
-            } catch (Exception ex) {
-                setError(ex);
-            }
+            request.sign(KeyConf.getSigningCtx(requestSoap.getClient()));
+            logRequestMessage();
+            request.writeSignature();
         }
 
         private void updateOpMonitoringData() {
@@ -675,14 +561,6 @@ class ClientMessageProcessor extends MessageProcessorBase {
             MessageLog.log(requestSoap, request.getSignature(), true);
         }
 
-        @Override
-        public void onError(Exception e) throws Exception {
-            log.error("onError()", e);
-
-            // Simply re-throw
-            throw e;
-        }
-
         private void writeOcspResponses() throws Exception {
             CertChain chain = KeyConf.getAuthKey().getCertChain();
             // exclude TopCA
@@ -692,16 +570,62 @@ class ClientMessageProcessor extends MessageProcessorBase {
                 request.ocspResponse(ocsp);
             }
         }
+    }
+
+    private class SoapMessageHandler implements StagedSoapMessageDecoder.Callback {
 
         @Override
-        public void close() {
-            if (request != null) {
-                try {
-                    request.close();
-                } catch (Exception e) {
-                    setError(e);
-                }
+        public void soap(SoapMessage message, Map<String, String> headers) throws Exception {
+            if (log.isTraceEnabled()) {
+                log.trace("soap({})", message.getXml());
             }
+
+            requestSoap = (SoapMessageImpl) message;
+            requestSoapHeaders = headers;
+            requestServiceId = requestSoap.getService();
+
+            updateOpMonitoringDataBySoapMessage(opMonitoringData, requestSoap);
+        }
+
+        @Override
+        public void attachment(String contentType, InputStream content, Map<String, String> additionalHeaders)
+                throws Exception {
+            log.trace("attachment()");
+
+            request.attachment(contentType, content, additionalHeaders);
+        }
+
+        @Override
+        public void fault(SoapFault fault) throws Exception {
+            throw fault.toCodedException();
+        }
+    }
+
+    /**
+     * Output stream that forwards the encoded request to the connection
+     * stream once the HTTP client starts sending the request body.
+     */
+    private static class RequestOutputStream extends FilterOutputStream {
+
+        RequestOutputStream() {
+            // Construct the parent class with null stream and replace it later.
+            super(null);
+        }
+
+        void setOut(OutputStream connectionOut) {
+            out = connectionOut;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // prevent FilterOutputStream from writing inefficiently
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the connection stream is closed by the HTTP client
+            flush();
         }
     }
 
@@ -23,12 +23,15 @@
 package ee.ria.xroad.proxy.conf;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_SIGNATURE;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
 
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -101,6 +104,67 @@ class CachingKeyConfImpl extends KeyConfImpl {
         }
     }
 
+    @Override
+    public OCSPResp getOcspResponse(String certHash) throws Exception {
+        OCSPResp response = OcspResponseCache.get(certHash);
+
+        if (response == null) {
+            response = getOcspResponseFromSigner(certHash);
+
+            OcspResponseCache.putIfAbsent(certHash, response);
+        }
+
+        return response;
+    }
+
+    @Override
+    public List<OCSPResp> getOcspResponses(List<X509Certificate> certs)
+            throws Exception {
+        List<OCSPResp> responses = new ArrayList<>();
+        List<X509Certificate> missingCerts = new ArrayList<>();
+
+        for (X509Certificate cert : certs) {
+            OCSPResp response =
+                    OcspResponseCache.get(calculateCertHexHash(cert));
+
+            if (response == null) {
+                missingCerts.add(cert);
+            }
+
+            responses.add(response);
+        }
+
+        if (missingCerts.isEmpty()) {
+            return responses;
+        }
+
+        // Get the responses that are not cached from the signer in one go.
+        Iterator<X509Certificate> missingCert = missingCerts.iterator();
+        Iterator<OCSPResp> missingResponse =
+                getOcspResponsesFromSigner(missingCerts).iterator();
+
+        for (int i = 0; i < responses.size(); i++) {
+            if (responses.get(i) == null) {
+                OCSPResp response = missingResponse.next();
+
+                OcspResponseCache.putIfAbsent(
+                        calculateCertHexHash(missingCert.next()), response);
+                responses.set(i, response);
+            }
+        }
+
+        return responses;
+    }
+
+    OCSPResp getOcspResponseFromSigner(String certHash) throws Exception {
+        return super.getOcspResponse(certHash);
+    }
+
+    List<OCSPResp> getOcspResponsesFromSigner(List<X509Certificate> certs)
+            throws Exception {
+        return super.getOcspResponses(certs);
+    }
+
     boolean keyConfHasChanged() {
         try {
             boolean changed = keyConfChangeChecker.hasChanged();
@@ -0,0 +1,248 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import static ee.ria.xroad.common.util.CryptoUtils.decodeBase64;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.actor.UntypedActor;
+import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
+import ee.ria.xroad.common.ocsp.OcspCache;
+import ee.ria.xroad.signer.protocol.SignerClient;
+import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.SubscribeOcspResponses;
+import ee.ria.xroad.signer.protocol.message.SuccessResponse;
+import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Proxy-local cache of the parsed OCSP responses of the signer, by
+ * certificate hash. The cache subscribes to the OCSP responses in the signer
+ * and the signer sends the responses to the cache when they change, so the
+ * cached responses can be used without asking the signer for every message.
+ * The cache is used only while the subscription is active. If the signer
+ * terminates, the cache is cleared and the subscription is renewed.
+ * The freshness and next update of a cached response are checked on each
+ * get, like in the signer, so a stale response is never returned even if
+ * an update from the signer is lost.
+ */
+@Slf4j
+public final class OcspResponseCache {
+
+    public static final String OCSP_RESPONSE_CACHE = "OcspResponseCache";
+
+    // Specifies how often the subscription is attempted until it succeeds.
+    private static final int SUBSCRIBE_INTERVAL_SECONDS = 30;
+
+    private static final String SUBSCRIBE = "Subscribe";
+
+    private static final OcspCache RESPONSES = new ResponseCache();
+
+    private static volatile boolean subscribed = false;
+
+    private OcspResponseCache() {
+    }
+
+    /**
+     * Starts the subscription to the OCSP responses in the signer.
+     * The signer client must be initialized before.
+     * @param actorSystem the actor system
+     */
+    public static void init(ActorSystem actorSystem) {
+        actorSystem.actorOf(Props.create(Subscriber.class),
+                OCSP_RESPONSE_CACHE);
+    }
+
+    /**
+     * @param certHash hash of the certificate
+     * @return the cached OCSP response for the certificate or null, if
+     * the response is not cached or has expired
+     */
+    static OCSPResp get(String certHash) {
+        if (!subscribed) {
+            return null;
+        }
+
+        return RESPONSES.get(certHash);
+    }
+
+    /**
+     * Caches the response received from the signer for the certificate,
+     * unless a response has been sent by the signer meanwhile.
+     * @param certHash hash of the certificate
+     * @param response the OCSP response
+     */
+    static void putIfAbsent(String certHash, OCSPResp response) {
+        if (subscribed && response != null) {
+            RESPONSES.putIfAbsent(certHash, response);
+        }
+    }
+
+    private static void put(String certHash, OCSPResp response) {
+        RESPONSES.put(certHash, response);
+    }
+
+    static void setSubscribed(boolean value) {
+        RESPONSES.clear();
+
+        subscribed = value;
+    }
+
+    /**
+     * OCSP cache that also drops the responses whose next update has passed,
+     * if the global configuration requires verifying it, because the
+     * receiving security server would reject them.
+     */
+    private static final class ResponseCache extends OcspCache {
+
+        @Override
+        protected OCSPResp getResponse(Object key, Date atDate) {
+            OCSPResp response = super.getResponse(key, atDate);
+
+            try {
+                if (response != null && isNextUpdatePassed(response, atDate)) {
+                    log.trace("Next update of cached OCSP response for "
+                            + "certificate '{}' has passed", key);
+                    cache.remove(key, response);
+                    return null;
+                }
+            } catch (Exception e) {
+                log.error("Failed to check next update of OCSP response", e);
+                cache.remove(key, response);
+                return null;
+            }
+
+            return response;
+        }
+
+        private static boolean isNextUpdatePassed(OCSPResp response,
+                Date atDate) throws Exception {
+            if (!GlobalConfExtensions.getInstance()
+                    .shouldVerifyOcspNextUpdate()) {
+                return false;
+            }
+
+            SingleResp singleResp = ((BasicOCSPResp) response
+                    .getResponseObject()).getResponses()[0];
+
+            return singleResp.getNextUpdate() != null
+                    && singleResp.getNextUpdate().before(atDate);
+        }
+    }
+
+    /**
+     * Subscribes to the OCSP responses in the signer and updates the cache.
+     */
+    private static class Subscriber extends UntypedActor {
+
+        private Cancellable tick;
+
+        @Override
+        public void preStart() throws Exception {
+            FiniteDuration interval = FiniteDuration.create(
+                    SUBSCRIBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            tick = getContext().system().scheduler().schedule(
+                    FiniteDuration.Zero(), interval, getSelf(), SUBSCRIBE,
+                    getContext().dispatcher(), ActorRef.noSender());
+        }
+
+        @Override
+        public void postStop() throws Exception {
+            if (tick != null) {
+                tick.cancel();
+            }
+
+            setSubscribed(false);
+        }
+
+        @Override
+        public void onReceive(Object message) throws Exception {
+            try {
+                if (SUBSCRIBE.equals(message)) {
+                    handleSubscribe();
+                } else if (message instanceof SuccessResponse) {
+                    handleSubscribed();
+                } else if (message instanceof SetOcspResponses) {
+                    handleSetOcspResponses((SetOcspResponses) message);
+                } else if (message instanceof Terminated) {
+                    handleTerminated();
+                } else if (message instanceof Exception) {
+                    log.error("Failed to subscribe to OCSP responses",
+                            (Exception) message);
+                } else {
+                    unhandled(message);
+                }
+            } catch (Exception e) {
+                log.error("Failed to update OCSP response cache", e);
+            }
+        }
+
+        private void handleSubscribe() {
+            if (!subscribed) {
+                log.trace("Subscribing to OCSP responses");
+
+                SignerClient.execute(new SubscribeOcspResponses(), getSelf());
+            }
+        }
+
+        private void handleSubscribed() {
+            if (!subscribed) {
+                log.info("Subscribed to OCSP responses in signer");
+
+                // Get notified if the signer terminates.
+                getContext().watch(getSender());
+
+                setSubscribed(true);
+            }
+        }
+
+        private void handleSetOcspResponses(SetOcspResponses message)
+                throws Exception {
+            for (int i = 0; i < message.getCertHashes().length; i++) {
+                log.debug("Updating cached OCSP response for cert: {}",
+                        message.getCertHashes()[i]);
+
+                put(message.getCertHashes()[i], new OCSPResp(
+                        decodeBase64(message.getBase64EncodedResponses()[i])));
+            }
+        }
+
+        private void handleTerminated() {
+            log.warn("Signer terminated, clearing OCSP response cache");
+
+            setSubscribed(false);
+        }
+    }
+}
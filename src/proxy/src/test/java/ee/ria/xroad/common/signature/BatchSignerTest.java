@@ -0,0 +1,288 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.monitor.MetricRegistryHolder;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the batch signer against a simulated Signer.
+ */
+public class BatchSignerTest {
+
+    private static final String KEY_ID = "consumer";
+
+    private static final byte[] SIGNATURE_VALUE = new byte[] {1, 2, 3};
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final long WAIT_MILLIS = 200;
+
+    private static X509Certificate signingCert;
+
+    private ActorSystem actorSystem;
+
+    private TestSignerConnection signer;
+
+    private ExecutorService clients;
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    /**
+     * Loads the signing certificate.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        signingCert = TestCertUtil.getConsumer().cert;
+    }
+
+    /**
+     * Creates the actor system, the simulated Signer and the metrics.
+     */
+    @Before
+    public void setUp() {
+        MetricRegistryHolder.getInstance().setMetrics(new MetricRegistry());
+
+        actorSystem = ActorSystem.create();
+        signer = new TestSignerConnection();
+        clients = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Shuts down the actor system.
+     */
+    @After
+    public void tearDown() {
+        clients.shutdownNow();
+        actorSystem.shutdown();
+
+        System.clearProperty(
+                SystemProperties.PROXY_BATCH_SIGNER_MAX_CONCURRENT_BATCHES);
+    }
+
+    /**
+     * Tests that no more than the configured number of batches are sent to
+     * Signer at a time, and that the next batch is sent when a signature is
+     * received.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void limitConcurrentBatches() throws Exception {
+        startBatchSigner(2);
+
+        List<Future<SignatureData>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(signInBackground());
+        }
+
+        ActorRef first = nextRequest();
+        ActorRef second = nextRequest();
+
+        assertNull("Third batch sent before a signature was received",
+                signer.getRequests().poll(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+        reply(first);
+
+        // Every signature received lets one more batch be sent
+        for (int i = 0; i < 3; i++) {
+            ActorRef next = nextRequest();
+
+            assertNull(signer.getRequests().poll(WAIT_MILLIS,
+                    TimeUnit.MILLISECONDS));
+
+            reply(next);
+        }
+
+        reply(second);
+
+        for (Future<SignatureData> result : results) {
+            assertNotNull(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .getSignatureXml());
+        }
+    }
+
+    /**
+     * Tests that the error of a failing Signer call is sent to the client
+     * and that the failed batch does not take up a concurrent batch.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void failingSignerCall() throws Exception {
+        startBatchSigner(1);
+
+        signer.failNextRequest();
+
+        try {
+            signInBackground().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Signing should fail when the Signer call fails");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof CodedException);
+        }
+
+        Future<SignatureData> result = signInBackground();
+
+        reply(nextRequest());
+
+        assertNotNull(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .getSignatureXml());
+    }
+
+    /**
+     * Tests that the batch size and the signing time of each batch are
+     * recorded in the metrics of the worker.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void recordBatchMetrics() throws Exception {
+        startBatchSigner(1);
+
+        Future<SignatureData> result = signInBackground();
+
+        reply(nextRequest());
+
+        assertNotNull(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .getSignatureXml());
+
+        MetricRegistry metrics = MetricRegistryHolder.getInstance().getMetrics();
+        String worker = CryptoUtils.calculateCertHexHash(signingCert);
+
+        Histogram batchSizes = metrics.getHistograms().get(MetricRegistry.name(
+                BatchSigner.METRICS_PREFIX, worker, BatchSigner.BATCH_SIZE));
+        Timer signTimes = metrics.getTimers().get(MetricRegistry.name(
+                BatchSigner.METRICS_PREFIX, worker, BatchSigner.SIGN_TIME));
+
+        assertEquals(1, batchSizes.getCount());
+        assertEquals(1, batchSizes.getSnapshot().getMax());
+        assertEquals(1, signTimes.getCount());
+    }
+
+    private void startBatchSigner(int maxConcurrentBatches) {
+        System.setProperty(
+                SystemProperties.PROXY_BATCH_SIGNER_MAX_CONCURRENT_BATCHES,
+                Integer.toString(maxConcurrentBatches));
+
+        BatchSigner.init(actorSystem, signer);
+    }
+
+    private Future<SignatureData> signInBackground() throws Exception {
+        byte[] message = "message".getBytes();
+
+        SigningRequest request = new SigningRequest(signingCert,
+                Collections.singletonList(new MessagePart(
+                        MessageFileNames.MESSAGE, CryptoUtils.SHA512_ID,
+                        CryptoUtils.calculateDigest(CryptoUtils.SHA512_ID,
+                                message), message)));
+
+        return clients.submit(() -> BatchSigner.sign(KEY_ID,
+                CryptoUtils.SHA512WITHRSA_ID, request));
+    }
+
+    private ActorRef nextRequest() throws InterruptedException {
+        ActorRef receiver = signer.getRequests().poll(TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+        assertNotNull("Signing request was not sent to Signer", receiver);
+
+        return receiver;
+    }
+
+    private static void reply(ActorRef receiver) {
+        receiver.tell(new SignResponse(SIGNATURE_VALUE), ActorRef.noSender());
+    }
+
+    /**
+     * Simulated Signer that keeps the receivers of the signing requests
+     * until the test replies to them. Batch signing is disabled, so every
+     * request is signed in a batch of its own.
+     */
+    private static class TestSignerConnection
+            extends BatchSigner.SignerConnection {
+
+        private final BlockingQueue<ActorRef> requests =
+                new LinkedBlockingQueue<>();
+
+        private final AtomicBoolean failNext = new AtomicBoolean();
+
+        BlockingQueue<ActorRef> getRequests() {
+            return requests;
+        }
+
+        void failNextRequest() {
+            failNext.set(true);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        <T> T execute(Object message) throws Exception {
+            return (T) Boolean.FALSE;
+        }
+
+        @Override
+        void execute(Object message, ActorRef receiver) {
+            if (failNext.getAndSet(false)) {
+                throw new CodedException(X_INTERNAL_ERROR,
+                        "Signer is not reachable");
+            }
+
+            requests.add(receiver);
+        }
+    }
+}
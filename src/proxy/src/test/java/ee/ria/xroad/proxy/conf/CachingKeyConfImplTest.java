@@ -0,0 +1,189 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static ee.ria.xroad.proxy.conf.OcspResponseCacheTest.createResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+
+/**
+ * Tests getting OCSP responses through the proxy-local cache.
+ */
+public class CachingKeyConfImplTest {
+
+    private static X509Certificate producerCert;
+    private static X509Certificate consumerCert;
+
+    private TestKeyConf keyConf;
+
+    /**
+     * Loads the test certificates.
+     */
+    @BeforeClass
+    public static void loadCerts() {
+        OcspResponseCacheTest.loadCerts();
+
+        producerCert = TestCertUtil.getProducer().cert;
+        consumerCert = TestCertUtil.getConsumer().cert;
+    }
+
+    /**
+     * Creates the key configuration with an active cache subscription.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(SystemProperties.KEY_CONFIGURATION_FILE,
+                "src/test/keyconftest.xml");
+
+        keyConf = new TestKeyConf();
+
+        OcspResponseCache.setSubscribed(true);
+    }
+
+    /**
+     * Clears the cache for other tests.
+     */
+    @After
+    public void tearDown() {
+        OcspResponseCache.setSubscribed(false);
+    }
+
+    @Test
+    public void getCachedResponse() throws Exception {
+        OCSPResp response = createResponse(new DateTime().plusDays(1), null);
+        keyConf.setResponse(producerCert, response);
+
+        assertSame(response, keyConf.getOcspResponse(producerCert));
+        assertSame(response, keyConf.getOcspResponse(producerCert));
+
+        assertEquals(1, keyConf.signerRequests);
+    }
+
+    @Test
+    public void getExpiredResponseFromSigner() throws Exception {
+        OCSPResp stale = createResponse(new DateTime().minusDays(1), null);
+        keyConf.setResponse(producerCert, stale);
+
+        assertSame(stale, keyConf.getOcspResponse(producerCert));
+
+        OCSPResp fresh = createResponse(new DateTime().plusDays(1), null);
+        keyConf.setResponse(producerCert, fresh);
+
+        assertSame(fresh, keyConf.getOcspResponse(producerCert));
+        assertSame(fresh, keyConf.getOcspResponse(producerCert));
+
+        assertEquals(2, keyConf.signerRequests);
+    }
+
+    @Test
+    public void getMissingResponsesFromSigner() throws Exception {
+        OCSPResp producerResponse =
+                createResponse(new DateTime().plusDays(1), null);
+        OCSPResp consumerResponse =
+                createResponse(new DateTime().plusDays(2), null);
+
+        keyConf.setResponse(producerCert, producerResponse);
+        keyConf.setResponse(consumerCert, consumerResponse);
+
+        keyConf.getOcspResponse(consumerCert);
+
+        List<OCSPResp> responses = keyConf.getOcspResponses(
+                Arrays.asList(producerCert, consumerCert));
+
+        assertEquals(Arrays.asList(producerResponse, consumerResponse),
+                responses);
+
+        // Only the producer response was missing from the cache.
+        assertEquals(2, keyConf.signerRequests);
+        assertEquals(Arrays.asList(calculateCertHexHash(producerCert)),
+                keyConf.lastRequestedHashes);
+
+        responses = keyConf.getOcspResponses(
+                Arrays.asList(producerCert, consumerCert));
+
+        assertEquals(Arrays.asList(producerResponse, consumerResponse),
+                responses);
+        assertEquals(2, keyConf.signerRequests);
+    }
+
+    private static final class TestKeyConf extends CachingKeyConfImpl {
+
+        private final Map<String, OCSPResp> signerResponses = new HashMap<>();
+
+        private int signerRequests = 0;
+        private List<String> lastRequestedHashes;
+
+        TestKeyConf() throws Exception {
+            super();
+        }
+
+        void setResponse(X509Certificate cert, OCSPResp response)
+                throws Exception {
+            signerResponses.put(calculateCertHexHash(cert), response);
+        }
+
+        @Override
+        OCSPResp getOcspResponseFromSigner(String certHash) {
+            signerRequests++;
+            lastRequestedHashes = Arrays.asList(certHash);
+
+            return signerResponses.get(certHash);
+        }
+
+        @Override
+        List<OCSPResp> getOcspResponsesFromSigner(List<X509Certificate> certs)
+                throws Exception {
+            signerRequests++;
+            lastRequestedHashes = new ArrayList<>();
+
+            List<OCSPResp> responses = new ArrayList<>();
+            for (X509Certificate cert : certs) {
+                String certHash = calculateCertHexHash(cert);
+
+                lastRequestedHashes.add(certHash);
+                responses.add(signerResponses.get(certHash));
+            }
+
+            return responses;
+        }
+    }
+}
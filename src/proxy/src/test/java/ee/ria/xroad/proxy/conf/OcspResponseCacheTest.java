@@ -0,0 +1,143 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+
+/**
+ * Tests the proxy-local cache of OCSP responses.
+ */
+public class OcspResponseCacheTest {
+
+    private static final String CERT_HASH = "certHash";
+
+    private static X509Certificate subject;
+    private static X509Certificate issuer;
+    private static PrivateKey signerKey;
+
+    /**
+     * Sets up an empty global configuration and loads test certificates.
+     */
+    @BeforeClass
+    public static void loadCerts() {
+        GlobalConf.reload(new EmptyGlobalConf());
+
+        issuer = TestCertUtil.getCertChainCert("root_ca.p12");
+        signerKey = TestCertUtil.getCertChainKey("root_ca.p12");
+        subject = TestCertUtil.getCertChainCert("user_0.p12");
+    }
+
+    /**
+     * The cache is only used while subscribed to the signer.
+     */
+    @Before
+    public void setUp() {
+        OcspResponseCache.setSubscribed(true);
+    }
+
+    /**
+     * Clears the cache for other tests.
+     */
+    @After
+    public void tearDown() {
+        OcspResponseCache.setSubscribed(false);
+    }
+
+    @Test
+    public void getCachedResponse() throws Exception {
+        OCSPResp response = createResponse(new DateTime().plusDays(1), null);
+
+        OcspResponseCache.putIfAbsent(CERT_HASH, response);
+
+        assertEquals(response, OcspResponseCache.get(CERT_HASH));
+        assertNull(OcspResponseCache.get("otherCertHash"));
+    }
+
+    @Test
+    public void keepResponseSentBySigner() throws Exception {
+        OCSPResp response = createResponse(new DateTime().plusDays(1), null);
+
+        OcspResponseCache.putIfAbsent(CERT_HASH, response);
+        OcspResponseCache.putIfAbsent(CERT_HASH,
+                createResponse(new DateTime().plusDays(2), null));
+
+        assertEquals(response, OcspResponseCache.get(CERT_HASH));
+    }
+
+    @Test
+    public void dropStaleResponse() throws Exception {
+        OcspResponseCache.putIfAbsent(CERT_HASH,
+                createResponse(new DateTime().minusDays(1), null));
+
+        assertNull(OcspResponseCache.get(CERT_HASH));
+    }
+
+    @Test
+    public void dropResponseAfterNextUpdate() throws Exception {
+        OcspResponseCache.putIfAbsent(CERT_HASH, createResponse(
+                new DateTime().plusDays(1), new DateTime().minusMinutes(1)));
+
+        assertNull(OcspResponseCache.get(CERT_HASH));
+    }
+
+    @Test
+    public void notUsedWhenNotSubscribed() throws Exception {
+        OCSPResp response = createResponse(new DateTime().plusDays(1), null);
+
+        OcspResponseCache.putIfAbsent(CERT_HASH, response);
+        OcspResponseCache.setSubscribed(false);
+
+        assertNull(OcspResponseCache.get(CERT_HASH));
+
+        OcspResponseCache.putIfAbsent(CERT_HASH, response);
+        OcspResponseCache.setSubscribed(true);
+
+        assertNull(OcspResponseCache.get(CERT_HASH));
+    }
+
+    static OCSPResp createResponse(DateTime thisUpdate, DateTime nextUpdate)
+            throws Exception {
+        Date next = nextUpdate != null ? nextUpdate.toDate() : null;
+
+        return OcspTestUtils.createOCSPResponse(subject, issuer, issuer,
+                signerKey, CertificateStatus.GOOD, thisUpdate.toDate(), next);
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * The MIT License
+ * Copyright (c) 2016 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.ConfigFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.rpc.SignerRpcClient;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512WITHRSA_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+
+/**
+ * Signer client benchmark program. Compares the per-call latency and the
+ * client side CPU time of the Akka remoting path and the Signer RPC path
+ * against a running signer.
+ */
+@Slf4j
+public final class SignerRpcBenchmark {
+
+    private static final int SIGNER_INIT_DELAY = 2500;
+
+    private static final int WARMUP_CALLS = 1000;
+
+    private SignerRpcBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+
+        Object request = createRequest(args[0], args[1]);
+        int calls = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        // Signer RPC is used explicitly below, SignerClient uses Akka only
+        System.setProperty(SystemProperties.SIGNER_RPC_ENABLED, "false");
+
+        ActorSystem actorSystem = ActorSystem.create("Proxy",
+                ConfigFactory.load().getConfig("proxy"));
+        SignerClient.init(actorSystem);
+
+        Thread.sleep(SIGNER_INIT_DELAY); // wait for signer client to connect
+
+        SignerRpcClient rpcClient = new SignerRpcClient(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(),
+                SystemProperties.getSignerRpcPort()),
+                SystemProperties.getSignerClientTimeout());
+
+        try {
+            Call akka = () -> SignerClient.execute(request);
+            Call rpc = () -> rpcClient.call(request).get();
+
+            run("akka", akka, WARMUP_CALLS, threads);
+            run("rpc", rpc, WARMUP_CALLS, threads);
+
+            report("akka", run("akka", akka, calls, threads));
+            report("rpc", run("rpc", rpc, calls, threads));
+        } finally {
+            rpcClient.close();
+            actorSystem.shutdown();
+        }
+    }
+
+    private static Object createRequest(String operation, String argument)
+            throws Exception {
+        switch (operation) {
+            case "sign":
+                return new Sign(argument, SHA512WITHRSA_ID,
+                        calculateDigest(SHA512_ID, argument.getBytes()));
+            case "ocsp":
+                return new GetOcspResponses(argument.split(","));
+            case "member":
+                String[] parts = argument.split("/");
+                return new GetMemberSigningInfo(
+                        ClientId.create(parts[0], parts[1], parts[2]));
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown operation: " + operation);
+        }
+    }
+
+    private static Result run(String name, Call call, int calls, int threads)
+            throws Exception {
+        long[] latencies = new long[calls];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        long cpuStart = getProcessCpuTime();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    int idx;
+                    while ((idx = next.getAndIncrement()) < calls) {
+                        long callStart = System.nanoTime();
+                        try {
+                            call.execute();
+                        } catch (Exception e) {
+                            if (errors.getAndIncrement() == 0) {
+                                log.error("{} call failed", name, e);
+                            }
+                        }
+                        latencies[idx] = System.nanoTime() - callStart;
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }, name + "-" + i).start();
+        }
+
+        latch.await();
+
+        long elapsed = System.nanoTime() - start;
+        long cpu = getProcessCpuTime() - cpuStart;
+
+        Arrays.sort(latencies);
+
+        return new Result(latencies, elapsed, cpu, errors.get());
+    }
+
+    private static void report(String name, Result result) {
+        long[] latencies = result.latencies;
+
+        System.out.printf("%-5s calls: %d, errors: %d, throughput: %.0f/s,"
+                + " mean: %.1f us, p50: %.1f us, p99: %.1f us,"
+                + " cpu: %.1f us/call%n",
+                name, latencies.length, result.errors,
+                latencies.length * 1e9 / result.elapsed,
+                Arrays.stream(latencies).average().orElse(0) / 1e3,
+                percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3,
+                (double) result.cpu / latencies.length / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0
+                ? 0 : sorted[(int) Math.min(sorted.length - 1, p * sorted.length)];
+    }
+
+    private static long getProcessCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean)
+                ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: SignerRpcBenchmark <operation> <argument>"
+                + " [calls] [threads]\n"
+                + "  sign <keyId>\n"
+                + "  ocsp <certHash>[,<certHash>...]\n"
+                + "  member <instance>/<memberClass>/<memberCode>");
+    }
+
+    private interface Call {
+        void execute() throws Exception;
+    }
+
+    private static final class Result {
+        private final long[] latencies;
+        private final long elapsed;
+        private final long cpu;
+        private final int errors;
+
+        Result(long[] latencies, long elapsed, long cpu, int errors) {
+            this.latencies = latencies;
+            this.elapsed = elapsed;
+            this.cpu = cpu;
+            this.errors = errors;
+        }
+    }
+}
@@ -65,7 +65,7 @@ import ee.ria.xroad.common.identifier.XRoadId;
 public class ServerConfImpl implements ServerConfProvider {
 
     // default service connection timeout in seconds
-    private static final int DEFAULT_SERVICE_TIMEOUT = 30;
+    static final int DEFAULT_SERVICE_TIMEOUT = 30;
 
     private static SecurityServerId identifier;
 
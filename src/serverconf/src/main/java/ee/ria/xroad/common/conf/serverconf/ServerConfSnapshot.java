@@ -0,0 +1,332 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.CertificateType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.conf.serverconf.model.ServerConfType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
+import ee.ria.xroad.common.conf.serverconf.model.WsdlType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadId;
+
+/**
+ * Immutable in-memory copy of the clients, services, access rights and
+ * time-stamping providers of the server conf. The snapshot is built from the
+ * database in one transaction and answers the per-message lookups with hash
+ * lookups, without touching the database. The identifiers are copied out of
+ * the Hibernate entities so that the snapshot can outlive the session.
+ */
+@Slf4j
+final class ServerConfSnapshot {
+
+    private final long createdAt = System.currentTimeMillis();
+
+    private final List<ClientId> members;
+    private final Map<ClientId, ClientInfo> clients;
+    private final Map<ServiceId, ServiceInfo> services;
+    private final Map<ClientId, List<ServiceId>> servicesByProvider;
+    private final List<String> tspUrls;
+
+    private ServerConfSnapshot(ServerConfType conf) throws Exception {
+        List<ClientId> memberList = new ArrayList<>();
+        Map<ClientId, ClientInfo> clientMap = new HashMap<>();
+        Map<ServiceId, ServiceInfo> serviceMap = new HashMap<>();
+        Map<ClientId, List<ServiceId>> providerMap = new HashMap<>();
+
+        for (ClientType client : conf.getClient()) {
+            ClientId clientId = copyOf(client.getIdentifier());
+            memberList.add(clientId);
+            clientMap.putIfAbsent(clientId, new ClientInfo(client));
+
+            List<ServiceId> providedServices = new ArrayList<>();
+            for (WsdlType wsdl : client.getWsdl()) {
+                for (ServiceType service : wsdl.getService()) {
+                    ServiceId serviceId = ServiceId.create(clientId,
+                            service.getServiceCode(), service.getServiceVersion());
+                    providedServices.add(serviceId);
+                    serviceMap.putIfAbsent(serviceId, new ServiceInfo(service, wsdl));
+                }
+            }
+
+            providerMap.merge(clientId, Collections.unmodifiableList(providedServices), (existing, added) -> existing);
+        }
+
+        members = Collections.unmodifiableList(memberList);
+        clients = clientMap;
+        services = serviceMap;
+        servicesByProvider = providerMap;
+        tspUrls = Collections.unmodifiableList(conf.getTsp().stream()
+                .map(tsp -> tsp.getUrl())
+                .filter(StringUtils::isNotBlank)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Creates a snapshot of the given server conf. Must be called inside
+     * a transaction, since the lazy collections of the conf are loaded.
+     * @param conf the server conf
+     * @return the snapshot
+     * @throws Exception if the snapshot cannot be created
+     */
+    static ServerConfSnapshot create(ServerConfType conf) throws Exception {
+        return new ServerConfSnapshot(conf);
+    }
+
+    boolean isOlderThan(int seconds) {
+        return System.currentTimeMillis() - createdAt >= seconds * 1000L;
+    }
+
+    // ------------------------------------------------------------------------
+
+    List<ClientId> getMembers() {
+        return members;
+    }
+
+    String getMemberStatus(ClientId memberId) {
+        ClientInfo client = clients.get(memberId);
+
+        return client != null ? client.status : null;
+    }
+
+    IsAuthentication getIsAuthentication(ClientId clientId) {
+        ClientInfo client = clients.get(clientId);
+        if (client != null && client.isAuthentication == null) {
+            throw new CodedException(X_INTERNAL_ERROR, "Client '%s' has invalid IS authentication '%s'",
+                    clientId, client.rawIsAuthentication);
+        }
+
+        return client != null ? client.isAuthentication : null;
+    }
+
+    List<X509Certificate> getIsCerts(ClientId clientId) {
+        ClientInfo client = clients.get(clientId);
+
+        return client != null ? client.isCerts : Collections.emptyList();
+    }
+
+    boolean serviceExists(ServiceId service) {
+        return services.containsKey(service);
+    }
+
+    String getServiceAddress(ServiceId service) {
+        ServiceInfo serviceInfo = services.get(service);
+
+        return serviceInfo != null ? serviceInfo.url : null;
+    }
+
+    int getServiceTimeout(ServiceId service, int defaultTimeout) {
+        ServiceInfo serviceInfo = services.get(service);
+
+        return serviceInfo != null ? serviceInfo.timeout : defaultTimeout;
+    }
+
+    boolean isSslAuthentication(ServiceId service) {
+        ServiceInfo serviceInfo = services.get(service);
+        if (serviceInfo == null) {
+            throw new CodedException(X_UNKNOWN_SERVICE,
+                    "Service '%s' not found", service);
+        }
+
+        return serviceInfo.sslAuthentication;
+    }
+
+    String getDisabledNotice(ServiceId service) {
+        ServiceInfo serviceInfo = services.get(service);
+        if (serviceInfo != null && serviceInfo.disabled) {
+            if (serviceInfo.disabledNotice == null) {
+                return String.format("Service '%s' is disabled", service);
+            }
+
+            return serviceInfo.disabledNotice;
+        }
+
+        return null;
+    }
+
+    List<SecurityCategoryId> getRequiredCategories(ServiceId service) {
+        ServiceInfo serviceInfo = services.get(service);
+
+        return serviceInfo != null ? serviceInfo.requiredCategories : Collections.emptyList();
+    }
+
+    List<ServiceId> getAllServices(ClientId serviceProvider) {
+        return servicesByProvider.getOrDefault(serviceProvider, Collections.emptyList());
+    }
+
+    List<String> getTspUrls() {
+        return tspUrls;
+    }
+
+    boolean isQueryAllowed(ClientId client, ServiceId service) {
+        if (client == null) {
+            return false;
+        }
+
+        ClientInfo provider = clients.get(service.getClientId());
+        if (provider == null) {
+            return false;
+        }
+
+        for (XRoadId subjectId : provider.acl.getOrDefault(service.getServiceCode(), Collections.emptyList())) {
+            if (subjectId instanceof GlobalGroupId) {
+                if (GlobalConf.isSubjectInGlobalGroup(client, (GlobalGroupId) subjectId)) {
+                    return true;
+                }
+            } else if (subjectId instanceof LocalGroupId) {
+                Set<ClientId> groupMembers = provider.localGroups.get(((LocalGroupId) subjectId).getGroupCode());
+                if (groupMembers != null && groupMembers.contains(client)) {
+                    return true;
+                }
+            } else if (subjectId instanceof ClientId) {
+                if (client.equals(subjectId)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private static ClientId copyOf(ClientId id) {
+        return ClientId.create(id.getXRoadInstance(), id.getMemberClass(),
+                id.getMemberCode(), id.getSubsystemCode());
+    }
+
+    private static XRoadId copyOf(XRoadId id) {
+        if (id instanceof GlobalGroupId) {
+            GlobalGroupId groupId = (GlobalGroupId) id;
+            return GlobalGroupId.create(groupId.getXRoadInstance(), groupId.getGroupCode());
+        } else if (id instanceof LocalGroupId) {
+            return LocalGroupId.create(((LocalGroupId) id).getGroupCode());
+        } else if (id instanceof ClientId) {
+            return copyOf((ClientId) id);
+        }
+
+        // other subject types never grant access
+        return null;
+    }
+
+    private static final class ClientInfo {
+        private final String status;
+        private final String rawIsAuthentication;
+        private final IsAuthentication isAuthentication;
+        private final List<X509Certificate> isCerts;
+        private final Map<String, List<XRoadId>> acl = new HashMap<>();
+        private final Map<String, Set<ClientId>> localGroups = new HashMap<>();
+
+        ClientInfo(ClientType client) throws Exception {
+            status = client.getClientStatus();
+            rawIsAuthentication = client.getIsAuthentication();
+            isAuthentication = toIsAuthentication(client);
+
+            List<X509Certificate> certs = new ArrayList<>();
+            for (CertificateType cert : client.getIsCert()) {
+                certs.add(readCertificate(cert.getData()));
+            }
+            isCerts = Collections.unmodifiableList(certs);
+
+            for (AccessRightType accessRight : client.getAcl()) {
+                XRoadId subjectId = copyOf(accessRight.getSubjectId());
+                if (subjectId != null) {
+                    acl.computeIfAbsent(accessRight.getServiceCode(), k -> new ArrayList<>()).add(subjectId);
+                }
+            }
+
+            for (LocalGroupType group : client.getLocalGroup()) {
+                if (!localGroups.containsKey(group.getGroupCode())) {
+                    Set<ClientId> groupMembers = new HashSet<>();
+                    for (GroupMemberType member : group.getGroupMember()) {
+                        groupMembers.add(copyOf(member.getGroupMemberId()));
+                    }
+
+                    localGroups.put(group.getGroupCode(), groupMembers);
+                }
+            }
+        }
+    }
+
+    private static IsAuthentication toIsAuthentication(ClientType client) {
+        if (client.getIsAuthentication() == null) {
+            return IsAuthentication.NOSSL;
+        }
+
+        try {
+            return IsAuthentication.valueOf(client.getIsAuthentication());
+        } catch (IllegalArgumentException e) {
+            // only the requests of this client fail, see getIsAuthentication
+            log.error("Client '{}' has invalid IS authentication '{}'", client.getIdentifier(),
+                    client.getIsAuthentication());
+
+            return null;
+        }
+    }
+
+    private static final class ServiceInfo {
+        private final String url;
+        private final int timeout;
+        private final boolean sslAuthentication;
+        private final boolean disabled;
+        private final String disabledNotice;
+        private final List<SecurityCategoryId> requiredCategories;
+
+        ServiceInfo(ServiceType service, WsdlType wsdl) {
+            url = service.getUrl();
+            timeout = service.getTimeout();
+            sslAuthentication = ObjectUtils.defaultIfNull(service.getSslAuthentication(), true);
+            disabled = wsdl.isDisabled();
+            disabledNotice = wsdl.getDisabledNotice();
+            requiredCategories = Collections.unmodifiableList(new ArrayList<>(service.getRequiredSecurityCategory()));
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+import static ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.proxy.conf.TestUtil.CLIENT_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_CLIENTS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_SERVICES;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_TSPS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_WSDLS;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_TIMEOUT;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_URL;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_VERSION;
+import static ee.ria.xroad.proxy.conf.TestUtil.client;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestClientId;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestServiceId;
+import static ee.ria.xroad.proxy.conf.TestUtil.prepareDB;
+import static ee.ria.xroad.proxy.conf.TestUtil.service;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import ee.ria.xroad.common.ExpectedCodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.serverconf.CachingServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.IsAuthentication;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.dao.ClientDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.dao.ServiceDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+/**
+ * Tests that the caching server conf answers the per-message queries from
+ * its snapshot in the same way as the database backed implementation.
+ */
+public class CachingServerConfImplTest {
+
+    private static final String CHANGED_SERVICE_URL = "http://changed";
+
+    private static final long RELOAD_TIMEOUT_MILLIS = 10000;
+
+    private static final long EXPIRE_MILLIS = 1100;
+
+    @Rule
+    public ExpectedCodedException thrown = ExpectedCodedException.none();
+
+    /**
+     * Creates test database.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        prepareDB();
+
+        ServerConf.reload(new CachingServerConfImpl());
+    }
+
+    /**
+     * Tests getting service address and timeout.
+     */
+    @Test
+    public void getServiceAddress() {
+        ServiceId existing = createTestServiceId(client(1), service(1, 1), SERVICE_VERSION);
+        ServiceId nonExisting = createTestServiceId("foo", "bar");
+
+        assertTrue(ServerConf.serviceExists(existing));
+        assertEquals(SERVICE_URL + 1, ServerConf.getServiceAddress(existing));
+        assertEquals(SERVICE_TIMEOUT, ServerConf.getServiceTimeout(existing));
+
+        assertFalse(ServerConf.serviceExists(nonExisting));
+        assertNull(ServerConf.getServiceAddress(nonExisting));
+    }
+
+    /**
+     * Tests that the snapshot gives the same answers as the database.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void matchesDatabase() throws Exception {
+        ServerConfImpl database = new ServerConfImpl();
+        ClientId serviceProvider = createTestClientId(client(1));
+        ClientId client2 = createTestClientId(client(2));
+
+        assertEquals(new HashSet<>(database.getAllServices(serviceProvider)),
+                new HashSet<>(ServerConf.getAllServices(serviceProvider)));
+        assertEquals(new HashSet<>(database.getAllowedServices(serviceProvider, serviceProvider)),
+                new HashSet<>(ServerConf.getAllowedServices(serviceProvider, serviceProvider)));
+        assertEquals(new HashSet<>(database.getAllowedServices(serviceProvider, client2)),
+                new HashSet<>(ServerConf.getAllowedServices(serviceProvider, client2)));
+        assertEquals(database.getIsCerts(serviceProvider), ServerConf.getIsCerts(serviceProvider));
+        assertEquals(database.getMemberStatus(serviceProvider), ServerConf.getMemberStatus(serviceProvider));
+        assertEquals(database.getTspUrl(), ServerConf.getTspUrl());
+
+        assertEquals(NUM_CLIENTS, ServerConf.getMembers().size());
+        assertEquals(NUM_TSPS, ServerConf.getTspUrl().size());
+    }
+
+    /**
+     * Tests query allowed.
+     */
+    @Test
+    public void isQueryAllowed() {
+        ClientId client1 = createTestClientId(client(1));
+        ClientId clientX = createTestClientId(CLIENT_CODE + "X");
+        ServiceId service1 = createTestServiceId(client1.getMemberCode(),
+                service(1, 1), SERVICE_VERSION);
+        ServiceId serviceX = createTestServiceId(client1.getMemberCode(),
+                SERVICE_CODE + "X", SERVICE_VERSION + "X");
+
+        assertTrue(ServerConf.isQueryAllowed(client1, service1));
+        assertFalse(ServerConf.isQueryAllowed(null, service1));
+        assertFalse(ServerConf.isQueryAllowed(clientX, service1));
+        assertFalse(ServerConf.isQueryAllowed(clientX, serviceX));
+        assertFalse(ServerConf.isQueryAllowed(client1, serviceX));
+    }
+
+    /**
+     * Tests getting WSDL disabled notice and required categories.
+     */
+    @Test
+    public void getServiceSettings() {
+        ServiceId disabledService = createTestServiceId(client(1),
+                service(NUM_WSDLS - 1, NUM_SERVICES - 1), SERVICE_VERSION);
+        ServiceId service1 = createTestServiceId(client(1), service(1, 1), SERVICE_VERSION);
+
+        assertNotNull(ServerConf.getDisabledNotice(disabledService));
+        assertNull(ServerConf.getDisabledNotice(service1));
+        assertEquals(1, ServerConf.getRequiredCategories(service1).size());
+        assertTrue(ServerConf.getRequiredCategories(createTestServiceId("foo", "bar")).isEmpty());
+    }
+
+    /**
+     * Tests getting IS authentication.
+     */
+    @Test
+    public void getIsAuthentication() {
+        assertEquals(IsAuthentication.SSLAUTH,
+                ServerConf.getIsAuthentication(createTestClientId(client(1))));
+        assertEquals(IsAuthentication.NOSSL,
+                ServerConf.getIsAuthentication(createTestClientId(client(3))));
+        assertNull(ServerConf.getIsAuthentication(createTestClientId(CLIENT_CODE + "X")));
+    }
+
+    /**
+     * Tests getting SSL authentication of an unknown service.
+     */
+    @Test
+    public void isSslAuthenticationOfUnknownService() {
+        assertTrue(ServerConf.isSslAuthentication(
+                createTestServiceId(client(1), service(1, 0), SERVICE_VERSION)));
+
+        thrown.expectError(X_UNKNOWN_SERVICE);
+        ServerConf.isSslAuthentication(
+                createTestServiceId(client(1), service(1, NUM_SERVICES), SERVICE_VERSION));
+    }
+
+    /**
+     * Tests that the access rights in the snapshot give the same answers as
+     * the database for members, subsystems and unknown clients.
+     */
+    @Test
+    public void isQueryAllowedMatchesDatabase() {
+        ServerConfImpl database = new ServerConfImpl();
+
+        List<ClientId> clients = new ArrayList<>(database.getMembers());
+        clients.add(ClientId.create("XX", "memberClass", "memberCode1"));
+        clients.add(ClientId.create("XX", "memberClass", "memberCode2"));
+        clients.add(createTestClientId(CLIENT_CODE + "X"));
+
+        for (ClientId serviceProvider : database.getMembers()) {
+            for (ServiceId service : database.getAllServices(serviceProvider)) {
+                for (ClientId client : clients) {
+                    assertEquals(client + " -> " + service,
+                            database.isQueryAllowed(client, service),
+                            ServerConf.isQueryAllowed(client, service));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that changes in the database are not visible before the
+     * snapshot expires.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void keepsSnapshotUntilExpired() throws Exception {
+        ServiceId service = createTestServiceId(client(1), service(1, 1), SERVICE_VERSION);
+        CachingServerConfImpl conf = createServerConf(SystemProperties.getServerConfCachePeriod());
+
+        assertEquals(SERVICE_URL + 1, conf.getServiceAddress(service));
+
+        setServiceUrl(service, CHANGED_SERVICE_URL);
+
+        try {
+            assertEquals(SERVICE_URL + 1, conf.getServiceAddress(service));
+        } finally {
+            setServiceUrl(service, SERVICE_URL + 1);
+        }
+    }
+
+    /**
+     * Tests that an expired snapshot is reloaded in the background while
+     * the request that notices the expiry is answered from the previous
+     * snapshot.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void reloadsExpiredSnapshotInBackground() throws Exception {
+        ServiceId service = createTestServiceId(client(1), service(1, 1), SERVICE_VERSION);
+        CachingServerConfImpl conf = createServerConf(1);
+
+        assertEquals(SERVICE_URL + 1, conf.getServiceAddress(service));
+
+        setServiceUrl(service, CHANGED_SERVICE_URL);
+
+        try {
+            Thread.sleep(EXPIRE_MILLIS);
+
+            assertEquals(SERVICE_URL + 1, conf.getServiceAddress(service));
+            assertTrue(waitFor(() -> CHANGED_SERVICE_URL.equals(conf.getServiceAddress(service))));
+        } finally {
+            setServiceUrl(service, SERVICE_URL + 1);
+        }
+    }
+
+    /**
+     * Tests that a snapshot older than twice the cache period is not used
+     * and the query is answered from the database.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void queriesDatabaseWhenSnapshotTooOld() throws Exception {
+        ServiceId service = createTestServiceId(client(1), service(1, 1), SERVICE_VERSION);
+        CachingServerConfImpl conf = createServerConf(1);
+
+        assertEquals(SERVICE_URL + 1, conf.getServiceAddress(service));
+
+        setServiceUrl(service, CHANGED_SERVICE_URL);
+
+        try {
+            Thread.sleep(2 * EXPIRE_MILLIS);
+
+            assertEquals(CHANGED_SERVICE_URL, conf.getServiceAddress(service));
+        } finally {
+            setServiceUrl(service, SERVICE_URL + 1);
+        }
+    }
+
+    /**
+     * Tests that an invalid IS authentication value fails only the queries
+     * of the client that has it.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void invalidIsAuthenticationFailsOnlyThatClient() throws Exception {
+        ClientId client = createTestClientId(client(1));
+        String original = setIsAuthentication(client, "INVALID");
+
+        try {
+            CachingServerConfImpl conf = createServerConf(SystemProperties.getServerConfCachePeriod());
+
+            assertEquals(IsAuthentication.NOSSL, conf.getIsAuthentication(createTestClientId(client(3))));
+
+            thrown.expectError(X_INTERNAL_ERROR);
+            conf.getIsAuthentication(client);
+        } finally {
+            setIsAuthentication(client, original);
+        }
+    }
+
+    private static CachingServerConfImpl createServerConf(int cachePeriodSeconds) {
+        String original = System.getProperty(SystemProperties.SERVER_CONF_CACHE_PERIOD);
+        System.setProperty(SystemProperties.SERVER_CONF_CACHE_PERIOD, Integer.toString(cachePeriodSeconds));
+
+        try {
+            return new CachingServerConfImpl();
+        } finally {
+            if (original == null) {
+                System.clearProperty(SystemProperties.SERVER_CONF_CACHE_PERIOD);
+            } else {
+                System.setProperty(SystemProperties.SERVER_CONF_CACHE_PERIOD, original);
+            }
+        }
+    }
+
+    private static void setServiceUrl(ServiceId service, String url) throws Exception {
+        doInTransaction(session -> {
+            new ServiceDAOImpl().getService(session, service).setUrl(url);
+            return null;
+        });
+    }
+
+    private static String setIsAuthentication(ClientId client, String isAuthentication) throws Exception {
+        return doInTransaction(session -> {
+            ClientType clientType = new ClientDAOImpl().getClient(session, client);
+            String original = clientType.getIsAuthentication();
+            clientType.setIsAuthentication(isAuthentication);
+
+            return original;
+        });
+    }
+
+    private static boolean waitFor(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT_MILLIS;
+
+        while (!condition.get()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+
+            Thread.sleep(10);
+        }
+
+        return true;
+    }
+}
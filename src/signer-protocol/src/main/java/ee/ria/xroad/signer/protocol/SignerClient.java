@@ -29,19 +29,32 @@ import akka.pattern.Patterns;
 import akka.util.Timeout;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.signer.protocol.rpc.SignerRpcClient;
+import ee.ria.xroad.signer.protocol.rpc.SignerRpcCodec;
 import lombok.extern.slf4j.Slf4j;
 import scala.concurrent.Await;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static ee.ria.xroad.common.ErrorCodes.X_HTTP_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
 import static ee.ria.xroad.signer.protocol.ComponentNames.REQUEST_PROCESSOR;
 import static ee.ria.xroad.signer.protocol.ComponentNames.SIGNER;
 
 /**
  * Signer client is used to send messages to signer from other components
- * (running as separate JVM processes).
+ * (running as separate JVM processes). The messages on the signing path
+ * (see {@link SignerRpcCodec#isRpcRequest}) are sent using the Signer RPC,
+ * unless it is disabled, the other messages are sent using Akka. If the
+ * Signer RPC connection fails, the messages on the signing path are sent
+ * using Akka instead. These messages do not change the state of Signer, so
+ * they can be sent again even if Signer received them over the failed
+ * connection.
  */
 @Slf4j
 public final class SignerClient {
@@ -51,6 +64,7 @@ public final class SignerClient {
 
     private static ActorSystem actorSystem;
     private static ActorSelection requestProcessor;
+    private static SignerRpcClient rpcClient;
 
     private SignerClient() {
     }
@@ -69,6 +83,11 @@ public final class SignerClient {
             requestProcessor = system.actorSelection(
                     getSignerPath() + "/user/" + REQUEST_PROCESSOR);
 
+            if (SystemProperties.isSignerRpcEnabled()) {
+                rpcClient = new SignerRpcClient(new InetSocketAddress(
+                        InetAddress.getLoopbackAddress(),
+                        SystemProperties.getSignerRpcPort()), TIMEOUT_MILLIS);
+            }
         }
     }
 
@@ -79,7 +98,22 @@ public final class SignerClient {
      */
     public static void execute(Object message, ActorRef receiver) {
         verifyInitialized();
-        requestProcessor.tell(message, receiver);
+
+        if (isRpcRequest(message)) {
+            rpcClient.call(message).whenComplete((response, error) -> {
+                if (SignerRpcClient.isConnectionError(error)) {
+                    log.debug("Signer RPC failed, sending {} using Akka",
+                            message.getClass().getSimpleName());
+
+                    requestProcessor.tell(message, receiver);
+                } else {
+                    receiver.tell(error != null ? translateException(error)
+                            : response, ActorRef.noSender());
+                }
+            });
+        } else {
+            requestProcessor.tell(message, receiver);
+        }
     }
 
     /**
@@ -93,6 +127,24 @@ public final class SignerClient {
     public static <T> T execute(Object message) throws Exception {
         verifyInitialized();
 
+        if (isRpcRequest(message)) {
+            CompletableFuture<Object> response = rpcClient.call(message);
+            try {
+                return result(response.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException te) {
+                // Stop waiting for the response of the request
+                response.cancel(false);
+
+                throw connectionTimeoutException(te);
+            } catch (ExecutionException e) {
+                if (!SignerRpcClient.isConnectionError(e.getCause())) {
+                    throw translateException(e.getCause());
+                }
+
+                log.debug("Signer RPC failed, sending {} using Akka", message.getClass().getSimpleName());
+            }
+        }
+
         final Timeout timeout = Timeout.apply(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
         try {
             return result(Await.result(Patterns.ask(requestProcessor, message, timeout), timeout.duration()));
@@ -123,6 +175,10 @@ public final class SignerClient {
                 + SystemProperties.getSignerPort();
     }
 
+    private static boolean isRpcRequest(Object message) {
+        return rpcClient != null && SignerRpcCodec.isRpcRequest(message);
+    }
+
     private static void verifyInitialized() {
         if (actorSystem == null) {
             throw new IllegalStateException("SignerClient is not initialized");
@@ -0,0 +1,370 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.rpc;
+
+import ee.ria.xroad.common.CodedException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.X_NETWORK_ERROR;
+
+/**
+ * Client of the Signer RPC. The client sends the requests over a single
+ * loopback TCP connection without waiting for the responses of the earlier
+ * requests (pipelining). The responses are matched to the requests by the
+ * request ID and may arrive in any order.
+ *
+ * The callers do not block: the requests are queued and written to the
+ * connection by a writer thread, which also opens the connection. The
+ * connection is (re)opened when the next request is sent after a connection
+ * failure. If the connection cannot be opened, the requests fail at once
+ * until the connection is retried after a delay. The requests that fail
+ * because of the connection fail with a {@link ConnectionException}, so
+ * that the caller can send them to Signer by other means.
+ */
+@Slf4j
+public class SignerRpcClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private static final long RECONNECT_DELAY_MILLIS = 10000;
+
+    private final InetSocketAddress address;
+
+    private final int timeoutMillis;
+
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+
+    // Fails the requests that are not answered in time.
+    private final ScheduledExecutorService timeouts =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "SignerRpcClientTimeout");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+
+    private Connection connection;
+
+    // The time (in milliseconds) after which the connection is opened again,
+    // if opening it failed.
+    private long reconnectTime;
+
+    private boolean closed;
+
+    /**
+     * @param address the address of the Signer RPC server
+     * @param timeoutMillis the time in milliseconds after which a request
+     * that has not been answered fails
+     */
+    public SignerRpcClient(InetSocketAddress address, int timeoutMillis) {
+        this.address = address;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param error the error of a request
+     * @return true, if the request failed because of the connection to the
+     * Signer RPC server and can be sent to Signer by other means
+     */
+    public static boolean isConnectionError(Throwable error) {
+        return error instanceof ConnectionException;
+    }
+
+    /**
+     * Sends the request to Signer.
+     * @param request the request, see {@link SignerRpcCodec#isRpcRequest}
+     * @return the future that is completed with the response, or
+     * exceptionally with the error returned by Signer, the error of the
+     * connection or the timeout error
+     */
+    public CompletableFuture<Object> call(Object request) {
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        int requestId = nextRequestId.incrementAndGet();
+
+        byte[] payload;
+        try {
+            payload = SignerRpcCodec.encode(request);
+        } catch (IOException e) {
+            response.completeExceptionally(new CodedException(
+                    X_INTERNAL_ERROR, e));
+
+            return response;
+        }
+
+        try {
+            getConnection().send(requestId, payload, response);
+        } catch (IOException e) {
+            response.completeExceptionally(connectionError(e));
+
+            return response;
+        }
+
+        scheduleTimeout(response);
+
+        return response;
+    }
+
+    /**
+     * Closes the connection, failing the pending requests.
+     */
+    public synchronized void close() {
+        closed = true;
+        timeouts.shutdownNow();
+
+        if (connection != null) {
+            connection.close(new IOException("Signer RPC client closed"));
+            connection = null;
+        }
+    }
+
+    private synchronized Connection getConnection() throws IOException {
+        if (closed) {
+            throw new IOException("Signer RPC client closed");
+        }
+
+        if (connection == null || connection.isClosed()) {
+            if (System.currentTimeMillis() < reconnectTime) {
+                throw new IOException("Signer RPC not available");
+            }
+
+            connection = new Connection();
+        }
+
+        return connection;
+    }
+
+    private synchronized void connectFailed() {
+        reconnectTime = System.currentTimeMillis() + RECONNECT_DELAY_MILLIS;
+    }
+
+    private void scheduleTimeout(CompletableFuture<Object> response) {
+        try {
+            ScheduledFuture<?> timeout = timeouts.schedule(() ->
+                    response.completeExceptionally(new CodedException(
+                            X_NETWORK_ERROR, "Signer RPC (port %s) timed out",
+                            address.getPort())),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+
+            response.whenComplete((result, error) -> timeout.cancel(false));
+        } catch (RejectedExecutionException e) {
+            // The client was closed, which fails the pending requests
+        }
+    }
+
+    private ConnectionException connectionError(Exception e) {
+        return e instanceof ConnectionException ? (ConnectionException) e
+                : new ConnectionException(e, address.getPort());
+    }
+
+    /**
+     * Error of the connection to the Signer RPC server.
+     */
+    public static final class ConnectionException extends CodedException {
+
+        private static final long serialVersionUID = -2786553839458434213L;
+
+        ConnectionException(Throwable cause, int port) {
+            super(X_NETWORK_ERROR, cause, "Signer RPC (port %s) failed: %s",
+                    port, cause.getMessage());
+        }
+    }
+
+    private class Connection {
+
+        private final Socket socket = new Socket();
+
+        // The frames waiting to be written by the writer thread.
+        private final BlockingQueue<Frame> outgoing =
+                new LinkedBlockingQueue<>();
+
+        // The requests sent over this connection, waiting for the response.
+        private final Map<Integer, CompletableFuture<Object>> pendingRequests =
+                new ConcurrentHashMap<>();
+
+        private final Thread writer;
+
+        private volatile boolean closed;
+
+        Connection() {
+            writer = new Thread(this::connectAndWrite, "SignerRpcClientWriter");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void send(int requestId, byte[] payload,
+                CompletableFuture<Object> response) throws IOException {
+            // Registered before checking the state, so that the request is
+            // failed by close() if the connection is closed meanwhile.
+            pendingRequests.put(requestId, response);
+            response.whenComplete((result, error) ->
+                    pendingRequests.remove(requestId));
+
+            if (closed) {
+                throw new IOException("Signer RPC connection closed");
+            }
+
+            outgoing.add(new Frame(requestId, payload));
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        private void connectAndWrite() {
+            DataOutputStream out;
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+
+                out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+
+                startReader(new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream())));
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Failed to connect to Signer RPC at {}", address,
+                            e);
+
+                    connectFailed();
+                }
+
+                close(e);
+                return;
+            }
+
+            log.debug("Connected to Signer RPC at {}", address);
+
+            try {
+                while (!closed) {
+                    Frame frame = outgoing.take();
+
+                    // The frames queued meanwhile are flushed together
+                    do {
+                        SignerRpcCodec.writeFrame(out, frame.getRequestId(),
+                                frame.getPayload());
+                    } while ((frame = outgoing.poll()) != null);
+
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                // The connection was closed
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Signer RPC connection failed", e);
+                }
+
+                close(e);
+            }
+        }
+
+        private void startReader(DataInputStream in) {
+            Thread reader = new Thread(() -> read(in), "SignerRpcClientReader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void read(DataInputStream in) {
+            try {
+                while (!closed) {
+                    handleResponse(SignerRpcCodec.readFrame(in));
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Signer RPC connection failed", e);
+                }
+
+                close(e);
+            }
+        }
+
+        private void handleResponse(Frame frame) {
+            CompletableFuture<Object> response =
+                    pendingRequests.remove(frame.getRequestId());
+            if (response == null) {
+                // The request has timed out
+                log.warn("Received response to unknown request {}",
+                        frame.getRequestId());
+                return;
+            }
+
+            try {
+                Object message = SignerRpcCodec.decode(frame.getPayload());
+
+                if (message instanceof Exception) {
+                    response.completeExceptionally((Exception) message);
+                } else {
+                    response.complete(message);
+                }
+            } catch (Exception e) {
+                response.completeExceptionally(new CodedException(
+                        X_INTERNAL_ERROR, e));
+            }
+        }
+
+        synchronized void close(IOException cause) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            writer.interrupt();
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.warn("Failed to close Signer RPC connection", e);
+            }
+
+            // The requests sent over this connection will not be answered.
+            ConnectionException error = connectionError(cause);
+            pendingRequests.keySet().forEach(requestId -> {
+                CompletableFuture<Object> response =
+                        pendingRequests.remove(requestId);
+                if (response != null) {
+                    response.completeExceptionally(error);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.rpc;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
+
+/**
+ * Binary encoding of the Signer RPC frames. A frame consists of the request
+ * ID and the length of the payload (both 4-byte integers) followed by the
+ * payload. The first byte of the payload identifies the message type, the
+ * fields of the message follow in declaration order. Byte arrays and strings
+ * are prefixed by their length, -1 meaning null.
+ *
+ * Only the messages on the signing path of the proxy are supported, other
+ * messages are sent to Signer using Akka.
+ */
+public final class SignerRpcCodec {
+
+    /** The maximum payload length accepted when reading a frame. */
+    public static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte ERROR = 0;
+    private static final byte SIGN = 1;
+    private static final byte SIGN_RESPONSE = 2;
+    private static final byte GET_OCSP_RESPONSES = 3;
+    private static final byte GET_OCSP_RESPONSES_RESPONSE = 4;
+    private static final byte GET_MEMBER_SIGNING_INFO = 5;
+    private static final byte MEMBER_SIGNING_INFO = 6;
+
+    private SignerRpcCodec() {
+    }
+
+    /**
+     * @param message the message
+     * @return true, if the message can be sent to Signer using RPC
+     */
+    public static boolean isRpcRequest(Object message) {
+        return message instanceof Sign
+                || message instanceof GetOcspResponses
+                || message instanceof GetMemberSigningInfo;
+    }
+
+    /**
+     * Writes a frame to the output stream. The caller is responsible for
+     * flushing the stream and for synchronizing the writers of the stream.
+     * @param out the output stream
+     * @param requestId the request ID
+     * @param payload the encoded message
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeFrame(DataOutputStream out, int requestId,
+            byte[] payload) throws IOException {
+        out.writeInt(requestId);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Reads the next frame from the input stream.
+     * @param in the input stream
+     * @return the frame
+     * @throws IOException if an I/O error occurs or the frame is invalid
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int requestId = in.readInt();
+        int length = in.readInt();
+
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        return new Frame(requestId, payload);
+    }
+
+    /**
+     * Encodes a request or a response message. Exceptions are encoded as
+     * errors with the fault code and fault string of the translated
+     * exception.
+     * @param message the message
+     * @return the encoded message
+     * @throws IOException if the message cannot be encoded
+     */
+    public static byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        if (message instanceof Sign) {
+            Sign sign = (Sign) message;
+
+            out.writeByte(SIGN);
+            writeString(out, sign.getKeyId());
+            writeString(out, sign.getSignatureAlgorithmId());
+            writeBytes(out, sign.getDigest());
+        } else if (message instanceof SignResponse) {
+            out.writeByte(SIGN_RESPONSE);
+            writeBytes(out, ((SignResponse) message).getSignature());
+        } else if (message instanceof GetOcspResponses) {
+            out.writeByte(GET_OCSP_RESPONSES);
+            writeStrings(out, ((GetOcspResponses) message).getCertHash());
+        } else if (message instanceof GetOcspResponsesResponse) {
+            out.writeByte(GET_OCSP_RESPONSES_RESPONSE);
+            writeStrings(out, ((GetOcspResponsesResponse) message)
+                    .getBase64EncodedResponses());
+        } else if (message instanceof GetMemberSigningInfo) {
+            out.writeByte(GET_MEMBER_SIGNING_INFO);
+            writeClientId(out, ((GetMemberSigningInfo) message).getMemberId());
+        } else if (message instanceof MemberSigningInfo) {
+            MemberSigningInfo info = (MemberSigningInfo) message;
+
+            out.writeByte(MEMBER_SIGNING_INFO);
+            writeString(out, info.getKeyId());
+            writeCertificateInfo(out, info.getCert());
+        } else if (message instanceof Throwable) {
+            CodedException error = translateException((Throwable) message);
+
+            out.writeByte(ERROR);
+            writeString(out, error.getFaultCode());
+            writeString(out, error.getFaultString());
+            writeString(out, error.getTranslationCode());
+        } else {
+            throw new IOException("Unsupported message: "
+                    + message.getClass().getName());
+        }
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a message encoded with {@link #encode(Object)}. Errors are
+     * decoded as {@link CodedException}s.
+     * @param payload the encoded message
+     * @return the message
+     * @throws IOException if the message cannot be decoded
+     */
+    public static Object decode(byte[] payload) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte type = in.readByte();
+        switch (type) {
+            case SIGN:
+                return new Sign(readString(in), readString(in),
+                        readBytes(in));
+            case SIGN_RESPONSE:
+                return new SignResponse(readBytes(in));
+            case GET_OCSP_RESPONSES:
+                return new GetOcspResponses(readStrings(in));
+            case GET_OCSP_RESPONSES_RESPONSE:
+                return new GetOcspResponsesResponse(readStrings(in));
+            case GET_MEMBER_SIGNING_INFO:
+                return new GetMemberSigningInfo(readClientId(in));
+            case MEMBER_SIGNING_INFO:
+                return new MemberSigningInfo(readString(in),
+                        readCertificateInfo(in));
+            case ERROR:
+                return readError(in);
+            default:
+                throw new IOException("Unknown message type: " + type);
+        }
+    }
+
+    private static CodedException readError(DataInputStream in)
+            throws IOException {
+        String faultCode = readString(in);
+        String faultString = readString(in);
+        String translationCode = readString(in);
+
+        if (faultCode == null) {
+            faultCode = X_INTERNAL_ERROR;
+        }
+
+        return translationCode != null
+                ? CodedException.tr(faultCode, translationCode, faultString)
+                : new CodedException(faultCode, faultString);
+    }
+
+    private static void writeCertificateInfo(DataOutputStream out,
+            CertificateInfo cert) throws IOException {
+        out.writeBoolean(cert != null);
+
+        if (cert != null) {
+            writeClientId(out, cert.getMemberId());
+            out.writeBoolean(cert.isActive());
+            out.writeBoolean(cert.isSavedToConfiguration());
+            writeString(out, cert.getStatus());
+            writeString(out, cert.getId());
+            writeBytes(out, cert.getCertificateBytes());
+            writeBytes(out, cert.getOcspBytes());
+        }
+    }
+
+    private static CertificateInfo readCertificateInfo(DataInputStream in)
+            throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return new CertificateInfo(readClientId(in), in.readBoolean(),
+                in.readBoolean(), readString(in), readString(in),
+                readBytes(in), readBytes(in));
+    }
+
+    private static void writeClientId(DataOutputStream out, ClientId clientId)
+            throws IOException {
+        out.writeBoolean(clientId != null);
+
+        if (clientId != null) {
+            writeString(out, clientId.getXRoadInstance());
+            writeString(out, clientId.getMemberClass());
+            writeString(out, clientId.getMemberCode());
+            writeString(out, clientId.getSubsystemCode());
+        }
+    }
+
+    private static ClientId readClientId(DataInputStream in)
+            throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return ClientId.create(readString(in), readString(in), readString(in),
+                readString(in));
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings)
+            throws IOException {
+        out.writeInt(strings != null ? strings.length : -1);
+
+        if (strings != null) {
+            for (String string : strings) {
+                writeString(out, string);
+            }
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in)
+            throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        // Each string takes at least the length field
+        if (length > in.available() / Integer.BYTES) {
+            throw new IOException("Invalid array length: " + length);
+        }
+
+        String[] strings = new String[length];
+        for (int i = 0; i < length; i++) {
+            strings[i] = readString(in);
+        }
+
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String string)
+            throws IOException {
+        writeBytes(out, string != null
+                ? string.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes)
+            throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > in.available()) {
+            throw new IOException("Invalid field length: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+}
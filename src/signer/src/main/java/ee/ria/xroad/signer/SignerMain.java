@@ -32,6 +32,7 @@ import ee.ria.xroad.common.SystemPropertiesLoader;
 import ee.ria.xroad.common.util.AdminPort;
 import ee.ria.xroad.common.util.JsonUtils;
 import ee.ria.xroad.signer.certmanager.OcspClientWorker;
+import ee.ria.xroad.signer.protocol.SignerRpcServer;
 import ee.ria.xroad.signer.util.SignerUtil;
 import lombok.extern.slf4j.Slf4j;
 
@@ -63,6 +64,7 @@ public final class SignerMain {
 
     private static ActorSystem actorSystem;
     private static Signer signer;
+    private static SignerRpcServer rpcServer;
     private static AdminPort adminPort;
     private static CertificationServiceDiagnostics diagnosticsDefault;
 
@@ -96,6 +98,12 @@ public final class SignerMain {
         signer = new Signer(actorSystem);
         signer.start();
 
+        if (SystemProperties.isSignerRpcEnabled()) {
+            rpcServer = new SignerRpcServer(actorSystem,
+                    SystemProperties.getSignerRpcPort());
+            rpcServer.start();
+        }
+
         actorSystem.awaitTermination();
 
         shutdown();
@@ -104,6 +112,15 @@ public final class SignerMain {
     private static void shutdown() {
         log.info("Signer shutting down...");
 
+        if (rpcServer != null) {
+            try {
+                rpcServer.stop();
+                rpcServer.join();
+            } catch (Exception e) {
+                log.error("Error stopping Signer RPC server", e);
+            }
+        }
+
         try {
             signer.stop();
             signer.join();
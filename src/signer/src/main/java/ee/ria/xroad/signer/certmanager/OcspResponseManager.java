@@ -22,11 +22,14 @@
  */
 package ee.ria.xroad.signer.certmanager;
 
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.actor.UntypedActorContext;
 import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
 import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
 import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.SubscribeOcspResponses;
 import ee.ria.xroad.signer.tokenmanager.ServiceLocator;
 import ee.ria.xroad.signer.tokenmanager.TokenManager;
 import ee.ria.xroad.signer.util.AbstractSignerActor;
@@ -40,6 +43,8 @@ import java.io.Serializable;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.decodeBase64;
@@ -60,6 +65,10 @@ import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
  * for the response. If the response exists in the memory cache, it is returned.
  * If the response does not exist in the memory cache, the response will be
  * loaded from disk, if it exists and is cached in memory as well.
+ *
+ * Other components (the proxy) can subscribe to the OCSP responses to keep
+ * their own cache of the responses. The responses added to the manager are
+ * sent to the subscribers until they terminate.
  */
 @Slf4j
 public class OcspResponseManager extends AbstractSignerActor {
@@ -77,6 +86,10 @@ public class OcspResponseManager extends AbstractSignerActor {
     /** Maps a certificate hash to an OCSP response. */
     private final FileBasedOcspCache responseCache = new FileBasedOcspCache();
 
+    // The responses are also set by the response handler actors, so the
+    // subscribers are notified from their threads.
+    private final Set<ActorRef> subscribers = ConcurrentHashMap.newKeySet();
+
     // ------------------------------------------------------------------------
 
     /**
@@ -149,6 +162,10 @@ public class OcspResponseManager extends AbstractSignerActor {
                 handleSetOcspResponses((SetOcspResponses) message);
             } else if (message instanceof IsCachedOcspResponse) {
                 handleIsCachedOcspResponse((IsCachedOcspResponse) message);
+            } else if (message instanceof SubscribeOcspResponses) {
+                handleSubscribeOcspResponses();
+            } else if (message instanceof Terminated) {
+                handleTerminated((Terminated) message);
             } else {
                 unhandled(message);
             }
@@ -168,9 +185,27 @@ public class OcspResponseManager extends AbstractSignerActor {
         log.trace("handleSetOcspResponses()");
 
         for (int i = 0; i < message.getCertHashes().length; i++) {
-            setResponse(message.getCertHashes()[i], new OCSPResp(
+            putResponse(message.getCertHashes()[i], new OCSPResp(
                     decodeBase64(message.getBase64EncodedResponses()[i])));
         }
+
+        notifySubscribers(message);
+    }
+
+    void handleSubscribeOcspResponses() {
+        log.debug("Subscribing {} to OCSP responses", getSender());
+
+        if (subscribers.add(getSender())) {
+            getContext().watch(getSender());
+        }
+
+        sendSuccessResponse();
+    }
+
+    void handleTerminated(Terminated message) {
+        log.debug("Unsubscribing {} from OCSP responses", message.getActor());
+
+        subscribers.remove(message.getActor());
     }
 
     void handleIsCachedOcspResponse(IsCachedOcspResponse message)
@@ -185,6 +220,14 @@ public class OcspResponseManager extends AbstractSignerActor {
     }
 
     void setResponse(String certHash, OCSPResp response) throws Exception {
+        putResponse(certHash, response);
+
+        notifySubscribers(new SetOcspResponses(new String[] {certHash},
+                new String[] {encodeBase64(response.getEncoded())}));
+    }
+
+    private void putResponse(String certHash, OCSPResp response)
+            throws Exception {
         log.debug("Setting a new response to cache for cert: {}", certHash);
         try {
             responseCache.put(certHash, response);
@@ -193,6 +236,12 @@ public class OcspResponseManager extends AbstractSignerActor {
         }
     }
 
+    private void notifySubscribers(SetOcspResponses message) {
+        for (ActorRef subscriber : subscribers) {
+            subscriber.tell(message, ActorRef.noSender());
+        }
+    }
+
     @RequiredArgsConstructor
     private static class GetOcspResponseHandler extends AbstractSignerActor {
 
@@ -0,0 +1,246 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.Futures;
+import akka.dispatch.OnComplete;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.Future;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.StartStop;
+import ee.ria.xroad.signer.protocol.handler.GetMemberSigningInfoRequestHandler;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.rpc.Frame;
+import ee.ria.xroad.signer.protocol.rpc.SignerRpcCodec;
+import ee.ria.xroad.signer.tokenmanager.ServiceLocator;
+import ee.ria.xroad.signer.tokenmanager.TokenManager;
+
+import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
+import static ee.ria.xroad.signer.util.ExceptionHelper.tokenNotAvailable;
+
+/**
+ * Serves the signing path requests of the other components (see
+ * {@link SignerRpcCodec}) on a loopback TCP port. Each connection is read by
+ * its own thread and the requests are handled concurrently, so that a client
+ * can send requests without waiting for the earlier responses. The requests
+ * are passed directly to the token and the OCSP response manager actors,
+ * without the request processor and the request handler actors used for the
+ * Akka requests.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class SignerRpcServer implements StartStop {
+
+    private static final int BACKLOG = 50;
+
+    private final ActorSystem actorSystem;
+
+    private final int port;
+
+    private final Timeout timeout = Timeout.apply(
+            SystemProperties.getSignerClientTimeout(), TimeUnit.MILLISECONDS);
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private ServerSocket serverSocket;
+
+    private Thread acceptor;
+
+    @Override
+    public void start() throws Exception {
+        serverSocket = new ServerSocket(port, BACKLOG,
+                InetAddress.getLoopbackAddress());
+
+        acceptor = new Thread(this::accept, "SignerRpcServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        log.info("Signer RPC listening on port {}", port);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+
+        connections.forEach(Connection::close);
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        if (acceptor != null) {
+            acceptor.join();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+
+                Thread reader = new Thread(connection,
+                        "SignerRpcConnection-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (SocketException e) {
+                log.trace("Signer RPC server socket closed", e);
+            } catch (Exception e) {
+                log.error("Failed to accept Signer RPC connection", e);
+            }
+        }
+    }
+
+    private Future<Object> handle(Object request) throws Exception {
+        if (request instanceof Sign) {
+            String tokenId = TokenManager.findTokenIdForKeyId(
+                    ((Sign) request).getKeyId());
+            if (!TokenManager.isTokenAvailable(tokenId)) {
+                throw tokenNotAvailable(tokenId);
+            }
+
+            return Patterns.ask(ServiceLocator.getToken(actorSystem, tokenId),
+                    request, timeout);
+        } else if (request instanceof GetOcspResponses) {
+            return Patterns.ask(
+                    ServiceLocator.getOcspResponseManager(actorSystem),
+                    request, timeout);
+        } else if (request instanceof GetMemberSigningInfo) {
+            ClientId memberId = ((GetMemberSigningInfo) request).getMemberId();
+
+            return Futures.<Object>future(() -> GetMemberSigningInfoRequestHandler
+                    .getMemberSigningInfo(memberId), actorSystem.dispatcher());
+        }
+
+        throw new CodedException(X_INTERNAL_ERROR, "Unknown request");
+    }
+
+    private static byte[] encode(Object response) throws IOException {
+        try {
+            return SignerRpcCodec.encode(response);
+        } catch (IOException e) {
+            return SignerRpcCodec.encode(handlingError(e));
+        }
+    }
+
+    private static CodedException handlingError(Throwable e) {
+        log.error("Error in Signer RPC request handler", e);
+
+        return translateException(e).withPrefix(SIGNER_X);
+    }
+
+    private class Connection implements Runnable {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!socket.isClosed()) {
+                    handleRequest(SignerRpcCodec.readFrame(in));
+                }
+            } catch (IOException e) {
+                log.debug("Signer RPC connection closed: {}", e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        private void handleRequest(Frame frame) {
+            int requestId = frame.getRequestId();
+
+            try {
+                handle(SignerRpcCodec.decode(frame.getPayload())).onComplete(
+                        new OnComplete<Object>() {
+                            @Override
+                            public void onComplete(Throwable failure,
+                                    Object response) {
+                                send(requestId, failure != null
+                                        ? handlingError(failure) : response);
+                            }
+                        }, actorSystem.dispatcher());
+            } catch (Exception e) {
+                send(requestId, handlingError(e));
+            }
+        }
+
+        private synchronized void send(int requestId, Object response) {
+            try {
+                SignerRpcCodec.writeFrame(out, requestId, encode(response));
+                out.flush();
+            } catch (IOException e) {
+                log.error("Failed to send Signer RPC response", e);
+
+                close();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.warn("Failed to close Signer RPC connection", e);
+            }
+        }
+    }
+}
@@ -62,29 +62,40 @@ public class GetMemberSigningInfoRequestHandler
 
     @Override
     protected Object handle(GetMemberSigningInfo message) throws Exception {
-        List<KeyInfo> memberKeys =
-                TokenManager.getKeyInfo(message.getMemberId());
+        return getMemberSigningInfo(message.getMemberId());
+    }
+
+    /**
+     * Selects the key and the certificate the member signs with. Used
+     * outside of the request handler actor by the Signer RPC server.
+     * @param memberId the member
+     * @return the member signing info
+     * @throws Exception if the member has no suitable certificates
+     */
+    public static MemberSigningInfo getMemberSigningInfo(ClientId memberId)
+            throws Exception {
+        List<KeyInfo> memberKeys = TokenManager.getKeyInfo(memberId);
         if (memberKeys.isEmpty()) {
             throw CodedException.tr(X_UNKNOWN_MEMBER,
                     "member_certs_not_found",
                     "Could not find any certificates for member '%s'",
-                    message.getMemberId());
+                    memberId);
         }
 
         SelectedCertificate memberCert =
-                selectMemberCert(memberKeys, message.getMemberId());
+                selectMemberCert(memberKeys, memberId);
         if (memberCert == null) {
             throw CodedException.tr(X_INTERNAL_ERROR,
                     "member_has_no_suitable_certs",
                     "Member '%s' has no suitable certificates",
-                    message.getMemberId());
+                    memberId);
         }
 
         return new MemberSigningInfo(memberCert.getKey().getId(),
                 memberCert.getCert());
     }
 
-    private SelectedCertificate selectMemberCert(List<KeyInfo> memberKey,
+    private static SelectedCertificate selectMemberCert(List<KeyInfo> memberKey,
             ClientId memberId) {
         for (KeyInfo keyInfo : memberKey) {
             for (CertificateInfo certInfo : keyInfo.getCerts()) {
@@ -102,7 +113,7 @@ public class GetMemberSigningInfoRequestHandler
     }
 
     // Checks that the certificate is active and valid at current time.
-    private boolean isSuitableCertificate(String instanceIdentifier,
+    private static boolean isSuitableCertificate(String instanceIdentifier,
             CertificateInfo cert) {
         if (!cert.isActive() || !cert.getStatus().equals(STATUS_REGISTERED)) {
             return false;
@@ -118,7 +129,7 @@ public class GetMemberSigningInfoRequestHandler
         }
     }
 
-    private void checkValidity(String instanceIdentifier, byte[] certBytes,
+    private static void checkValidity(String instanceIdentifier, byte[] certBytes,
             byte[] ocspBytes) throws Exception {
         X509Certificate subject = readCertificate(certBytes);
         subject.checkValidity();
@@ -126,7 +137,7 @@ public class GetMemberSigningInfoRequestHandler
                 new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
     }
 
-    private void verifyOcspResponse(String instanceIdentifier,
+    private static void verifyOcspResponse(String instanceIdentifier,
             byte[] ocspBytes, X509Certificate subject, OcspVerifierOptions verifierOptions) throws Exception {
         if (ocspBytes == null) {
             throw new Exception("OCSP response for certificate "
@@ -30,7 +30,7 @@ import static ee.ria.xroad.signer.protocol.ComponentNames.TOKEN_WORKER;
 import static ee.ria.xroad.signer.util.ExceptionHelper.tokenNotFound;
 
 import akka.actor.ActorSelection;
-import akka.actor.UntypedActorContext;
+import akka.actor.ActorRefFactory;
 
 /**
  * Utility class for getting specific actor paths in Signer.
@@ -41,29 +41,29 @@ public final class ServiceLocator {
     }
 
     /**
-     * @param context the actor context
+     * @param context the actor context or the actor system
      * @return the request processor actor
      */
     public static ActorSelection getRequestProcessor(
-            UntypedActorContext context) {
+            ActorRefFactory context) {
         return context.actorSelection("/user/" + REQUEST_PROCESSOR);
     }
 
     /**
-     * @param context the actor context
+     * @param context the actor context or the actor system
      * @return the OCSP response manager actor
      */
     public static ActorSelection getOcspResponseManager(
-            UntypedActorContext context) {
+            ActorRefFactory context) {
         return context.actorSelection("/user/" + OCSP_RESPONSE_MANAGER);
     }
 
     /**
-     * @param context the actor context
+     * @param context the actor context or the actor system
      * @param tokenId the token id
      * @return the token actor
      */
-    public static ActorSelection getToken(UntypedActorContext context,
+    public static ActorSelection getToken(ActorRefFactory context,
             String tokenId) {
         String path = String.format("/user/%s/%s/%s", MODULE_MANAGER,
                 getModuleId(tokenId), tokenId);
@@ -71,11 +71,11 @@ public final class ServiceLocator {
     }
 
     /**
-     * @param context the actor context
+     * @param context the actor context or the actor system
      * @param tokenId the token id
      * @return the token worker actor
      */
-    public static ActorSelection getTokenWorker(UntypedActorContext context,
+    public static ActorSelection getTokenWorker(ActorRefFactory context,
             String tokenId) {
         String path = String.format("/user/%s/%s/%s/%s", MODULE_MANAGER,
                 getModuleId(tokenId), tokenId, TOKEN_WORKER);
@@ -83,11 +83,11 @@ public final class ServiceLocator {
     }
 
     /**
-     * @param context the actor context
+     * @param context the actor context or the actor system
      * @param tokenId the token id
      * @return the token signer actor
      */
-    public static ActorSelection getTokenSigner(UntypedActorContext context,
+    public static ActorSelection getTokenSigner(ActorRefFactory context,
             String tokenId) {
         String path = String.format("/user/%s/%s/%s/%s", MODULE_MANAGER,
                 getModuleId(tokenId), tokenId, TOKEN_SIGNER);
@@ -54,6 +54,8 @@ public final class ModuleConf {
     private static final String DEFAULT_TOKEN_ID_FORMAT =
             "{moduleType}{slotIndex}{serialNumber}{label}";
 
+    private static final int DEFAULT_SIGN_SESSION_COUNT = 1;
+
     private static FileContentChangeChecker changeChecker = null;
 
     private ModuleConf() {
@@ -134,6 +136,14 @@ public final class ModuleConf {
         boolean batchSigning =
                 getBoolean(section, "batch_signing_enabled", true);
         boolean readOnly = getBoolean(section, "read_only", false);
+        int signSessionCount = getInt(section, "sign_session_count",
+                DEFAULT_SIGN_SESSION_COUNT);
+        if (signSessionCount < 1) {
+            throw new ConversionException(String.format(
+                    "Invalid value of 'sign_session_count' for module (%s),"
+                    + " skipping...", uid));
+        }
+
         String tokenIdFormat = section.getString("token_id_format");
         if (StringUtils.isBlank(tokenIdFormat)) {
             tokenIdFormat = DEFAULT_TOKEN_ID_FORMAT;
@@ -141,8 +151,9 @@ public final class ModuleConf {
 
         log.trace("Read module configuration (UID = {}, library = {}, "
                 + ", tokenIdFormat = {}, pinVerificationPerSigning = {}"
-                + ", batchSigning = {})", new Object[] {uid, library,
-                        tokenIdFormat, verifyPin, batchSigning});
+                + ", batchSigning = {}, signSessionCount = {})",
+                new Object[] {uid, library, tokenIdFormat, verifyPin,
+                        batchSigning, signSessionCount});
 
         if (MODULES.containsKey(uid)) {
             log.warn("Module information already defined for {}, skipping...",
@@ -151,7 +162,7 @@ public final class ModuleConf {
         }
 
         MODULES.put(uid, new HardwareModuleType(uid, library, tokenIdFormat,
-                verifyPin, batchSigning, readOnly));
+                verifyPin, batchSigning, readOnly, signSessionCount));
     }
 
     private static boolean getBoolean(SubnodeConfiguration section,
@@ -164,4 +175,15 @@ public final class ModuleConf {
                     key, section.getSubnodeKey()), e);
         }
     }
+
+    private static int getInt(SubnodeConfiguration section, String key,
+            int defaultValue) {
+        try {
+            return section.getInt(key, defaultValue);
+        } catch (ConversionException e) {
+            throw new ConversionException(String.format(
+                    "Invalid value of '%s' for module (%s), skipping...",
+                    key, section.getSubnodeKey()), e);
+        }
+    }
 }
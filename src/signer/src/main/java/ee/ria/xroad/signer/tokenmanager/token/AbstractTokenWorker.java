@@ -26,6 +26,7 @@ import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_SIGN;
 import static ee.ria.xroad.common.ErrorCodes.X_FAILED_TO_GENERATE_R_KEY;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.setTokenAvailable;
 
+import akka.actor.ActorRef;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.util.PasswordStore;
 import ee.ria.xroad.signer.protocol.dto.TokenInfo;
@@ -167,18 +168,46 @@ public abstract class AbstractTokenWorker extends AbstractUpdateableActor {
     private void handleCalculateSignature(CalculateSignature signRequest)
             throws Exception {
         try {
-            byte[] signature =
-                    sign(signRequest.getKeyId(), signRequest.getData());
-            sendResponse(new CalculatedSignature(signRequest, signature, null));
-        } catch (Exception e) { // catch-log-rethrow
-            log.error("Error while signing with key '{}'",
-                    signRequest.getKeyId(), e);
-            CodedException tr = translateError(
-                    customizeException(e)).withPrefix(X_CANNOT_SIGN);
-            sendResponse(new CalculatedSignature(signRequest, null, tr));
+            calculateSignature(signRequest, getSender());
+        } catch (Exception e) {
+            signatureFailed(signRequest, getSender(), getSelf(), e);
         }
     }
 
+    /**
+     * Calculates the signature and sends the result to the receiver. By
+     * default, the signature is calculated in the worker.
+     * @param signRequest the signing request
+     * @param receiver the receiver of the calculated signature
+     * @throws Exception if the signature cannot be calculated
+     */
+    protected void calculateSignature(CalculateSignature signRequest,
+            ActorRef receiver) throws Exception {
+        byte[] signature = sign(signRequest.getKeyId(), signRequest.getData());
+
+        receiver.tell(new CalculatedSignature(signRequest, signature, null),
+                getSelf());
+    }
+
+    /**
+     * Sends the error of calculating the signature to the receiver. May be
+     * called outside of the worker, if the signature is calculated
+     * asynchronously.
+     * @param signRequest the signing request
+     * @param receiver the receiver of the calculated signature
+     * @param self the worker
+     * @param e the error
+     */
+    protected void signatureFailed(CalculateSignature signRequest,
+            ActorRef receiver, ActorRef self, Exception e) {
+        // catch-log-rethrow
+        log.error("Error while signing with key '{}'",
+                signRequest.getKeyId(), e);
+        CodedException tr = translateError(
+                customizeException(e)).withPrefix(X_CANNOT_SIGN);
+        receiver.tell(new CalculatedSignature(signRequest, null, tr), self);
+    }
+
     // ------------------------------------------------------------------------
 
     protected abstract void activateToken(ActivateToken message)
@@ -55,10 +55,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import akka.actor.ActorRef;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
@@ -71,7 +78,10 @@ import ee.ria.xroad.signer.protocol.message.ActivateToken;
 import ee.ria.xroad.signer.protocol.message.GenerateKey;
 import ee.ria.xroad.signer.protocol.message.InitSoftwareToken;
 import ee.ria.xroad.signer.tokenmanager.TokenManager;
+import ee.ria.xroad.signer.util.CalculateSignature;
+import ee.ria.xroad.signer.util.CalculatedSignature;
 import ee.ria.xroad.signer.util.SignerUtil;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -84,6 +94,28 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
     // Use no digesting algorithm, since the input data is already a digest
     private static final String SIGNATURE_ALGORITHM = "NONEwithRSA";
 
+    // The signatures are calculated in a pool of threads, one for each
+    // processor, so the keys can be used for signing in parallel. The other
+    // requests are handled by the worker one at a time.
+    private static final ExecutorService SIGNING_EXECUTOR =
+            Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), r -> {
+                        Thread thread = new Thread(r, "SoftwareTokenSigner");
+                        thread.setDaemon(true);
+
+                        return thread;
+                    });
+
+    // Each signing thread keeps a Signature initialized with the key it last
+    // signed with. The cached Signature is dropped when the key changes or
+    // the token has been deactivated since it was initialized.
+    private static final ThreadLocal<SigningContext> SIGNING_CONTEXT =
+            new ThreadLocal<>();
+
+    // Incremented every time the token is deactivated. Signing tasks that
+    // were queued before the deactivation are rejected when they start.
+    private static final AtomicLong TOKEN_GENERATION = new AtomicLong();
+
     private final Map<String, PrivateKey> privateKeys = new HashMap<>();
 
     /**
@@ -175,29 +207,97 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
         TokenManager.removeCert(certId);
     }
 
+    @Override
+    protected void calculateSignature(CalculateSignature signRequest,
+            ActorRef receiver) throws Exception {
+        // The key is looked up in the worker, only the signing is done in
+        // the signing threads. The token state is checked again when the
+        // signing starts, since the token may have been deactivated while
+        // the task was queued.
+        long generation = TOKEN_GENERATION.get();
+        PrivateKey key = getSigningKey(signRequest.getKeyId());
+        ActorRef self = getSelf();
+
+        getSigningExecutor().execute(() -> {
+            try {
+                checkCanSign(signRequest.getKeyId(), generation);
+
+                byte[] signature = sign(key, generation,
+                        signRequest.getData());
+
+                receiver.tell(new CalculatedSignature(signRequest, signature,
+                        null), self);
+            } catch (Exception e) {
+                signatureFailed(signRequest, receiver, self, e);
+            }
+        });
+    }
+
     @Override
     protected byte[] sign(String keyId, byte[] data) throws Exception {
+        long generation = TOKEN_GENERATION.get();
+
+        return sign(getSigningKey(keyId), generation, data);
+    }
+
+    /**
+     * @return the executor that calculates the signatures
+     */
+    Executor getSigningExecutor() {
+        return SIGNING_EXECUTOR;
+    }
+
+    private PrivateKey getSigningKey(String keyId) throws Exception {
         log.trace("sign({})", keyId);
 
-        if (!isTokenActive(tokenId)) {
+        checkCanSign(keyId, TOKEN_GENERATION.get());
+
+        PrivateKey key = getPrivateKey(keyId);
+        if (key == null) {
+            throw keyNotFound(keyId);
+        }
+
+        log.debug("Signing with key '{}'", keyId);
+
+        return key;
+    }
+
+    private void checkCanSign(String keyId, long generation) {
+        if (!isTokenActive(tokenId) || TOKEN_GENERATION.get() != generation) {
             throw tokenNotActive(tokenId);
         }
 
         if (!isKeyAvailable(keyId)) {
             throw keyNotAvailable(keyId);
         }
+    }
 
-        PrivateKey key = getPrivateKey(keyId);
-        if (key == null) {
-            throw keyNotFound(keyId);
+    private static byte[] sign(PrivateKey key, long generation, byte[] data)
+            throws Exception {
+        SigningContext context = SIGNING_CONTEXT.get();
+
+        if (context == null || !context.isValidFor(key, generation)) {
+            Signature signature = createSignature();
+            signature.initSign(key);
+
+            context = new SigningContext(key, generation, signature);
+            SIGNING_CONTEXT.set(context);
         }
 
-        log.debug("Signing with key '{}'", keyId);
+        try {
+            context.signature.update(data);
+
+            return context.signature.sign();
+        } catch (Exception e) {
+            // Do not reuse a Signature left in an unknown state
+            SIGNING_CONTEXT.remove();
+
+            throw e;
+        }
+    }
 
-        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
-        signature.initSign(key);
-        signature.update(data);
-        return signature.sign();
+    private static Signature createSignature() throws NoSuchAlgorithmException {
+        return Signature.getInstance(SIGNATURE_ALGORITHM);
     }
 
     // ------------------------------------------------------------------------
@@ -316,12 +416,13 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
     }
 
     private void deactivateToken() {
+        TOKEN_GENERATION.incrementAndGet();
         privateKeys.clear();
 
         setTokenActive(tokenId, false);
     }
 
-    private PrivateKey loadPrivateKey(String keyId) throws Exception {
+    PrivateKey loadPrivateKey(String keyId) throws Exception {
         String keyStoreFile = getKeyStoreFileName(keyId);
 
         log.trace("Loading pkcs#12 private key '{}' from file '{}'", keyId,
@@ -382,4 +483,15 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
             keyStore.store(fos, password);
         }
     }
+
+    @RequiredArgsConstructor
+    private static final class SigningContext {
+        private final PrivateKey key;
+        private final long generation;
+        private final Signature signature;
+
+        boolean isValidFor(PrivateKey signingKey, long tokenGeneration) {
+            return key == signingKey && generation == tokenGeneration;
+        }
+    }
 }
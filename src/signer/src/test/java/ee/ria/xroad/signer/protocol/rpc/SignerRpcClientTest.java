@@ -0,0 +1,280 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.rpc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+/**
+ * Tests the Signer RPC encoding and the pipelining of the client.
+ */
+public class SignerRpcClientTest {
+
+    private static final int REQUESTS = 10;
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private ServerSocket serverSocket;
+
+    private SignerRpcClient client;
+
+    /**
+     * Starts a server that reads the given number of requests and answers
+     * them in the reverse order.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+        Thread server = new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                DataInputStream in =
+                        new DataInputStream(socket.getInputStream());
+                DataOutputStream out =
+                        new DataOutputStream(socket.getOutputStream());
+
+                List<Frame> requests = new ArrayList<>();
+                for (int i = 0; i < REQUESTS; i++) {
+                    requests.add(SignerRpcCodec.readFrame(in));
+                }
+
+                for (int i = REQUESTS - 1; i >= 0; i--) {
+                    Frame request = requests.get(i);
+                    Sign sign = (Sign) SignerRpcCodec.decode(
+                            request.getPayload());
+
+                    Object response = sign.getKeyId().equals("error")
+                            ? new CodedException("Signer.KeyNotFound", "gone")
+                            : new SignResponse(sign.getDigest());
+
+                    SignerRpcCodec.writeFrame(out, request.getRequestId(),
+                            SignerRpcCodec.encode(response));
+                }
+
+                out.flush();
+            } catch (Exception e) {
+                // the test fails on the client side
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        client = new SignerRpcClient(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()),
+                TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Closes the client and the server.
+     * @throws Exception if an error occurs
+     */
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        serverSocket.close();
+    }
+
+    /**
+     * Test that pipelined requests are matched with the responses that
+     * arrive in a different order.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void pipelinedRequests() throws Exception {
+        List<CompletableFuture<Object>> responses = new ArrayList<>();
+        for (int i = 0; i < REQUESTS - 1; i++) {
+            responses.add(client.call(new Sign("key", "alg",
+                    bytes("digest" + i))));
+        }
+
+        CompletableFuture<Object> error =
+                client.call(new Sign("error", "alg", bytes("digest")));
+
+        for (int i = 0; i < REQUESTS - 1; i++) {
+            SignResponse response = (SignResponse) responses.get(i)
+                    .get(5, TimeUnit.SECONDS);
+            assertArrayEquals(bytes("digest" + i), response.getSignature());
+        }
+
+        try {
+            error.get(5, TimeUnit.SECONDS);
+            fail("Expected error response");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertEquals("Signer.KeyNotFound",
+                    ((CodedException) e.getCause()).getFaultCode());
+        }
+    }
+
+    /**
+     * Test that a request that is not answered in time fails with an error
+     * that is not a connection error.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void requestTimesOut() throws Exception {
+        // The server does not answer before it has received all requests
+        SignerRpcClient timingOutClient = new SignerRpcClient(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        serverSocket.getLocalPort()), 100);
+        try {
+            timingOutClient.call(new Sign("key", "alg", bytes("digest")))
+                    .get(5, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertFalse(SignerRpcClient.isConnectionError(e.getCause()));
+        } finally {
+            timingOutClient.close();
+        }
+    }
+
+    /**
+     * Test that the requests fail with a connection error if there is no
+     * server, so that they can be sent to Signer using Akka.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void connectionFails() throws Exception {
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        SignerRpcClient unconnectedClient = new SignerRpcClient(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                TIMEOUT_MILLIS);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    unconnectedClient.call(new Sign("key", "alg",
+                            bytes("digest"))).get(5, TimeUnit.SECONDS);
+                    fail("Expected connection error");
+                } catch (ExecutionException e) {
+                    assertTrue(SignerRpcClient.isConnectionError(
+                            e.getCause()));
+                }
+            }
+        } finally {
+            unconnectedClient.close();
+        }
+    }
+
+    /**
+     * Test that an array length that does not fit in the message is
+     * rejected before the array is allocated.
+     * @throws Exception if an error occurs
+     */
+    @Test(expected = IOException.class)
+    public void rejectInvalidArrayLength() throws Exception {
+        byte[] payload = SignerRpcCodec.encode(
+                new GetOcspResponses(new String[] {"hash"}));
+
+        // Replace the array length after the message type
+        payload[1] = Byte.MAX_VALUE;
+
+        SignerRpcCodec.decode(payload);
+    }
+
+    /**
+     * Test that the messages survive encoding and decoding.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void encodeAndDecode() throws Exception {
+        GetOcspResponses ocspRequest = (GetOcspResponses) roundTrip(
+                new GetOcspResponses(new String[] {"hash1", "hash2"}));
+        assertArrayEquals(new String[] {"hash1", "hash2"},
+                ocspRequest.getCertHash());
+
+        GetOcspResponsesResponse ocspResponse =
+                (GetOcspResponsesResponse) roundTrip(
+                        new GetOcspResponsesResponse(
+                                new String[] {"ocsp", null}));
+        assertArrayEquals(new String[] {"ocsp", null},
+                ocspResponse.getBase64EncodedResponses());
+
+        ClientId memberId = ClientId.create("EE", "BUSINESS", "member");
+        assertEquals(memberId, ((GetMemberSigningInfo) roundTrip(
+                new GetMemberSigningInfo(memberId))).getMemberId());
+
+        CertificateInfo cert = new CertificateInfo(memberId, true, false,
+                CertificateInfo.STATUS_REGISTERED, "certId", bytes("cert"),
+                null);
+        MemberSigningInfo info = (MemberSigningInfo) roundTrip(
+                new MemberSigningInfo("keyId", cert));
+        assertEquals("keyId", info.getKeyId());
+        assertEquals(memberId, info.getCert().getMemberId());
+        assertTrue(info.getCert().isActive());
+        assertEquals(CertificateInfo.STATUS_REGISTERED,
+                info.getCert().getStatus());
+        assertArrayEquals(bytes("cert"), info.getCert().getCertificateBytes());
+        assertNull(info.getCert().getOcspBytes());
+
+        CodedException error = (CodedException) roundTrip(
+                CodedException.tr("Signer.TokenNotActive", "token_not_active",
+                        "Token not active"));
+        assertEquals("Signer.TokenNotActive", error.getFaultCode());
+        assertEquals("token_not_active", error.getTranslationCode());
+        assertEquals("Token not active", error.getFaultString());
+    }
+
+    private static Object roundTrip(Object message) throws Exception {
+        return SignerRpcCodec.decode(SignerRpcCodec.encode(message));
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestActorRef;
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.ErrorCodes;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.protocol.message.ActivateToken;
+import ee.ria.xroad.signer.protocol.message.SuccessResponse;
+import ee.ria.xroad.signer.tokenmanager.TokenManager;
+import ee.ria.xroad.signer.util.CalculateSignature;
+import ee.ria.xroad.signer.util.CalculatedSignature;
+
+/**
+ * Tests the parallel signing of the software token worker.
+ */
+public class SoftwareTokenWorkerTest {
+
+    private static final String PRODUCER_KEY_ID = "70726f6475636572";
+    private static final String CONSUMER_KEY_ID = "636f6e73756d6572";
+
+    private static final int NUMBER_OF_REQUESTS = 100;
+
+    private static final Map<String, KeyPair> KEYS = new HashMap<>();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public final RestoreSystemProperties restoreSystemProperties =
+            new RestoreSystemProperties();
+
+    private ActorSystem actorSystem;
+
+    private TokenInfo tokenInfo;
+
+    /**
+     * Loads the key configuration and activates the software token.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        File keyConf = temporaryFolder.newFile("keyconf.xml");
+        Files.copy(Paths.get("src/test/resources/keyconf.xml"),
+                keyConf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        System.setProperty(SystemProperties.KEY_CONFIGURATION_FILE,
+                keyConf.getPath());
+
+        TokenManager.init();
+
+        tokenInfo = TokenManager.getTokenInfo(
+                TokenManager.findTokenIdForKeyId(PRODUCER_KEY_ID));
+
+        TokenManager.setTokenActive(tokenInfo.getId(), true);
+        TokenManager.setKeyAvailable(PRODUCER_KEY_ID, true);
+        TokenManager.setKeyAvailable(CONSUMER_KEY_ID, true);
+
+        synchronized (KEYS) {
+            if (KEYS.isEmpty()) {
+                KEYS.put(PRODUCER_KEY_ID,
+                        SoftwareTokenUtil.generateKeyPair(2048));
+                KEYS.put(CONSUMER_KEY_ID,
+                        SoftwareTokenUtil.generateKeyPair(2048));
+            }
+        }
+
+        actorSystem = ActorSystem.create();
+    }
+
+    /**
+     * Shuts down the actor system.
+     */
+    @After
+    public void tearDown() {
+        JavaTestKit.shutdownActorSystem(actorSystem);
+    }
+
+    /**
+     * Tests that the signatures calculated in parallel with two keys are
+     * valid and are all sent to the requester.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void signConcurrently() throws Exception {
+        TestActorRef<TestSoftwareTokenWorker> worker = createWorker(null);
+        JavaTestKit requester = new JavaTestKit(actorSystem);
+
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            worker.tell(new CalculateSignature(requester.getRef(),
+                    i % 2 == 0 ? PRODUCER_KEY_ID : CONSUMER_KEY_ID,
+                    digest(i)), requester.getRef());
+        }
+
+        Object[] responses = requester.receiveN(NUMBER_OF_REQUESTS);
+
+        for (Object response : responses) {
+            CalculatedSignature result = (CalculatedSignature) response;
+
+            assertNull(result.getException());
+            assertTrue(verify(result));
+        }
+    }
+
+    /**
+     * Tests that a signing request is rejected after the token has been
+     * deactivated.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void signAfterDeactivation() throws Exception {
+        TestActorRef<TestSoftwareTokenWorker> worker = createWorker(null);
+        JavaTestKit requester = new JavaTestKit(actorSystem);
+
+        deactivate(worker, requester);
+
+        worker.tell(new CalculateSignature(requester.getRef(),
+                PRODUCER_KEY_ID, digest(0)), requester.getRef());
+
+        assertTokenNotActive(
+                requester.expectMsgClass(CalculatedSignature.class));
+    }
+
+    /**
+     * Tests that a signing task queued before the token was deactivated
+     * does not sign with the key when it starts.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void queuedSignatureAfterDeactivation() throws Exception {
+        List<Runnable> queue = new ArrayList<>();
+        TestActorRef<TestSoftwareTokenWorker> worker =
+                createWorker(queue::add);
+        JavaTestKit requester = new JavaTestKit(actorSystem);
+
+        worker.tell(new CalculateSignature(requester.getRef(),
+                PRODUCER_KEY_ID, digest(0)), requester.getRef());
+
+        assertEquals(1, queue.size());
+
+        deactivate(worker, requester);
+
+        queue.forEach(Runnable::run);
+
+        assertTokenNotActive(
+                requester.expectMsgClass(CalculatedSignature.class));
+    }
+
+    /**
+     * Tests that a signing task queued before the token was deactivated
+     * is rejected even if the token has been activated again when the task
+     * starts.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void queuedSignatureAfterReactivation() throws Exception {
+        List<Runnable> queue = new ArrayList<>();
+        TestActorRef<TestSoftwareTokenWorker> worker =
+                createWorker(queue::add);
+        JavaTestKit requester = new JavaTestKit(actorSystem);
+
+        worker.tell(new CalculateSignature(requester.getRef(),
+                PRODUCER_KEY_ID, digest(0)), requester.getRef());
+
+        deactivate(worker, requester);
+        TokenManager.setTokenActive(tokenInfo.getId(), true);
+
+        queue.forEach(Runnable::run);
+
+        assertTokenNotActive(
+                requester.expectMsgClass(CalculatedSignature.class));
+
+        // New requests are signed with the reloaded key
+        worker.tell(new CalculateSignature(requester.getRef(),
+                PRODUCER_KEY_ID, digest(1)), requester.getRef());
+
+        queue.get(1).run();
+
+        CalculatedSignature result =
+                requester.expectMsgClass(CalculatedSignature.class);
+
+        assertNull(result.getException());
+        assertTrue(verify(result));
+    }
+
+    private TestActorRef<TestSoftwareTokenWorker> createWorker(
+            Executor executor) {
+        TokenInfo info = tokenInfo;
+
+        return TestActorRef.create(actorSystem,
+                Props.create(TestSoftwareTokenWorker.class,
+                        () -> new TestSoftwareTokenWorker(info, executor)));
+    }
+
+    private void deactivate(TestActorRef<TestSoftwareTokenWorker> worker,
+            JavaTestKit requester) {
+        worker.tell(new ActivateToken(tokenInfo.getId(), false),
+                requester.getRef());
+
+        requester.expectMsgClass(SuccessResponse.class);
+    }
+
+    private static void assertTokenNotActive(CalculatedSignature result) {
+        assertNull(result.getSignature());
+        assertNotNull(result.getException());
+        assertEquals(ErrorCodes.X_CANNOT_SIGN + "."
+                + ErrorCodes.X_TOKEN_NOT_ACTIVE,
+                ((CodedException) result.getException()).getFaultCode());
+    }
+
+    private static byte[] digest(int i) {
+        byte[] digest = new byte[32];
+        digest[0] = (byte) i;
+
+        return digest;
+    }
+
+    private static boolean verify(CalculatedSignature result)
+            throws Exception {
+        CalculateSignature request = result.getRequest();
+
+        Signature signature = Signature.getInstance("NONEwithRSA");
+        signature.initVerify(KEYS.get(request.getKeyId()).getPublic());
+        signature.update(request.getData());
+
+        return signature.verify(result.getSignature());
+    }
+
+    /**
+     * Software token worker that uses the generated test keys and, if given,
+     * the test executor for signing.
+     */
+    public static class TestSoftwareTokenWorker extends SoftwareTokenWorker {
+
+        private final Executor executor;
+
+        TestSoftwareTokenWorker(TokenInfo tokenInfo, Executor executor) {
+            super(tokenInfo, null);
+
+            this.executor = executor;
+        }
+
+        @Override
+        Executor getSigningExecutor() {
+            return executor != null ? executor : super.getSigningExecutor();
+        }
+
+        @Override
+        PrivateKey loadPrivateKey(String keyId) {
+            return KEYS.get(keyId).getPrivate();
+        }
+
+        @Override
+        protected boolean isPinStored() {
+            return false;
+        }
+    }
+}